@@ -0,0 +1,85 @@
+package dev.jango.camera_renderer;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Runs the band jobs of one frame on an executor and waits for them, without allocating.
+ * <p>Without an executor the bands run one after the other on the calling thread. Otherwise the calling thread runs
+ * the last band itself, and a band the executor rejects. The first failure of any band, errors included, is thrown
+ * to the caller once every band is done.</p>
+ */
+abstract class BandRunner {
+    private final Executor mExecutor;
+    private int mPending;
+    private Throwable mFailure;
+    private Runnable[] mJobs = new Runnable[0];
+
+    BandRunner(Executor executor) {
+        mExecutor = executor;
+    }
+
+    abstract void runBand(int index);
+
+    void runAll(int bandCount) {
+        if (mJobs.length != bandCount) {
+            mJobs = new Runnable[bandCount];
+            for (int i = 0; i < bandCount; i++) {
+                final int index = i;
+                mJobs[i] = new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            runBand(index);
+                        } catch (Throwable t) {
+                            // Rethrown on the calling thread, an executor thread would only log it and carry on
+                            synchronized (BandRunner.this) {
+                                if (mFailure == null) mFailure = t;
+                            }
+                        } finally {
+                            synchronized (BandRunner.this) {
+                                if (--mPending == 0) BandRunner.this.notifyAll();
+                            }
+                        }
+                    }
+                };
+            }
+        }
+        if (mExecutor == null) {
+            for (int i = 0; i < bandCount; i++) {
+                runBand(i);
+            }
+            return;
+        }
+        synchronized (this) {
+            mPending = bandCount;
+            mFailure = null;
+        }
+        // The calling thread takes the last band instead of waiting idle
+        for (int i = 0; i < bandCount - 1; i++) {
+            try {
+                mExecutor.execute(mJobs[i]);
+            } catch (RejectedExecutionException e) {
+                mJobs[i].run();
+            }
+        }
+        mJobs[bandCount - 1].run();
+        boolean interrupted = false;
+        Throwable failure;
+        synchronized (this) {
+            while (mPending > 0) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) Thread.currentThread().interrupt();
+            failure = mFailure;
+            mFailure = null;
+        }
+        if (failure instanceof RuntimeException) throw (RuntimeException) failure;
+        if (failure instanceof Error) throw (Error) failure;
+        if (failure != null) throw new RuntimeException(failure);
+    }
+}
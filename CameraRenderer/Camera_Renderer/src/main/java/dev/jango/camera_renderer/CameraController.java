@@ -3,39 +3,274 @@ package dev.jango.camera_renderer;
 import android.graphics.ImageFormat;
 import android.graphics.SurfaceTexture;
 import android.hardware.Camera;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
 import android.util.Log;
 
 import java.io.IOException;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Vector;
 
+/**
+ * Owns the camera and the thread it runs on.
+ * <p>The camera is opened, configured and released on a dedicated handler thread, which is also where the preview
+ * callbacks are delivered. None of the public methods block on camera I/O, readiness is signalled through
+ * {@link Listener} and {@link #isReady()}.</p>
+ */
 public class CameraController {
     private static final String TAG = CameraController.class.getName();
+    private static final PreviewNegotiator NEGOTIATOR = new PreviewNegotiator();
 
-    private Camera mCamera;
+    /**
+     * Notified on the camera thread once the preview started, or failed to start.
+     */
+    public interface Listener {
+        void onCameraReady(CameraController controller);
+        void onCameraError(CameraController controller);
+    }
 
-    public CameraController() {}
+    /**
+     * Camera parameters last applied, per camera, handed from a released controller to the next one.
+     * <p>A camera reopened with cached parameters gets them applied as soon as it opens, before the preview is
+     * started, and the preview start skips querying and applying them again when they did not change.</p>
+     */
+    public static final class ParameterCache {
+        private final Map<Integer, Camera.Parameters> mParameters = new HashMap<Integer, Camera.Parameters>();
 
-    public void OpenCamera(SurfaceTexture texture) {
-        mCamera = this.openCamera();
-        if(mCamera == null) {
-            Log.e(TAG, "Camera NULL");
+        // Camera thread of the controller using them, only one opens a camera at a time
+        synchronized Camera.Parameters get(int cameraId) {
+            return mParameters.get(cameraId);
         }
 
-        try {
-            mCamera.setPreviewTexture(texture);
-        } catch (IOException e) {
-            e.printStackTrace();
+        synchronized void put(int cameraId, Camera.Parameters parameters) {
+            mParameters.put(cameraId, parameters);
+        }
+
+        public synchronized void clear() {
+            mParameters.clear();
         }
     }
 
-    public void startCameraPreview()
-    {
-        mCamera.startPreview();
+    private final HandlerThread mCameraThread;
+    private final Handler mCameraHandler;
+    private final ParameterCache mParameterCache;
+    private final TraceRecorder mTrace;
+
+    //Camera thread only
+    private Camera mCamera;
+    private int mCameraId = -1;
+    private Camera.Parameters mParameters;
+    private String mAppliedParameters;
+    private Camera.PreviewCallback mPreviewCallback;
+    private boolean mPreviewCallbackEnabled = true;
+    private int mPreviewFrameSize;
+    private volatile boolean mReady = false;
+
+    private volatile PreviewBufferRing mPreviewBufferRing;
+    private int mPreviewBufferCount = PreviewBufferRing.DEFAULT_BUFFER_COUNT;
+    private PreviewBufferRing.DropPolicy mPreviewDropPolicy = PreviewBufferRing.DropPolicy.DropOldest;
+    private volatile PlaneLayout.Format mRequestedPreviewFormat = PlaneLayout.Format.Nv21;
+
+    public CameraController() {
+        this(new ParameterCache(), new TraceRecorder());
+    }
+
+    /**
+     * @param parameterCache parameters of the cameras opened before, updated with the ones this controller applies
+     * @param trace          records opening the camera and starting the preview
+     */
+    public CameraController(ParameterCache parameterCache, TraceRecorder trace) {
+        if (parameterCache == null || trace == null) throw new IllegalArgumentException("Arguments can not be null");
+        mParameterCache = parameterCache;
+        mTrace = trace;
+        mCameraThread = new HandlerThread("CameraThread", Process.THREAD_PRIORITY_DISPLAY);
+        mCameraThread.start();
+        mCameraHandler = new Handler(mCameraThread.getLooper());
+    }
+
+    /**
+     * Configures the preview callback buffer pool.
+     * <p>Takes effect on the next call to {@link #startPreview}.</p>
+     */
+    public void setPreviewBufferPolicy(int bufferCount, PreviewBufferRing.DropPolicy dropPolicy) {
+        if (dropPolicy == null) throw new IllegalArgumentException("Arguments can not be null");
+        mPreviewBufferCount = bufferCount;
+        mPreviewDropPolicy = dropPolicy;
+    }
+
+    /**
+     * Sets the preview format to ask the camera for, {@link PlaneLayout.Format#Nv21} or
+     * {@link PlaneLayout.Format#Yv12}, the two every camera supports.
+     * <p>Takes effect on the next call to {@link #startPreview}. The format the camera delivers is
+     * {@link #previewFormat}.</p>
+     */
+    public void setPreviewFormat(PlaneLayout.Format format) {
+        if (format == null) throw new IllegalArgumentException("Arguments can not be null");
+        if (toImageFormat(format) == ImageFormat.UNKNOWN) throw new IllegalArgumentException("Camera can not deliver " + format);
+        mRequestedPreviewFormat = format;
+    }
+
+    /**
+     * Returns the buffer pool the preview callback frames come from, or null before the preview is set up and while
+     * preview callbacks are disabled.
+     */
+    public PreviewBufferRing getPreviewBufferRing() {
+        return mPreviewBufferRing;
+    }
+
+    /**
+     * Starts opening the camera on the camera thread and returns right away.
+     * <p>Meant to be called as early as possible, so the camera opens while the GL surface is being created.</p>
+     */
+    public void open() {
+        mCameraHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (mCamera != null) return;
+                openCameraTraced();
+                if (mCamera == null) Log.e(TAG, "Camera NULL");
+            }
+        });
+    }
+
+    /**
+     * Starts the preview into <code>texture</code> on the camera thread and returns right away.
+     * <p>Opens the camera first if {@link #open()} was not called. The preview size and frame rate range are
+     * negotiated by {@link PreviewNegotiator} for <code>request</code>. <code>listener</code>, which can be null, is
+     * notified once the preview is running.</p>
+     */
+    public void startPreview(final SurfaceTexture texture, final Camera.PreviewCallback previewCallback,
+                             final PreviewNegotiator.Request request, final Listener listener) {
+        if (texture == null || previewCallback == null || request == null) throw new IllegalArgumentException("Arguments can not be null");
+        mCameraHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (mReady) return;
+                if (mCamera == null) openCameraTraced();
+                if (mCamera == null) {
+                    Log.e(TAG, "Camera NULL");
+                    if (listener != null) listener.onCameraError(CameraController.this);
+                    return;
+                }
+                try {
+                    mCamera.setPreviewTexture(texture);
+                } catch (IOException e) {
+                    Log.e(TAG, "Can not set the preview texture", e);
+                    if (listener != null) listener.onCameraError(CameraController.this);
+                    return;
+                }
+                mPreviewCallback = previewCallback;
+                mTrace.begin(TraceRecorder.Event.PreviewStart);
+                boolean started = setPreviewCallback(previewCallback, request);
+                mTrace.end(TraceRecorder.Event.PreviewStart, previewWidth, previewHeight);
+                if (!started) {
+                    if (listener != null) listener.onCameraError(CameraController.this);
+                    return;
+                }
+                mReady = true;
+                if (listener != null) listener.onCameraReady(CameraController.this);
+            }
+        });
+    }
+
+    /**
+     * Negotiates the preview again for <code>request</code> on the camera thread and restarts the preview if the
+     * size changed. Returns right away, does nothing before the preview runs.
+     * <p>Preview callbacks of the new size follow the {@link #previewWidth} and {@link #previewHeight} change on the
+     * same thread.</p>
+     */
+    public void reconfigurePreview(final PreviewNegotiator.Request request) {
+        if (request == null) throw new IllegalArgumentException("Arguments can not be null");
+        mCameraHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (!mReady) return;
+                PreviewNegotiator.Result preview = negotiatePreview(getParameters(), request);
+                if (preview == null || (preview.getWidth() == previewWidth && preview.getHeight() == previewHeight)) return;
+
+                mCamera.stopPreview();
+                // Clears the callback buffer queue, the old buffers may not fit the new size
+                mCamera.setPreviewCallbackWithBuffer(null);
+                if (!setPreviewCallback(mPreviewCallback, request)) Log.e(TAG, "Preview could not be reconfigured");
+            }
+        });
+    }
+
+    /**
+     * Turns the preview callbacks on or off on the camera thread, without stopping the preview. Returns right away.
+     * <p>While off, the camera only renders into the preview texture: no frame is copied out and the callback buffers
+     * are dropped. Turning them back on allocates new buffers. Callbacks are on by default, the setting also applies
+     * to a preview started later.</p>
+     */
+    public void setPreviewCallbackEnabled(final boolean enabled) {
+        mCameraHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (enabled == mPreviewCallbackEnabled) return;
+                mPreviewCallbackEnabled = enabled;
+                if (!mReady) return;
+                if (enabled) {
+                    attachPreviewBuffers(mPreviewFrameSize);
+                    mCamera.setPreviewCallbackWithBuffer(mPreviewCallback);
+                } else {
+                    mCamera.setPreviewCallbackWithBuffer(null);
+                    detachPreviewBuffers();
+                }
+            }
+        });
+    }
+
+    /**
+     * Returns whether the preview is running, at which point {@link #previewWidth} and {@link #previewHeight} are
+     * set.
+     */
+    public boolean isReady() {
+        return mReady;
+    }
+
+    /**
+     * Stops the preview, releases the camera and ends the camera thread, without waiting for any of it.
+     * <p>The controller can not be used afterwards.</p>
+     */
+    public void release() {
+        release(null);
+    }
+
+    /**
+     * Like {@link #release()}, running <code>onReleased</code>, which can be null, on the camera thread once the
+     * camera is released.
+     */
+    public void release(final Runnable onReleased) {
+        mCameraHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mReady = false;
+                // Consumers recycle buffers from other threads, they must be done with the camera before its release
+                detachPreviewBuffers();
+                if (mCamera != null) {
+                    mCamera.setPreviewCallbackWithBuffer(null);
+                    mCamera.stopPreview();
+                    mCamera.release();
+                    mCamera = null;
+                }
+                if (onReleased != null) onReleased.run();
+                mCameraThread.quit();
+            }
+        });
+    }
+
+    //Opens the camera and applies the cached parameters, camera thread only
+    private void openCameraTraced() {
+        mTrace.begin(TraceRecorder.Event.CameraOpen);
+        mCamera = openCamera();
+        if (mCamera != null) applyCachedParameters();
+        mTrace.end(TraceRecorder.Event.CameraOpen, mCameraId, 0);
     }
 
     private Camera openCamera() {
-        int cameraId = -1;
         Vector<Camera.CameraInfo> cameraVector = getCameraVector();
 
         if (cameraVector.isEmpty()) {
@@ -47,6 +282,7 @@ public class CameraController {
         * */
         for (int i = 0; i < cameraVector.size(); i++) {
             if (Camera.CameraInfo.CAMERA_FACING_BACK == cameraVector.get(i).facing) {
+                mCameraId = i;
                 return Camera.open(i);
             }
         }
@@ -70,65 +306,121 @@ public class CameraController {
         return cameraVector;
     }
 
-    public int previewWidth = 0;
-    public int previewHeight = 0;
-    //Set preview size to optimal preview size
-    public void setPreviewCallback(Camera.PreviewCallback previewCallback) {
-        Camera.Parameters parameters = mCamera.getParameters();
-        Camera.Size optimalPreviewSize = getOptimalPreviewSize(parameters.getSupportedPreviewSizes(), Renderer.mWidth, Renderer.mHeight);
-        previewWidth = optimalPreviewSize.width;
-        previewHeight = optimalPreviewSize.height;
-        parameters.setPreviewSize(previewWidth, previewHeight);
+    public volatile int previewWidth = 0;
+    public volatile int previewHeight = 0;
+    public volatile PlaneLayout.Format previewFormat = PlaneLayout.Format.Nv21;
+    //Set preview size and frame rate to the negotiated ones, camera thread only
+    private boolean setPreviewCallback(Camera.PreviewCallback previewCallback, PreviewNegotiator.Request request) {
+        Camera.Parameters parameters = getParameters();
+        PreviewNegotiator.Result preview = negotiatePreview(parameters, request);
+        if (preview == null) return false;
+        Log.d(TAG, "Preview: " + preview);
+        previewWidth = preview.getWidth();
+        previewHeight = preview.getHeight();
         parameters.setPreviewSize(previewWidth, previewHeight);
-        switch (parameters.getPreviewFormat())
-        {
-            case ImageFormat.NV21:
-                Log.d(TAG, "Image Format is NV21");
-                break;
-            default:
-                Log.e(TAG, "Image Format is not NV21");
-                break;
+        if (preview.getFpsRangeIndex() >= 0) parameters.setPreviewFpsRange(preview.getMinFps(), preview.getMaxFps());
+        PlaneLayout.Format format = negotiateFormat(parameters);
+        parameters.setPreviewFormat(toImageFormat(format));
+        Log.d(TAG, "Image Format is " + format);
+        previewFormat = format;
+        //Padding included, YV12 rows are 16 byte aligned
+        mPreviewFrameSize = PlaneLayout.of(format, previewWidth, previewHeight).getFrameSize();
+        if (mPreviewCallbackEnabled) {
+            attachPreviewBuffers(mPreviewFrameSize);
+            mCamera.setPreviewCallbackWithBuffer(previewCallback);
+        } else {
+            detachPreviewBuffers();
+        }
+        String flattened = parameters.flatten();
+        // A reopened camera already got the same parameters when it opened
+        if (!flattened.equals(mAppliedParameters)) {
+            mCamera.setParameters(parameters);
+            mAppliedParameters = flattened;
         }
-        int frameSize = (int) ((previewWidth * previewHeight * (ImageFormat.getBitsPerPixel(parameters.getPreviewFormat()))) / 8.0);
-        mCamera.addCallbackBuffer(new byte[frameSize]);
-        mCamera.setPreviewCallbackWithBuffer(previewCallback);
-        mCamera.setParameters(parameters);
+        mParameterCache.put(mCameraId, parameters);
         mCamera.startPreview();
+        return true;
+    }
+
+    //The parameters applied last, queried once per camera, camera thread only
+    private Camera.Parameters getParameters() {
+        if (mParameters == null) mParameters = mCamera.getParameters();
+        return mParameters;
+    }
+
+    //Applies the parameters a previous controller left for this camera, camera thread only
+    private void applyCachedParameters() {
+        Camera.Parameters cached = mParameterCache.get(mCameraId);
+        if (cached == null) return;
+        try {
+            mCamera.setParameters(cached);
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Cached camera parameters rejected", e);
+            return;
+        }
+        mParameters = cached;
+        mAppliedParameters = cached.flatten();
+    }
+
+    //Replaces the callback buffers by new ones, camera thread only
+    private void attachPreviewBuffers(int frameSize) {
+        detachPreviewBuffers();
+        final Camera camera = mCamera;
+        PreviewBufferRing ring = new PreviewBufferRing(mPreviewBufferCount, frameSize, mPreviewDropPolicy);
+        ring.attach(new PreviewBufferRing.Recycler() {
+            @Override
+            public void recycle(byte[] buffer) {
+                camera.addCallbackBuffer(buffer);
+            }
+        });
+        mPreviewBufferRing = ring;
+    }
+
+    //Buffers still held by consumers are dropped once released, camera thread only
+    private void detachPreviewBuffers() {
+        if (mPreviewBufferRing != null) mPreviewBufferRing.detach();
+        mPreviewBufferRing = null;
+    }
+
+    //The requested format if supported, NV21 otherwise, which every camera supports
+    private PlaneLayout.Format negotiateFormat(Camera.Parameters parameters) {
+        PlaneLayout.Format requested = mRequestedPreviewFormat;
+        List<Integer> formats = parameters.getSupportedPreviewFormats();
+        if (formats != null && formats.contains(toImageFormat(requested))) return requested;
+        if (requested != PlaneLayout.Format.Nv21) Log.e(TAG, "Preview format " + requested + " not supported, using NV21");
+        return PlaneLayout.Format.Nv21;
     }
 
-    // Try to find the optimal preview size
-    private static Camera.Size getOptimalPreviewSize(List<Camera.Size> sizes, int targetWidth, int targetHeight)
+    private static int toImageFormat(PlaneLayout.Format format) {
+        switch (format) {
+            case Nv21:
+                return ImageFormat.NV21;
+            case Yv12:
+                return ImageFormat.YV12;
+            default:
+                return ImageFormat.UNKNOWN;
+        }
+    }
+
+    private PreviewNegotiator.Result negotiatePreview(Camera.Parameters parameters, PreviewNegotiator.Request request)
     {
-        final double ASPECT_TOLERANCE = 0.1;
-        double targetRatio = (double) targetWidth / targetHeight;
+        List<Camera.Size> sizes = parameters.getSupportedPreviewSizes();
         if (sizes == null) {
             Log.e(TAG, "No camera size found.");
             return null;
         }
 
-        Camera.Size optimalSize = null;
-        double minDiff = Double.MAX_VALUE;
-
-        // Try to find an size match aspect ratio and size
-        for (Camera.Size size : sizes) {
-            double ratio = (double) size.width / size.height;
-            if (Math.abs(ratio - targetRatio) > ASPECT_TOLERANCE) continue;
-            if (Math.abs(size.height - targetHeight) < minDiff) {
-                optimalSize = size;
-                minDiff = Math.abs(size.height - targetHeight);
-            }
+        int[] widths = new int[sizes.size()];
+        int[] heights = new int[sizes.size()];
+        for (int i = 0; i < sizes.size(); i++) {
+            widths[i] = sizes.get(i).width;
+            heights[i] = sizes.get(i).height;
         }
-
-        // Cannot find the one match the aspect ratio, ignore the requirement
-        if (optimalSize == null) {
-            minDiff = Double.MAX_VALUE;
-            for (Camera.Size size : sizes) {
-                if (Math.abs(size.height - targetHeight) < minDiff) {
-                    optimalSize = size;
-                    minDiff = Math.abs(size.height - targetHeight);
-                }
-            }
+        List<int[]> ranges = parameters.getSupportedPreviewFpsRange();
+        int[][] fpsRanges = new int[ranges == null ? 0 : ranges.size()][];
+        for (int i = 0; i < fpsRanges.length; i++) {
+            fpsRanges[i] = ranges.get(i);
         }
-        return optimalSize;
+        return NEGOTIATOR.negotiate(mCameraId, widths, heights, fpsRanges, request);
     }
 }
@@ -0,0 +1,65 @@
+package dev.jango.camera_renderer;
+
+/**
+ * {@link FrameSource} of the preview callback frames of a {@link CameraSession}.
+ * <p>Attaches to the session as a frame consumer while started, so the camera stays open at least as long. The
+ * preview itself is started through {@link CameraSession#startPreview}. Frames are delivered on the camera thread,
+ * straight from the camera buffer.</p>
+ */
+public class CameraFrameSource implements FrameSource, CameraSession.FrameConsumer {
+    private final CameraSession mSession;
+    private volatile Listener mListener;
+
+    public CameraFrameSource(CameraSession session) {
+        if (session == null) throw new IllegalArgumentException("Arguments can not be null");
+        mSession = session;
+    }
+
+    public CameraSession getSession() {
+        return mSession;
+    }
+
+    @Override
+    public void start(Listener listener) {
+        if (listener == null) throw new IllegalArgumentException("Arguments can not be null");
+        mListener = listener;
+        mSession.attach(this);
+    }
+
+    @Override
+    public void stop() {
+        mSession.detach(this);
+        mListener = null;
+    }
+
+    @Override
+    public boolean isReady() {
+        return mSession.isReady();
+    }
+
+    @Override
+    public int getWidth() {
+        CameraController controller = mSession.getController();
+        return controller == null ? 0 : controller.previewWidth;
+    }
+
+    @Override
+    public int getHeight() {
+        CameraController controller = mSession.getController();
+        return controller == null ? 0 : controller.previewHeight;
+    }
+
+    @Override
+    public PlaneLayout.Format getFormat() {
+        CameraController controller = mSession.getController();
+        return controller == null ? PlaneLayout.Format.Nv21 : controller.previewFormat;
+    }
+
+    @Override
+    public void onFrame(CameraSession.Frame frame) {
+        Listener listener = mListener;
+        if (listener != null && listener.onFrame(frame.getData(), frame.getWidth(), frame.getHeight(), frame.getTimestampNanos())) {
+            frame.markConsumed();
+        }
+    }
+}
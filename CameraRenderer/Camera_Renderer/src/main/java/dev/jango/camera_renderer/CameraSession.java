@@ -0,0 +1,354 @@
+package dev.jango.camera_renderer;
+
+import android.graphics.SurfaceTexture;
+import android.hardware.Camera;
+import android.opengl.GLES11Ext;
+import android.opengl.GLES20;
+
+import java.util.ArrayList;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * One camera shared by any number of consumers.
+ * <p>Texture consumers are told when the preview texture has a new frame, frame consumers get every preview callback
+ * frame. A frame is handed to all frame consumers as the same reference counted {@link Frame} wrapping the camera
+ * buffer, without copies; the buffer goes back to the camera once the session and every consumer that
+ * {@link Frame#retain()}ed it released it.</p>
+ * <p>The camera opens when the first consumer attaches and is released, together with the preview texture, when the
+ * last one detaches. The session can be attached to again afterwards and opens a new camera. Without frame consumers
+ * the preview callbacks are turned off, without texture consumers nobody listens to the texture: a kind of consumer
+ * that is not attached costs nothing.</p>
+ * <p>The parameters applied to a camera are kept when it is released and applied to the next camera opened, so a
+ * session attached to again gets its preview back without negotiating it with the camera again.</p>
+ */
+public class CameraSession {
+    /**
+     * Told about new frames in the preview texture, on an arbitrary thread. Only the thread holding the GL context
+     * the texture was created in may latch them.
+     */
+    public interface TextureConsumer {
+        void onFrameAvailable(CameraSession session);
+    }
+
+    /**
+     * Receives the preview callback frames, on the camera thread.
+     */
+    public interface FrameConsumer {
+        /**
+         * The frame is valid during the call only, unless {@link Frame#retain()}ed.
+         */
+        void onFrame(Frame frame);
+    }
+
+    /**
+     * Reference counted camera buffer.
+     * <p>Holding on to frames keeps their buffers from the camera, which then drops frames once the buffer ring is
+     * empty: consumers working on frames for longer than a frame interval should copy instead.</p>
+     */
+    public final class Frame {
+        private final AtomicInteger mReferences = new AtomicInteger();
+        private byte[] mData;
+        private int mWidth;
+        private int mHeight;
+        private long mTimestampNanos;
+        private volatile boolean mConsumed;
+        private PreviewBufferRing mRing;
+
+        /** NV21 data, at least <code>width * height * 3 / 2</code> bytes. Must not be written. */
+        public byte[] getData() {
+            return mData;
+        }
+
+        public int getWidth() {
+            return mWidth;
+        }
+
+        public int getHeight() {
+            return mHeight;
+        }
+
+        /** <code>System.nanoTime()</code> when the frame reached the session. */
+        public long getTimestampNanos() {
+            return mTimestampNanos;
+        }
+
+        /**
+         * Records that a consumer used the frame, as opposed to skipping it, for the buffer ring statistics.
+         */
+        public void markConsumed() {
+            mConsumed = true;
+        }
+
+        /**
+         * Keeps the buffer from the camera until the matching {@link #release()}.
+         */
+        public void retain() {
+            while (true) {
+                int references = mReferences.get();
+                // Once released the frame may already carry the next camera buffer
+                if (references <= 0) throw new IllegalStateException("Frame already released");
+                if (mReferences.compareAndSet(references, references + 1)) return;
+            }
+        }
+
+        public void release() {
+            // Read before letting go: at 0 the camera thread may reuse the frame for the next buffer at once. Only
+            // obtainFrame() writes the fields.
+            byte[] data = mData;
+            PreviewBufferRing ring = mRing;
+            boolean consumed = mConsumed;
+            int references = mReferences.decrementAndGet();
+            if (references == 0) {
+                if (consumed) {
+                    ring.releaseConsumed(data);
+                } else {
+                    ring.release(data);
+                }
+            } else if (references < 0) {
+                throw new IllegalStateException("Frame released too often");
+            }
+        }
+    }
+
+    private final Object mLock = new Object();
+    private final CopyOnWriteArrayList<TextureConsumer> mTextureConsumers = new CopyOnWriteArrayList<TextureConsumer>();
+    private final CopyOnWriteArrayList<FrameConsumer> mFrameConsumers = new CopyOnWriteArrayList<FrameConsumer>();
+    private final ArrayList<Frame> mFrames = new ArrayList<Frame>();
+
+    private final CameraController.ParameterCache mParameterCache = new CameraController.ParameterCache();
+    private volatile TraceRecorder mTrace = new TraceRecorder();
+    private CameraController mController;
+    private SurfaceTexture mSurfaceTexture;
+    private final int[] mTextureId = new int[1];
+    // Names of the textures of released cameras, left for the GL thread to delete
+    private final ArrayList<Integer> mReleasedTextureIds = new ArrayList<Integer>();
+
+    private final Camera.PreviewCallback mPreviewCallback = new Camera.PreviewCallback() {
+        @Override
+        public void onPreviewFrame(byte[] data, Camera camera) {
+            CameraController controller = getController();
+            if (controller == null) return;
+            PreviewBufferRing ring = controller.getPreviewBufferRing();
+            // Frame of callbacks being turned off
+            if (ring == null) return;
+            if (mFrameConsumers.isEmpty()) {
+                ring.release(data);
+                return;
+            }
+            mTrace.begin(TraceRecorder.Event.Callback, controller.previewWidth, controller.previewHeight);
+            Frame frame = obtainFrame();
+            frame.mData = data;
+            frame.mRing = ring;
+            frame.mWidth = controller.previewWidth;
+            frame.mHeight = controller.previewHeight;
+            frame.mTimestampNanos = System.nanoTime();
+            frame.mConsumed = false;
+            for (FrameConsumer consumer : mFrameConsumers) {
+                consumer.onFrame(frame);
+            }
+            // The session's reference
+            frame.release();
+            mTrace.end(TraceRecorder.Event.Callback);
+        }
+    };
+
+    private final SurfaceTexture.OnFrameAvailableListener mFrameAvailableListener = new SurfaceTexture.OnFrameAvailableListener() {
+        @Override
+        public void onFrameAvailable(SurfaceTexture surfaceTexture) {
+            for (TextureConsumer consumer : mTextureConsumers) {
+                consumer.onFrameAvailable(CameraSession.this);
+            }
+        }
+    };
+
+    public void attach(TextureConsumer consumer) {
+        if (consumer == null) throw new IllegalArgumentException("Arguments can not be null");
+        synchronized (mLock) {
+            if (mTextureConsumers.addIfAbsent(consumer)) {
+                onAttached();
+                updateTextureListener();
+            }
+        }
+    }
+
+    public void detach(TextureConsumer consumer) {
+        synchronized (mLock) {
+            if (mTextureConsumers.remove(consumer)) {
+                updateTextureListener();
+                onDetached();
+            }
+        }
+    }
+
+    public void attach(FrameConsumer consumer) {
+        if (consumer == null) throw new IllegalArgumentException("Arguments can not be null");
+        synchronized (mLock) {
+            if (mFrameConsumers.addIfAbsent(consumer)) {
+                onAttached();
+                if (mFrameConsumers.size() == 1) mController.setPreviewCallbackEnabled(true);
+            }
+        }
+    }
+
+    public void detach(FrameConsumer consumer) {
+        synchronized (mLock) {
+            if (mFrameConsumers.remove(consumer)) {
+                if (mFrameConsumers.isEmpty()) mController.setPreviewCallbackEnabled(false);
+                onDetached();
+            }
+        }
+    }
+
+    /**
+     * Records the preview callbacks, and opening and starting the cameras opened from now on, into
+     * <code>trace</code>.
+     */
+    public void setTraceRecorder(TraceRecorder trace) {
+        if (trace == null) throw new IllegalArgumentException("Arguments can not be null");
+        mTrace = trace;
+    }
+
+    /** Number of attached consumers of both kinds. */
+    public int getConsumerCount() {
+        return mTextureConsumers.size() + mFrameConsumers.size();
+    }
+
+    /**
+     * Returns the controller of the open camera, or null while no consumer is attached.
+     */
+    public CameraController getController() {
+        synchronized (mLock) {
+            return mController;
+        }
+    }
+
+    /**
+     * Returns the texture the preview goes to, creating it on first use after the camera opened.
+     * <p>Must be called from a thread holding a valid OpenGL context, which is the one texture consumers latch
+     * frames on. Returns null while no consumer is attached.</p>
+     */
+    public SurfaceTexture getSurfaceTexture(GLStateCache gl) {
+        synchronized (mLock) {
+            if (mController == null) return null;
+            if (mSurfaceTexture == null) {
+                gl.glGenTextures(1, mTextureId, 0);
+                gl.glBindTexture(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, mTextureId[0]);
+                gl.glTexParameteri(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
+                gl.glTexParameteri(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
+                gl.glTexParameteri(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_NEAREST);
+                gl.glTexParameteri(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_NEAREST);
+
+                mSurfaceTexture = new SurfaceTexture(mTextureId[0]);
+                updateTextureListener();
+            }
+            return mSurfaceTexture;
+        }
+    }
+
+    /**
+     * Returns the texture created by {@link #getSurfaceTexture(GLStateCache)}, or null.
+     */
+    public SurfaceTexture getSurfaceTexture() {
+        synchronized (mLock) {
+            return mSurfaceTexture;
+        }
+    }
+
+    /** Name of the external texture the preview goes to, 0 before it is created. */
+    public int getTextureId() {
+        synchronized (mLock) {
+            return mSurfaceTexture == null ? 0 : mTextureId[0];
+        }
+    }
+
+    /**
+     * Deletes the textures of the cameras released since the last call.
+     * <p>Must be called from a thread holding the GL context the textures were created in.</p>
+     */
+    public void deleteReleasedTextures(GLStateCache gl) {
+        int[] names;
+        synchronized (mLock) {
+            if (mReleasedTextureIds.isEmpty()) return;
+            names = new int[mReleasedTextureIds.size()];
+            for (int i = 0; i < names.length; i++) {
+                names[i] = mReleasedTextureIds.get(i);
+            }
+            mReleasedTextureIds.clear();
+        }
+        gl.glDeleteTextures(names.length, names, 0);
+    }
+
+    /**
+     * Forgets the textures of released cameras without deleting them, for when their context is gone.
+     */
+    public void forgetReleasedTextures() {
+        synchronized (mLock) {
+            mReleasedTextureIds.clear();
+        }
+    }
+
+    /**
+     * Starts the preview into the texture, see {@link CameraController#startPreview}. Does nothing before the
+     * texture is created.
+     */
+    public void startPreview(PreviewNegotiator.Request request, CameraController.Listener listener) {
+        synchronized (mLock) {
+            if (mController == null || mSurfaceTexture == null) return;
+            mController.startPreview(mSurfaceTexture, mPreviewCallback, request, listener);
+        }
+    }
+
+    /**
+     * Returns whether the preview runs.
+     */
+    public boolean isReady() {
+        CameraController controller = getController();
+        return controller != null && controller.isReady();
+    }
+
+    // mLock held
+    private void onAttached() {
+        if (mController != null) return;
+        mController = new CameraController(mParameterCache, mTrace);
+        mController.setPreviewCallbackEnabled(!mFrameConsumers.isEmpty());
+        // Opens on the camera thread while the consumers get ready
+        mController.open();
+    }
+
+    // mLock held
+    private void updateTextureListener() {
+        if (mSurfaceTexture != null) mSurfaceTexture.setOnFrameAvailableListener(mTextureConsumers.isEmpty() ? null : mFrameAvailableListener);
+    }
+
+    // mLock held
+    private void onDetached() {
+        if (getConsumerCount() > 0 || mController == null) return;
+        final SurfaceTexture surfaceTexture = mSurfaceTexture;
+        mController.release(new Runnable() {
+            @Override
+            public void run() {
+                // The camera is stopped, nothing renders into the texture any more
+                if (surfaceTexture != null) surfaceTexture.release();
+            }
+        });
+        mController = null;
+        // There may be no GL context current here, the name is deleted later or goes with the context
+        if (surfaceTexture != null) mReleasedTextureIds.add(mTextureId[0]);
+        mSurfaceTexture = null;
+    }
+
+    // Camera thread, of the current or a released controller
+    private Frame obtainFrame() {
+        synchronized (mFrames) {
+            for (Frame frame : mFrames) {
+                if (frame.mReferences.compareAndSet(0, 1)) return frame;
+            }
+            // Consumers hold all the frames, there is one per camera buffer at most
+            Frame frame = new Frame();
+            frame.mReferences.set(1);
+            mFrames.add(frame);
+            return frame;
+        }
+    }
+}
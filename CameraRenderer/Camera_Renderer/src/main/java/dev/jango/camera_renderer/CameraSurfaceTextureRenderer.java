@@ -5,21 +5,49 @@ import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
 
 import android.graphics.SurfaceTexture;
-import android.hardware.Camera;
 import android.opengl.GLES11Ext;
 import android.opengl.GLES20;
-import android.opengl.Matrix;
 import android.util.Log;
 
 /**
  * Renders the video stream of the camera opened by the EPSON SDK
  * <p>Must be created in a thread holding a valid OpenGL context.</p>
  * <p>Uses OpenGL extension <code>GL_OES_EGL_image_external</code> to access the camera's video stream.</p>
+ * <p>Always shows the newest frame: a draw latches once, however many frames arrived since the last one, and counts
+ * the frames it skipped as dropped. The age of every frame drawn is recorded from its camera timestamp.</p>
  */
-public class CameraSurfaceTextureRenderer extends CameraRenderer
+public class CameraSurfaceTextureRenderer implements SurfaceTexture.OnFrameAvailableListener
 {
     private static final String TAG = CameraSurfaceTextureRenderer.class.getName();
 
+    static final String VERTEX_SHADER =
+            "precision lowp float;"      +
+                    "attribute vec4 position;"   +
+                    "attribute vec2 uv;"         +
+                    "varying   vec2 vUV;"        +
+                    "void main(){"               +
+                    "	vUV = uv;"               +
+                    "	gl_Position = position;" +
+                    "}";
+
+    /**
+     * Uses require directive for <code>GL_OES_EGL_image_external</code> and <code>samplerExternalOES</code> as its
+     * sampler object.
+     */
+    static final String FRAGMENT_SHADER =
+            "#extension GL_OES_EGL_image_external : require\n" +
+                    "precision lowp float;"                            +
+                    "uniform samplerExternalOES texture;"              +
+                    "varying vec2 vUV;"                                +
+                    "void main(){"                                     +
+                    "	gl_FragColor = texture2D(texture, vUV);"       +
+                    "}";
+
+    private final GLStateCache   mGL;
+    private final SurfaceTexture mSurfaceTexture;
+    private final int            mTextureId;
+    private final FrameMetrics   mFrameMetrics;
+    private final TraceRecorder  mTrace;
     private final FloatBuffer    mPositionBuffer;
     private       FloatBuffer    mUVBuffer = null;
 
@@ -28,16 +56,31 @@ public class CameraSurfaceTextureRenderer extends CameraRenderer
     private int mShaderUV;
     private int mShaderSampler;
 
+    // Camera timestamps further from System.nanoTime() than this are taken for another clock
+    private static final long MAX_TIMESTAMP_AGE_NS = 1000000000L;
+
     private volatile int mSurfaceDirtyCounter = 0;
+    private long mArrivalNanos = 0;
+    private boolean mHasFrame = false;
+    private long mLatchedTimestampNanos = 0;
     private float[] mTransform = new float[16];
-    float[][] m_preTransform = { {0, 1, 0, 1}, {1, 1, 0, 1}, {0, 0, 0, 1}, {1, 0, 0, 1} };
-    float[][] mTransformR = new float[4][4];
     float[] uvs = new float[8];
 
-    public CameraSurfaceTextureRenderer(CameraController controller, Camera.PreviewCallback callback)
+    /**
+     * Draws the preview texture of the camera session of <code>source</code>, which the caller attached to as a
+     * texture consumer.
+     */
+    public CameraSurfaceTextureRenderer(CameraFrameSource source, GLStateCache gl, ShaderCache shaders, FrameMetrics metrics,
+                                        TraceRecorder trace)
     {
-        super(controller, callback);
-        loadShaders();
+        if(source == null || gl == null) throw new IllegalArgumentException("Arguments can not be null");
+        mGL = gl;
+        mSurfaceTexture = source.getSession().getSurfaceTexture();
+        if(mSurfaceTexture == null) throw new IllegalStateException("Camera texture not created");
+        mTextureId = source.getSession().getTextureId();
+        mFrameMetrics = metrics;
+        mTrace = trace;
+        loadShaders(shaders);
 
         final float d = 1;
         final float[] position = { 1, 1, d, -1, 1, d, 1, -1, d, -1, -1, d };
@@ -47,17 +90,31 @@ public class CameraSurfaceTextureRenderer extends CameraRenderer
     }
 
     /**
-     * Removes self as a frame listener and releases OpenGL shader handle.
-     * <p>Must be called from a thread holding a valid OpenGL context.</p>
+     * Stops drawing. The texture belongs to the {@link CameraSession}.
+     * <p>The shader program belongs to the {@link ShaderCache} and stays alive.</p>
      */
     public void release()
     {
-        mSurfaceTexture.setOnFrameAvailableListener(null);
-
-        GLES20.glDeleteProgram(mShaderHandle);
         mShaderHandle = 0;
     }
 
+    /**
+     * Returns whether a frame arrived in the texture that {@link #draw()} has not latched yet.
+     */
+    public boolean hasPendingFrame()
+    {
+        return mSurfaceDirtyCounter > 0;
+    }
+
+    /**
+     * Returns whether {@link #draw()} latched a frame since creation, before that it draws whatever the texture
+     * holds. GL thread only.
+     */
+    public boolean hasFrame()
+    {
+        return mHasFrame;
+    }
+
     /**
      * Draws a frame from the camera's stream.
      * <p>Must be called from a thread holding a valid OpenGL context.</p>
@@ -65,98 +122,87 @@ public class CameraSurfaceTextureRenderer extends CameraRenderer
      */
     public void draw()
     {
-        long startTime = System.currentTimeMillis();
+        long startTime = System.nanoTime();
         // Note:
         //     This function is called from GLSurfaceView.Renderer.onDrawFrame() callback
         //     Below variables can also be accessed from other threads, for example, SurfaceTexture.onFrameAvailable() callback
         //     We need to make them thread-safe to avoid freezing camera image rendering
+        int pending;
+        long arrivalNanos;
         synchronized (this) {
-            if (mSurfaceDirtyCounter > 0) {
-                mSurfaceTexture.updateTexImage();
-                mSurfaceTexture.getTransformMatrix(mTransform);
-
-                for (int i = 0; i < 4; i++)
-                    Matrix.multiplyMV(mTransformR[i], 0, mTransform, 0, m_preTransform[i], 0);
-
-                uvs[0] = mTransformR[1][0];
-                uvs[1] = mTransformR[1][1];
-                uvs[2] = mTransformR[0][0];
-                uvs[3] = mTransformR[0][1];
-                uvs[4] = mTransformR[3][0];
-                uvs[5] = mTransformR[3][1];
-                uvs[6] = mTransformR[2][0];
-                uvs[7] = mTransformR[2][1];
-
-                mUVBuffer.put(uvs).position(0);
-
-                mSurfaceDirtyCounter--;
-            }
+            pending = mSurfaceDirtyCounter;
+            arrivalNanos = mArrivalNanos;
+            mSurfaceDirtyCounter = 0;
         }
+        if (pending > 0) {
+            long uploadStartTime = System.nanoTime();
+            mTrace.begin(TraceRecorder.Event.Upload);
+            // Latches the newest frame, the older ones are gone
+            mSurfaceTexture.updateTexImage();
+            mTrace.end(TraceRecorder.Event.Upload);
+            // updateTexImage binds the external texture itself
+            mGL.invalidateTextureBindings(GLES11Ext.GL_TEXTURE_EXTERNAL_OES);
+            mFrameMetrics.recordSince(FrameMetrics.Stage.TextureUpload, uploadStartTime);
+            if (pending > 1) mFrameMetrics.add(FrameMetrics.Counter.DroppedFrames, pending - 1);
+            mSurfaceTexture.getTransformMatrix(mTransform);
+            UVTransform.apply(mTransform, uvs);
+
+            mUVBuffer.put(uvs).position(0);
+
+            long timestamp = mSurfaceTexture.getTimestamp();
+            long age = uploadStartTime - timestamp;
+            // Some cameras stamp frames with another clock, the frame arrived here shortly after then
+            mLatchedTimestampNanos = timestamp > 0 && age >= 0 && age < MAX_TIMESTAMP_AGE_NS ? timestamp : arrivalNanos;
+            mHasFrame = true;
+        }
+
+        mGL.glDisable(GLES20.GL_CULL_FACE);
+        mGL.glEnable(GLES20.GL_DEPTH_TEST);
+        mGL.glDepthFunc(GLES20.GL_ALWAYS);
 
-        GLES20.glDisable(GLES20.GL_CULL_FACE);
-        GLES20.glEnable(GLES20.GL_DEPTH_TEST);
-        GLES20.glDepthFunc(GLES20.GL_ALWAYS);
+        mGL.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, 0);
+        mGL.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
 
-        GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, 0);
-        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+        mGL.glUseProgram(mShaderHandle);
 
-        Log.d(TAG, "Camera GPU Renderer Draw");
-        GLES20.glUseProgram(mShaderHandle);
+        mGL.glActiveTexture(GLES20.GL_TEXTURE0);
 
-        GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
+        mGL.glBindTexture(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, mTextureId);
 
-        GLES20.glBindTexture(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, mTextureId[0]);
+        mGL.glUniform1i(mShaderSampler, 0);
 
-        GLES20.glUniform1i(mShaderSampler, 0);
+        mGL.glEnableVertexAttribArray(mShaderPosition);
+        mGL.glEnableVertexAttribArray(mShaderUV);
 
-        GLES20.glEnableVertexAttribArray(mShaderPosition);
-        GLES20.glEnableVertexAttribArray(mShaderUV);
+        mGL.glVertexAttribPointer(mShaderPosition, 3, GLES20.GL_FLOAT, false, 0, mPositionBuffer);
+        mGL.glVertexAttribPointer(mShaderUV, 2, GLES20.GL_FLOAT, false, 0, mUVBuffer);
 
-        GLES20.glVertexAttribPointer(mShaderPosition, 3, GLES20.GL_FLOAT, false, 0, mPositionBuffer);
-        GLES20.glVertexAttribPointer(mShaderUV, 2, GLES20.GL_FLOAT, false, 0, mUVBuffer);
+        mGL.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, 4);
+        // State is left as is, every draw sets what it needs through the GL state cache
+        mFrameMetrics.recordSince(FrameMetrics.Stage.Draw, startTime);
+        if (mHasFrame) mFrameMetrics.recordSince(FrameMetrics.Stage.FrameAge, mLatchedTimestampNanos);
+    }
 
-        GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, 4);
+    /**
+     * Gets the program used for drawing the stream from the shader cache.
+     */
+    private void loadShaders(ShaderCache shaders)
+    {
+        mShaderHandle   = shaders.getProgram(VERTEX_SHADER, FRAGMENT_SHADER);
+        if (mShaderHandle == 0) Log.e(TAG, shaders.getLastError());
 
-        GLES20.glDisableVertexAttribArray(mShaderPosition);
-        GLES20.glDisableVertexAttribArray(mShaderUV);
-        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
-        GLES20.glUseProgram(0);
-        GLES20.glDepthFunc(GLES20.GL_LESS);
-        long endTime = System.currentTimeMillis();
-        Log.d(TAG, "Camera Render Time: "+(endTime-startTime));
+        mShaderPosition = mGL.glGetAttribLocation(mShaderHandle, "position");
+        mShaderUV       = mGL.glGetAttribLocation(mShaderHandle, "uv");
+        mShaderSampler  = mGL.glGetUniformLocation(mShaderHandle, "texture");
     }
 
     /**
-     * Loads the shaders used for drawing the stream
-     * <p>Fragment shader uses require directive for <code>GL_OES_EGL_image_external</code>.</p>
-     * <p>Fragment shader uses <code>samplerExternalOES</code> as its sampler object.</p>
+     * Returns the <code>System.nanoTime()</code> base timestamp of the frame latched last, from the camera if its
+     * clock matches, else from its arrival. GL thread only.
      */
-    private void loadShaders()
+    public long getLatchedTimestampNanos()
     {
-        final String srcVertex =
-                "precision lowp float;"      +
-                        "attribute vec4 position;"   +
-                        "attribute vec2 uv;"         +
-                        "varying   vec2 vUV;"        +
-                        "void main(){"               +
-                        "	vUV = uv;"               +
-                        "	gl_Position = position;" +
-                        "}";
-
-        final String srcFragment =
-                "#extension GL_OES_EGL_image_external : require\n" +
-                        "precision lowp float;"                            +
-                        "uniform samplerExternalOES texture;"              +
-                        "varying vec2 vUV;"                                +
-                        "void main(){"                                     +
-                        "	gl_FragColor = texture2D(texture, vUV);"       +
-                        "}";
-
-        mShaderHandle   = Shader.load(srcVertex, srcFragment);
-
-        mShaderPosition = GLES20.glGetAttribLocation(mShaderHandle, "position");
-        mShaderUV       = GLES20.glGetAttribLocation(mShaderHandle, "uv");
-        mShaderSampler  = GLES20.glGetUniformLocation(mShaderHandle, "texture");
+        return mLatchedTimestampNanos;
     }
 
     /**
@@ -167,6 +213,7 @@ public class CameraSurfaceTextureRenderer extends CameraRenderer
     {
         synchronized (this) {
             mSurfaceDirtyCounter++;
+            mArrivalNanos = System.nanoTime();
         }
     }
 }
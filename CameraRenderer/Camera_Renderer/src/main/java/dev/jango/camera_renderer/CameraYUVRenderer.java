@@ -1,6 +1,5 @@
 package dev.jango.camera_renderer;
 
-import android.hardware.Camera;
 import android.opengl.GLES20;
 import android.util.Log;
 
@@ -9,15 +8,117 @@ import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
 import java.nio.ShortBuffer;
 
-public class CameraYUVRenderer extends CameraRenderer {
-    private ByteBuffer yBuffer;
-    private ByteBuffer uvBuffer;
-    private volatile byte[] cameraByteFrame;
-    private final Object frameBufferLock = new Object();
+public class CameraYUVRenderer {
+    private final GLStateCache mGL;
+    private volatile FrameTripleBuffer mFrameBuffer;
+    private final FrameMetrics mFrameMetrics;
+    private final TraceRecorder mTrace;
+    private volatile boolean mDecimation = false;
+    private long mLastUploadNanos = 0;
+    private long mLastDrawNanos = 0;
+    private FrameTripleBuffer mUploadedFrameBuffer;
+    private long mUploadedSequence = 0;
+    private long mUploadedHash = 0;
+    private volatile long mTextureBytes = 0;
+    private long mChromaTextureBytes = 0;
+    //Luma only draws leave the chroma textures behind, the next color draw uploads them even for the same frame
+    private long mChromaUploadedSequence = 0;
+    private volatile boolean mStaticSceneDetection = false;
+    private volatile Nv21Transform mTransform = null;
 
     private static final String TAG = CameraYUVRenderer.class.getName();
 
-    private final int mTextureId[] = new int[2];
+    static final String VERTEX_SHADER =
+            "#version 100\n" +
+                    "precision lowp float;" +
+                    "attribute vec4 position;" +
+                    "attribute vec2 texCoord;" +
+                    //Share of the texture width holding pixels, the rest is row padding
+                    "uniform mediump float yScale;" +
+                    "uniform mediump float chromaScale;" +
+                    "varying   mediump vec2 vtexCoord;" +
+                    "varying   mediump vec2 vchromaCoord;" +
+                    "void main(){" +
+                    "	vtexCoord = vec2(texCoord.x * yScale, texCoord.y);" +
+                    "	vchromaCoord = vec2(texCoord.x * chromaScale, texCoord.y);" +
+                    "	gl_Position = position;" +
+                    "}";
+
+    /** NV21: the interleaved chroma plane is uploaded as GL_LUMINANCE_ALPHA, V lands in R, G and B, U in A. */
+    static final String FRAGMENT_SHADER = fragmentShader(
+            "uniform sampler2D uv_texture;",
+            //Since U,V bytes are interspread in the texture, this is probably
+            //the fastest way to use them in the shader
+            "   u = texture2D(uv_texture, vchromaCoord).a - 0.5;" +
+            "   v = texture2D(uv_texture, vchromaCoord).r - 0.5;");
+
+    /** NV12: like NV21 with U and V swapped. */
+    static final String FRAGMENT_SHADER_NV12 = fragmentShader(
+            "uniform sampler2D uv_texture;",
+            "   u = texture2D(uv_texture, vchromaCoord).r - 0.5;" +
+            "   v = texture2D(uv_texture, vchromaCoord).a - 0.5;");
+
+    /** YV12 and I420: one GL_LUMINANCE texture per chroma plane. */
+    static final String FRAGMENT_SHADER_PLANAR = fragmentShader(
+            "uniform sampler2D u_texture;" +
+            "uniform sampler2D v_texture;",
+            "   u = texture2D(u_texture, vchromaCoord).r - 0.5;" +
+            "   v = texture2D(v_texture, vchromaCoord).r - 0.5;");
+
+    /** Any format: only the luma plane is sampled, drawn as grayscale. */
+    static final String FRAGMENT_SHADER_LUMA =
+            "#version 100\n" +
+                    "precision lowp float;" +
+                    "uniform sampler2D y_texture;" +
+                    "varying mediump vec2 vtexCoord;" +
+                    "void main(){" +
+                    "   float y = texture2D(y_texture, vtexCoord).r;" +
+                    "   gl_FragColor = vec4(y, y, y, 1.0);" +
+                    "}";
+
+    private static String fragmentShader(String chromaSamplers, String chromaSampling) {
+        return "#version 100\n" +
+                "precision lowp float;" +
+                "uniform sampler2D y_texture;" +
+                chromaSamplers +
+                "varying mediump vec2 vtexCoord;" +
+                "varying mediump vec2 vchromaCoord;" +
+                "void main(){" +
+                "   float r,g,b, y,u,v;" +
+                //We had put the Y values of each pixel to the R,G,B components by
+                //GL_LUMINANCE, that's why we're pulling it from the R component,
+                //we could also use G or B
+                "	y = texture2D(y_texture, vtexCoord).r;" +
+                chromaSampling +
+
+                //The numbers are just YUV to RGB conversion constants
+                //Formula reference link: https://en.wikipedia.org/wiki/YUV#Y.E2.80.B2UV420sp_.28NV21.29_to_RGB_conversion_.28Android.29
+                "   r = y + 1.370705*v;" +
+                "   g = y - 0.337633*u - 0.698001*v;" +
+                "   b = y + 1.732446*u;" +
+                "   gl_FragColor = vec4(r, g, b, 1.0);" +
+                "}";
+    }
+
+    /**
+     * Returns the fragment shader sampling the planes of <code>format</code>.
+     */
+    static String fragmentShader(PlaneLayout.Format format) {
+        switch (format) {
+            case Nv21:
+                return FRAGMENT_SHADER;
+            case Nv12:
+                return FRAGMENT_SHADER_NV12;
+            default:
+                return FRAGMENT_SHADER_PLANAR;
+        }
+    }
+
+    //Luma, then the interleaved chroma or the U and V planes
+    private final int mTextureId[] = new int[3];
+    private final ShaderCache mShaders;
+    private PlaneLayout.Format mProgramFormat;
+    private boolean mProgramLumaOnly;
 
     private FloatBuffer mVertices;
     private ShortBuffer mIndices;
@@ -36,63 +137,163 @@ public class CameraYUVRenderer extends CameraRenderer {
 
     private final short[] mIndicesData = {0, 1, 2, 0, 2, 3};
 
-    private int mCameraFrameWidth = 0;
-    private int mCameraFrameHeight = 0;
-
-    public CameraYUVRenderer(CameraController controller, Camera.PreviewCallback callback) {
-        super(controller,callback);
-        Log.d(CameraYUVRenderer.class.getName(), "Preview Size: "+controller.previewWidth+", "+controller.previewHeight);
-        setImageSize(controller.previewWidth, controller.previewHeight);
-
-        GLES20.glGenBuffers(1, vertexDataBufferID, 0);
-        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, vertexDataBufferID[0]);
+    /**
+     * Only created once the frame source delivers, see {@link FrameSource#isReady()}.
+     */
+    public CameraYUVRenderer(FrameSource source, GLStateCache gl, ShaderCache shaders, FrameMetrics metrics, TraceRecorder trace) {
+        if (source == null || gl == null) throw new IllegalArgumentException("Arguments can not be null");
+        mGL = gl;
+        mFrameMetrics = metrics;
+        mTrace = trace;
+        mShaders = shaders;
+        Log.d(CameraYUVRenderer.class.getName(), "Preview Size: "+source.getWidth()+", "+source.getHeight()+", format: "+source.getFormat());
+        setImageSize(source.getWidth(), source.getHeight(), source.getFormat());
+
+        mGL.glGenBuffers(1, vertexDataBufferID, 0);
+        mGL.glBindBuffer(GLES20.GL_ARRAY_BUFFER, vertexDataBufferID[0]);
         mVertices = ByteBuffer.allocateDirect(mVerticesData.length * Float.SIZE / Byte.SIZE).order(ByteOrder.nativeOrder()).asFloatBuffer();
         mVertices.put(mVerticesData).position(0);
 
-        GLES20.glBufferData(GLES20.GL_ARRAY_BUFFER, mVerticesData.length * Float.SIZE / Byte.SIZE, mVertices, GLES20.GL_STATIC_DRAW);
-        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+        mGL.glBufferData(GLES20.GL_ARRAY_BUFFER, mVerticesData.length * Float.SIZE / Byte.SIZE, mVertices, GLES20.GL_STATIC_DRAW);
+        mGL.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
 
         mIndices = ByteBuffer.allocateDirect(mIndicesData.length * Short.SIZE / Byte.SIZE).order(ByteOrder.nativeOrder()).asShortBuffer();
         mIndices.put(mIndicesData).position(0);
 
-        loadShaders();
-        GLES20.glGenTextures(mTextureId.length, mTextureId, 0);
-
-        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, mTextureId[1]);
-        setTexture2DProperty();
-        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
+        loadShaders(source.getFormat(), false);
+        mGL.glGenTextures(mTextureId.length, mTextureId, 0);
 
-        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, mTextureId[0]);
-        setTexture2DProperty();
-        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
+        for (int i = mTextureId.length - 1; i >= 0; i--) {
+            mGL.glBindTexture(GLES20.GL_TEXTURE_2D, mTextureId[i]);
+            setTexture2DProperty();
+            mGL.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
+        }
+        //Chroma rows of planar formats are half as long and need not be 4 byte aligned
+        mGL.glPixelStorei(GLES20.GL_UNPACK_ALIGNMENT, 1);
     }
 
     private void setTexture2DProperty() {
-        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
-        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
-        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_NEAREST);
-        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_NEAREST);
+        mGL.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
+        mGL.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
+        mGL.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_NEAREST);
+        mGL.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_NEAREST);
     }
 
-    private volatile boolean cameraFrameStarted = false;
+    /**
+     * Copies an NV21 frame into the frame buffer shared with the GL thread, see
+     * {@link #copyCameraFrameBuffer(byte[], int, int, PlaneLayout.Format)}.
+     */
+    public void copyCameraFrameBuffer(byte[] frame, int width, int height) {
+        copyCameraFrameBuffer(frame, width, height, PlaneLayout.Format.Nv21);
+    }
 
-    public void copyCameraFrameBuffer(byte[] frame) {
-        synchronized (frameBufferLock) {
-            if (cameraByteFrame == null) {
-                cameraByteFrame = new byte[frame.length];
+    /**
+     * Copies a frame, padding included, into the frame buffer shared with the GL thread. The GL thread uploads its
+     * planes straight from there. A frame the {@link #setTransform transform} applies to is transformed on the way.
+     * <p>Called from the frame source thread. Never waits for the GL thread, the camera buffer can be given back right
+     * away.</p>
+     * <p>Follows preview size and format changes: the first frame of a new size or format replaces the frame buffer,
+     * the GL thread draws nothing until that frame is published.</p>
+     */
+    public void copyCameraFrameBuffer(byte[] frame, int width, int height, PlaneLayout.Format format) {
+        copyCameraFrameBuffer(frame, width, height, format, 0);
+    }
+
+    /**
+     * Like {@link #copyCameraFrameBuffer(byte[], int, int, PlaneLayout.Format)}, with the
+     * <code>System.nanoTime()</code> the frame was received at, from which the age of the frame is measured when it is
+     * drawn. 0 if unknown.
+     */
+    public void copyCameraFrameBuffer(byte[] frame, int width, int height, PlaneLayout.Format format, long timestampNanos) {
+        Nv21Transform transform = mTransform;
+        if (transform != null && format == PlaneLayout.Format.Nv21
+                && transform.getWidth() == width && transform.getHeight() == height) {
+            byte[] transformed = transform.acquireOutput();
+            try {
+                transform.transform(frame, transformed);
+                copyFrame(transformed, transform.getOutputWidth(), transform.getOutputHeight(), format, timestampNanos);
+            } finally {
+                transform.releaseOutput(transformed);
             }
-            System.arraycopy(frame, 0, cameraByteFrame, 0, frame.length);
+        } else {
+            copyFrame(frame, width, height, format, timestampNanos);
+        }
+    }
+
+    private void copyFrame(byte[] frame, int width, int height, PlaneLayout.Format format, long timestampNanos) {
+        FrameTripleBuffer frameBuffer = mFrameBuffer;
+        PlaneLayout layout = frameBuffer.getLayout();
+        if (layout.getWidth() != width || layout.getHeight() != height || layout.getFormat() != format) {
+            setImageSize(width, height, format);
+            frameBuffer = mFrameBuffer;
+        }
+        //Only semi-planar frames can be decimated
+        if (mDecimation && frameBuffer.canDecimate()) {
+            frameBuffer.writeDecimated(frame, timestampNanos);
+        } else {
+            frameBuffer.write(frame, timestampNanos);
         }
-        cameraFrameStarted = true;
     }
 
     /**
-     * Removes self as a frame listener and releases OpenGL shader handle.
-     * <p>Must be called from a thread holding a valid OpenGL context.</p>
+     * Sets the crop, rotation, mirroring and downscale applied to NV21 frames of the transform input size before they
+     * are copied, null to copy frames as they are. Frames of another size or format are copied as they are.
+     */
+    public void setTransform(Nv21Transform transform) {
+        mTransform = transform;
+    }
+
+    /**
+     * Enables decimating frames 2x on the preview callback thread, for a quarter of the upload cost.
+     */
+    public void setDecimation(boolean enabled) {
+        mDecimation = enabled;
+    }
+
+    /** Duration of the texture uploads of the last draw, 0 if it uploaded nothing. GL thread only. */
+    public long getLastUploadNanos() {
+        return mLastUploadNanos;
+    }
+
+    /** Duration of the last draw, upload excluded. GL thread only. */
+    public long getLastDrawNanos() {
+        return mLastDrawNanos;
+    }
+
+    /**
+     * Enables skipping the upload of frames whose sampled content matches the frame already uploaded.
+     * <p>Meant for static scenes: a frame is compared on a sparse sample of its pixels only, so a change confined
+     * between the samples is missed until the next differing frame.</p>
+     */
+    public void setStaticSceneDetection(boolean enabled) {
+        mStaticSceneDetection = enabled;
+        mFrameBuffer.setSampledHashing(enabled);
+    }
+
+    /**
+     * Returns whether a frame was copied in since creation, so {@link #draw()} will draw. GL thread only.
+     */
+    public boolean hasFrame() {
+        return mFrameBuffer.acquireLatest() != null;
+    }
+
+    /**
+     * Bytes held for frames: the frame buffer shared with the frame source thread and the textures.
+     */
+    public long getResourceBytes() {
+        return 3L * mFrameBuffer.getLayout().getFrameSize() + mTextureBytes;
+    }
+
+    /**
+     * Deletes the textures and the vertex buffer. Must be called from a thread holding the OpenGL context the
+     * renderer was created in, the renderer can not draw afterwards.
+     * <p>The shader program belongs to the {@link ShaderCache} and stays alive.</p>
      */
     public void release() {
-        mSurfaceTexture.setOnFrameAvailableListener(null);
-        GLES20.glDeleteProgram(m_ProgramHandle);
+        mGL.glDeleteTextures(mTextureId.length, mTextureId, 0);
+        mGL.glDeleteBuffers(vertexDataBufferID.length, vertexDataBufferID, 0);
+        mTextureBytes = 0;
+        mChromaTextureBytes = 0;
         m_ProgramHandle = 0;
     }
 
@@ -100,65 +301,142 @@ public class CameraYUVRenderer extends CameraRenderer {
      * Draws a frame from the camera's onPreviewFrame.
      * <p>Must be called from a thread holding a valid OpenGL context.</p>
      * <p>Render the frame received from PreviewCallback.</p>
+     * @return false if no frame arrived yet and nothing was drawn
      */
-    public void draw() {
-        if (!cameraFrameStarted) return;
-        long startTime = System.currentTimeMillis();
-        if (mCameraFrameWidth == 0 && mCameraFrameHeight == 0) return;
-        GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, 0);
-        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
-        GLES20.glDisable(GLES20.GL_CULL_FACE);
-        GLES20.glEnable(GLES20.GL_DEPTH_TEST);
-        GLES20.glDepthFunc(GLES20.GL_ALWAYS);
-        GLES20.glDepthMask(false);
-
-        synchronized (frameBufferLock) {
-            if (cameraByteFrame != null) {
-                yBuffer.put(cameraByteFrame, 0, mCameraFrameWidth * mCameraFrameHeight);
-                yBuffer.position(0);
-                uvBuffer.put(cameraByteFrame, mCameraFrameWidth * mCameraFrameHeight, mCameraFrameWidth * mCameraFrameHeight / 2);
-                uvBuffer.position(0);
-            }
-        }
+    public boolean draw() {
+        return draw(false);
+    }
 
-        Log.d(TAG, "Camera CPU Renderer Draw");
-        GLES20.glUseProgram(m_ProgramHandle);
+    /**
+     * Like {@link #draw()}, in grayscale when <code>lumaOnly</code>: only the luma plane is uploaded, a third less
+     * than the whole frame, and the chroma textures are left as they are. Both can be mixed freely, the frames copied
+     * in are the same.
+     */
+    public boolean draw(boolean lumaOnly) {
+        FrameTripleBuffer frameBuffer = mFrameBuffer;
+        FrameTripleBuffer.Frame frame = frameBuffer.acquireLatest();
+        if (frame == null) return false;
+        if (frameBuffer != mUploadedFrameBuffer) {
+            //Preview size or format changed, sequence numbers start over
+            mUploadedFrameBuffer = frameBuffer;
+            mUploadedSequence = 0;
+            mChromaUploadedSequence = 0;
+        }
+        PlaneLayout layout = frame.getLayout();
+        if (layout.getFormat() != mProgramFormat || lumaOnly != mProgramLumaOnly) loadShaders(layout.getFormat(), lumaOnly);
+        long startTime = System.nanoTime();
+        mLastUploadNanos = 0;
+        mGL.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, 0);
+        mGL.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+        mGL.glDisable(GLES20.GL_CULL_FACE);
+        mGL.glEnable(GLES20.GL_DEPTH_TEST);
+        mGL.glDepthFunc(GLES20.GL_ALWAYS);
+        mGL.glDepthMask(false);
+
+        mGL.glUseProgram(m_ProgramHandle);
         mVertices.position(0);
-        GLES20.glVertexAttribPointer(mShaderPosition, 3, GLES20.GL_FLOAT, false, 5 * 4, mVertices);
+        mGL.glVertexAttribPointer(mShaderPosition, 3, GLES20.GL_FLOAT, false, 5 * 4, mVertices);
         mVertices.position(3);
-        GLES20.glVertexAttribPointer(mShaderTexCoordinate, 2, GLES20.GL_FLOAT, false, 5 * 4, mVertices);
-
-        GLES20.glEnableVertexAttribArray(mShaderPosition);
-        GLES20.glEnableVertexAttribArray(mShaderTexCoordinate);
-
-        //Handle UV Buffer
-        GLES20.glActiveTexture(GLES20.GL_TEXTURE1);
-        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, mTextureId[1]);
-        //UV texture is (width/2*height/2) in size (downsampled by 2 in
-        //both dimensions, each pixel corresponds to 4 pixels of the Y channel)
-        //and each pixel is two bytes. By setting GL_LUMINANCE_ALPHA, OpenGL
-        //puts first byte (V) into R,G and B components and of the texture
-        //and the second byte (U) into the A component of the texture. That's
-        //why we find U and V at A and R respectively in the fragment shader code.
-        //Note that we could have also found V at G or B as well.
-        GLES20.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, GLES20.GL_LUMINANCE_ALPHA,
-                mCameraFrameWidth / 2, mCameraFrameHeight / 2, 0, GLES20.GL_LUMINANCE_ALPHA, GLES20.GL_UNSIGNED_BYTE, uvBuffer);
-        GLES20.glUniform1i(mShaderSampler_uv, 1);
+        mGL.glVertexAttribPointer(mShaderTexCoordinate, 2, GLES20.GL_FLOAT, false, 5 * 4, mVertices);
+
+        mGL.glEnableVertexAttribArray(mShaderPosition);
+        mGL.glEnableVertexAttribArray(mShaderTexCoordinate);
+
+        //The textures still hold the last uploaded frame, only upload a frame that differs from it
+        boolean upload = true;
+        if (frame.getSequence() == mUploadedSequence) {
+            mFrameMetrics.increment(FrameMetrics.Counter.SkippedStaleUploads);
+            upload = false;
+        } else if (mUploadedSequence != 0 && frame.getSequence() > mUploadedSequence + 1) {
+            //Frames published in between were replaced before this draw
+            mFrameMetrics.add(FrameMetrics.Counter.DroppedFrames, frame.getSequence() - mUploadedSequence - 1);
+        }
+        if (upload && mStaticSceneDetection && mUploadedSequence != 0 && frame.getSampledHash() == mUploadedHash) {
+            mFrameMetrics.increment(FrameMetrics.Counter.SkippedStaticUploads);
+            //Chroma matches the frame as much as it matched the last one
+            if (mChromaUploadedSequence == mUploadedSequence) mChromaUploadedSequence = frame.getSequence();
+            mUploadedSequence = frame.getSequence();
+            upload = false;
+        }
+        //Chroma goes with the luma uploaded, which luma only draws upload alone
+        boolean uploadChroma = !lumaOnly && (upload || mChromaUploadedSequence != mUploadedSequence);
+        int lumaBytes = layout.getYStride() * layout.getHeight();
+
+        long uploadStartTime = System.nanoTime();
+        if (upload || uploadChroma) {
+            mTrace.begin(TraceRecorder.Event.Upload, (upload ? lumaBytes : 0) + (uploadChroma ? layout.getFrameSize() - lumaBytes : 0), 0);
+        }
+        //Textures are as wide as the rows including their padding, the texture coordinates leave the padding out
+        int chromaTextureWidth = layout.getChromaStride() / layout.getChromaPixelStride();
+        mGL.glUniform1f(mShaderYScale, (float) layout.getWidth() / layout.getYStride());
+        mGL.glUniform1f(mShaderChromaScale, (float) layout.getChromaWidth() / chromaTextureWidth);
+        //The grayscale program samples no chroma texture
+        if (!lumaOnly) {
+            if (layout.isSemiPlanar()) {
+                //Handle UV Buffer
+                mGL.glActiveTexture(GLES20.GL_TEXTURE1);
+                mGL.glBindTexture(GLES20.GL_TEXTURE_2D, mTextureId[1]);
+                //UV texture is (width/2*height/2) in size (downsampled by 2 in
+                //both dimensions, each pixel corresponds to 4 pixels of the Y channel)
+                //and each pixel is two bytes. By setting GL_LUMINANCE_ALPHA, OpenGL
+                //puts first byte (V for NV21) into R,G and B components and of the texture
+                //and the second byte (U for NV21) into the A component of the texture. That's
+                //why we find U and V at A and R respectively in the fragment shader code.
+                //Note that we could have also found V at G or B as well.
+                if (uploadChroma) {
+                    mGL.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, GLES20.GL_LUMINANCE_ALPHA,
+                            chromaTextureWidth, layout.getChromaHeight(), 0, GLES20.GL_LUMINANCE_ALPHA, GLES20.GL_UNSIGNED_BYTE, frame.getUVPlane());
+                }
+                mGL.glUniform1i(mShaderSampler_uv, 1);
+            } else {
+                //Handle U and V Buffers, one byte per 2x2 block each
+                mGL.glActiveTexture(GLES20.GL_TEXTURE1);
+                mGL.glBindTexture(GLES20.GL_TEXTURE_2D, mTextureId[1]);
+                if (uploadChroma) {
+                    mGL.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, GLES20.GL_LUMINANCE,
+                            chromaTextureWidth, layout.getChromaHeight(), 0, GLES20.GL_LUMINANCE, GLES20.GL_UNSIGNED_BYTE, frame.getUPlane());
+                }
+                mGL.glUniform1i(mShaderSampler_uv, 1);
+                mGL.glActiveTexture(GLES20.GL_TEXTURE2);
+                mGL.glBindTexture(GLES20.GL_TEXTURE_2D, mTextureId[2]);
+                if (uploadChroma) {
+                    mGL.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, GLES20.GL_LUMINANCE,
+                            chromaTextureWidth, layout.getChromaHeight(), 0, GLES20.GL_LUMINANCE, GLES20.GL_UNSIGNED_BYTE, frame.getVPlane());
+                }
+                mGL.glUniform1i(mShaderSampler_v, 2);
+            }
+        }
         //Handle Y Buffer
-        GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
-        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, mTextureId[0]);
-        GLES20.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, GLES20.GL_LUMINANCE,
-                mCameraFrameWidth, mCameraFrameHeight, 0, GLES20.GL_LUMINANCE, GLES20.GL_UNSIGNED_BYTE, yBuffer);
-        GLES20.glUniform1i(mShaderSampler_y, 0);
-
-        GLES20.glDrawElements(GLES20.GL_TRIANGLES, mIndicesData.length, GLES20.GL_UNSIGNED_SHORT, mIndices);
-        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
-        GLES20.glDisableVertexAttribArray(mShaderPosition);
-        GLES20.glDisableVertexAttribArray(mShaderTexCoordinate);
-        GLES20.glUseProgram(0);
-        GLES20.glDepthFunc(GLES20.GL_LESS);
-        long endTime = System.currentTimeMillis();
-        Log.d(TAG, "Camera Render Time: " + (endTime - startTime));
+        mGL.glActiveTexture(GLES20.GL_TEXTURE0);
+        mGL.glBindTexture(GLES20.GL_TEXTURE_2D, mTextureId[0]);
+        if (upload) {
+            mGL.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, GLES20.GL_LUMINANCE,
+                    layout.getYStride(), layout.getHeight(), 0, GLES20.GL_LUMINANCE, GLES20.GL_UNSIGNED_BYTE, frame.getYPlane());
+        }
+        mGL.glUniform1i(mShaderSampler_y, 0);
+        if (upload || uploadChroma) {
+            mTrace.end(TraceRecorder.Event.Upload);
+            mLastUploadNanos = System.nanoTime() - uploadStartTime;
+            mFrameMetrics.record(FrameMetrics.Stage.TextureUpload, mLastUploadNanos);
+            mFrameMetrics.increment(FrameMetrics.Counter.TextureUploads);
+        }
+        if (upload) {
+            mUploadedSequence = frame.getSequence();
+            mUploadedHash = frame.getSampledHash();
+        }
+        if (uploadChroma) {
+            mChromaUploadedSequence = frame.getSequence();
+            mChromaTextureBytes = layout.getFrameSize() - lumaBytes;
+        }
+        if (upload || uploadChroma) mTextureBytes = lumaBytes + mChromaTextureBytes;
+
+        mGL.glDrawElements(GLES20.GL_TRIANGLES, mIndicesData.length, GLES20.GL_UNSIGNED_SHORT, mIndices);
+        // State is left as is, every draw sets what it needs through the GL state cache
+        long drawNanos = System.nanoTime() - startTime;
+        mLastDrawNanos = drawNanos - mLastUploadNanos;
+        mFrameMetrics.record(FrameMetrics.Stage.Draw, drawNanos);
+        if (frame.getTimestampNanos() != 0) mFrameMetrics.recordSince(FrameMetrics.Stage.FrameAge, frame.getTimestampNanos());
+        return true;
     }
 
     private int m_ProgramHandle;
@@ -166,61 +444,37 @@ public class CameraYUVRenderer extends CameraRenderer {
     private int mShaderTexCoordinate;
     private int mShaderSampler_y;
     private int mShaderSampler_uv;
+    private int mShaderSampler_v;
+    private int mShaderYScale;
+    private int mShaderChromaScale;
+
+    //Programs of every format stay in the shader cache, switching formats only looks the locations up again
+    private void loadShaders(PlaneLayout.Format format, boolean lumaOnly) {
+        m_ProgramHandle = mShaders.getProgram(VERTEX_SHADER, lumaOnly ? FRAGMENT_SHADER_LUMA : fragmentShader(format));
+        if (m_ProgramHandle == 0) Log.e(TAG, mShaders.getLastError());
+        mProgramFormat = format;
+        mProgramLumaOnly = lumaOnly;
+        mShaderPosition = mGL.glGetAttribLocation(m_ProgramHandle, "position");
+        mShaderTexCoordinate = mGL.glGetAttribLocation(m_ProgramHandle, "texCoord");
+        mShaderYScale = mGL.glGetUniformLocation(m_ProgramHandle, "yScale");
+        mShaderChromaScale = mGL.glGetUniformLocation(m_ProgramHandle, "chromaScale");
+        mShaderSampler_y = mGL.glGetUniformLocation(m_ProgramHandle, "y_texture");
+        if (lumaOnly) {
+            mShaderSampler_uv = -1;
+            mShaderSampler_v = -1;
+        } else if (format == PlaneLayout.Format.Nv21 || format == PlaneLayout.Format.Nv12) {
+            mShaderSampler_uv = mGL.glGetUniformLocation(m_ProgramHandle, "uv_texture");
+            mShaderSampler_v = -1;
+        } else {
+            mShaderSampler_uv = mGL.glGetUniformLocation(m_ProgramHandle, "u_texture");
+            mShaderSampler_v = mGL.glGetUniformLocation(m_ProgramHandle, "v_texture");
+        }
+    }
 
-    private void loadShaders() {
-        final String srcVertex =
-                "#version 100\n" +
-                        "precision lowp float;" +
-                        "attribute vec4 position;" +
-                        "attribute vec2 texCoord;" +
-                        "varying   vec2 vtexCoord;" +
-                        "void main(){" +
-                        "	vtexCoord = texCoord;" +
-                        "	gl_Position = position;" +
-                        "}";
-
-        final String srcFragment =
-                "#version 100\n" +
-                        "precision lowp float;" +
-                        "uniform sampler2D y_texture;" +
-                        "uniform sampler2D uv_texture;" +
-                        "varying vec2 vtexCoord;" +
-                        "void main(){" +
-                        "   float r,g,b, y,u,v;" +
-                        //We had put the Y values of each pixel to the R,G,B components by
-                        //GL_LUMINANCE, that's why we're pulling it from the R component,
-                        //we could also use G or B
-                        "	y = texture2D(y_texture, vtexCoord).r;" +
-
-                        //We had put the U and V values of each pixel to the A and R,G,B
-                        //components of the texture respectively using GL_LUMINANCE_ALPHA.
-                        //Since U,V bytes are interspread in the texture, this is probably
-                        //the fastest way to use them in the shader
-                        "   u = texture2D(uv_texture, vtexCoord).a - 0.5;" +
-                        "   v = texture2D(uv_texture, vtexCoord).r - 0.5;" +
-
-                        //The numbers are just YUV to RGB conversion constants
-                        //Formula reference link: https://en.wikipedia.org/wiki/YUV#Y.E2.80.B2UV420sp_.28NV21.29_to_RGB_conversion_.28Android.29
-                        "   r = y + 1.370705*v;" +
-                        "   g = y - 0.337633*u - 0.698001*v;" +
-                        "   b = y + 1.732446*u;" +
-                        "   gl_FragColor = vec4(r, g, b, 1.0);" +
-                        "}";
-        m_ProgramHandle = Shader.load(srcVertex, srcFragment);
-        mShaderPosition = GLES20.glGetAttribLocation(m_ProgramHandle, "position");
-        mShaderTexCoordinate = GLES20.glGetAttribLocation(m_ProgramHandle, "texCoord");
-        mShaderSampler_y = GLES20.glGetUniformLocation(m_ProgramHandle, "y_texture");
-        mShaderSampler_uv = GLES20.glGetUniformLocation(m_ProgramHandle, "uv_texture");
-    }
-
-    private void setImageSize(int width, int height) {
-        mCameraFrameWidth = width;
-        mCameraFrameHeight = height;
-        //Allocate yBuffer
-        yBuffer = ByteBuffer.allocateDirect(mCameraFrameWidth * mCameraFrameHeight);
-        yBuffer.order(ByteOrder.nativeOrder());
-        //Allocate uvBuffer
-        uvBuffer = ByteBuffer.allocate(mCameraFrameWidth * mCameraFrameHeight / 2);
-        uvBuffer.order(ByteOrder.nativeOrder());
+    private void setImageSize(int width, int height, PlaneLayout.Format format) {
+        //Direct frames, the planes are uploaded straight from them
+        FrameTripleBuffer frameBuffer = new FrameTripleBuffer(PlaneLayout.of(format, width, height));
+        frameBuffer.setSampledHashing(mStaticSceneDetection);
+        mFrameBuffer = frameBuffer;
     }
 }
@@ -0,0 +1,379 @@
+package dev.jango.camera_renderer;
+
+import java.util.ArrayDeque;
+import java.util.Locale;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs CPU analysis of preview frames off the preview callback thread.
+ * <p>{@link #submit(byte[], int, int)} copies the frame into a buffer borrowed from a fixed pool and hands it to
+ * every registered {@link Stage}, then returns: the camera buffer can be given back right away. When the pool is
+ * exhausted the frame is dropped instead of waiting.</p>
+ * <p>Each stage runs its {@link Analyzer} on a bounded worker pool, one frame at a time, so analyzers need not be
+ * thread safe. Frames waiting for a busy stage are held according to its {@link Backpressure} policy. Frames are
+ * reference counted and return to the pool once the last stage is done with them.</p>
+ * <p>An analyzer throwing on a frame does not stop its stage: the failure is counted and the next frame is
+ * analyzed.</p>
+ */
+public final class FrameAnalysisPipeline {
+    public static final int DEFAULT_POOL_SIZE = 4;
+    public static final int DEFAULT_WORKER_COUNT = 2;
+
+    /**
+     * What a stage does with frames arriving while it is busy.
+     */
+    public enum Backpressure {
+        /** Keeps only the newest waiting frame. */
+        LatestOnly,
+        /** Keeps up to the stage's queue capacity of waiting frames, dropping the oldest. */
+        Queue
+    }
+
+    /**
+     * Consumer of frames, called on a worker thread.
+     */
+    public interface Analyzer {
+        /**
+         * Analyzes one frame. The frame is only valid during the call, unless {@link Frame#retain()}ed.
+         */
+        void analyze(Frame frame);
+    }
+
+    /**
+     * Pooled, reference counted NV21 frame.
+     */
+    public static final class Frame {
+        private final FrameAnalysisPipeline mPipeline;
+        private final byte[] mData;
+        private final AtomicInteger mReferences = new AtomicInteger();
+        private int mWidth;
+        private int mHeight;
+        private long mSequence;
+        private long mTimestampNanos;
+
+        private Frame(FrameAnalysisPipeline pipeline, int size) {
+            mPipeline = pipeline;
+            mData = new byte[size];
+        }
+
+        /** NV21 data, at least <code>width * height * 3 / 2</code> bytes. Must not be written. */
+        public byte[] getData() {
+            return mData;
+        }
+
+        public int getWidth() {
+            return mWidth;
+        }
+
+        public int getHeight() {
+            return mHeight;
+        }
+
+        /** Number of the submit that produced this frame, starting at 1. */
+        public long getSequence() {
+            return mSequence;
+        }
+
+        /** <code>System.nanoTime()</code> at submit. */
+        public long getTimestampNanos() {
+            return mTimestampNanos;
+        }
+
+        /**
+         * Keeps the frame out of the pool until the matching {@link #release()}.
+         */
+        public void retain() {
+            if (mReferences.getAndIncrement() <= 0) throw new IllegalStateException("Frame already released");
+        }
+
+        public void release() {
+            int references = mReferences.decrementAndGet();
+            if (references == 0) {
+                mPipeline.recycle(this);
+            } else if (references < 0) {
+                throw new IllegalStateException("Frame released too often");
+            }
+        }
+    }
+
+    /**
+     * A registered analyzer with its waiting frames and statistics.
+     */
+    public final class Stage implements Runnable {
+        private final Analyzer mAnalyzer;
+        private final Backpressure mBackpressure;
+        private final int mCapacity;
+        private final ArrayDeque<Frame> mWaiting;
+        private boolean mScheduled = false;
+        private volatile boolean mRemoved = false;
+
+        private final FrameTimeHistogram mLatency = new FrameTimeHistogram(Long.MAX_VALUE);
+        private final AtomicLong mProcessed = new AtomicLong();
+        private final AtomicLong mDropped = new AtomicLong();
+        private final AtomicLong mFailed = new AtomicLong();
+        private volatile RuntimeException mLastFailure = null;
+        private final long mStartNanos = System.nanoTime();
+
+        private Stage(Analyzer analyzer, Backpressure backpressure, int capacity) {
+            mAnalyzer = analyzer;
+            mBackpressure = backpressure;
+            mCapacity = backpressure == Backpressure.LatestOnly ? 1 : capacity;
+            mWaiting = new ArrayDeque<Frame>(mCapacity);
+        }
+
+        private void offer(Frame frame) {
+            frame.retain();
+            Frame dropped = null;
+            boolean schedule;
+            synchronized (this) {
+                if (mWaiting.size() >= mCapacity) dropped = mWaiting.pollFirst();
+                mWaiting.addLast(frame);
+                schedule = !mScheduled;
+                mScheduled = true;
+            }
+            if (dropped != null) {
+                mDropped.incrementAndGet();
+                dropped.release();
+            }
+            if (schedule) {
+                try {
+                    mExecutor.execute(this);
+                } catch (RejectedExecutionException e) {
+                    // Pipeline released
+                    clear();
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                Frame frame;
+                synchronized (this) {
+                    frame = mWaiting.pollFirst();
+                    if (frame == null || mRemoved) {
+                        mScheduled = false;
+                        if (frame != null) mWaiting.addFirst(frame);
+                        break;
+                    }
+                }
+                try {
+                    mAnalyzer.analyze(frame);
+                    mLatency.record(System.nanoTime() - frame.mTimestampNanos);
+                    mProcessed.incrementAndGet();
+                } catch (RuntimeException e) {
+                    // Left to the worker, the stage would stay scheduled and never run again
+                    mLastFailure = e;
+                    mFailed.incrementAndGet();
+                } finally {
+                    frame.release();
+                }
+            }
+            if (mRemoved) clear();
+        }
+
+        private void clear() {
+            while (true) {
+                Frame frame;
+                synchronized (this) {
+                    frame = mWaiting.pollFirst();
+                }
+                if (frame == null) return;
+                frame.release();
+            }
+        }
+
+        public Backpressure getBackpressure() {
+            return mBackpressure;
+        }
+
+        /** Number of frames analyzed. */
+        public long getProcessedCount() {
+            return mProcessed.get();
+        }
+
+        /** Number of frames dropped by the backpressure policy. */
+        public long getDroppedCount() {
+            return mDropped.get();
+        }
+
+        /** Number of frames the analyzer threw on, they are not counted as analyzed. */
+        public long getFailedCount() {
+            return mFailed.get();
+        }
+
+        /** The exception the analyzer threw last, or null. */
+        public RuntimeException getLastFailure() {
+            return mLastFailure;
+        }
+
+        /** Frames analyzed per second since the stage was added. */
+        public double getThroughput() {
+            long elapsed = System.nanoTime() - mStartNanos;
+            return elapsed <= 0 ? 0 : mProcessed.get() * 1e9 / elapsed;
+        }
+
+        /** Time from submit to the end of analysis. */
+        public FrameTimeHistogram.Snapshot getLatency() {
+            return mLatency.snapshot();
+        }
+
+        @Override
+        public String toString() {
+            String name = mAnalyzer.getClass().getSimpleName();
+            if (name.length() == 0) name = mAnalyzer.getClass().getName();
+            return name + ": " + String.format(Locale.US, "%.1f", getThroughput()) + " fps, "
+                    + getDroppedCount() + " dropped, " + getFailedCount() + " failed, latency " + getLatency();
+        }
+    }
+
+    private final CopyOnWriteArrayList<Stage> mStages = new CopyOnWriteArrayList<Stage>();
+    private final ExecutorService mExecutor;
+    private final int mPoolSize;
+    private final ArrayDeque<Frame> mFreeFrames = new ArrayDeque<Frame>();
+    private int mFrameSize = 0;
+    private int mAllocated = 0;
+    private long mSequence = 0;
+    private final AtomicLong mPoolDropped = new AtomicLong();
+
+    public FrameAnalysisPipeline() {
+        this(DEFAULT_POOL_SIZE, DEFAULT_WORKER_COUNT);
+    }
+
+    /**
+     * @param poolSize    number of frames that can be in analysis at once
+     * @param workerCount number of threads the stages run on
+     */
+    public FrameAnalysisPipeline(int poolSize, int workerCount) {
+        if (poolSize <= 0 || workerCount <= 0) throw new IllegalArgumentException("Pool and worker counts must be positive");
+        mPoolSize = poolSize;
+        mExecutor = Executors.newFixedThreadPool(workerCount, new ThreadFactory() {
+            private final AtomicInteger mCount = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "FrameAnalysis-" + mCount.incrementAndGet());
+                thread.setDaemon(true);
+                // Below the camera and render threads
+                thread.setPriority(Thread.NORM_PRIORITY - 1);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Registers an analyzer.
+     * @param queueCapacity waiting frames kept for {@link Backpressure#Queue}, ignored for
+     *                      {@link Backpressure#LatestOnly}
+     */
+    public Stage addStage(Analyzer analyzer, Backpressure backpressure, int queueCapacity) {
+        if (analyzer == null || backpressure == null) throw new IllegalArgumentException("Arguments can not be null");
+        if (backpressure == Backpressure.Queue && queueCapacity <= 0) throw new IllegalArgumentException("Queue capacity must be positive");
+        Stage stage = new Stage(analyzer, backpressure, queueCapacity);
+        mStages.add(stage);
+        return stage;
+    }
+
+    /**
+     * Unregisters a stage. A frame being analyzed finishes, waiting frames are dropped.
+     */
+    public void removeStage(Stage stage) {
+        if (!mStages.remove(stage)) return;
+        stage.mRemoved = true;
+        boolean idle;
+        synchronized (stage) {
+            idle = !stage.mScheduled;
+        }
+        if (idle) stage.clear();
+    }
+
+    /**
+     * Whether any stage is registered, so callers can skip preparing frames nobody analyzes.
+     */
+    public boolean hasStages() {
+        return !mStages.isEmpty();
+    }
+
+    /**
+     * Hands an NV21 frame to every stage. Never blocks, <code>data</code> is copied and can be reused on return.
+     * <p>Meant for a single submitting thread, the preview callback thread.</p>
+     */
+    public void submit(byte[] data, int width, int height) {
+        if (mStages.isEmpty()) return;
+        int size = width * height * 3 / 2;
+        if (data.length < size) throw new IllegalArgumentException("Frame is smaller than " + size + " bytes");
+
+        Frame frame = obtain(size);
+        if (frame == null) {
+            mPoolDropped.incrementAndGet();
+            return;
+        }
+        System.arraycopy(data, 0, frame.mData, 0, size);
+        frame.mWidth = width;
+        frame.mHeight = height;
+        frame.mSequence = ++mSequence;
+        frame.mTimestampNanos = System.nanoTime();
+
+        for (Stage stage : mStages) {
+            stage.offer(frame);
+        }
+        // Drop the submit reference, the stages hold their own
+        frame.release();
+    }
+
+    /** Number of frames dropped because every pooled frame was still in analysis. */
+    public long getPoolDroppedCount() {
+        return mPoolDropped.get();
+    }
+
+    /**
+     * Stops the workers. Frames waiting for a stage are dropped, analyses in progress finish.
+     */
+    public void release() {
+        for (Stage stage : mStages) {
+            removeStage(stage);
+        }
+        mExecutor.shutdown();
+    }
+
+    /**
+     * Summary of the statistics of every stage, one line each.
+     */
+    public String dump() {
+        StringBuilder builder = new StringBuilder("Frame analysis, pool dropped ").append(getPoolDroppedCount());
+        for (Stage stage : mStages) {
+            builder.append('\n').append(stage);
+        }
+        return builder.toString();
+    }
+
+    private Frame obtain(int size) {
+        synchronized (mFreeFrames) {
+            if (size != mFrameSize) {
+                // Frames of the old size are discarded as they come back
+                mFreeFrames.clear();
+                mFrameSize = size;
+                mAllocated = 0;
+            }
+            Frame frame = mFreeFrames.pollFirst();
+            if (frame == null && mAllocated < mPoolSize) {
+                frame = new Frame(this, size);
+                mAllocated++;
+            }
+            if (frame != null) frame.mReferences.set(1);
+            return frame;
+        }
+    }
+
+    private void recycle(Frame frame) {
+        synchronized (mFreeFrames) {
+            if (frame.mData.length == mFrameSize) mFreeFrames.addLast(frame);
+        }
+    }
+}
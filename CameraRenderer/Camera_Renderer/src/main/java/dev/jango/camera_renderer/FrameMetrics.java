@@ -0,0 +1,154 @@
+package dev.jango.camera_renderer;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Per stage timing of the frame pipeline.
+ * <p>Each {@link Stage} has its own {@link FrameTimeHistogram}, durations above the frame budget are counted as
+ * jank, and frame ages above {@link #FRAME_AGE_BUDGET_FRAMES} frame budgets. Recording is lock-free and does not
+ * allocate, so it can stay enabled on the render and preview callback threads; snapshots are taken from any
+ * thread.</p>
+ */
+public final class FrameMetrics {
+    public static final long DEFAULT_FRAME_BUDGET_NS = 1000000000L / 60;
+    /**
+     * Frame budgets a frame can age before it is counted as jank. A frame on time is captured during one frame
+     * interval and drawn in the next, so its age alone is already up to a frame budget; a third interval means it
+     * waited a frame for the draw.
+     */
+    public static final int FRAME_AGE_BUDGET_FRAMES = 2;
+
+    public enum Stage {
+        /** Preview callback copying the camera buffer. */
+        CallbackCopy,
+        /** Texture upload or <code>updateTexImage</code>. */
+        TextureUpload,
+        /** Whole renderer draw call, upload included. */
+        Draw,
+        /** Time between the start of two consecutive frames. */
+        FrameInterval,
+        /**
+         * Age of the frame drawn, from its camera timestamp, or its preview callback, to its draw. Jank above
+         * {@link #FRAME_AGE_BUDGET_FRAMES} frame budgets.
+         */
+        FrameAge
+    }
+
+    public enum Counter {
+        /** Frames uploaded to the YUV textures. */
+        TextureUploads,
+        /** Draws that reused the textures because no new frame arrived. */
+        SkippedStaleUploads,
+        /** Draws that reused the textures because the new frame matched the uploaded one. */
+        SkippedStaticUploads,
+        /** Camera frames never drawn because a newer one arrived before the next draw. */
+        DroppedFrames
+    }
+
+    private final AtomicLongArray mCounters = new AtomicLongArray(Counter.values().length);
+    private final FrameTimeHistogram[] mHistograms = new FrameTimeHistogram[Stage.values().length];
+    private volatile long mFrameBudgetNanos;
+
+    public FrameMetrics() {
+        this(DEFAULT_FRAME_BUDGET_NS);
+    }
+
+    public FrameMetrics(long frameBudgetNanos) {
+        mFrameBudgetNanos = frameBudgetNanos;
+        for (Stage stage : Stage.values()) {
+            mHistograms[stage.ordinal()] = new FrameTimeHistogram(getJankThreshold(stage, frameBudgetNanos));
+        }
+    }
+
+    /**
+     * Sets the duration above which a stage is counted as jank, {@link #FRAME_AGE_BUDGET_FRAMES} times that for
+     * {@link Stage#FrameAge}.
+     */
+    public void setFrameBudget(long frameBudgetNanos) {
+        mFrameBudgetNanos = frameBudgetNanos;
+        for (Stage stage : Stage.values()) {
+            mHistograms[stage.ordinal()].setJankThreshold(getJankThreshold(stage, frameBudgetNanos));
+        }
+    }
+
+    public long getFrameBudget() {
+        return mFrameBudgetNanos;
+    }
+
+    private static long getJankThreshold(Stage stage, long frameBudgetNanos) {
+        return stage == Stage.FrameAge ? FRAME_AGE_BUDGET_FRAMES * frameBudgetNanos : frameBudgetNanos;
+    }
+
+    /**
+     * Records the time elapsed since <code>startNanos</code>, a value of <code>System.nanoTime()</code>.
+     */
+    public void recordSince(Stage stage, long startNanos) {
+        mHistograms[stage.ordinal()].record(System.nanoTime() - startNanos);
+    }
+
+    public void record(Stage stage, long nanos) {
+        mHistograms[stage.ordinal()].record(nanos);
+    }
+
+    public void increment(Counter counter) {
+        mCounters.incrementAndGet(counter.ordinal());
+    }
+
+    public void add(Counter counter, long count) {
+        mCounters.addAndGet(counter.ordinal(), count);
+    }
+
+    public long getCount(Counter counter) {
+        return mCounters.get(counter.ordinal());
+    }
+
+    public FrameTimeHistogram getHistogram(Stage stage) {
+        return mHistograms[stage.ordinal()];
+    }
+
+    public Map<Stage, FrameTimeHistogram.Snapshot> snapshot() {
+        Map<Stage, FrameTimeHistogram.Snapshot> snapshots = new EnumMap<Stage, FrameTimeHistogram.Snapshot>(Stage.class);
+        for (Stage stage : Stage.values()) {
+            snapshots.put(stage, mHistograms[stage.ordinal()].snapshot());
+        }
+        return snapshots;
+    }
+
+    public Map<Stage, FrameTimeHistogram.Snapshot> snapshotAndReset() {
+        Map<Stage, FrameTimeHistogram.Snapshot> snapshots = new EnumMap<Stage, FrameTimeHistogram.Snapshot>(Stage.class);
+        for (Stage stage : Stage.values()) {
+            snapshots.put(stage, mHistograms[stage.ordinal()].snapshotAndReset());
+        }
+        resetCounters();
+        return snapshots;
+    }
+
+    public void reset() {
+        for (FrameTimeHistogram histogram : mHistograms) {
+            histogram.reset();
+        }
+        resetCounters();
+    }
+
+    private void resetCounters() {
+        for (int i = 0; i < mCounters.length(); i++) {
+            mCounters.set(i, 0);
+        }
+    }
+
+    /**
+     * Returns one line per stage, for logging.
+     */
+    public String dump() {
+        StringBuilder builder = new StringBuilder("Frame budget ").append(mFrameBudgetNanos / 1000).append("us");
+        for (Map.Entry<Stage, FrameTimeHistogram.Snapshot> entry : snapshot().entrySet()) {
+            builder.append('\n').append(entry.getKey()).append(": ").append(entry.getValue());
+        }
+        for (Counter counter : Counter.values()) {
+            builder.append('\n').append(counter).append(": ").append(getCount(counter));
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,309 @@
+package dev.jango.camera_renderer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Records raw NV21 preview frames into memory-mapped segment files, to be read back with {@link FrameRecording}.
+ * <p>{@link #record} only copies the frame into the mapped segment and updates its index, it never allocates, maps,
+ * flushes or waits for I/O. Segments are created, mapped and their pages touched ahead of time on a background
+ * thread, which also flushes and closes the full ones. When the next segment is not ready in time the frame is
+ * dropped and counted instead of waiting for it.</p>
+ * <p>Each segment is self describing: a header, a fixed capacity index of timestamp, offset and size per frame, then
+ * the frame data. The frame count in the header is written after the frame and its index entry, so a segment cut
+ * short by a crash still reads up to its last complete frame.</p>
+ */
+public final class FrameRecorder {
+    /** 128 MiB, about 40 frames of 1080p. Two segments are mapped at any time. */
+    public static final int DEFAULT_SEGMENT_BYTES = 128 * 1024 * 1024;
+    public static final int DEFAULT_INDEX_CAPACITY = 4096;
+
+    static final String SEGMENT_EXTENSION = ".nv21";
+    static final int MAGIC = 0x4E563231; // "NV21"
+    static final int VERSION = 1;
+    // int magic, int version, int index capacity, int frame count, long data offset, long data end
+    static final int HEADER_SIZE = 32;
+    static final int HEADER_FRAME_COUNT = 12;
+    static final int HEADER_DATA_END = 24;
+    // long timestamp, long offset, int width, int height
+    static final int ENTRY_SIZE = 24;
+
+    private static final int PAGE_SIZE = 4096;
+
+    private static final class Segment {
+        private final File mFile;
+        private final RandomAccessFile mRandomAccessFile;
+        private final MappedByteBuffer mBuffer;
+        private final int mIndexCapacity;
+        private int mFrameCount = 0;
+        private int mDataEnd;
+
+        private Segment(File file, int segmentBytes, int indexCapacity) throws IOException {
+            mFile = file;
+            mIndexCapacity = indexCapacity;
+            mRandomAccessFile = new RandomAccessFile(file, "rw");
+            try {
+                mRandomAccessFile.setLength(segmentBytes);
+                mBuffer = mRandomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes);
+            } catch (IOException e) {
+                mRandomAccessFile.close();
+                throw e;
+            }
+            mBuffer.order(ByteOrder.LITTLE_ENDIAN);
+            mDataEnd = HEADER_SIZE + indexCapacity * ENTRY_SIZE;
+            mBuffer.putInt(0, MAGIC);
+            mBuffer.putInt(4, VERSION);
+            mBuffer.putInt(8, indexCapacity);
+            mBuffer.putInt(HEADER_FRAME_COUNT, 0);
+            mBuffer.putLong(16, mDataEnd);
+            mBuffer.putLong(HEADER_DATA_END, mDataEnd);
+            // The file is sparse, fault its pages in here rather than on the first write of each frame
+            for (int i = mDataEnd; i < segmentBytes; i += PAGE_SIZE) {
+                mBuffer.put(i, (byte) 0);
+            }
+        }
+
+        private boolean fits(int size) {
+            return mFrameCount < mIndexCapacity && mBuffer.capacity() - mDataEnd >= size;
+        }
+
+        private void append(byte[] data, int size, int width, int height, long timestampNanos) {
+            mBuffer.position(mDataEnd);
+            mBuffer.put(data, 0, size);
+            int entry = HEADER_SIZE + mFrameCount * ENTRY_SIZE;
+            mBuffer.putLong(entry, timestampNanos);
+            mBuffer.putLong(entry + 8, mDataEnd);
+            mBuffer.putInt(entry + 16, width);
+            mBuffer.putInt(entry + 20, height);
+            mDataEnd += size;
+            mFrameCount++;
+            // Commit the frame
+            mBuffer.putLong(HEADER_DATA_END, mDataEnd);
+            mBuffer.putInt(HEADER_FRAME_COUNT, mFrameCount);
+        }
+
+        private void finish() throws IOException {
+            mBuffer.force();
+            // Closing the channel keeps the mapping, it goes away with the buffer
+            mRandomAccessFile.close();
+        }
+
+        private void discard() {
+            try {
+                mRandomAccessFile.close();
+            } catch (IOException ignored) {
+            }
+            //noinspection ResultOfMethodCallIgnored
+            mFile.delete();
+        }
+    }
+
+    private final File mDirectory;
+    private final String mName;
+    private final int mSegmentBytes;
+    private final int mIndexCapacity;
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "FrameRecorder");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private final Object mLock = new Object();
+    private boolean mRecording = false;
+    private Segment mCurrent = null;
+    private Segment mNext = null;
+    private boolean mPreparing = false;
+    private int mSegmentCount = 0;
+    private long mRecorded = 0;
+    private long mDropped = 0;
+    private volatile String mLastError = null;
+
+    private final Runnable mPrepareTask = new Runnable() {
+        @Override
+        public void run() {
+            int number;
+            synchronized (mLock) {
+                number = mSegmentCount++;
+            }
+            Segment segment = null;
+            try {
+                segment = new Segment(getSegmentFile(mDirectory, mName, number), mSegmentBytes, mIndexCapacity);
+            } catch (IOException e) {
+                mLastError = "Can not prepare segment " + number + ": " + e;
+            }
+            synchronized (mLock) {
+                mPreparing = false;
+                if (segment == null) return;
+                if (mRecording && mNext == null) {
+                    mNext = segment;
+                    segment = null;
+                }
+            }
+            // Recording stopped in the meantime
+            if (segment != null) segment.discard();
+        }
+    };
+
+    public FrameRecorder(File directory, String name) {
+        this(directory, name, DEFAULT_SEGMENT_BYTES, DEFAULT_INDEX_CAPACITY);
+    }
+
+    /**
+     * @param name          prefix of the segment files, which are numbered from 0 in recording order
+     * @param segmentBytes  size of each segment file, index included
+     * @param indexCapacity most frames per segment
+     */
+    public FrameRecorder(File directory, String name, int segmentBytes, int indexCapacity) {
+        if (directory == null || name == null) throw new IllegalArgumentException("Arguments can not be null");
+        if (indexCapacity <= 0 || segmentBytes <= HEADER_SIZE + (long) indexCapacity * ENTRY_SIZE) throw new IllegalArgumentException("Segment too small for its index");
+        mDirectory = directory;
+        mName = name;
+        mSegmentBytes = segmentBytes;
+        mIndexCapacity = indexCapacity;
+    }
+
+    /**
+     * File of segment <code>number</code> of recording <code>name</code>.
+     */
+    static File getSegmentFile(File directory, String name, int number) {
+        return new File(directory, name + "-" + String.format(Locale.US, "%04d", number) + SEGMENT_EXTENSION);
+    }
+
+    /**
+     * Starts preparing the first segment and returns right away. Frames recorded before it is ready are dropped.
+     */
+    public void start() {
+        synchronized (mLock) {
+            if (mRecording) return;
+            mRecording = true;
+            prepareNext();
+        }
+    }
+
+    /**
+     * Appends one NV21 frame and returns whether it was recorded. To be called from one thread, the preview
+     * callback thread, with <code>data</code> holding at least <code>width * height * 3 / 2</code> bytes.
+     */
+    public boolean record(byte[] data, int width, int height, long timestampNanos) {
+        int size = width * height * 3 / 2;
+        if (data.length < size) throw new IllegalArgumentException("Frame is smaller than " + size + " bytes");
+        synchronized (mLock) {
+            if (!mRecording) return false;
+            if (mCurrent == null || !mCurrent.fits(size)) {
+                if (mNext == null || !mNext.fits(size)) {
+                    // The next segment is late, or the frame is larger than a segment
+                    mDropped++;
+                    prepareNext();
+                    return false;
+                }
+                finishCurrent();
+                mCurrent = mNext;
+                mNext = null;
+                prepareNext();
+            }
+            mCurrent.append(data, size, width, height, timestampNanos);
+            mRecorded++;
+            return true;
+        }
+    }
+
+    /**
+     * Stops recording. The last segment is flushed and closed in the background, a prepared unused one is deleted.
+     */
+    public void stop() {
+        synchronized (mLock) {
+            if (!mRecording) return;
+            mRecording = false;
+            finishCurrent();
+            if (mNext != null) {
+                final Segment next = mNext;
+                mNext = null;
+                execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        next.discard();
+                    }
+                });
+            }
+        }
+    }
+
+    /**
+     * Stops recording and ends the background thread once the last segment is closed.
+     */
+    public void release() {
+        stop();
+        mExecutor.shutdown();
+    }
+
+    public boolean isRecording() {
+        synchronized (mLock) {
+            return mRecording;
+        }
+    }
+
+    /** Number of frames written. */
+    public long getRecordedCount() {
+        synchronized (mLock) {
+            return mRecorded;
+        }
+    }
+
+    /** Number of frames dropped because no segment was ready to take them. */
+    public long getDroppedCount() {
+        synchronized (mLock) {
+            return mDropped;
+        }
+    }
+
+    /** Reason the last segment could not be prepared or finished, or null. */
+    public String getLastError() {
+        return mLastError;
+    }
+
+    // mLock held
+    private void prepareNext() {
+        if (mPreparing || mNext != null) return;
+        mPreparing = true;
+        if (!execute(mPrepareTask)) mPreparing = false;
+    }
+
+    // mLock held
+    private void finishCurrent() {
+        if (mCurrent == null) return;
+        final Segment finished = mCurrent;
+        mCurrent = null;
+        execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    finished.finish();
+                } catch (IOException e) {
+                    mLastError = "Can not finish " + finished.mFile + ": " + e;
+                }
+            }
+        });
+    }
+
+    private boolean execute(Runnable task) {
+        try {
+            mExecutor.execute(task);
+            return true;
+        } catch (RejectedExecutionException e) {
+            mLastError = "Recorder released";
+            return false;
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package dev.jango.camera_renderer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Read access to the frames written by {@link FrameRecorder}.
+ * <p>The indexes of all segments of a recording are read up front into one frame list in recording order, frames
+ * are then copied out of the mapped segments on demand. {@link #findFrame(long)} seeks by timestamp.</p>
+ * <p>Thread safe once opened.</p>
+ */
+public final class FrameRecording {
+    private final ByteBuffer[] mSegments;
+    private final int[] mSegmentOf;
+    private final int[] mOffsets;
+    private final int[] mWidths;
+    private final int[] mHeights;
+    private final long[] mTimestamps;
+
+    private FrameRecording(List<ByteBuffer> segments, int frameCount) {
+        mSegments = segments.toArray(new ByteBuffer[segments.size()]);
+        mSegmentOf = new int[frameCount];
+        mOffsets = new int[frameCount];
+        mWidths = new int[frameCount];
+        mHeights = new int[frameCount];
+        mTimestamps = new long[frameCount];
+        int frame = 0;
+        for (int s = 0; s < mSegments.length; s++) {
+            ByteBuffer segment = mSegments[s];
+            int count = segment.getInt(FrameRecorder.HEADER_FRAME_COUNT);
+            for (int i = 0; i < count; i++, frame++) {
+                int entry = FrameRecorder.HEADER_SIZE + i * FrameRecorder.ENTRY_SIZE;
+                mSegmentOf[frame] = s;
+                mTimestamps[frame] = segment.getLong(entry);
+                mOffsets[frame] = (int) segment.getLong(entry + 8);
+                mWidths[frame] = segment.getInt(entry + 16);
+                mHeights[frame] = segment.getInt(entry + 20);
+            }
+        }
+    }
+
+    /**
+     * Maps every segment of recording <code>name</code> in <code>directory</code>, stopping at the first missing
+     * number.
+     * @throws IOException if there is no segment or one is not a recorder segment
+     */
+    public static FrameRecording open(File directory, String name) throws IOException {
+        if (directory == null || name == null) throw new IllegalArgumentException("Arguments can not be null");
+        List<ByteBuffer> segments = new ArrayList<ByteBuffer>();
+        int frameCount = 0;
+        for (int number = 0; ; number++) {
+            File file = FrameRecorder.getSegmentFile(directory, name, number);
+            if (!file.isFile()) break;
+            ByteBuffer segment = map(file);
+            frameCount += segment.getInt(FrameRecorder.HEADER_FRAME_COUNT);
+            segments.add(segment);
+        }
+        if (segments.isEmpty()) throw new IOException("No recording " + name + " in " + directory);
+        return new FrameRecording(segments, frameCount);
+    }
+
+    private static ByteBuffer map(File file) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            MappedByteBuffer buffer = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, randomAccessFile.length());
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            if (buffer.capacity() < FrameRecorder.HEADER_SIZE || buffer.getInt(0) != FrameRecorder.MAGIC
+                    || buffer.getInt(4) != FrameRecorder.VERSION) {
+                throw new IOException(file + " is not a frame recording segment");
+            }
+            int indexCapacity = buffer.getInt(8);
+            int frameCount = buffer.getInt(FrameRecorder.HEADER_FRAME_COUNT);
+            if (frameCount < 0 || frameCount > indexCapacity
+                    || FrameRecorder.HEADER_SIZE + (long) indexCapacity * FrameRecorder.ENTRY_SIZE > buffer.capacity()) {
+                throw new IOException(file + " has a corrupt index");
+            }
+            return buffer;
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    public int getFrameCount() {
+        return mTimestamps.length;
+    }
+
+    public long getTimestampNanos(int frame) {
+        return mTimestamps[frame];
+    }
+
+    public int getWidth(int frame) {
+        return mWidths[frame];
+    }
+
+    public int getHeight(int frame) {
+        return mHeights[frame];
+    }
+
+    /** Size of the NV21 data of <code>frame</code>. */
+    public int getFrameSize(int frame) {
+        return mWidths[frame] * mHeights[frame] * 3 / 2;
+    }
+
+    /**
+     * Index of the last frame recorded at or before <code>timestampNanos</code>, 0 if the timestamp precedes the
+     * recording.
+     */
+    public int findFrame(long timestampNanos) {
+        int index = Arrays.binarySearch(mTimestamps, timestampNanos);
+        if (index >= 0) return index;
+        return Math.max(0, -index - 2);
+    }
+
+    /**
+     * Copies the NV21 data of <code>frame</code> into <code>out</code>, which holds at least
+     * {@link #getFrameSize(int)} bytes.
+     */
+    public void readFrame(int frame, byte[] out) {
+        int size = getFrameSize(frame);
+        if (out.length < size) throw new IllegalArgumentException("Buffer is smaller than " + size + " bytes");
+        // Duplicate so concurrent readers do not share a position
+        ByteBuffer segment = mSegments[mSegmentOf[frame]].duplicate();
+        segment.position(mOffsets[frame]);
+        segment.get(out, 0, size);
+    }
+}
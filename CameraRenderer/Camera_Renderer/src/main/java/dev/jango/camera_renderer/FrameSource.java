@@ -0,0 +1,47 @@
+package dev.jango.camera_renderer;
+
+/**
+ * Producer of YUV 4:2:0 frames, the camera preview or a stand-in for it. Frames are NV21 unless
+ * {@link #getFormat()} says otherwise.
+ * <p>Renderers and frame consumers only depend on this interface, so the CPU frame path can be driven by
+ * {@link SyntheticFrameSource} or {@link ReplayFrameSource} where there is no camera, with repeatable content and
+ * timing.</p>
+ */
+public interface FrameSource {
+    /**
+     * Receives the frames, on a thread owned by the source.
+     */
+    interface Listener {
+        /**
+         * Called for every frame. <code>data</code> holds at least the {@link PlaneLayout#getFrameSize()} of the
+         * source's format and is only valid during the call.
+         * @return whether the frame was consumed, as opposed to skipped, for the source's statistics
+         */
+        boolean onFrame(byte[] data, int width, int height, long timestampNanos);
+    }
+
+    /**
+     * Starts delivering frames to <code>listener</code>. Returns right away.
+     */
+    void start(Listener listener);
+
+    /**
+     * Stops delivering frames. A frame being delivered finishes.
+     */
+    void stop();
+
+    /**
+     * Returns whether frames are being delivered, at which point {@link #getWidth()} and {@link #getHeight()} are
+     * set.
+     */
+    boolean isReady();
+
+    /** Width of the frames delivered next. */
+    int getWidth();
+
+    /** Height of the frames delivered next. */
+    int getHeight();
+
+    /** Format of the frames delivered next. */
+    PlaneLayout.Format getFormat();
+}
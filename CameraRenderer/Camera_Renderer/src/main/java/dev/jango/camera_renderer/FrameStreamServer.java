@@ -0,0 +1,452 @@
+package dev.jango.camera_renderer;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Streams frames to TCP clients from a single selector thread, read with the <code>FrameStreamClient</code> of the
+ * benchmark module.
+ * <p>{@link #publish} copies the frame into a pooled direct buffer, makes it the latest frame and wakes the selector,
+ * it never waits for a client. Each client is sent the latest frame whenever it finished the previous one: a slow
+ * client skips frames instead of queueing them, and never holds up the camera or the other clients.</p>
+ * <p>Every frame is a {@link #HEADER_SIZE} byte header in network byte order, a length of the rest of the frame
+ * followed by format, width, height, sequence number and timestamp, then the pixels. Header and pixels go out in one
+ * gathering write, the pixels straight from the shared direct buffer.</p>
+ * <p>Clients are not authenticated. The server only listens on the loopback interface unless created with
+ * {@link #onAllInterfaces(int)}, a device is watched through <code>adb forward tcp:PORT tcp:PORT</code>.</p>
+ */
+public final class FrameStreamServer {
+    public static final int DEFAULT_PORT = 5590;
+    public static final int DEFAULT_MAX_CLIENTS = 4;
+    // int length, int format, int width, int height, long sequence, long timestamp
+    public static final int HEADER_SIZE = 32;
+
+    // Numeric, resolved without a lookup
+    private static final String LOOPBACK = "127.0.0.1";
+
+    /**
+     * Pixels sent per frame.
+     */
+    public enum Format {
+        /** The whole NV21 frame. */
+        Nv21,
+        /** The Y plane only, averaged down by the downscale factor. */
+        Luma
+    }
+
+    // A pooled frame, shared by every client sending it
+    private static final class Slot {
+        private ByteBuffer mBuffer;
+        private ByteBuffer[] mViews;
+        private int mReferences = 0;
+        private int mWidth;
+        private int mHeight;
+        private long mSequence;
+        private long mTimestampNanos;
+    }
+
+    private final class Client {
+        private final SocketChannel mChannel;
+        private final int mIndex;
+        private final ByteBuffer mHeader = ByteBuffer.allocateDirect(HEADER_SIZE).order(ByteOrder.BIG_ENDIAN);
+        private final ByteBuffer[] mGather = new ByteBuffer[2];
+        private Slot mSending = null;
+        private long mLastSequence = 0;
+        private long mSkipped = 0;
+
+        private Client(SocketChannel channel, int index) {
+            mChannel = channel;
+            mIndex = index;
+        }
+
+        // Selector thread, when idle
+        private void startSending(Slot slot) {
+            if (mLastSequence > 0) mSkipped += slot.mSequence - mLastSequence - 1;
+            mLastSequence = slot.mSequence;
+            mSending = slot;
+            ByteBuffer pixels = slot.mViews[mIndex];
+            pixels.clear().limit(payloadSize(slot.mWidth, slot.mHeight));
+            mHeader.clear();
+            mHeader.putInt(HEADER_SIZE - 4 + pixels.remaining());
+            mHeader.putInt(mFormat.ordinal());
+            mHeader.putInt(mFormat == Format.Luma ? slot.mWidth / mDownscale : slot.mWidth);
+            mHeader.putInt(mFormat == Format.Luma ? slot.mHeight / mDownscale : slot.mHeight);
+            mHeader.putLong(slot.mSequence);
+            mHeader.putLong(slot.mTimestampNanos);
+            mHeader.flip();
+            mGather[0] = mHeader;
+            mGather[1] = pixels;
+        }
+
+        // Selector thread, returns whether the frame went out completely
+        private boolean write() throws IOException {
+            mChannel.write(mGather);
+            if (mGather[1].hasRemaining()) return false;
+            Slot sent = mSending;
+            mSending = null;
+            release(sent);
+            return true;
+        }
+    }
+
+    private final InetSocketAddress mAddress;
+    private final Format mFormat;
+    private final int mDownscale;
+    private final int mMaxClients;
+    private final Slot[] mSlots;
+    private final Client[] mClients;
+
+    private final Object mLock = new Object();
+    private Slot mLatest = null;
+    private long mSequence = 0;
+
+    private volatile Selector mSelector;
+    private ServerSocketChannel mServerChannel;
+    private Thread mThread;
+    private volatile boolean mRunning = false;
+    private volatile int mClientCount = 0;
+    private volatile String mLastError = null;
+
+    private final AtomicLong mPublished = new AtomicLong();
+    private final AtomicLong mPublishDropped = new AtomicLong();
+    private final AtomicLong mClientSkipped = new AtomicLong();
+
+    /**
+     * Streams NV21 frames on the loopback interface.
+     */
+    public FrameStreamServer(int port) {
+        this(new InetSocketAddress(LOOPBACK, port), Format.Nv21, 1, DEFAULT_MAX_CLIENTS);
+    }
+
+    /**
+     * Streams NV21 frames on every network interface, to anyone reaching the port.
+     */
+    public static FrameStreamServer onAllInterfaces(int port) {
+        return new FrameStreamServer(new InetSocketAddress(port), Format.Nv21, 1, DEFAULT_MAX_CLIENTS);
+    }
+
+    /**
+     * @param address    address to listen on, the wildcard address exposes the frames to the network
+     * @param downscale  factor the luma plane is averaged down by for {@link Format#Luma}, 1, 2 or 4
+     * @param maxClients clients served at once, further connections are closed right away
+     */
+    public FrameStreamServer(InetSocketAddress address, Format format, int downscale, int maxClients) {
+        if (address == null || format == null) throw new IllegalArgumentException("Arguments can not be null");
+        if (downscale != 1 && downscale != 2 && downscale != 4) throw new IllegalArgumentException("Downscale must be 1, 2 or 4");
+        if (maxClients <= 0) throw new IllegalArgumentException("Max clients must be positive");
+        mAddress = address;
+        mFormat = format;
+        mDownscale = format == Format.Luma ? downscale : 1;
+        mMaxClients = maxClients;
+        mClients = new Client[maxClients];
+        // One frame per client being sent, the latest one, and one being written
+        mSlots = new Slot[maxClients + 2];
+        for (int i = 0; i < mSlots.length; i++) {
+            mSlots[i] = new Slot();
+        }
+    }
+
+    /**
+     * Binds the server socket and starts the selector thread.
+     * @throws IOException if the address can not be bound
+     */
+    public synchronized void start() throws IOException {
+        if (mRunning) return;
+        mSelector = Selector.open();
+        try {
+            mServerChannel = ServerSocketChannel.open();
+            mServerChannel.configureBlocking(false);
+            mServerChannel.socket().setReuseAddress(true);
+            mServerChannel.socket().bind(mAddress);
+            mServerChannel.register(mSelector, SelectionKey.OP_ACCEPT);
+        } catch (IOException e) {
+            closeQuietly();
+            throw e;
+        }
+        mRunning = true;
+        mThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                serve();
+            }
+        }, "FrameStreamServer");
+        mThread.setDaemon(true);
+        mThread.start();
+    }
+
+    /**
+     * Closes every connection and the server socket, and ends the selector thread.
+     */
+    public void stop() {
+        Thread thread;
+        synchronized (this) {
+            if (!mRunning) return;
+            mRunning = false;
+            thread = mThread;
+            mThread = null;
+            mSelector.wakeup();
+        }
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /** Address the server listens on, the wildcard address for every interface. */
+    InetAddress getBindAddress() {
+        return mAddress.getAddress();
+    }
+
+    /** Port the server listens on, useful when bound to port 0. */
+    public int getPort() {
+        ServerSocketChannel channel = mServerChannel;
+        return channel == null ? -1 : channel.socket().getLocalPort();
+    }
+
+    /**
+     * Makes an NV21 frame the latest one and returns right away. Meant for one thread, the frame source thread.
+     * <p>The frame is dropped when every pooled buffer is still being sent, which only happens when clients are
+     * slower than the frame rate.</p>
+     */
+    public void publish(byte[] data, int width, int height, long timestampNanos) {
+        if (mClientCount == 0) return;
+        int size = width * height * 3 / 2;
+        if (data.length < size) throw new IllegalArgumentException("Frame is smaller than " + size + " bytes");
+
+        Slot slot = null;
+        synchronized (mLock) {
+            for (Slot candidate : mSlots) {
+                if (candidate.mReferences == 0) {
+                    slot = candidate;
+                    // Held by the publisher while written
+                    slot.mReferences = 1;
+                    break;
+                }
+            }
+        }
+        if (slot == null) {
+            mPublishDropped.incrementAndGet();
+            return;
+        }
+
+        int payload = payloadSize(width, height);
+        if (slot.mBuffer == null || slot.mBuffer.capacity() < payload) {
+            slot.mBuffer = ByteBuffer.allocateDirect(payload);
+            slot.mViews = new ByteBuffer[mMaxClients];
+            for (int i = 0; i < mMaxClients; i++) {
+                slot.mViews[i] = slot.mBuffer.duplicate();
+            }
+        }
+        ByteBuffer buffer = slot.mBuffer;
+        buffer.clear();
+        if (mFormat == Format.Nv21) {
+            buffer.put(data, 0, size);
+        } else {
+            downscaleLuma(data, width, height, mDownscale, buffer);
+        }
+        slot.mWidth = width;
+        slot.mHeight = height;
+        slot.mTimestampNanos = timestampNanos;
+
+        Slot previous;
+        synchronized (mLock) {
+            slot.mSequence = ++mSequence;
+            previous = mLatest;
+            // The publisher's reference becomes the latest frame's reference
+            mLatest = slot;
+            if (previous != null) previous.mReferences--;
+        }
+        mPublished.incrementAndGet();
+        Selector selector = mSelector;
+        if (selector != null) selector.wakeup();
+    }
+
+    /** Number of connected clients. */
+    public int getClientCount() {
+        return mClientCount;
+    }
+
+    /** Number of frames published while clients were connected. */
+    public long getPublishedCount() {
+        return mPublished.get();
+    }
+
+    /** Number of frames dropped because every pooled buffer was being sent. */
+    public long getPublishDroppedCount() {
+        return mPublishDropped.get();
+    }
+
+    /** Number of frames clients skipped because they were still sending an older one, over all clients. */
+    public long getClientSkippedCount() {
+        return mClientSkipped.get();
+    }
+
+    /** Reason of the last failure of the selector thread, or null. */
+    public String getLastError() {
+        return mLastError;
+    }
+
+    private int payloadSize(int width, int height) {
+        if (mFormat == Format.Nv21) return width * height * 3 / 2;
+        return (width / mDownscale) * (height / mDownscale);
+    }
+
+    /**
+     * Writes the Y plane of an NV21 frame averaged over <code>factor x factor</code> blocks into <code>out</code>.
+     */
+    static void downscaleLuma(byte[] data, int width, int height, int factor, ByteBuffer out) {
+        if (factor == 1) {
+            out.put(data, 0, width * height);
+            return;
+        }
+        int outWidth = width / factor;
+        int outHeight = height / factor;
+        int shift = factor == 2 ? 2 : 4;
+        for (int y = 0; y < outHeight; y++) {
+            int row = y * factor * width;
+            for (int x = 0; x < outWidth; x++) {
+                int sum = 0;
+                int i = row + x * factor;
+                for (int dy = 0; dy < factor; dy++, i += width) {
+                    for (int dx = 0; dx < factor; dx++) {
+                        sum += data[i + dx] & 0xff;
+                    }
+                }
+                out.put((byte) (sum >> shift));
+            }
+        }
+    }
+
+    private void serve() {
+        try {
+            while (mRunning) {
+                mSelector.select();
+                Iterator<SelectionKey> keys = mSelector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) continue;
+                    if (key.isAcceptable()) {
+                        accept();
+                    } else {
+                        Client client = (Client) key.attachment();
+                        try {
+                            if (key.isReadable() && !drain(client)) {
+                                disconnect(client);
+                                continue;
+                            }
+                            if (key.isWritable() && client.write()) key.interestOps(SelectionKey.OP_READ);
+                        } catch (IOException e) {
+                            disconnect(client);
+                        }
+                    }
+                }
+                sendLatest();
+            }
+        } catch (IOException e) {
+            mLastError = "Selector failed: " + e;
+        } catch (ClosedSelectorException e) {
+            mLastError = "Selector closed";
+        } finally {
+            for (Client client : mClients) {
+                if (client != null) disconnect(client);
+            }
+            closeQuietly();
+            mRunning = false;
+        }
+    }
+
+    // Gives the latest frame to every idle client that did not get it yet
+    private void sendLatest() {
+        for (Client client : mClients) {
+            if (client == null || client.mSending != null) continue;
+            Slot slot;
+            synchronized (mLock) {
+                slot = mLatest;
+                if (slot == null || slot.mSequence <= client.mLastSequence) continue;
+                slot.mReferences++;
+            }
+            long skipped = client.mSkipped;
+            client.startSending(slot);
+            mClientSkipped.addAndGet(client.mSkipped - skipped);
+            try {
+                if (!client.write()) client.mChannel.keyFor(mSelector).interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+            } catch (IOException e) {
+                disconnect(client);
+            }
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel = mServerChannel.accept();
+        if (channel == null) return;
+        int index = -1;
+        for (int i = 0; i < mClients.length; i++) {
+            if (mClients[i] == null) {
+                index = i;
+                break;
+            }
+        }
+        if (index < 0) {
+            channel.close();
+            return;
+        }
+        channel.configureBlocking(false);
+        channel.socket().setTcpNoDelay(true);
+        Client client = new Client(channel, index);
+        // Reads only notice the client going away
+        channel.register(mSelector, SelectionKey.OP_READ, client);
+        mClients[index] = client;
+        mClientCount++;
+    }
+
+    private final ByteBuffer mDrain = ByteBuffer.allocateDirect(256);
+
+    // Discards what the client sent, returns false once it closed the connection
+    private boolean drain(Client client) throws IOException {
+        mDrain.clear();
+        return client.mChannel.read(mDrain) >= 0;
+    }
+
+    private void disconnect(Client client) {
+        if (mClients[client.mIndex] != client) return;
+        mClients[client.mIndex] = null;
+        mClientCount--;
+        if (client.mSending != null) {
+            release(client.mSending);
+            client.mSending = null;
+        }
+        try {
+            client.mChannel.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    private void release(Slot slot) {
+        synchronized (mLock) {
+            slot.mReferences--;
+        }
+    }
+
+    private synchronized void closeQuietly() {
+        try {
+            if (mServerChannel != null) mServerChannel.close();
+        } catch (IOException ignored) {
+        }
+        try {
+            if (mSelector != null) mSelector.close();
+        } catch (IOException ignored) {
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package dev.jango.camera_renderer;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed memory histogram of durations in nanoseconds.
+ * <p>Values are counted in log-linear buckets: 32 buckets per power of two, so every recorded value is known within
+ * about 3% up to 2^40 ns. Larger values are counted in the last bucket.</p>
+ * <p>Recording is lock-free and does not allocate, it can be done from any thread.</p>
+ */
+public final class FrameTimeHistogram {
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_VALUE_BITS = 40;
+    private static final long MAX_VALUE = (1L << MAX_VALUE_BITS) - 1;
+    private static final int BUCKET_COUNT = (MAX_VALUE_BITS - SUB_BUCKET_BITS + 1) * SUB_BUCKET_COUNT;
+
+    private final AtomicLongArray mCounts = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong mTotalNanos = new AtomicLong();
+    private final AtomicLong mMaxNanos = new AtomicLong();
+    private final AtomicLong mJankCount = new AtomicLong();
+    private volatile long mJankThresholdNanos;
+
+    /**
+     * @param jankThresholdNanos values above this are also counted as jank
+     */
+    public FrameTimeHistogram(long jankThresholdNanos) {
+        mJankThresholdNanos = jankThresholdNanos;
+    }
+
+    public void setJankThreshold(long jankThresholdNanos) {
+        mJankThresholdNanos = jankThresholdNanos;
+    }
+
+    public long getJankThreshold() {
+        return mJankThresholdNanos;
+    }
+
+    public void record(long nanos) {
+        if (nanos < 0) return;
+        mCounts.incrementAndGet(bucketIndex(nanos));
+        mTotalNanos.addAndGet(nanos);
+        if (nanos > mJankThresholdNanos) mJankCount.incrementAndGet();
+
+        long max = mMaxNanos.get();
+        while (nanos > max && !mMaxNanos.compareAndSet(max, nanos)) {
+            max = mMaxNanos.get();
+        }
+    }
+
+    /**
+     * Returns the current content of the histogram.
+     */
+    public Snapshot snapshot() {
+        return snapshot(false);
+    }
+
+    /**
+     * Returns the current content of the histogram and clears it.
+     * <p>Values recorded concurrently end up either in the snapshot or in the cleared histogram.</p>
+     */
+    public Snapshot snapshotAndReset() {
+        return snapshot(true);
+    }
+
+    public void reset() {
+        snapshot(true);
+    }
+
+    private Snapshot snapshot(boolean reset) {
+        long[] counts = new long[BUCKET_COUNT];
+        long count = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts[i] = reset ? mCounts.getAndSet(i, 0) : mCounts.get(i);
+            count += counts[i];
+        }
+        long totalNanos = reset ? mTotalNanos.getAndSet(0) : mTotalNanos.get();
+        long maxNanos = reset ? mMaxNanos.getAndSet(0) : mMaxNanos.get();
+        long jankCount = reset ? mJankCount.getAndSet(0) : mJankCount.get();
+        return new Snapshot(counts, count, totalNanos, maxNanos, jankCount);
+    }
+
+    static int bucketIndex(long nanos) {
+        if (nanos > MAX_VALUE) nanos = MAX_VALUE;
+        if (nanos < 2 * SUB_BUCKET_COUNT) return (int) nanos;
+        int shift = 63 - Long.numberOfLeadingZeros(nanos) - SUB_BUCKET_BITS;
+        return shift * SUB_BUCKET_COUNT + (int) (nanos >>> shift);
+    }
+
+    static long bucketLowerBound(int index) {
+        if (index < 2 * SUB_BUCKET_COUNT) return index;
+        int shift = index / SUB_BUCKET_COUNT - 1;
+        long subBucket = index % SUB_BUCKET_COUNT + SUB_BUCKET_COUNT;
+        return subBucket << shift;
+    }
+
+    /**
+     * Immutable copy of a histogram, with the statistics derived from it.
+     */
+    public static final class Snapshot {
+        private final long[] mCounts;
+        private final long mCount;
+        private final long mTotalNanos;
+        private final long mMaxNanos;
+        private final long mJankCount;
+
+        private Snapshot(long[] counts, long count, long totalNanos, long maxNanos, long jankCount) {
+            mCounts = counts;
+            mCount = count;
+            mTotalNanos = totalNanos;
+            mMaxNanos = maxNanos;
+            mJankCount = jankCount;
+        }
+
+        public long getCount() {
+            return mCount;
+        }
+
+        public long getMaxNanos() {
+            return mMaxNanos;
+        }
+
+        public long getMeanNanos() {
+            return mCount == 0 ? 0 : mTotalNanos / mCount;
+        }
+
+        public long getJankCount() {
+            return mJankCount;
+        }
+
+        /**
+         * Returns the value below which the given fraction of the values fall, for example 0.99 for p99.
+         * <p>The value is the middle of the bucket it falls in.</p>
+         */
+        public long getPercentileNanos(double fraction) {
+            if (mCount == 0) return 0;
+            long rank = (long) Math.ceil(fraction * mCount);
+            if (rank < 1) rank = 1;
+            long seen = 0;
+            for (int i = 0; i < mCounts.length; i++) {
+                seen += mCounts[i];
+                if (seen >= rank) {
+                    long lower = bucketLowerBound(i);
+                    long upper = i + 1 < mCounts.length ? bucketLowerBound(i + 1) : lower;
+                    return Math.min((lower + upper) / 2, mMaxNanos);
+                }
+            }
+            return mMaxNanos;
+        }
+
+        public long getP50Nanos() {
+            return getPercentileNanos(0.50);
+        }
+
+        public long getP99Nanos() {
+            return getPercentileNanos(0.99);
+        }
+
+        public long getP999Nanos() {
+            return getPercentileNanos(0.999);
+        }
+
+        @Override
+        public String toString() {
+            return "count=" + mCount
+                    + " mean=" + toMillis(getMeanNanos())
+                    + " p50=" + toMillis(getP50Nanos())
+                    + " p99=" + toMillis(getP99Nanos())
+                    + " p999=" + toMillis(getP999Nanos())
+                    + " max=" + toMillis(mMaxNanos)
+                    + " jank=" + mJankCount;
+        }
+
+        private static String toMillis(long nanos) {
+            return String.format(Locale.US, "%.3fms", nanos / 1e6);
+        }
+    }
+}
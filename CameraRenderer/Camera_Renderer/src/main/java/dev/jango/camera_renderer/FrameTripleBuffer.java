@@ -0,0 +1,332 @@
+package dev.jango.camera_renderer;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Lock-free triple buffer handing YUV frames from the preview callback thread to the GL thread.
+ * <p>Frames are NV21 unless another {@link PlaneLayout} is given, and are copied as they are, padding included.</p>
+ * <p>The writer always owns the back slot, the reader always owns the front slot, and the third slot is exchanged
+ * between them with a single atomic swap. Neither side ever waits for the other: the writer overwrites a frame the
+ * reader has not picked up yet, and the reader keeps the last frame when no new one was published.</p>
+ * <p>Slots are direct buffers in native order, so the Y and UV plane views can be passed to
+ * <code>glTexImage2D</code> without another copy.</p>
+ * <p>Semi-planar frames can also be written decimated 2x in both directions, for a quarter of the upload cost. The
+ * frame then reports the halved size and plane views sized to match.</p>
+ * <p>Exactly one thread may write and exactly one thread may read.</p>
+ */
+public final class FrameTripleBuffer {
+    private static final int INDEX_MASK = 0x3;
+    private static final int DIRTY = 0x4;
+    private static final int HASH_SAMPLES = 1024;
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    /**
+     * One frame and its plane views.
+     */
+    public static final class Frame {
+        private final ByteBuffer mData;
+        private final ByteBuffer mYPlane;
+        private final ByteBuffer mUVPlane;
+        private final ByteBuffer mUPlane;
+        private final ByteBuffer mVPlane;
+        private final ByteBuffer mDecimatedYPlane;
+        private final ByteBuffer mDecimatedUVPlane;
+        private final PlaneLayout mLayout;
+        private final PlaneLayout mDecimatedLayout;
+        private boolean mDecimated = false;
+        private long mSequence = 0;
+        private long mSampledHash = 0;
+        private long mTimestampNanos = 0;
+
+        private Frame(PlaneLayout layout) {
+            mLayout = layout;
+            int width = layout.getWidth();
+            int height = layout.getHeight();
+            int chromaSize = layout.getChromaStride() * layout.getChromaHeight();
+            mData = ByteBuffer.allocateDirect(layout.getFrameSize()).order(ByteOrder.nativeOrder());
+            mYPlane = slice(mData, 0, layout.getYStride() * height);
+            if (layout.isSemiPlanar()) {
+                mUVPlane = slice(mData, layout.getChromaOffset(), chromaSize);
+                mUPlane = null;
+                mVPlane = null;
+                // Decimated frames are always semi-planar, so they can be decimated at any even half size
+                boolean decimatable = width % 4 == 0 && height % 4 == 0;
+                mDecimatedLayout = decimatable ? PlaneLayout.of(layout.getFormat(), width / 2, height / 2) : null;
+                int decimatedYSize = (width / 2) * (height / 2);
+                mDecimatedYPlane = decimatable ? slice(mData, 0, decimatedYSize) : null;
+                mDecimatedUVPlane = decimatable ? slice(mData, decimatedYSize, (width / 2) * (height / 4)) : null;
+            } else {
+                mUVPlane = null;
+                mUPlane = slice(mData, layout.getUOffset(), chromaSize);
+                mVPlane = slice(mData, layout.getVOffset(), chromaSize);
+                mDecimatedLayout = null;
+                mDecimatedYPlane = null;
+                mDecimatedUVPlane = null;
+            }
+        }
+
+        private static ByteBuffer slice(ByteBuffer buffer, int offset, int length) {
+            buffer.limit(offset + length).position(offset);
+            ByteBuffer slice = buffer.slice();
+            buffer.limit(buffer.capacity()).position(0);
+            return slice;
+        }
+
+        /** Width of the frame content, halved when decimated. */
+        public int getWidth() {
+            return getLayout().getWidth();
+        }
+
+        /** Height of the frame content, halved when decimated. */
+        public int getHeight() {
+            return getLayout().getHeight();
+        }
+
+        /** Layout of the frame content, of the halved size when decimated. */
+        public PlaneLayout getLayout() {
+            return mDecimated ? mDecimatedLayout : mLayout;
+        }
+
+        public boolean isDecimated() {
+            return mDecimated;
+        }
+
+        /** Luminance plane, one byte per pixel and rows of the layout's stride, positioned at 0. */
+        public ByteBuffer getYPlane() {
+            return mDecimated ? mDecimatedYPlane : mYPlane;
+        }
+
+        /**
+         * Interleaved chroma plane, VU or UV pairs as the format says, one pair per 2x2 block, positioned at 0.
+         * Null for planar formats.
+         */
+        public ByteBuffer getUVPlane() {
+            return mDecimated ? mDecimatedUVPlane : mUVPlane;
+        }
+
+        /** U plane of a planar format, positioned at 0, null for semi-planar formats. */
+        public ByteBuffer getUPlane() {
+            return mUPlane;
+        }
+
+        /** V plane of a planar format, positioned at 0, null for semi-planar formats. */
+        public ByteBuffer getVPlane() {
+            return mVPlane;
+        }
+
+        /** Whole frame, positioned at 0. */
+        public ByteBuffer getData() {
+            return mData;
+        }
+
+        /** Number of the publish that produced this frame, starting at 1. */
+        public long getSequence() {
+            return mSequence;
+        }
+
+        /** <code>System.nanoTime()</code> the frame was captured or received at, 0 if unknown. */
+        public long getTimestampNanos() {
+            return mTimestampNanos;
+        }
+
+        /** Hash of a sparse sample of the frame, 0 unless sampled hashing is enabled. */
+        public long getSampledHash() {
+            return mSampledHash;
+        }
+    }
+
+    private final Frame[] mFrames = new Frame[3];
+    private final PlaneLayout mLayout;
+    private final int mWidth;
+    private final int mHeight;
+    private final int mFrameSize;
+
+    private final AtomicInteger mShared = new AtomicInteger(1);
+    private int mBackIndex = 0;
+    private int mFrontIndex = 2;
+    private long mPublished = 0;
+    private volatile boolean mSampledHashing = false;
+    private byte[] mDecimationScratch = null;
+
+    /**
+     * Buffer of NV21 frames.
+     */
+    public FrameTripleBuffer(int width, int height) {
+        this(PlaneLayout.of(PlaneLayout.Format.Nv21, width, height));
+    }
+
+    public FrameTripleBuffer(PlaneLayout layout) {
+        if (layout == null) throw new IllegalArgumentException("Arguments can not be null");
+        mLayout = layout;
+        mWidth = layout.getWidth();
+        mHeight = layout.getHeight();
+        mFrameSize = layout.getFrameSize();
+        for (int i = 0; i < mFrames.length; i++) {
+            mFrames[i] = new Frame(layout);
+        }
+    }
+
+    public PlaneLayout getLayout() {
+        return mLayout;
+    }
+
+    /**
+     * Returns whether {@link #writeDecimated(byte[])} can be used: semi-planar frames of a size divisible by 4.
+     */
+    public boolean canDecimate() {
+        return mFrames[0].mDecimatedLayout != null;
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    /**
+     * Enables hashing a sparse sample of every written frame, see {@link Frame#getSampledHash()}.
+     */
+    public void setSampledHashing(boolean enabled) {
+        mSampledHashing = enabled;
+    }
+
+    /**
+     * Copies a frame of the buffer's layout into the back slot and publishes it.
+     * <p>Writer thread only.</p>
+     */
+    public void write(byte[] frame) {
+        write(frame, 0);
+    }
+
+    /**
+     * Like {@link #write(byte[])}, with the <code>System.nanoTime()</code> the frame was captured or received at.
+     */
+    public void write(byte[] frame, long timestampNanos) {
+        if (frame.length < mFrameSize) throw new IllegalArgumentException("Frame is smaller than " + mFrameSize + " bytes");
+        Frame back = beginWrite();
+        back.mData.put(frame, 0, mFrameSize);
+        back.mData.position(0);
+        back.mDecimated = false;
+        back.mSampledHash = mSampledHashing ? sampledHash(frame, mFrameSize) : 0;
+        publish(timestampNanos);
+    }
+
+    /**
+     * Decimates a frame 2x in both directions into the back slot and publishes it, see {@link #canDecimate()}.
+     * <p>Luma is averaged over 2x2 blocks, chroma is point sampled. Writer thread only.</p>
+     */
+    public void writeDecimated(byte[] frame) {
+        writeDecimated(frame, 0);
+    }
+
+    /**
+     * Like {@link #writeDecimated(byte[])}, with the <code>System.nanoTime()</code> the frame was captured or received
+     * at.
+     */
+    public void writeDecimated(byte[] frame, long timestampNanos) {
+        if (!canDecimate()) throw new IllegalStateException("Can not decimate " + mLayout);
+        if (frame.length < mFrameSize) throw new IllegalArgumentException("Frame is smaller than " + mFrameSize + " bytes");
+        int width = mWidth / 2;
+        int height = mHeight / 2;
+        int ySize = width * height;
+        int uvSize = width * (height / 2);
+        if (mDecimationScratch == null) mDecimationScratch = new byte[ySize + uvSize];
+        byte[] out = mDecimationScratch;
+        decimate2x(frame, mWidth, mHeight, out);
+
+        Frame back = beginWrite();
+        back.mData.put(out, 0, ySize + uvSize);
+        back.mData.position(0);
+        back.mDecimated = true;
+        back.mSampledHash = mSampledHashing ? sampledHash(out, ySize + uvSize) : 0;
+        publish(timestampNanos);
+    }
+
+    /**
+     * Writes the NV21 frame of size <code>width</code> x <code>height</code> decimated 2x to <code>out</code>, as an
+     * NV21 frame of half the width and height. Chroma pairs are copied as they are, so NV12 frames work the same.
+     */
+    static void decimate2x(byte[] frame, int width, int height, byte[] out) {
+        int outWidth = width / 2;
+        int outHeight = height / 2;
+        int o = 0;
+        for (int y = 0; y < outHeight; y++) {
+            int row0 = 2 * y * width;
+            int row1 = row0 + width;
+            for (int x = 0; x < outWidth; x++) {
+                int sum = (frame[row0 + 2 * x] & 0xff) + (frame[row0 + 2 * x + 1] & 0xff)
+                        + (frame[row1 + 2 * x] & 0xff) + (frame[row1 + 2 * x + 1] & 0xff);
+                out[o++] = (byte) ((sum + 2) >> 2);
+            }
+        }
+
+        //Every other VU pair of every other chroma row
+        int uvStart = width * height;
+        int pairs = outWidth / 2;
+        for (int y = 0; y < outHeight / 2; y++) {
+            int row = uvStart + 2 * y * width;
+            for (int x = 0; x < pairs; x++) {
+                out[o++] = frame[row + 4 * x];
+                out[o++] = frame[row + 4 * x + 1];
+            }
+        }
+    }
+
+    /**
+     * FNV-1a hash of {@link #HASH_SAMPLES} bytes spread evenly over the frame, luma and chroma alike.
+     */
+    static long sampledHash(byte[] frame, int length) {
+        long hash = FNV_OFFSET_BASIS;
+        //Odd stride, so the samples do not line up with the image columns
+        int stride = Math.max(1, length / HASH_SAMPLES) | 1;
+        for (int i = stride / 2; i < length; i += stride) {
+            hash ^= frame[i] & 0xff;
+            hash *= FNV_PRIME;
+        }
+        return hash;
+    }
+
+    /**
+     * Returns the back slot for the writer to fill in place, to be followed by {@link #publish()}.
+     * <p>Writer thread only.</p>
+     */
+    public Frame beginWrite() {
+        return mFrames[mBackIndex];
+    }
+
+    /**
+     * Makes the back slot the latest frame and takes the previously shared slot as the new back slot.
+     * <p>Writer thread only.</p>
+     */
+    public void publish() {
+        publish(0);
+    }
+
+    /**
+     * Like {@link #publish()}, with the <code>System.nanoTime()</code> the frame was captured or received at.
+     * <p>Writer thread only.</p>
+     */
+    public void publish(long timestampNanos) {
+        Frame back = mFrames[mBackIndex];
+        back.mSequence = ++mPublished;
+        back.mTimestampNanos = timestampNanos;
+        mBackIndex = mShared.getAndSet(mBackIndex | DIRTY) & INDEX_MASK;
+    }
+
+    /**
+     * Returns the latest published frame, or null if nothing was published yet.
+     * <p>The frame stays valid until the next call. Reader thread only.</p>
+     */
+    public Frame acquireLatest() {
+        if ((mShared.get() & DIRTY) != 0) {
+            mFrontIndex = mShared.getAndSet(mFrontIndex) & INDEX_MASK;
+        }
+        Frame front = mFrames[mFrontIndex];
+        return front.mSequence == 0 ? null : front;
+    }
+}
@@ -0,0 +1,57 @@
+package dev.jango.camera_renderer;
+
+import java.nio.Buffer;
+
+/**
+ * The OpenGL ES 2.0 calls made by the renderers.
+ * <p>Renderers and {@link ShaderCache} go through this interface instead of calling <code>GLES20</code> directly, so
+ * calls can be filtered by {@link GLStateCache} and recorded off device. Methods mirror their <code>GLES20</code>
+ * namesakes and take the same constants.</p>
+ */
+public interface GLBackend
+{
+    void glEnable(int cap);
+    void glDisable(int cap);
+    void glDepthFunc(int func);
+    void glDepthMask(boolean flag);
+
+    void glBindBuffer(int target, int buffer);
+    void glGenBuffers(int n, int[] buffers, int offset);
+    void glDeleteBuffers(int n, int[] buffers, int offset);
+    void glBufferData(int target, int size, Buffer data, int usage);
+
+    void glActiveTexture(int texture);
+    void glBindTexture(int target, int texture);
+    void glGenTextures(int n, int[] textures, int offset);
+    void glDeleteTextures(int n, int[] textures, int offset);
+    void glTexParameteri(int target, int pname, int param);
+    void glPixelStorei(int pname, int param);
+    void glTexImage2D(int target, int level, int internalformat, int width, int height, int border, int format, int type, Buffer pixels);
+
+    void glUseProgram(int program);
+    void glUniform1i(int location, int x);
+    void glUniform1f(int location, float x);
+    void glEnableVertexAttribArray(int index);
+    void glDisableVertexAttribArray(int index);
+    void glVertexAttribPointer(int index, int size, int type, boolean normalized, int stride, Buffer ptr);
+    void glDrawArrays(int mode, int first, int count);
+    void glDrawElements(int mode, int count, int type, Buffer indices);
+
+    int glCreateProgram();
+    void glDeleteProgram(int program);
+    int glCreateShader(int type);
+    void glDeleteShader(int shader);
+    void glShaderSource(int shader, String string);
+    void glCompileShader(int shader);
+    void glAttachShader(int program, int shader);
+    void glDetachShader(int program, int shader);
+    void glLinkProgram(int program);
+    int glGetAttribLocation(int program, String name);
+    int glGetUniformLocation(int program, String name);
+
+    void glGetShaderiv(int shader, int pname, int[] params, int offset);
+    String glGetShaderInfoLog(int shader);
+    void glGetProgramiv(int program, int pname, int[] params, int offset);
+    String glGetProgramInfoLog(int program);
+    String glGetString(int name);
+}
@@ -0,0 +1,419 @@
+package dev.jango.camera_renderer;
+
+import java.nio.Buffer;
+import java.util.Arrays;
+
+/**
+ * {@link GLBackend} keeping a shadow copy of the GL state it sets, and dropping calls that would not change it.
+ * <p>Tracks enabled capabilities, depth function and mask, buffer bindings, the current program, the active texture
+ * unit, 2D and external texture bindings of the first {@link #MAX_TEXTURE_UNITS} units and the enabled vertex
+ * attribute arrays. Every other call is forwarded as is.</p>
+ * <p>The shadow state starts unknown, so the first call of each kind always reaches the delegate. Call
+ * {@link #invalidate()} whenever the GL state may have been changed behind the cache's back, for example after
+ * the EGL context was recreated, and {@link #invalidateTextureBindings(int)} after
+ * <code>SurfaceTexture.updateTexImage</code>, which binds its texture itself.</p>
+ * <p>Must only be used from the thread holding the GL context.</p>
+ */
+public final class GLStateCache implements GLBackend
+{
+    public static final int MAX_TEXTURE_UNITS = 8;
+    private static final int MAX_VERTEX_ATTRIBS = 16;
+    private static final int MAX_CAPABILITIES = 8;
+
+    private static final int GL_TEXTURE0 = 0x84C0;
+    private static final int GL_TEXTURE_2D = 0x0DE1;
+    private static final int GL_TEXTURE_EXTERNAL_OES = 0x8D65;
+    private static final int GL_ARRAY_BUFFER = 0x8892;
+    private static final int GL_ELEMENT_ARRAY_BUFFER = 0x8893;
+
+    private static final int UNKNOWN = -1;
+    private static final int DISABLED = 0;
+    private static final int ENABLED = 1;
+
+    private final GLBackend mDelegate;
+
+    private final int[] mCapabilities = new int[MAX_CAPABILITIES];
+    private final int[] mCapabilityStates = new int[MAX_CAPABILITIES];
+    private int mCapabilityCount = 0;
+    private int mDepthFunc;
+    private int mDepthMask;
+    private int mArrayBuffer;
+    private int mElementArrayBuffer;
+    private int mProgram;
+    private int mActiveTexture;
+    private final int[] mTexture2D = new int[MAX_TEXTURE_UNITS];
+    private final int[] mTextureExternal = new int[MAX_TEXTURE_UNITS];
+    private final int[] mVertexAttribArrays = new int[MAX_VERTEX_ATTRIBS];
+
+    private long mForwardedCalls = 0;
+    private long mElidedCalls = 0;
+
+    public GLStateCache(GLBackend delegate)
+    {
+        if (delegate == null) throw new IllegalArgumentException("Arguments can not be null");
+        mDelegate = delegate;
+        invalidate();
+    }
+
+    /**
+     * Forgets the whole shadow state, the next call of each kind reaches the delegate.
+     */
+    public void invalidate()
+    {
+        mCapabilityCount = 0;
+        mDepthFunc = UNKNOWN;
+        mDepthMask = UNKNOWN;
+        mArrayBuffer = UNKNOWN;
+        mElementArrayBuffer = UNKNOWN;
+        mProgram = UNKNOWN;
+        mActiveTexture = UNKNOWN;
+        Arrays.fill(mTexture2D, UNKNOWN);
+        Arrays.fill(mTextureExternal, UNKNOWN);
+        Arrays.fill(mVertexAttribArrays, UNKNOWN);
+    }
+
+    /**
+     * Forgets the bindings of one texture target on every unit.
+     */
+    public void invalidateTextureBindings(int target)
+    {
+        int[] bindings = textureBindings(target);
+        if (bindings != null) Arrays.fill(bindings, UNKNOWN);
+    }
+
+    /** Number of state changing calls dropped since creation. */
+    public long getElidedCalls()
+    {
+        return mElidedCalls;
+    }
+
+    /** Number of state changing calls that reached the delegate since creation. */
+    public long getForwardedCalls()
+    {
+        return mForwardedCalls;
+    }
+
+    @Override
+    public void glEnable(int cap)
+    {
+        if (setCapability(cap, ENABLED)) mDelegate.glEnable(cap);
+    }
+
+    @Override
+    public void glDisable(int cap)
+    {
+        if (setCapability(cap, DISABLED)) mDelegate.glDisable(cap);
+    }
+
+    @Override
+    public void glDepthFunc(int func)
+    {
+        if (changed(mDepthFunc, func)) {
+            mDepthFunc = func;
+            mDelegate.glDepthFunc(func);
+        }
+    }
+
+    @Override
+    public void glDepthMask(boolean flag)
+    {
+        int mask = flag ? ENABLED : DISABLED;
+        if (changed(mDepthMask, mask)) {
+            mDepthMask = mask;
+            mDelegate.glDepthMask(flag);
+        }
+    }
+
+    @Override
+    public void glBindBuffer(int target, int buffer)
+    {
+        if (target == GL_ARRAY_BUFFER) {
+            if (!changed(mArrayBuffer, buffer)) return;
+            mArrayBuffer = buffer;
+        } else if (target == GL_ELEMENT_ARRAY_BUFFER) {
+            if (!changed(mElementArrayBuffer, buffer)) return;
+            mElementArrayBuffer = buffer;
+        }
+        mDelegate.glBindBuffer(target, buffer);
+    }
+
+    @Override
+    public void glGenBuffers(int n, int[] buffers, int offset)
+    {
+        mDelegate.glGenBuffers(n, buffers, offset);
+    }
+
+    @Override
+    public void glDeleteBuffers(int n, int[] buffers, int offset)
+    {
+        // Deleting a bound buffer binds 0 in its place
+        for (int i = offset; i < offset + n; i++) {
+            if (mArrayBuffer == buffers[i]) mArrayBuffer = 0;
+            if (mElementArrayBuffer == buffers[i]) mElementArrayBuffer = 0;
+        }
+        mDelegate.glDeleteBuffers(n, buffers, offset);
+    }
+
+    @Override
+    public void glBufferData(int target, int size, Buffer data, int usage)
+    {
+        mDelegate.glBufferData(target, size, data, usage);
+    }
+
+    @Override
+    public void glActiveTexture(int texture)
+    {
+        if (changed(mActiveTexture, texture)) {
+            mActiveTexture = texture;
+            mDelegate.glActiveTexture(texture);
+        }
+    }
+
+    @Override
+    public void glBindTexture(int target, int texture)
+    {
+        int[] bindings = textureBindings(target);
+        if (bindings != null) {
+            if (mActiveTexture == UNKNOWN) {
+                // Could be any unit
+                Arrays.fill(bindings, UNKNOWN);
+            } else {
+                int unit = mActiveTexture - GL_TEXTURE0;
+                if (unit >= 0 && unit < MAX_TEXTURE_UNITS) {
+                    if (!changed(bindings[unit], texture)) return;
+                    bindings[unit] = texture;
+                }
+            }
+        }
+        mDelegate.glBindTexture(target, texture);
+    }
+
+    @Override
+    public void glGenTextures(int n, int[] textures, int offset)
+    {
+        mDelegate.glGenTextures(n, textures, offset);
+    }
+
+    @Override
+    public void glDeleteTextures(int n, int[] textures, int offset)
+    {
+        // Deleting a bound texture binds 0 in its place, on every unit
+        for (int i = offset; i < offset + n; i++) {
+            if (textures[i] == 0) continue;
+            for (int unit = 0; unit < MAX_TEXTURE_UNITS; unit++) {
+                if (mTexture2D[unit] == textures[i]) mTexture2D[unit] = 0;
+                if (mTextureExternal[unit] == textures[i]) mTextureExternal[unit] = 0;
+            }
+        }
+        mDelegate.glDeleteTextures(n, textures, offset);
+    }
+
+    @Override
+    public void glTexParameteri(int target, int pname, int param)
+    {
+        mDelegate.glTexParameteri(target, pname, param);
+    }
+
+    @Override
+    public void glPixelStorei(int pname, int param)
+    {
+        mDelegate.glPixelStorei(pname, param);
+    }
+
+    @Override
+    public void glTexImage2D(int target, int level, int internalformat, int width, int height, int border, int format, int type, Buffer pixels)
+    {
+        mDelegate.glTexImage2D(target, level, internalformat, width, height, border, format, type, pixels);
+    }
+
+    @Override
+    public void glUseProgram(int program)
+    {
+        if (changed(mProgram, program)) {
+            mProgram = program;
+            mDelegate.glUseProgram(program);
+        }
+    }
+
+    @Override
+    public void glUniform1i(int location, int x)
+    {
+        mDelegate.glUniform1i(location, x);
+    }
+
+    @Override
+    public void glUniform1f(int location, float x)
+    {
+        mDelegate.glUniform1f(location, x);
+    }
+
+    @Override
+    public void glEnableVertexAttribArray(int index)
+    {
+        if (setVertexAttribArray(index, ENABLED)) mDelegate.glEnableVertexAttribArray(index);
+    }
+
+    @Override
+    public void glDisableVertexAttribArray(int index)
+    {
+        if (setVertexAttribArray(index, DISABLED)) mDelegate.glDisableVertexAttribArray(index);
+    }
+
+    @Override
+    public void glVertexAttribPointer(int index, int size, int type, boolean normalized, int stride, Buffer ptr)
+    {
+        mDelegate.glVertexAttribPointer(index, size, type, normalized, stride, ptr);
+    }
+
+    @Override
+    public void glDrawArrays(int mode, int first, int count)
+    {
+        mDelegate.glDrawArrays(mode, first, count);
+    }
+
+    @Override
+    public void glDrawElements(int mode, int count, int type, Buffer indices)
+    {
+        mDelegate.glDrawElements(mode, count, type, indices);
+    }
+
+    @Override
+    public int glCreateProgram()
+    {
+        return mDelegate.glCreateProgram();
+    }
+
+    @Override
+    public void glDeleteProgram(int program)
+    {
+        // A deleted program stays in use until another one is made current, the binding does not change
+        mDelegate.glDeleteProgram(program);
+    }
+
+    @Override
+    public int glCreateShader(int type)
+    {
+        return mDelegate.glCreateShader(type);
+    }
+
+    @Override
+    public void glDeleteShader(int shader)
+    {
+        mDelegate.glDeleteShader(shader);
+    }
+
+    @Override
+    public void glShaderSource(int shader, String string)
+    {
+        mDelegate.glShaderSource(shader, string);
+    }
+
+    @Override
+    public void glCompileShader(int shader)
+    {
+        mDelegate.glCompileShader(shader);
+    }
+
+    @Override
+    public void glAttachShader(int program, int shader)
+    {
+        mDelegate.glAttachShader(program, shader);
+    }
+
+    @Override
+    public void glDetachShader(int program, int shader)
+    {
+        mDelegate.glDetachShader(program, shader);
+    }
+
+    @Override
+    public void glLinkProgram(int program)
+    {
+        mDelegate.glLinkProgram(program);
+    }
+
+    @Override
+    public int glGetAttribLocation(int program, String name)
+    {
+        return mDelegate.glGetAttribLocation(program, name);
+    }
+
+    @Override
+    public int glGetUniformLocation(int program, String name)
+    {
+        return mDelegate.glGetUniformLocation(program, name);
+    }
+
+    @Override
+    public void glGetShaderiv(int shader, int pname, int[] params, int offset)
+    {
+        mDelegate.glGetShaderiv(shader, pname, params, offset);
+    }
+
+    @Override
+    public String glGetShaderInfoLog(int shader)
+    {
+        return mDelegate.glGetShaderInfoLog(shader);
+    }
+
+    @Override
+    public void glGetProgramiv(int program, int pname, int[] params, int offset)
+    {
+        mDelegate.glGetProgramiv(program, pname, params, offset);
+    }
+
+    @Override
+    public String glGetProgramInfoLog(int program)
+    {
+        return mDelegate.glGetProgramInfoLog(program);
+    }
+
+    @Override
+    public String glGetString(int name)
+    {
+        return mDelegate.glGetString(name);
+    }
+
+    private boolean changed(int current, int value)
+    {
+        if (current == value) {
+            mElidedCalls++;
+            return false;
+        }
+        mForwardedCalls++;
+        return true;
+    }
+
+    private boolean setCapability(int cap, int state)
+    {
+        for (int i = 0; i < mCapabilityCount; i++) {
+            if (mCapabilities[i] == cap) {
+                if (!changed(mCapabilityStates[i], state)) return false;
+                mCapabilityStates[i] = state;
+                return true;
+            }
+        }
+        if (mCapabilityCount < MAX_CAPABILITIES) {
+            mCapabilities[mCapabilityCount] = cap;
+            mCapabilityStates[mCapabilityCount] = state;
+            mCapabilityCount++;
+        }
+        mForwardedCalls++;
+        return true;
+    }
+
+    private boolean setVertexAttribArray(int index, int state)
+    {
+        if (index < 0 || index >= MAX_VERTEX_ATTRIBS) return true;
+        if (!changed(mVertexAttribArrays[index], state)) return false;
+        mVertexAttribArrays[index] = state;
+        return true;
+    }
+
+    private int[] textureBindings(int target)
+    {
+        if (target == GL_TEXTURE_2D) return mTexture2D;
+        if (target == GL_TEXTURE_EXTERNAL_OES) return mTextureExternal;
+        return null;
+    }
+}
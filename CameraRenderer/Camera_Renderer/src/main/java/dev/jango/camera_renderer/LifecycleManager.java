@@ -0,0 +1,120 @@
+package dev.jango.camera_renderer;
+
+import android.opengl.GLSurfaceView;
+import android.util.Log;
+
+import java.util.Locale;
+
+/**
+ * Pauses and resumes a {@link Renderer} together with its view, so that nothing is held while paused and the first
+ * frame after a resume comes fast.
+ * <p>On pause the camera is released and the GL objects of the renderers are deleted on the GL thread, before the
+ * view gives up its surface. What is expensive to get back is kept: the GL context with the programs built in it,
+ * the preview negotiated for the surface and the parameters applied to the camera. A resume then only reopens the
+ * camera, on the camera thread while the view recreates its surface, and applies the cached parameters right away.</p>
+ * <p>The time from each resume to the first camera frame drawn is recorded, resumes above the target are counted and
+ * logged.</p>
+ * <p>Must be called from the UI thread.</p>
+ */
+public final class LifecycleManager {
+    private static final String TAG = LifecycleManager.class.getName();
+
+    public static final long DEFAULT_FIRST_FRAME_TARGET_NS = 300000000L;
+
+    private final Renderer mRenderer;
+    private final GLSurfaceView mView;
+    private final long mFirstFrameTargetNanos;
+    private final FrameTimeHistogram mFirstFrameLatency;
+    private boolean mPaused = false;
+    private volatile long mLastFirstFrameNanos = 0;
+
+    private final Runnable mReleaseGLResources = new Runnable() {
+        @Override
+        public void run() {
+            mRenderer.releaseGLResources();
+        }
+    };
+
+    private final Renderer.FirstFrameListener mFirstFrameListener = new Renderer.FirstFrameListener() {
+        @Override
+        public void onFirstFrame(long latencyNanos) {
+            mLastFirstFrameNanos = latencyNanos;
+            mFirstFrameLatency.record(latencyNanos);
+            Log.i(TAG, "First frame " + latencyNanos / 1000000 + "ms after resume"
+                    + (latencyNanos > mFirstFrameTargetNanos ? ", above the " + mFirstFrameTargetNanos / 1000000 + "ms target" : ""));
+        }
+    };
+
+    public LifecycleManager(Renderer renderer, GLSurfaceView view) {
+        this(renderer, view, DEFAULT_FIRST_FRAME_TARGET_NS);
+    }
+
+    /**
+     * Keeps the EGL context of <code>view</code> on pause, which the renderer must be set on.
+     */
+    public LifecycleManager(Renderer renderer, GLSurfaceView view, long firstFrameTargetNanos) {
+        if (renderer == null || view == null) throw new IllegalArgumentException("Arguments can not be null");
+        if (firstFrameTargetNanos <= 0) throw new IllegalArgumentException("Target must be positive");
+        mRenderer = renderer;
+        mView = view;
+        mFirstFrameTargetNanos = firstFrameTargetNanos;
+        // Resumes above the target count as jank
+        mFirstFrameLatency = new FrameTimeHistogram(firstFrameTargetNanos);
+        // The programs survive a pause only in a preserved context
+        mView.setPreserveEGLContextOnPause(true);
+    }
+
+    /**
+     * Releases the camera and the GL objects of the renderers, then pauses the view. Call from
+     * <code>Activity.onPause</code>.
+     */
+    public void onPause() {
+        if (mPaused) return;
+        mPaused = true;
+        mRenderer.pause();
+        // Queued before the view pauses, while its surface and context are still current
+        mView.queueEvent(mReleaseGLResources);
+        mView.onPause();
+    }
+
+    /**
+     * Reopens the camera after a pause, then resumes the view. Call from <code>Activity.onResume</code>, the first
+     * call after creation only resumes the view.
+     */
+    public void onResume() {
+        if (mPaused) {
+            mPaused = false;
+            // The camera opens while the view recreates its surface
+            mRenderer.resume(mFirstFrameListener);
+        }
+        mView.onResume();
+    }
+
+    public boolean isPaused() {
+        return mPaused;
+    }
+
+    public long getFirstFrameTarget() {
+        return mFirstFrameTargetNanos;
+    }
+
+    /** Time from the last resume to its first frame, 0 before the first one. */
+    public long getLastFirstFrameNanos() {
+        return mLastFirstFrameNanos;
+    }
+
+    /** Time from resume to first frame of every resume so far, those above the target counted as jank. */
+    public FrameTimeHistogram.Snapshot getFirstFrameLatency() {
+        return mFirstFrameLatency.snapshot();
+    }
+
+    /**
+     * Returns the first frame latency of the resumes so far, on one line.
+     */
+    public String dump() {
+        FrameTimeHistogram.Snapshot latency = getFirstFrameLatency();
+        return String.format(Locale.US, "Resumes: %d, first frame p50 %d ms, max %d ms, %d above the %d ms target",
+                latency.getCount(), latency.getP50Nanos() / 1000000, latency.getMaxNanos() / 1000000,
+                latency.getJankCount(), mFirstFrameTargetNanos / 1000000);
+    }
+}
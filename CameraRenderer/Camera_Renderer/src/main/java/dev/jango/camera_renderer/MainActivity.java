@@ -3,13 +3,21 @@ package dev.jango.camera_renderer;
 import android.app.Activity;
 import android.opengl.GLSurfaceView;
 import android.os.Bundle;
+import android.util.Log;
 import android.view.KeyEvent;
 import android.view.ViewGroup;
 
+import java.io.File;
+import java.io.IOException;
+
 public class MainActivity extends Activity {
+    private static final String TAG = MainActivity.class.getName();
 
     private Renderer renderer;
     private GLSurfaceView mCameraView = null;
+    private LifecycleManager mLifecycle = null;
+    private FrameRecorder mFrameRecorder = null;
+    private FrameStreamServer mStreamServer = null;
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -17,8 +25,16 @@ public class MainActivity extends Activity {
         renderer = new Renderer();
         mCameraView = new GLSurfaceView(getApplicationContext());
         mCameraView.setEGLContextClientVersion(2);
-        mCameraView.setPreserveEGLContextOnPause(true);
         mCameraView.setRenderer(renderer);
+        mLifecycle = new LifecycleManager(renderer, mCameraView);
+        // Draw when the camera delivers a frame instead of at display rate
+        mCameraView.setRenderMode(GLSurfaceView.RENDERMODE_WHEN_DIRTY);
+        renderer.getRenderScheduler().attach(new RenderScheduler.Target() {
+            @Override
+            public void requestRender() {
+                mCameraView.requestRender();
+            }
+        });
         addContentView(mCameraView, new ViewGroup.LayoutParams(ViewGroup.LayoutParams.MATCH_PARENT, ViewGroup.LayoutParams.MATCH_PARENT));
     }
 
@@ -26,14 +42,106 @@ public class MainActivity extends Activity {
     protected void onPause()
     {
         super.onPause();
-        if(mCameraView !=null) mCameraView.onPause();
+        if (mFrameRecorder != null) toggleRecording();
+        if (mStreamServer != null) toggleStreaming();
+        if (renderer.getTraceRecorder().isEnabled()) toggleTracing();
+        // Releases the camera and the GL objects, pauses the view
+        if (mLifecycle != null) mLifecycle.onPause();
+        Log.i(TAG, renderer.getFrameMetrics().dump());
+        Log.i(TAG, "Renders requested: " + renderer.getRenderScheduler().getRequestedCount()
+                + ", coalesced frames: " + renderer.getRenderScheduler().getCoalescedCount());
+        Log.i(TAG, renderer.getRenderModeManager().dump());
+        if (renderer.getAnalysisPipeline().hasStages()) Log.i(TAG, renderer.getAnalysisPipeline().dump());
+        Log.i(TAG, mLifecycle.dump());
+    }
+
+    // Streams the preview frames on the loopback interface, to be watched with FrameStreamClient through adb forward
+    private void toggleStreaming() {
+        if (mStreamServer == null) {
+            FrameStreamServer server = new FrameStreamServer(FrameStreamServer.DEFAULT_PORT);
+            try {
+                server.start();
+            } catch (IOException e) {
+                Log.e(TAG, "Can not start streaming", e);
+                return;
+            }
+            mStreamServer = server;
+            renderer.setFrameStreamServer(server);
+            Log.i(TAG, "Streaming on port " + server.getPort());
+        } else {
+            renderer.setFrameStreamServer(null);
+            mStreamServer.stop();
+            Log.i(TAG, "Streamed " + mStreamServer.getPublishedCount() + " frames, dropped "
+                    + mStreamServer.getPublishDroppedCount() + ", skipped by clients " + mStreamServer.getClientSkippedCount());
+            if (mStreamServer.getLastError() != null) Log.e(TAG, mStreamServer.getLastError());
+            mStreamServer = null;
+        }
+    }
+
+    // Traces the camera, callback and GL threads, written as a Chrome trace into the app's external files when stopped
+    private void toggleTracing() {
+        final TraceRecorder trace = renderer.getTraceRecorder();
+        if (!trace.isEnabled()) {
+            trace.clear();
+            trace.setEnabled(true);
+            Log.i(TAG, "Tracing");
+            return;
+        }
+        trace.setEnabled(false);
+        File directory = getExternalFilesDir("traces");
+        if (directory == null) {
+            Log.e(TAG, "No storage for traces");
+            return;
+        }
+        final File file = new File(directory, "trace-" + System.currentTimeMillis() + ".json");
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    int count = trace.writeChromeTrace(file);
+                    Log.i(TAG, "Traced " + count + " events to " + file);
+                } catch (IOException e) {
+                    Log.e(TAG, "Can not write the trace", e);
+                }
+            }
+        }, "TraceWriter").start();
+    }
+
+    // Records the preview frames into the app's external files, to be replayed off device
+    private void toggleRecording() {
+        if (mFrameRecorder == null) {
+            File directory = getExternalFilesDir("recordings");
+            if (directory == null) {
+                Log.e(TAG, "No storage for recordings");
+                return;
+            }
+            String name = "preview-" + System.currentTimeMillis();
+            mFrameRecorder = new FrameRecorder(directory, name);
+            mFrameRecorder.start();
+            renderer.setFrameRecorder(mFrameRecorder);
+            Log.i(TAG, "Recording " + name + " to " + directory);
+        } else {
+            renderer.setFrameRecorder(null);
+            mFrameRecorder.release();
+            Log.i(TAG, "Recorded " + mFrameRecorder.getRecordedCount() + " frames, dropped "
+                    + mFrameRecorder.getDroppedCount());
+            if (mFrameRecorder.getLastError() != null) Log.e(TAG, mFrameRecorder.getLastError());
+            mFrameRecorder = null;
+        }
+    }
+
+    @Override
+    protected void onDestroy()
+    {
+        super.onDestroy();
+        renderer.release();
     }
 
     @Override
     protected void onResume()
     {
         super.onResume();
-        if(mCameraView !=null) mCameraView.onResume();
+        if (mLifecycle != null) mLifecycle.onResume();
     }
 
 
@@ -46,14 +154,27 @@ public class MainActivity extends Activity {
             switch (keyCode) {
                 case KeyEvent.KEYCODE_DPAD_UP:
                 case KeyEvent.KEYCODE_VOLUME_UP:
-                    Renderer.CurrentRenderMode = Renderer.RenderMode.SurfaceTextureRender;
+                    renderer.setRenderMode(RenderMode.SurfaceTextureRender);
                     break;
                 case KeyEvent.KEYCODE_DPAD_DOWN:
                 case KeyEvent.KEYCODE_VOLUME_DOWN:
-                    Renderer.CurrentRenderMode = Renderer.RenderMode.YUVConversionRender;
+                    renderer.setRenderMode(RenderMode.YUVConversionRender);
+                    break;
+                case KeyEvent.KEYCODE_DPAD_CENTER:
+                    toggleRecording();
+                    break;
+                case KeyEvent.KEYCODE_MENU:
+                    toggleStreaming();
+                    break;
+                case KeyEvent.KEYCODE_DPAD_LEFT:
+                    toggleTracing();
+                    break;
+                case KeyEvent.KEYCODE_DPAD_RIGHT:
+                    renderer.setRenderMode(RenderMode.LumaOnlyRender);
                     break;
                 default:
             }
+            renderer.getRenderScheduler().requestFrame();
         }
 
         return super.dispatchKeyEvent(event);
@@ -0,0 +1,525 @@
+package dev.jango.camera_renderer;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.Executor;
+
+/**
+ * Lossless compression of NV21 frames.
+ * <p>Each plane is cut into row bands coded independently of each other, so the Y and UV bands of a frame can be
+ * coded in parallel. A band is predicted either spatially, with the median edge detector of LOCO-I on the same
+ * channel, or temporally, from the previous frame, whichever a sample of its rows says is cheaper. The prediction
+ * residuals are zigzag mapped and bit packed in blocks of 16, each block taking as many bits per value as its
+ * largest residual needs: camera noise costs a few bits per pixel, static content a few bits per block.</p>
+ * <p>Every encoded frame is self delimiting: a header with its total length, size, key frame flag and band lengths,
+ * followed by the bands. Key frames use spatial prediction only, so a stream can be decoded from any of them.</p>
+ * <p>{@link Encoder} and {@link Decoder} keep their buffers from frame to frame and allocate nothing once the frame
+ * size is known. Each of them is meant for one thread at a time.</p>
+ */
+public final class Nv21Codec {
+    public static final int DEFAULT_BAND_COUNT = 4;
+    public static final int DEFAULT_KEY_FRAME_INTERVAL = 30;
+
+    static final int MAGIC = 0x4E323143; // "N21C"
+    // int magic, int total length, int width, int height, byte flags, byte band count, short reserved
+    static final int HEADER_SIZE = 20;
+    static final int FLAG_KEY_FRAME = 1;
+
+    private static final byte MODE_SPATIAL = 0;
+    private static final byte MODE_TEMPORAL = 1;
+    private static final int BLOCK = 16;
+    // Every 8th row is predicted both ways to pick the mode of a band
+    private static final int SAMPLE_ROW_STEP = 8;
+
+    private Nv21Codec() {
+    }
+
+    /**
+     * Upper bound of the encoded size of a frame, for sizing output buffers.
+     */
+    public static int maxEncodedSize(int width, int height, int bandCount) {
+        int size = width * height * 3 / 2;
+        // Mode byte per band, values stored raw at worst, one width byte per 32 values, tail of each band padded
+        return HEADER_SIZE + 4 * 2 * bandCount + size + size / (2 * BLOCK) + 2 * bandCount * (2 + 2 * BLOCK);
+    }
+
+    /**
+     * Rows, plane and channel stride of band <code>index</code> of a frame.
+     */
+    private static final class Band {
+        int mOffset;
+        int mRowBytes;
+        int mStride;
+        int mRows;
+
+        void set(int index, int bandCount, int width, int height) {
+            boolean luma = index < bandCount;
+            int band = luma ? index : index - bandCount;
+            int planeRows = luma ? height : height / 2;
+            int firstRow = band * planeRows / bandCount;
+            mRows = (band + 1) * planeRows / bandCount - firstRow;
+            mRowBytes = width;
+            mStride = luma ? 1 : 2;
+            mOffset = (luma ? 0 : width * height) + firstRow * width;
+        }
+
+        int size() {
+            return mRows * mRowBytes;
+        }
+    }
+
+    /**
+     * Compresses frames, predicting from the previous frame it encoded.
+     */
+    public static final class Encoder {
+        private final int mBandCount;
+        private final int mKeyFrameInterval;
+        private final Band[] mBands;
+        private final BandRunner mRunner;
+
+        private int mWidth = 0;
+        private int mHeight = 0;
+        private byte[] mPrevious = new byte[0];
+        private byte[][] mResiduals;
+        private byte[][] mPacked;
+        private int[] mPackedLengths;
+        private byte[] mFrame;
+        private boolean mKeyFrame;
+        private int mSinceKeyFrame = 0;
+        private boolean mKeyFrameRequested = true;
+
+        public Encoder() {
+            this(DEFAULT_BAND_COUNT, DEFAULT_KEY_FRAME_INTERVAL, null);
+        }
+
+        /**
+         * @param bandCount        row bands per plane
+         * @param keyFrameInterval frames from one key frame to the next, 1 for key frames only
+         * @param executor         runs the bands in parallel with the calling thread, null to code them on it
+         */
+        public Encoder(int bandCount, int keyFrameInterval, Executor executor) {
+            if (bandCount <= 0 || bandCount > 255 || keyFrameInterval <= 0) throw new IllegalArgumentException("Band count and key frame interval must be positive");
+            mBandCount = bandCount;
+            mKeyFrameInterval = keyFrameInterval;
+            mBands = new Band[2 * bandCount];
+            mResiduals = new byte[2 * bandCount][];
+            mPacked = new byte[2 * bandCount][];
+            mPackedLengths = new int[2 * bandCount];
+            for (int i = 0; i < mBands.length; i++) {
+                mBands[i] = new Band();
+            }
+            mRunner = new BandRunner(executor) {
+                @Override
+                void runBand(int index) {
+                    encodeBand(index);
+                }
+            };
+        }
+
+        /**
+         * Makes the next frame a key frame.
+         */
+        public void requestKeyFrame() {
+            mKeyFrameRequested = true;
+        }
+
+        /**
+         * Appends the encoding of an NV21 frame to <code>out</code>, which must have at least
+         * {@link #maxEncodedSize} bytes remaining, and returns its length.
+         */
+        public int encode(byte[] frame, int width, int height, ByteBuffer out) {
+            if (frame == null || out == null) throw new IllegalArgumentException("Arguments can not be null");
+            if (width <= 0 || height <= 0 || (width & 1) != 0 || (height & 1) != 0) throw new IllegalArgumentException("Frame size must be positive and even");
+            int size = width * height * 3 / 2;
+            if (frame.length < size) throw new IllegalArgumentException("Frame is smaller than " + size + " bytes");
+            if (out.remaining() < maxEncodedSize(width, height, mBandCount)) throw new IllegalArgumentException("Output buffer too small");
+
+            if (width != mWidth || height != mHeight) resize(width, height);
+            mKeyFrame = mKeyFrameRequested || mSinceKeyFrame >= mKeyFrameInterval;
+            mKeyFrameRequested = false;
+            mSinceKeyFrame = mKeyFrame ? 1 : mSinceKeyFrame + 1;
+            mFrame = frame;
+            mRunner.runAll(mBands.length);
+            mFrame = null;
+
+            int start = out.position();
+            ByteOrder order = out.order();
+            out.order(ByteOrder.LITTLE_ENDIAN);
+            int total = HEADER_SIZE + 4 * mBands.length;
+            for (int length : mPackedLengths) {
+                total += length;
+            }
+            out.putInt(MAGIC);
+            out.putInt(total);
+            out.putInt(width);
+            out.putInt(height);
+            out.put((byte) (mKeyFrame ? FLAG_KEY_FRAME : 0));
+            out.put((byte) mBandCount);
+            out.putShort((short) 0);
+            for (int length : mPackedLengths) {
+                out.putInt(length);
+            }
+            for (int i = 0; i < mBands.length; i++) {
+                out.put(mPacked[i], 0, mPackedLengths[i]);
+            }
+            out.order(order);
+            return out.position() - start;
+        }
+
+        private void resize(int width, int height) {
+            mWidth = width;
+            mHeight = height;
+            mPrevious = new byte[width * height * 3 / 2];
+            for (int i = 0; i < mBands.length; i++) {
+                mBands[i].set(i, mBandCount, width, height);
+                int bandSize = mBands[i].size();
+                mResiduals[i] = new byte[bandSize];
+                mPacked[i] = new byte[1 + maxPackedSize(bandSize)];
+            }
+            mKeyFrameRequested = true;
+        }
+
+        private void encodeBand(int index) {
+            Band band = mBands[index];
+            byte[] residuals = mResiduals[index];
+            byte[] packed = mPacked[index];
+            byte mode = mKeyFrame || !preferTemporal(mFrame, mPrevious, band) ? MODE_SPATIAL : MODE_TEMPORAL;
+            if (mode == MODE_SPATIAL) {
+                spatialResiduals(mFrame, band, residuals);
+            } else {
+                temporalResiduals(mFrame, mPrevious, band, residuals);
+            }
+            packed[0] = mode;
+            mPackedLengths[index] = 1 + pack(residuals, band.size(), packed, 1);
+            // Reference for the next frame
+            System.arraycopy(mFrame, band.mOffset, mPrevious, band.mOffset, band.size());
+        }
+    }
+
+    /**
+     * Restores frames written by an {@link Encoder}, starting from a key frame.
+     */
+    public static final class Decoder {
+        private final BandRunner mRunner;
+        private Band[] mBands = new Band[0];
+        private int mBandCount = 0;
+        private int mWidth = 0;
+        private int mHeight = 0;
+        private boolean mHasReference = false;
+        private byte[] mFrame = new byte[0];
+        private byte[] mInput = new byte[0];
+        private int[] mBandOffsets = new int[0];
+        private byte[][] mResiduals = new byte[0][];
+
+        public Decoder() {
+            this(null);
+        }
+
+        /**
+         * @param executor runs the bands in parallel with the calling thread, null to decode them on it
+         */
+        public Decoder(Executor executor) {
+            mRunner = new BandRunner(executor) {
+                @Override
+                void runBand(int index) {
+                    decodeBand(index);
+                }
+            };
+        }
+
+        /**
+         * Decodes the frame at the position of <code>in</code>, advancing it past the frame, into <code>out</code>
+         * which must hold <code>width * height * 3 / 2</code> bytes. Returns the number of bytes written.
+         * <p>The size of the frame is available from {@link #getWidth()} and {@link #getHeight()} afterwards, or
+         * ahead with {@link #peekWidth(ByteBuffer)} and {@link #peekHeight(ByteBuffer)}.</p>
+         * @throws IllegalArgumentException if <code>in</code> does not start with an encoded frame
+         * @throws IllegalStateException    if the frame needs a previous frame and none was decoded
+         */
+        public int decode(ByteBuffer in, byte[] out) {
+            if (in == null || out == null) throw new IllegalArgumentException("Arguments can not be null");
+            ByteOrder order = in.order();
+            in.order(ByteOrder.LITTLE_ENDIAN);
+            int start = in.position();
+            try {
+                if (in.remaining() < HEADER_SIZE || in.getInt(start) != MAGIC) throw new IllegalArgumentException("Not an encoded NV21 frame");
+                int total = in.getInt(start + 4);
+                int width = in.getInt(start + 8);
+                int height = in.getInt(start + 12);
+                boolean keyFrame = (in.get(start + 16) & FLAG_KEY_FRAME) != 0;
+                int bandCount = in.get(start + 17) & 0xff;
+                if (total > in.remaining() || width <= 0 || height <= 0 || bandCount == 0
+                        || total < HEADER_SIZE + 8 * bandCount) throw new IllegalArgumentException("Corrupt frame header");
+                int size = width * height * 3 / 2;
+                if (out.length < size) throw new IllegalArgumentException("Frame is larger than " + out.length + " bytes");
+
+                if (width != mWidth || height != mHeight || bandCount != mBandCount) resize(width, height, bandCount);
+                if (!keyFrame && !mHasReference) throw new IllegalStateException("A key frame is needed first");
+
+                if (mInput.length < total) mInput = new byte[total];
+                in.get(mInput, 0, total);
+                int offset = HEADER_SIZE + 4 * mBands.length;
+                for (int i = 0; i < mBands.length; i++) {
+                    mBandOffsets[i] = offset;
+                    offset += readInt(mInput, HEADER_SIZE + 4 * i);
+                }
+                mBandOffsets[mBands.length] = offset;
+                if (offset != total) throw new IllegalArgumentException("Corrupt band lengths");
+
+                // A failed frame leaves no usable reference
+                mHasReference = false;
+                mRunner.runAll(mBands.length);
+                mHasReference = true;
+                System.arraycopy(mFrame, 0, out, 0, size);
+                return size;
+            } catch (RuntimeException e) {
+                in.position(start);
+                throw e;
+            } finally {
+                in.order(order);
+            }
+        }
+
+        public int getWidth() {
+            return mWidth;
+        }
+
+        public int getHeight() {
+            return mHeight;
+        }
+
+        /** Width of the frame at the position of <code>in</code>. */
+        public static int peekWidth(ByteBuffer in) {
+            return readLittleEndian(in, 8);
+        }
+
+        /** Height of the frame at the position of <code>in</code>. */
+        public static int peekHeight(ByteBuffer in) {
+            return readLittleEndian(in, 12);
+        }
+
+        private static int readLittleEndian(ByteBuffer in, int offset) {
+            int value = in.getInt(in.position() + offset);
+            return in.order() == ByteOrder.LITTLE_ENDIAN ? value : Integer.reverseBytes(value);
+        }
+
+        private void resize(int width, int height, int bandCount) {
+            mWidth = width;
+            mHeight = height;
+            mBandCount = bandCount;
+            mFrame = new byte[width * height * 3 / 2];
+            mBands = new Band[2 * bandCount];
+            mBandOffsets = new int[2 * bandCount + 1];
+            mResiduals = new byte[2 * bandCount][];
+            for (int i = 0; i < mBands.length; i++) {
+                mBands[i] = new Band();
+                mBands[i].set(i, bandCount, width, height);
+                mResiduals[i] = new byte[mBands[i].size()];
+            }
+            mHasReference = false;
+        }
+
+        private void decodeBand(int index) {
+            Band band = mBands[index];
+            int start = mBandOffsets[index];
+            int end = mBandOffsets[index + 1];
+            if (end - start < 1) throw new IllegalArgumentException("Corrupt band " + index);
+            byte mode = mInput[start];
+            unpack(mInput, start + 1, end, mResiduals[index], band.size());
+            if (mode == MODE_SPATIAL) {
+                spatialRestore(mResiduals[index], band, mFrame);
+            } else if (mode == MODE_TEMPORAL) {
+                temporalRestore(mResiduals[index], band, mFrame);
+            } else {
+                throw new IllegalArgumentException("Unknown band mode " + mode);
+            }
+        }
+    }
+
+    private static int readInt(byte[] data, int offset) {
+        return (data[offset] & 0xff) | (data[offset + 1] & 0xff) << 8 | (data[offset + 2] & 0xff) << 16
+                | (data[offset + 3] & 0xff) << 24;
+    }
+
+    private static int zigzag(int residual) {
+        // Residual as a signed byte, small magnitudes to small codes
+        int r = (byte) residual;
+        return ((r << 1) ^ (r >> 31)) & 0xff;
+    }
+
+    private static int unzigzag(int code) {
+        return (code >>> 1) ^ -(code & 1);
+    }
+
+    // Median edge detector of LOCO-I
+    private static int predict(int left, int up, int upLeft) {
+        int min = left < up ? left : up;
+        int max = left < up ? up : left;
+        if (upLeft >= max) return min;
+        if (upLeft <= min) return max;
+        return left + up - upLeft;
+    }
+
+    private static boolean preferTemporal(byte[] frame, byte[] previous, Band band) {
+        long spatial = 0;
+        long temporal = 0;
+        int rowBytes = band.mRowBytes;
+        int stride = band.mStride;
+        for (int y = 1; y < band.mRows; y += SAMPLE_ROW_STEP) {
+            int row = band.mOffset + y * rowBytes;
+            for (int x = stride; x < rowBytes; x++) {
+                int i = row + x;
+                int p = predict(frame[i - stride] & 0xff, frame[i - rowBytes] & 0xff, frame[i - rowBytes - stride] & 0xff);
+                spatial += zigzag(frame[i] - p);
+                temporal += zigzag(frame[i] - previous[i]);
+            }
+        }
+        return temporal < spatial;
+    }
+
+    private static void spatialResiduals(byte[] frame, Band band, byte[] residuals) {
+        int rowBytes = band.mRowBytes;
+        int stride = band.mStride;
+        int offset = band.mOffset;
+        if (band.mRows == 0) return;
+        // First row of the band from the left only, bands do not depend on each other
+        for (int x = 0; x < rowBytes; x++) {
+            int p = x < stride ? 128 : frame[offset + x - stride] & 0xff;
+            residuals[x] = (byte) zigzag(frame[offset + x] - p);
+        }
+        for (int y = 1; y < band.mRows; y++) {
+            int row = offset + y * rowBytes;
+            int out = y * rowBytes;
+            for (int x = 0; x < stride; x++) {
+                residuals[out + x] = (byte) zigzag(frame[row + x] - frame[row + x - rowBytes]);
+            }
+            for (int i = row + stride, end = row + rowBytes; i < end; i++) {
+                int p = predict(frame[i - stride] & 0xff, frame[i - rowBytes] & 0xff, frame[i - rowBytes - stride] & 0xff);
+                residuals[i - offset] = (byte) zigzag(frame[i] - p);
+            }
+        }
+    }
+
+    private static void spatialRestore(byte[] residuals, Band band, byte[] frame) {
+        int rowBytes = band.mRowBytes;
+        int stride = band.mStride;
+        int offset = band.mOffset;
+        if (band.mRows == 0) return;
+        for (int x = 0; x < rowBytes; x++) {
+            int p = x < stride ? 128 : frame[offset + x - stride] & 0xff;
+            frame[offset + x] = (byte) (p + unzigzag(residuals[x] & 0xff));
+        }
+        for (int y = 1; y < band.mRows; y++) {
+            int row = offset + y * rowBytes;
+            int in = y * rowBytes;
+            for (int x = 0; x < stride; x++) {
+                frame[row + x] = (byte) (frame[row + x - rowBytes] + unzigzag(residuals[in + x] & 0xff));
+            }
+            for (int i = row + stride, end = row + rowBytes; i < end; i++) {
+                int p = predict(frame[i - stride] & 0xff, frame[i - rowBytes] & 0xff, frame[i - rowBytes - stride] & 0xff);
+                frame[i] = (byte) (p + unzigzag(residuals[i - offset] & 0xff));
+            }
+        }
+    }
+
+    private static void temporalResiduals(byte[] frame, byte[] previous, Band band, byte[] residuals) {
+        int offset = band.mOffset;
+        int size = band.size();
+        for (int i = 0; i < size; i++) {
+            residuals[i] = (byte) zigzag(frame[offset + i] - previous[offset + i]);
+        }
+    }
+
+    private static void temporalRestore(byte[] residuals, Band band, byte[] frame) {
+        int offset = band.mOffset;
+        int size = band.size();
+        for (int i = 0; i < size; i++) {
+            frame[offset + i] = (byte) (frame[offset + i] + unzigzag(residuals[i] & 0xff));
+        }
+    }
+
+    static int maxPackedSize(int count) {
+        int padded = (count + 2 * BLOCK - 1) / (2 * BLOCK) * (2 * BLOCK);
+        return padded + padded / (2 * BLOCK);
+    }
+
+    /**
+     * Packs <code>count</code> codes in pairs of blocks of {@link #BLOCK}: one byte with the bit width of both blocks,
+     * then each block as 16 values of that width. Returns the number of bytes written.
+     */
+    static int pack(byte[] codes, int count, byte[] out, int position) {
+        int start = position;
+        for (int block = 0; block < count; block += 2 * BLOCK) {
+            int firstWidth = bitWidth(codes, block, count);
+            int secondWidth = bitWidth(codes, block + BLOCK, count);
+            out[position++] = (byte) (firstWidth | secondWidth << 4);
+            position = packBlock(codes, block, count, firstWidth, out, position);
+            position = packBlock(codes, block + BLOCK, count, secondWidth, out, position);
+        }
+        return position - start;
+    }
+
+    private static int bitWidth(byte[] codes, int from, int count) {
+        int end = Math.min(from + BLOCK, count);
+        int bits = 0;
+        for (int i = from; i < end; i++) {
+            bits |= codes[i] & 0xff;
+        }
+        return 32 - Integer.numberOfLeadingZeros(bits);
+    }
+
+    // 8 values of w bits make exactly w bytes
+    private static int packBlock(byte[] codes, int from, int count, int width, byte[] out, int position) {
+        if (width == 0) return position;
+        for (int half = from; half < from + BLOCK; half += 8) {
+            long bits = 0;
+            if (half + 8 <= count) {
+                for (int j = 0; j < 8; j++) {
+                    bits |= (long) (codes[half + j] & 0xff) << (j * width);
+                }
+            } else {
+                for (int j = 0; j < 8 && half + j < count; j++) {
+                    bits |= (long) (codes[half + j] & 0xff) << (j * width);
+                }
+            }
+            for (int j = 0; j < width; j++) {
+                out[position++] = (byte) (bits >>> (8 * j));
+            }
+        }
+        return position;
+    }
+
+    /**
+     * Reverses {@link #pack}, reading from <code>position</code> up to <code>end</code>.
+     */
+    static void unpack(byte[] in, int position, int end, byte[] codes, int count) {
+        for (int block = 0; block < count; block += 2 * BLOCK) {
+            if (position >= end) throw new IllegalArgumentException("Truncated band");
+            int widths = in[position++] & 0xff;
+            position = unpackBlock(in, position, end, widths & 0xf, codes, block, count);
+            position = unpackBlock(in, position, end, widths >>> 4, codes, block + BLOCK, count);
+        }
+    }
+
+    private static int unpackBlock(byte[] in, int position, int end, int width, byte[] codes, int from, int count) {
+        int blockEnd = Math.min(from + BLOCK, count);
+        if (width == 0) {
+            for (int i = from; i < blockEnd; i++) {
+                codes[i] = 0;
+            }
+            return position;
+        }
+        if (width > 8 || position + 2 * width > end) throw new IllegalArgumentException("Corrupt band");
+        int mask = (1 << width) - 1;
+        for (int half = from; half < from + BLOCK; half += 8) {
+            long bits = 0;
+            for (int j = 0; j < width; j++) {
+                bits |= (long) (in[position++] & 0xff) << (8 * j);
+            }
+            int halfEnd = Math.min(half + 8, blockEnd);
+            for (int i = half; i < halfEnd; i++) {
+                codes[i] = (byte) (bits >>> ((i - half) * width) & mask);
+            }
+        }
+        return position;
+    }
+}
@@ -0,0 +1,229 @@
+package dev.jango.camera_renderer;
+
+import java.nio.IntBuffer;
+import java.util.concurrent.Executor;
+
+/**
+ * CPU conversion of NV21 frames to ARGB_8888 pixels.
+ * <p>Reference and fallback path for the YUV to RGB conversion done by the {@link CameraYUVRenderer} fragment
+ * shader, using the same conversion constants. The frame is split into row stripes converted in parallel on an
+ * optional executor, the calling thread converts the last stripe.</p>
+ * <p>Converting a frame does not allocate. Only one frame can be converted at a time, calls from several threads
+ * are serialized. A failure converting any stripe is thrown to the caller once every stripe is done.</p>
+ */
+public final class Nv21Converter {
+
+    public enum Precision {
+        /** Floating point, same arithmetic as the fragment shader. */
+        Float,
+        /** 16.16 fixed point integer arithmetic, within one step of the floating point result. */
+        FixedPoint
+    }
+
+    //Same constants as the CameraYUVRenderer fragment shader
+    private static final float R_V = 1.370705f;
+    private static final float G_U = 0.337633f;
+    private static final float G_V = 0.698001f;
+    private static final float B_U = 1.732446f;
+
+    private static final int FIXED_SHIFT = 16;
+    private static final int FIXED_HALF = 1 << (FIXED_SHIFT - 1);
+    private static final int FIXED_R_V = Math.round(R_V * (1 << FIXED_SHIFT));
+    private static final int FIXED_G_U = Math.round(G_U * (1 << FIXED_SHIFT));
+    private static final int FIXED_G_V = Math.round(G_V * (1 << FIXED_SHIFT));
+    private static final int FIXED_B_U = Math.round(B_U * (1 << FIXED_SHIFT));
+
+    private final int mWidth;
+    private final int mHeight;
+    private final Stripe[] mStripes;
+    private final BandRunner mRunner;
+
+    private byte[] mSource;
+    private int[] mTargetArray;
+    private IntBuffer mTargetBuffer;
+    private Precision mPrecision;
+
+    /**
+     * Converter running on the calling thread only.
+     */
+    public Nv21Converter(int width, int height) {
+        this(width, height, 1, null);
+    }
+
+    /**
+     * @param width       width of the frames
+     * @param height      height of the frames
+     * @param stripeCount row stripes converted in parallel
+     * @param executor    runs all stripes but one, null to run them all on the calling thread
+     */
+    public Nv21Converter(int width, int height, int stripeCount, Executor executor) {
+        if (width <= 0 || height <= 0 || (width & 1) != 0 || (height & 1) != 0) {
+            throw new IllegalArgumentException("Frame size must be positive and even");
+        }
+        if (stripeCount <= 0) throw new IllegalArgumentException("Stripe count must be positive");
+        mWidth = width;
+        mHeight = height;
+
+        //Stripes cover whole row pairs, since a chroma row is shared by two luma rows
+        int rowPairs = height / 2;
+        int count = Math.min(stripeCount, rowPairs);
+        mStripes = new Stripe[count];
+        for (int i = 0; i < count; i++) {
+            int firstRow = 2 * (rowPairs * i / count);
+            int lastRow = 2 * (rowPairs * (i + 1) / count);
+            mStripes[i] = new Stripe(firstRow, lastRow);
+        }
+        mRunner = new BandRunner(executor) {
+            @Override
+            void runBand(int index) {
+                mStripes[index].convert();
+            }
+        };
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    /**
+     * Converts a frame into <code>width * height</code> ARGB pixels, row by row.
+     */
+    public void convert(byte[] nv21, int[] argb, Precision precision) {
+        if (argb.length < mWidth * mHeight) throw new IllegalArgumentException("Target is smaller than the frame");
+        run(nv21, argb, null, precision);
+    }
+
+    /**
+     * Converts a frame into <code>width * height</code> ARGB pixels starting at index 0 of the buffer.
+     * <p>The buffer position and limit are left unchanged.</p>
+     */
+    public void convert(byte[] nv21, IntBuffer argb, Precision precision) {
+        if (argb.capacity() < mWidth * mHeight) throw new IllegalArgumentException("Target is smaller than the frame");
+        run(nv21, null, argb, precision);
+    }
+
+    /**
+     * Converts a frame of any {@link PlaneLayout} into <code>width * height</code> ARGB pixels on the calling thread.
+     * <p>Reference for the format specific upload paths and shaders of {@link CameraYUVRenderer}: reads every sample
+     * through the layout and uses the same floating point arithmetic as {@link Precision#Float}, so an NV21 frame
+     * converts to the same pixels as {@link #convert(byte[], int[], Precision)}.</p>
+     */
+    public static void convert(byte[] frame, PlaneLayout layout, int[] argb) {
+        if (frame == null || layout == null || argb == null) throw new IllegalArgumentException("Arguments can not be null");
+        if (frame.length < layout.getFrameSize()) throw new IllegalArgumentException("Frame is smaller than " + layout);
+        int width = layout.getWidth();
+        int height = layout.getHeight();
+        if (argb.length < width * height) throw new IllegalArgumentException("Target is smaller than the frame");
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                float u = (frame[layout.getUIndex(x, y)] & 0xff) - 128;
+                float v = (frame[layout.getVIndex(x, y)] & 0xff) - 128;
+                float luma = frame[layout.getYIndex(x, y)] & 0xff;
+                argb[y * width + x] = argb(Math.round(luma + R_V * v), Math.round(luma + (-G_U * u - G_V * v)),
+                        Math.round(luma + B_U * u));
+            }
+        }
+    }
+
+    private synchronized void run(byte[] nv21, int[] targetArray, IntBuffer targetBuffer, Precision precision) {
+        if (nv21.length < mWidth * mHeight * 3 / 2) throw new IllegalArgumentException("Frame is smaller than the NV21 size");
+        if (precision == null) throw new IllegalArgumentException("Arguments can not be null");
+
+        mSource = nv21;
+        mTargetArray = targetArray;
+        mTargetBuffer = targetBuffer;
+        mPrecision = precision;
+        try {
+            mRunner.runAll(mStripes.length);
+        } finally {
+            mSource = null;
+            mTargetArray = null;
+            mTargetBuffer = null;
+        }
+    }
+
+    /**
+     * Converts rows <code>[firstRow, lastRow)</code> of a frame, one row at a time through <code>row</code>.
+     */
+    private static void convertRows(byte[] nv21, int width, int height, int firstRow, int lastRow, Precision precision,
+                                    int[] row, int[] targetArray, IntBuffer targetBuffer) {
+        final int uvStart = width * height;
+        for (int y = firstRow; y < lastRow; y++) {
+            int yIndex = y * width;
+            int uvIndex = uvStart + (y >> 1) * width;
+            if (precision == Precision.FixedPoint) {
+                convertRowFixed(nv21, yIndex, uvIndex, width, row);
+            } else {
+                convertRowFloat(nv21, yIndex, uvIndex, width, row);
+            }
+            if (targetArray != null) {
+                System.arraycopy(row, 0, targetArray, yIndex, width);
+            } else {
+                for (int x = 0; x < width; x++) {
+                    targetBuffer.put(yIndex + x, row[x]);
+                }
+            }
+        }
+    }
+
+    private static void convertRowFloat(byte[] nv21, int yIndex, int uvIndex, int width, int[] row) {
+        for (int x = 0; x < width; x += 2) {
+            //NV21 stores V before U
+            float v = ((nv21[uvIndex + x] & 0xff) - 128);
+            float u = ((nv21[uvIndex + x + 1] & 0xff) - 128);
+            float dr = R_V * v;
+            float dg = -G_U * u - G_V * v;
+            float db = B_U * u;
+
+            float y0 = nv21[yIndex + x] & 0xff;
+            float y1 = nv21[yIndex + x + 1] & 0xff;
+            row[x] = argb(Math.round(y0 + dr), Math.round(y0 + dg), Math.round(y0 + db));
+            row[x + 1] = argb(Math.round(y1 + dr), Math.round(y1 + dg), Math.round(y1 + db));
+        }
+    }
+
+    private static void convertRowFixed(byte[] nv21, int yIndex, int uvIndex, int width, int[] row) {
+        for (int x = 0; x < width; x += 2) {
+            int v = (nv21[uvIndex + x] & 0xff) - 128;
+            int u = (nv21[uvIndex + x + 1] & 0xff) - 128;
+            int dr = FIXED_R_V * v + FIXED_HALF;
+            int dg = -FIXED_G_U * u - FIXED_G_V * v + FIXED_HALF;
+            int db = FIXED_B_U * u + FIXED_HALF;
+
+            int y0 = (nv21[yIndex + x] & 0xff) << FIXED_SHIFT;
+            int y1 = (nv21[yIndex + x + 1] & 0xff) << FIXED_SHIFT;
+            row[x] = argb((y0 + dr) >> FIXED_SHIFT, (y0 + dg) >> FIXED_SHIFT, (y0 + db) >> FIXED_SHIFT);
+            row[x + 1] = argb((y1 + dr) >> FIXED_SHIFT, (y1 + dg) >> FIXED_SHIFT, (y1 + db) >> FIXED_SHIFT);
+        }
+    }
+
+    private static int argb(int r, int g, int b) {
+        r = r < 0 ? 0 : (r > 255 ? 255 : r);
+        g = g < 0 ? 0 : (g > 255 ? 255 : g);
+        b = b < 0 ? 0 : (b > 255 ? 255 : b);
+        return 0xff000000 | (r << 16) | (g << 8) | b;
+    }
+
+    /**
+     * Row range of the frame converted by one band, with its own row buffer.
+     */
+    private final class Stripe {
+        private final int mFirstRow;
+        private final int mLastRow;
+        private final int[] mRow;
+
+        Stripe(int firstRow, int lastRow) {
+            mFirstRow = firstRow;
+            mLastRow = lastRow;
+            mRow = new int[mWidth];
+        }
+
+        void convert() {
+            convertRows(mSource, mWidth, mHeight, mFirstRow, mLastRow, mPrecision, mRow, mTargetArray, mTargetBuffer);
+        }
+    }
+}
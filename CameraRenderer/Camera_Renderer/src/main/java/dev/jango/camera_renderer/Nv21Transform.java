@@ -0,0 +1,360 @@
+package dev.jango.camera_renderer;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+
+/**
+ * Crops, rotates, mirrors and downscales NV21 frames in a single pass.
+ * <p>Every output sample is read straight from where the combined transform takes it in the source, so each byte of
+ * the crop is read once and each output byte written once, whatever the combination. Output is written in square
+ * tiles: rotated, a tile reads a tile of source rows that stays in cache, instead of striding through a whole frame
+ * column for every output row. Row bands of tiles run in parallel on an optional executor.</p>
+ * <p>Luma is averaged over each downscale block, chroma is point sampled, as {@link FrameTripleBuffer#writeDecimated}
+ * does.</p>
+ * <p>A transform is built for one input size and transforms one frame at a time. Output buffers can be taken from
+ * its pool from any thread.</p>
+ */
+public final class Nv21Transform {
+    public static final int DEFAULT_BAND_COUNT = 4;
+
+    /** Output tile edge, in samples. */
+    static final int TILE = 32;
+    private static final int POOL_SIZE = 4;
+
+    /**
+     * Clockwise rotation of the output.
+     */
+    public enum Rotation {
+        None,
+        Rotate90,
+        Rotate180,
+        Rotate270;
+
+        public int getDegrees() {
+            return ordinal() * 90;
+        }
+
+        /**
+         * Returns the rotation of <code>degrees</code>, a multiple of 90, negative ones counting counterclockwise.
+         */
+        public static Rotation fromDegrees(int degrees) {
+            if (degrees % 90 != 0) throw new IllegalArgumentException("Not a multiple of 90 degrees: " + degrees);
+            return values()[((degrees / 90) % 4 + 4) % 4];
+        }
+
+        boolean isQuarterTurn() {
+            return this == Rotate90 || this == Rotate270;
+        }
+    }
+
+    private final int mWidth;
+    private final int mHeight;
+    private final int mCropX;
+    private final int mCropY;
+    private final int mCropWidth;
+    private final int mCropHeight;
+    private final Rotation mRotation;
+    private final boolean mMirror;
+    private final int mDownscale;
+    private final int mOutWidth;
+    private final int mOutHeight;
+    private final int mBandCount;
+
+    // Source index of output sample (0, 0) and source index steps per output column and row, luma and chroma pairs
+    private final int mYBase;
+    private final int mYStepX;
+    private final int mYStepY;
+    private final int mUVBase;
+    private final int mUVStepX;
+    private final int mUVStepY;
+
+    private final BandRunner mRunner;
+    private final ArrayDeque<byte[]> mPool = new ArrayDeque<byte[]>(POOL_SIZE);
+    private byte[] mIn;
+    private byte[] mOut;
+
+    /**
+     * @param width      width of the input frames
+     * @param height     height of the input frames
+     * @param cropX      left edge of the part of the input kept, even
+     * @param cropY      top edge of the part of the input kept, even
+     * @param cropWidth  width of the part kept, a multiple of <code>2 * downscale</code>
+     * @param cropHeight height of the part kept, a multiple of <code>2 * downscale</code>
+     * @param rotation   clockwise rotation, applied after cropping
+     * @param mirror     whether the output is flipped horizontally, after rotation
+     * @param downscale  integer factor both output sides are divided by
+     * @param bandCount  row bands run in parallel
+     * @param executor   runs all bands but one, null to run them all on the calling thread
+     */
+    public Nv21Transform(int width, int height, int cropX, int cropY, int cropWidth, int cropHeight,
+                         Rotation rotation, boolean mirror, int downscale, int bandCount, Executor executor) {
+        if (rotation == null) throw new IllegalArgumentException("Arguments can not be null");
+        if (downscale < 1 || bandCount < 1) throw new IllegalArgumentException("Downscale and band count must be positive");
+        if (cropX < 0 || cropY < 0 || cropX % 2 != 0 || cropY % 2 != 0 || cropWidth <= 0 || cropHeight <= 0
+                || cropX + cropWidth > width || cropY + cropHeight > height
+                || cropWidth % (2 * downscale) != 0 || cropHeight % (2 * downscale) != 0) {
+            throw new IllegalArgumentException("Crop " + cropWidth + "x" + cropHeight + " at " + cropX + "," + cropY
+                    + " does not fit " + width + "x" + height + " downscaled " + downscale + "x");
+        }
+        mWidth = width;
+        mHeight = height;
+        mCropX = cropX;
+        mCropY = cropY;
+        mCropWidth = cropWidth;
+        mCropHeight = cropHeight;
+        mRotation = rotation;
+        mMirror = mirror;
+        mDownscale = downscale;
+        int scaledWidth = cropWidth / downscale;
+        int scaledHeight = cropHeight / downscale;
+        mOutWidth = rotation.isQuarterTurn() ? scaledHeight : scaledWidth;
+        mOutHeight = rotation.isQuarterTurn() ? scaledWidth : scaledHeight;
+        mBandCount = Math.max(1, Math.min(bandCount, mOutHeight / 2));
+
+        int[] origin = new int[2];
+        int[] stepX = new int[2];
+        int[] stepY = new int[2];
+        sourceSteps(mOutWidth, mOutHeight, scaledWidth, scaledHeight, origin, stepX, stepY);
+        mYBase = (cropY + origin[1] * downscale) * width + cropX + origin[0] * downscale;
+        mYStepX = (stepX[1] * width + stepX[0]) * downscale;
+        mYStepY = (stepY[1] * width + stepY[0]) * downscale;
+        sourceSteps(mOutWidth / 2, mOutHeight / 2, scaledWidth / 2, scaledHeight / 2, origin, stepX, stepY);
+        // Chroma rows are as long as luma rows and hold width / 2 pairs
+        mUVBase = width * height + (cropY / 2 + origin[1] * downscale) * width + cropX + origin[0] * 2 * downscale;
+        mUVStepX = (stepX[1] * width + stepX[0] * 2) * downscale;
+        mUVStepY = (stepY[1] * width + stepY[0] * 2) * downscale;
+
+        mRunner = new BandRunner(executor) {
+            @Override
+            void runBand(int index) {
+                // Even bounds, so chroma rows split along
+                int first = index * (mOutHeight / 2) / mBandCount * 2;
+                int last = (index + 1) * (mOutHeight / 2) / mBandCount * 2;
+                transformLuma(first, last);
+                transformChroma(first / 2, last / 2);
+            }
+        };
+    }
+
+    /**
+     * Returns a transform keeping the largest centered part of the input that has the aspect ratio
+     * <code>aspectWidth:aspectHeight</code> once rotated, as a display of that aspect needs.
+     */
+    public static Nv21Transform centerCrop(int width, int height, int aspectWidth, int aspectHeight, Rotation rotation,
+                                           boolean mirror, int downscale, int bandCount, Executor executor) {
+        if (rotation == null) throw new IllegalArgumentException("Arguments can not be null");
+        if (aspectWidth <= 0 || aspectHeight <= 0 || downscale < 1) throw new IllegalArgumentException("Aspect and downscale must be positive");
+        // The aspect of the crop, before rotation
+        long sourceAspectWidth = rotation.isQuarterTurn() ? aspectHeight : aspectWidth;
+        long sourceAspectHeight = rotation.isQuarterTurn() ? aspectWidth : aspectHeight;
+        int cropWidth = width;
+        int cropHeight = height;
+        if (width * sourceAspectHeight > height * sourceAspectWidth) {
+            cropWidth = (int) (height * sourceAspectWidth / sourceAspectHeight);
+        } else {
+            cropHeight = (int) (width * sourceAspectHeight / sourceAspectWidth);
+        }
+        int unit = 2 * downscale;
+        cropWidth -= cropWidth % unit;
+        cropHeight -= cropHeight % unit;
+        int cropX = ((width - cropWidth) / 2) & ~1;
+        int cropY = ((height - cropHeight) / 2) & ~1;
+        return new Nv21Transform(width, height, cropX, cropY, cropWidth, cropHeight, rotation, mirror, downscale,
+                bandCount, executor);
+    }
+
+    /**
+     * Finds where output sample (0, 0) is in the scaled crop, and how far one output column and one output row move
+     * in it, as (x, y) pairs.
+     */
+    private void sourceSteps(int outWidth, int outHeight, int scaledWidth, int scaledHeight, int[] origin, int[] stepX, int[] stepY) {
+        int[] at = new int[2];
+        scaledPosition(0, 0, outWidth, outHeight, scaledWidth, scaledHeight, origin);
+        scaledPosition(1, 0, outWidth, outHeight, scaledWidth, scaledHeight, at);
+        stepX[0] = at[0] - origin[0];
+        stepX[1] = at[1] - origin[1];
+        scaledPosition(0, 1, outWidth, outHeight, scaledWidth, scaledHeight, at);
+        stepY[0] = at[0] - origin[0];
+        stepY[1] = at[1] - origin[1];
+    }
+
+    // Position in the scaled crop of output sample (x, y), mirroring then rotating back
+    private void scaledPosition(int x, int y, int outWidth, int outHeight, int scaledWidth, int scaledHeight, int[] out) {
+        if (mMirror) x = outWidth - 1 - x;
+        switch (mRotation) {
+            case None:
+                out[0] = x;
+                out[1] = y;
+                break;
+            case Rotate90:
+                out[0] = y;
+                out[1] = scaledHeight - 1 - x;
+                break;
+            case Rotate180:
+                out[0] = scaledWidth - 1 - x;
+                out[1] = scaledHeight - 1 - y;
+                break;
+            default:
+                out[0] = scaledWidth - 1 - y;
+                out[1] = x;
+                break;
+        }
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    public int getOutputWidth() {
+        return mOutWidth;
+    }
+
+    public int getOutputHeight() {
+        return mOutHeight;
+    }
+
+    /** Bytes of an output frame. */
+    public int getOutputSize() {
+        return mOutWidth * mOutHeight * 3 / 2;
+    }
+
+    public Rotation getRotation() {
+        return mRotation;
+    }
+
+    public boolean isMirrored() {
+        return mMirror;
+    }
+
+    public int getDownscale() {
+        return mDownscale;
+    }
+
+    /**
+     * Takes an output buffer from the pool, allocating one if it is empty. Hand it back with
+     * {@link #releaseOutput(byte[])}.
+     */
+    public byte[] acquireOutput() {
+        synchronized (mPool) {
+            byte[] buffer = mPool.poll();
+            if (buffer != null) return buffer;
+        }
+        return new byte[getOutputSize()];
+    }
+
+    /**
+     * Returns a buffer to the pool. Buffers beyond the pool size are left to the garbage collector.
+     */
+    public void releaseOutput(byte[] buffer) {
+        if (buffer == null || buffer.length != getOutputSize()) return;
+        synchronized (mPool) {
+            if (mPool.size() < POOL_SIZE) mPool.add(buffer);
+        }
+    }
+
+    /**
+     * Writes the transformed <code>frame</code> into <code>out</code>, an NV21 frame of the output size.
+     */
+    public void transform(byte[] frame, byte[] out) {
+        if (frame == null || out == null) throw new IllegalArgumentException("Arguments can not be null");
+        if (frame.length < mWidth * mHeight * 3 / 2) throw new IllegalArgumentException("Frame is smaller than " + mWidth + "x" + mHeight);
+        if (out.length < getOutputSize()) throw new IllegalArgumentException("Output is smaller than " + getOutputSize() + " bytes");
+        mIn = frame;
+        mOut = out;
+        try {
+            mRunner.runAll(mBandCount);
+        } finally {
+            mIn = null;
+            mOut = null;
+        }
+    }
+
+    // Output luma rows [first, last)
+    private void transformLuma(int first, int last) {
+        final byte[] in = mIn;
+        final byte[] out = mOut;
+        final int outWidth = mOutWidth;
+        final int stepX = mYStepX;
+        final int scale = mDownscale;
+        if (stepX == 1) {
+            // Neither rotated nor mirrored nor scaled, rows are contiguous in the source
+            for (int y = first; y < last; y++) {
+                System.arraycopy(in, mYBase + y * mYStepY, out, y * outWidth, outWidth);
+            }
+            return;
+        }
+        for (int tileY = first; tileY < last; tileY += TILE) {
+            int tileEndY = Math.min(tileY + TILE, last);
+            for (int tileX = 0; tileX < outWidth; tileX += TILE) {
+                int count = Math.min(TILE, outWidth - tileX);
+                for (int y = tileY; y < tileEndY; y++) {
+                    int src = mYBase + y * mYStepY + tileX * stepX;
+                    int dst = y * outWidth + tileX;
+                    int end = dst + count;
+                    if (scale == 1) {
+                        for (; dst < end; dst++, src += stepX) {
+                            out[dst] = in[src];
+                        }
+                    } else if (scale == 2) {
+                        int below = mWidth;
+                        for (; dst < end; dst++, src += stepX) {
+                            int sum = (in[src] & 0xff) + (in[src + 1] & 0xff) + (in[src + below] & 0xff) + (in[src + below + 1] & 0xff);
+                            out[dst] = (byte) ((sum + 2) >> 2);
+                        }
+                    } else {
+                        int area = scale * scale;
+                        for (; dst < end; dst++, src += stepX) {
+                            int sum = 0;
+                            for (int row = src, rowEnd = src + scale * mWidth; row < rowEnd; row += mWidth) {
+                                for (int i = row; i < row + scale; i++) {
+                                    sum += in[i] & 0xff;
+                                }
+                            }
+                            out[dst] = (byte) ((sum + area / 2) / area);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    // Output chroma rows [first, last), VU pairs copied as they are
+    private void transformChroma(int first, int last) {
+        final byte[] in = mIn;
+        final byte[] out = mOut;
+        final int pairs = mOutWidth / 2;
+        final int stepX = mUVStepX;
+        final int outStart = mOutWidth * mOutHeight;
+        if (stepX == 2) {
+            for (int y = first; y < last; y++) {
+                System.arraycopy(in, mUVBase + y * mUVStepY, out, outStart + y * mOutWidth, mOutWidth);
+            }
+            return;
+        }
+        for (int tileY = first; tileY < last; tileY += TILE) {
+            int tileEndY = Math.min(tileY + TILE, last);
+            for (int tileX = 0; tileX < pairs; tileX += TILE) {
+                int count = Math.min(TILE, pairs - tileX);
+                for (int y = tileY; y < tileEndY; y++) {
+                    int src = mUVBase + y * mUVStepY + tileX * stepX;
+                    int dst = outStart + y * mOutWidth + tileX * 2;
+                    int end = dst + count * 2;
+                    for (; dst < end; dst += 2, src += stepX) {
+                        out[dst] = in[src];
+                        out[dst + 1] = in[src + 1];
+                    }
+                }
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return mWidth + "x" + mHeight + " crop " + mCropWidth + "x" + mCropHeight + "+" + mCropX + "+" + mCropY + " "
+                + mRotation + (mMirror ? " mirrored" : "") + " /" + mDownscale + " -> " + mOutWidth + "x" + mOutHeight;
+    }
+}
@@ -0,0 +1,163 @@
+package dev.jango.camera_renderer;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link FrameSource} delivering frames from its own thread, either at their presentation times or as fast as the
+ * listener takes them.
+ * <p>Subclasses describe the frames, this class does the pacing. Frames are produced into one reused buffer, nothing
+ * is allocated per frame once the largest frame was seen.</p>
+ */
+public abstract class PacedFrameSource implements FrameSource {
+    // Between the last and the first frame of a loop with a single frame
+    private static final long LOOP_INTERVAL_NANOS = 1000000000L / 30;
+
+    private final String mName;
+    private final boolean mMaxRate;
+    private final boolean mLoop;
+
+    private volatile Listener mListener;
+    private volatile Thread mThread;
+    private volatile boolean mReady = false;
+    private volatile int mWidth;
+    private volatile int mHeight;
+    private byte[] mBuffer = new byte[0];
+
+    private final AtomicLong mDelivered = new AtomicLong();
+    private final AtomicLong mLate = new AtomicLong();
+
+    /**
+     * @param name    name of the delivery thread
+     * @param maxRate deliver each frame as soon as the previous one returned, ignoring presentation times
+     * @param loop    start over after the last frame
+     */
+    protected PacedFrameSource(String name, boolean maxRate, boolean loop) {
+        if (name == null) throw new IllegalArgumentException("Arguments can not be null");
+        mName = name;
+        mMaxRate = maxRate;
+        mLoop = loop;
+    }
+
+    /** Number of frames, or -1 for an endless source. */
+    protected abstract int getFrameCount();
+
+    /** Presentation time of <code>frame</code>, relative to any fixed origin. Not decreasing. */
+    protected abstract long getPresentationNanos(int frame);
+
+    protected abstract int getFrameWidth(int frame);
+
+    protected abstract int getFrameHeight(int frame);
+
+    /** Writes the NV21 data of <code>frame</code> into <code>out</code>, which is large enough. */
+    protected abstract void produceFrame(int frame, byte[] out);
+
+    @Override
+    public synchronized void start(Listener listener) {
+        if (listener == null) throw new IllegalArgumentException("Arguments can not be null");
+        mListener = listener;
+        if (mThread != null) return;
+        if (getFrameCount() == 0) return;
+        mWidth = getFrameWidth(0);
+        mHeight = getFrameHeight(0);
+        mThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                deliver();
+            }
+        }, mName);
+        mThread.start();
+    }
+
+    @Override
+    public void stop() {
+        Thread thread;
+        synchronized (this) {
+            thread = mThread;
+            mThread = null;
+            mListener = null;
+        }
+        if (thread == null) return;
+        thread.interrupt();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        mReady = false;
+    }
+
+    @Override
+    public boolean isReady() {
+        return mReady;
+    }
+
+    @Override
+    public int getWidth() {
+        return mWidth;
+    }
+
+    @Override
+    public int getHeight() {
+        return mHeight;
+    }
+
+    /** Frames are produced as NV21. */
+    @Override
+    public PlaneLayout.Format getFormat() {
+        return PlaneLayout.Format.Nv21;
+    }
+
+    /** Number of frames the listener consumed. */
+    public long getDeliveredCount() {
+        return mDelivered.get();
+    }
+
+    /** Number of frames delivered after their presentation time had passed by more than a frame interval. */
+    public long getLateCount() {
+        return mLate.get();
+    }
+
+    private void deliver() {
+        Thread self = Thread.currentThread();
+        int count = getFrameCount();
+        mReady = true;
+        long origin = System.nanoTime();
+        long firstPresentation = getPresentationNanos(0);
+        long lastInterval = 0;
+        for (int frame = 0; mThread == self; frame++) {
+            if (count >= 0 && frame >= count) {
+                if (!mLoop) break;
+                // Carry the timeline on past the last frame
+                origin += getPresentationNanos(count - 1) - firstPresentation
+                        + (lastInterval > 0 ? lastInterval : LOOP_INTERVAL_NANOS);
+                frame = 0;
+            }
+            int width = getFrameWidth(frame);
+            int height = getFrameHeight(frame);
+            int size = width * height * 3 / 2;
+            if (mBuffer.length < size) mBuffer = new byte[size];
+            produceFrame(frame, mBuffer);
+
+            if (frame > 0) lastInterval = getPresentationNanos(frame) - getPresentationNanos(frame - 1);
+            if (!mMaxRate) {
+                long due = origin + getPresentationNanos(frame) - firstPresentation;
+                long wait = due - System.nanoTime();
+                if (wait > 0) {
+                    try {
+                        Thread.sleep(wait / 1000000, (int) (wait % 1000000));
+                    } catch (InterruptedException e) {
+                        break;
+                    }
+                } else if (-wait > lastInterval && lastInterval > 0) {
+                    mLate.incrementAndGet();
+                }
+            }
+
+            mWidth = width;
+            mHeight = height;
+            Listener listener = mListener;
+            if (listener != null && listener.onFrame(mBuffer, width, height, System.nanoTime())) mDelivered.incrementAndGet();
+        }
+        mReady = false;
+    }
+}
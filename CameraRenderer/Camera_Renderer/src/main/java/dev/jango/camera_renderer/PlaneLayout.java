@@ -0,0 +1,164 @@
+package dev.jango.camera_renderer;
+
+/**
+ * Where the planes of a YUV 4:2:0 frame are in its buffer.
+ * <p>Every format starts with the full resolution luma plane. Semi-planar formats follow it with one plane of
+ * interleaved chroma pairs, planar formats with one plane per chroma component. Offsets and strides are in bytes, a
+ * stride can be larger than the plane width: the renderer then uploads the padding too and leaves it out through its
+ * texture coordinates instead of repacking the frame.</p>
+ * <p>Frame sizes must be even.</p>
+ */
+public final class PlaneLayout {
+    public enum Format {
+        /** Luma, then interleaved VU pairs. The camera default. */
+        Nv21,
+        /** Luma, then interleaved UV pairs. */
+        Nv12,
+        /** Luma, then the V and U planes, rows aligned to 16 bytes as the Android camera lays them out. */
+        Yv12,
+        /** Luma, then the U and V planes, tightly packed. */
+        I420
+    }
+
+    private final Format mFormat;
+    private final int mWidth;
+    private final int mHeight;
+    private final int mYStride;
+    private final int mChromaStride;
+    private final int mUOffset;
+    private final int mVOffset;
+    private final int mFrameSize;
+
+    private PlaneLayout(Format format, int width, int height) {
+        mFormat = format;
+        mWidth = width;
+        mHeight = height;
+        int ySize;
+        switch (format) {
+            case Nv21:
+                mYStride = width;
+                mChromaStride = width;
+                ySize = mYStride * height;
+                mVOffset = ySize;
+                mUOffset = ySize + 1;
+                mFrameSize = ySize + mChromaStride * height / 2;
+                break;
+            case Nv12:
+                mYStride = width;
+                mChromaStride = width;
+                ySize = mYStride * height;
+                mUOffset = ySize;
+                mVOffset = ySize + 1;
+                mFrameSize = ySize + mChromaStride * height / 2;
+                break;
+            case Yv12:
+                mYStride = align16(width);
+                mChromaStride = align16(mYStride / 2);
+                ySize = mYStride * height;
+                mVOffset = ySize;
+                mUOffset = ySize + mChromaStride * height / 2;
+                mFrameSize = mUOffset + mChromaStride * height / 2;
+                break;
+            default:
+                mYStride = width;
+                mChromaStride = width / 2;
+                ySize = mYStride * height;
+                mUOffset = ySize;
+                mVOffset = ySize + mChromaStride * height / 2;
+                mFrameSize = mVOffset + mChromaStride * height / 2;
+                break;
+        }
+    }
+
+    public static PlaneLayout of(Format format, int width, int height) {
+        if (format == null) throw new IllegalArgumentException("Arguments can not be null");
+        if (width <= 0 || height <= 0 || width % 2 != 0 || height % 2 != 0) {
+            throw new IllegalArgumentException("Frame size must be positive and even, not " + width + "x" + height);
+        }
+        return new PlaneLayout(format, width, height);
+    }
+
+    private static int align16(int value) {
+        return (value + 15) & ~15;
+    }
+
+    public Format getFormat() {
+        return mFormat;
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    /** Whether both chroma components share one plane, as pairs. */
+    public boolean isSemiPlanar() {
+        return mFormat == Format.Nv21 || mFormat == Format.Nv12;
+    }
+
+    /** Bytes between the starts of two luma rows. */
+    public int getYStride() {
+        return mYStride;
+    }
+
+    /** Bytes between the starts of two chroma rows, of the interleaved plane or of each chroma plane. */
+    public int getChromaStride() {
+        return mChromaStride;
+    }
+
+    /** Bytes between two samples of one chroma component in a row, 2 when interleaved. */
+    public int getChromaPixelStride() {
+        return isSemiPlanar() ? 2 : 1;
+    }
+
+    public int getChromaWidth() {
+        return mWidth / 2;
+    }
+
+    public int getChromaHeight() {
+        return mHeight / 2;
+    }
+
+    /** Offset of the first U sample. */
+    public int getUOffset() {
+        return mUOffset;
+    }
+
+    /** Offset of the first V sample. */
+    public int getVOffset() {
+        return mVOffset;
+    }
+
+    /** Offset of the chroma plane, the first of both when planar. */
+    public int getChromaOffset() {
+        return Math.min(mUOffset, mVOffset);
+    }
+
+    /** Bytes of a frame, padding included. */
+    public int getFrameSize() {
+        return mFrameSize;
+    }
+
+    /** Offset of the luma sample of pixel (x, y). */
+    public int getYIndex(int x, int y) {
+        return y * mYStride + x;
+    }
+
+    /** Offset of the U sample covering pixel (x, y). */
+    public int getUIndex(int x, int y) {
+        return mUOffset + (y / 2) * mChromaStride + (x / 2) * getChromaPixelStride();
+    }
+
+    /** Offset of the V sample covering pixel (x, y). */
+    public int getVIndex(int x, int y) {
+        return mVOffset + (y / 2) * mChromaStride + (x / 2) * getChromaPixelStride();
+    }
+
+    @Override
+    public String toString() {
+        return mFormat + " " + mWidth + "x" + mHeight + ", strides " + mYStride + "/" + mChromaStride + ", " + mFrameSize + " bytes";
+    }
+}
@@ -0,0 +1,254 @@
+package dev.jango.camera_renderer;
+
+import java.util.ArrayDeque;
+
+/**
+ * Pool of preallocated preview callback buffers shared between the camera and a frame consumer.
+ * <p>The camera fills the buffers handed to it through {@link Recycler}, the preview callback queues the filled
+ * buffers with {@link #onFrame(byte[])}, and the consumer takes them with {@link #acquire()} or
+ * {@link #acquireLatest()} and hands them back with {@link #release(byte[])}.</p>
+ * <p>At most <code>bufferCount - 2</code> frames are queued, so one buffer is always left for the camera to fill and
+ * one for the consumer to work on. When the queue is full the {@link DropPolicy} decides which frame is given back
+ * to the camera, and the decision is recorded in the counters instead of being lost inside the camera driver.</p>
+ * <p>All methods are thread-safe.</p>
+ */
+public final class PreviewBufferRing {
+    public enum DropPolicy {
+        /** Give the oldest queued frame back to the camera and queue the new one. */
+        DropOldest,
+        /** Give the new frame straight back to the camera and keep the queued ones. */
+        DropNewest,
+        /** Wait up to the block timeout for the consumer to make room, then drop the new frame. */
+        Block
+    }
+
+    /**
+     * Receives buffers that are free to be filled again, usually <code>Camera.addCallbackBuffer</code>.
+     */
+    public interface Recycler {
+        void recycle(byte[] buffer);
+    }
+
+    public static final int DEFAULT_BUFFER_COUNT = 3;
+    public static final long DEFAULT_BLOCK_TIMEOUT_MS = 33;
+
+    private final Object mLock = new Object();
+    private final byte[][] mBuffers;
+    private final ArrayDeque<byte[]> mPending;
+    private final int mMaxPending;
+    private final int mFrameSize;
+    private final DropPolicy mDropPolicy;
+    private long mBlockTimeoutMs = DEFAULT_BLOCK_TIMEOUT_MS;
+
+    private Recycler mRecycler;
+
+    private long mFramesDelivered = 0;
+    private long mFramesDropped = 0;
+    private long mBuffersRecycled = 0;
+
+    public PreviewBufferRing(int bufferCount, int frameSize, DropPolicy dropPolicy) {
+        if (bufferCount < 2) throw new IllegalArgumentException("At least 2 buffers are required");
+        if (frameSize <= 0) throw new IllegalArgumentException("Frame size must be positive");
+        if (dropPolicy == null) throw new IllegalArgumentException("Arguments can not be null");
+
+        mFrameSize = frameSize;
+        mDropPolicy = dropPolicy;
+        mMaxPending = Math.max(1, bufferCount - 2);
+        mPending = new ArrayDeque<byte[]>(mMaxPending + 1);
+        mBuffers = new byte[bufferCount][];
+        for (int i = 0; i < bufferCount; i++) {
+            mBuffers[i] = new byte[frameSize];
+        }
+    }
+
+    /**
+     * Hands every buffer of the pool to the recycler, dropping frames queued for a previous recycler.
+     * <p>Called once after the camera is opened and before the preview is started.</p>
+     */
+    public void attach(Recycler recycler) {
+        synchronized (mLock) {
+            mRecycler = recycler;
+            mPending.clear();
+            for (byte[] buffer : mBuffers) {
+                recycler.recycle(buffer);
+            }
+            mLock.notifyAll();
+        }
+    }
+
+    /**
+     * Stops handing buffers back, for example once the camera has been released.
+     */
+    public void detach() {
+        synchronized (mLock) {
+            mRecycler = null;
+            mPending.clear();
+            mLock.notifyAll();
+        }
+    }
+
+    /**
+     * Queues a buffer filled by the camera for the consumer.
+     * <p>Called from the preview callback thread.</p>
+     */
+    public void onFrame(byte[] frame) {
+        synchronized (mLock) {
+            if (mPending.size() >= mMaxPending) {
+                switch (mDropPolicy) {
+                    case DropOldest:
+                        recycleLocked(mPending.pollFirst());
+                        mFramesDropped++;
+                        break;
+                    case DropNewest:
+                        recycleLocked(frame);
+                        mFramesDropped++;
+                        return;
+                    case Block:
+                        if (!awaitRoomLocked()) {
+                            recycleLocked(frame);
+                            mFramesDropped++;
+                            return;
+                        }
+                        break;
+                }
+            }
+            mPending.addLast(frame);
+        }
+    }
+
+    /**
+     * Takes the oldest queued frame, or returns null if no frame is queued.
+     * <p>The frame must be handed back with {@link #release(byte[])}.</p>
+     */
+    public byte[] acquire() {
+        synchronized (mLock) {
+            byte[] frame = mPending.pollFirst();
+            if (frame != null) {
+                mFramesDelivered++;
+                mLock.notifyAll();
+            }
+            return frame;
+        }
+    }
+
+    /**
+     * Takes the newest queued frame and gives the older ones back to the camera as dropped frames.
+     * <p>Returns null if no frame is queued. The frame must be handed back with {@link #release(byte[])}.</p>
+     */
+    public byte[] acquireLatest() {
+        synchronized (mLock) {
+            while (mPending.size() > 1) {
+                recycleLocked(mPending.pollFirst());
+                mFramesDropped++;
+            }
+            return acquire();
+        }
+    }
+
+    /**
+     * Gives a buffer back to the camera once its content is no longer needed.
+     */
+    public void release(byte[] frame) {
+        synchronized (mLock) {
+            recycleLocked(frame);
+            mLock.notifyAll();
+        }
+    }
+
+    /**
+     * Records a frame the preview callback consumed in place and gives it back to the camera.
+     */
+    public void releaseConsumed(byte[] frame) {
+        synchronized (mLock) {
+            mFramesDelivered++;
+            recycleLocked(frame);
+            mLock.notifyAll();
+        }
+    }
+
+    /**
+     * Sets how long {@link DropPolicy#Block} waits for the consumer before dropping the new frame.
+     */
+    public void setBlockTimeout(long timeoutMs) {
+        synchronized (mLock) {
+            mBlockTimeoutMs = timeoutMs;
+        }
+    }
+
+    public int getFrameSize() {
+        return mFrameSize;
+    }
+
+    public int getBufferCount() {
+        return mBuffers.length;
+    }
+
+    public DropPolicy getDropPolicy() {
+        return mDropPolicy;
+    }
+
+    /** Number of frames handed to the consumer. */
+    public long getFramesDelivered() {
+        synchronized (mLock) {
+            return mFramesDelivered;
+        }
+    }
+
+    /** Number of frames given back to the camera without being consumed. */
+    public long getFramesDropped() {
+        synchronized (mLock) {
+            return mFramesDropped;
+        }
+    }
+
+    /** Number of buffers handed back to the camera, excluding the initial fill. */
+    public long getBuffersRecycled() {
+        synchronized (mLock) {
+            return mBuffersRecycled;
+        }
+    }
+
+    public void resetCounters() {
+        synchronized (mLock) {
+            mFramesDelivered = 0;
+            mFramesDropped = 0;
+            mBuffersRecycled = 0;
+        }
+    }
+
+    private boolean awaitRoomLocked() {
+        long deadline = System.nanoTime() + mBlockTimeoutMs * 1000000L;
+        while (mPending.size() >= mMaxPending && mRecycler != null) {
+            long remainingMs = (deadline - System.nanoTime()) / 1000000L;
+            if (remainingMs <= 0) return false;
+            try {
+                mLock.wait(remainingMs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return mPending.size() < mMaxPending;
+    }
+
+    private void recycleLocked(byte[] buffer) {
+        if (buffer == null) return;
+        if (buffer.length != mFrameSize) {
+            // Buffer from a previous preview configuration, let it be collected
+            return;
+        }
+        if (mRecycler != null) {
+            mRecycler.recycle(buffer);
+            mBuffersRecycled++;
+        }
+    }
+
+    @Override
+    public String toString() {
+        synchronized (mLock) {
+            return "PreviewBufferRing{buffers=" + mBuffers.length + ", policy=" + mDropPolicy
+                    + ", delivered=" + mFramesDelivered + ", dropped=" + mFramesDropped
+                    + ", recycled=" + mBuffersRecycled + "}";
+        }
+    }
+}
@@ -0,0 +1,247 @@
+package dev.jango.camera_renderer;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Picks the preview size and frame rate range of a camera, free of the camera API so it can run off device.
+ * <p>Every pair of supported size and frame rate range is scored against the display size and target frame rate.
+ * Pairs whose upload rate exceeds the budget of the render mode are only considered when no pair fits, in which case
+ * the pair with the lowest upload rate wins.</p>
+ * <p>Results are memoized per camera and {@link Request}: the supported sizes and ranges of a camera do not change
+ * while the process lives. Thread safe.</p>
+ */
+public final class PreviewNegotiator {
+    /** Bytes uploaded per preview pixel when rendering from NV21 buffers: full Y plane plus half size VU plane. */
+    public static final float NV21_UPLOAD_BYTES_PER_PIXEL = 1.5f;
+    /** Upload budget fitting one 1080p NV21 stream at 30 fps. */
+    public static final long DEFAULT_UPLOAD_BUDGET = 1920L * 1080 * 3 / 2 * 30;
+    public static final int DEFAULT_TARGET_FPS = 30;
+
+    private static final double ASPECT_WEIGHT = 8.0;
+    private static final double UNDERSIZE_WEIGHT = 2.0;
+    private static final double OVERSIZE_WEIGHT = 0.5;
+    private static final double FPS_WEIGHT = 4.0;
+    private static final double FPS_OVERSHOOT_WEIGHT = 0.5;
+    private static final double FPS_FLOOR_WEIGHT = 0.1;
+
+    /**
+     * What the preview is wanted for.
+     */
+    public static final class Request {
+        private final int mDisplayWidth;
+        private final int mDisplayHeight;
+        private final int mTargetFps;
+        private final float mUploadBytesPerPixel;
+        private final long mUploadBudget;
+
+        /**
+         * @param uploadBytesPerPixel bytes uploaded per preview pixel and frame, 0 when frames are not uploaded
+         * @param uploadBudget        upload bytes per second the render mode can afford
+         */
+        public Request(int displayWidth, int displayHeight, int targetFps, float uploadBytesPerPixel, long uploadBudget) {
+            if (displayWidth <= 0 || displayHeight <= 0 || targetFps <= 0) throw new IllegalArgumentException("Display size and frame rate must be positive");
+            mDisplayWidth = displayWidth;
+            mDisplayHeight = displayHeight;
+            mTargetFps = targetFps;
+            mUploadBytesPerPixel = uploadBytesPerPixel;
+            mUploadBudget = uploadBudget;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Request)) return false;
+            Request r = (Request) o;
+            return mDisplayWidth == r.mDisplayWidth && mDisplayHeight == r.mDisplayHeight && mTargetFps == r.mTargetFps
+                    && Float.floatToIntBits(mUploadBytesPerPixel) == Float.floatToIntBits(r.mUploadBytesPerPixel)
+                    && mUploadBudget == r.mUploadBudget;
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = mDisplayWidth;
+            hash = 31 * hash + mDisplayHeight;
+            hash = 31 * hash + mTargetFps;
+            hash = 31 * hash + Float.floatToIntBits(mUploadBytesPerPixel);
+            hash = 31 * hash + (int) (mUploadBudget ^ (mUploadBudget >>> 32));
+            return hash;
+        }
+    }
+
+    /**
+     * Chosen preview size and frame rate range.
+     */
+    public static final class Result {
+        private final int mSizeIndex;
+        private final int mFpsRangeIndex;
+        private final int mWidth;
+        private final int mHeight;
+        private final int mMinFps;
+        private final int mMaxFps;
+        private final long mUploadRate;
+
+        private Result(int sizeIndex, int fpsRangeIndex, int width, int height, int minFps, int maxFps, long uploadRate) {
+            mSizeIndex = sizeIndex;
+            mFpsRangeIndex = fpsRangeIndex;
+            mWidth = width;
+            mHeight = height;
+            mMinFps = minFps;
+            mMaxFps = maxFps;
+            mUploadRate = uploadRate;
+        }
+
+        public int getSizeIndex() {
+            return mSizeIndex;
+        }
+
+        /** Index of the chosen frame rate range, -1 if the camera reported none. */
+        public int getFpsRangeIndex() {
+            return mFpsRangeIndex;
+        }
+
+        public int getWidth() {
+            return mWidth;
+        }
+
+        public int getHeight() {
+            return mHeight;
+        }
+
+        /** Lower end of the frame rate range, in frames per 1000 seconds like the camera API. */
+        public int getMinFps() {
+            return mMinFps;
+        }
+
+        /** Upper end of the frame rate range, in frames per 1000 seconds like the camera API. */
+        public int getMaxFps() {
+            return mMaxFps;
+        }
+
+        /** Upload bytes per second at the expected frame rate. */
+        public long getUploadRate() {
+            return mUploadRate;
+        }
+
+        @Override
+        public String toString() {
+            return mWidth + "x" + mHeight + " @" + mMinFps / 1000f + "-" + mMaxFps / 1000f + "fps, "
+                    + mUploadRate / 1000000f + "MB/s";
+        }
+    }
+
+    private static final class Key {
+        private final int mCameraId;
+        private final Request mRequest;
+
+        Key(int cameraId, Request request) {
+            mCameraId = cameraId;
+            mRequest = request;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) return false;
+            Key k = (Key) o;
+            return mCameraId == k.mCameraId && mRequest.equals(k.mRequest);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * mCameraId + mRequest.hashCode();
+        }
+    }
+
+    private final Map<Key, Result> mResults = new HashMap<Key, Result>();
+
+    /**
+     * Returns the memoized result for the camera and request, negotiating it on first use.
+     * <p><code>fpsRanges</code> holds {min, max} pairs in frames per 1000 seconds, as returned by
+     * <code>getSupportedPreviewFpsRange</code>, and may be empty. Returns null if there is no size.</p>
+     */
+    public synchronized Result negotiate(int cameraId, int[] widths, int[] heights, int[][] fpsRanges, Request request) {
+        Key key = new Key(cameraId, request);
+        Result result = mResults.get(key);
+        if (result == null) {
+            result = select(widths, heights, fpsRanges, request);
+            if (result != null) mResults.put(key, result);
+        }
+        return result;
+    }
+
+    /**
+     * Forgets all memoized results.
+     */
+    public synchronized void clear() {
+        mResults.clear();
+    }
+
+    /**
+     * Scores every pair of size and frame rate range, without memoization.
+     */
+    static Result select(int[] widths, int[] heights, int[][] fpsRanges, Request request) {
+        if (widths.length != heights.length) throw new IllegalArgumentException("Size lists differ in length");
+        int rangeCount = Math.max(1, fpsRanges.length);
+
+        int best = -1;
+        double bestScore = Double.MAX_VALUE;
+        int cheapest = -1;
+        long cheapestRate = Long.MAX_VALUE;
+        for (int i = 0; i < widths.length; i++) {
+            if (widths[i] <= 0 || heights[i] <= 0) continue;
+            double sizeCost = sizeCost(widths[i], heights[i], request);
+            for (int j = 0; j < rangeCount; j++) {
+                int[] range = fpsRanges.length == 0 ? null : fpsRanges[j];
+                long rate = uploadRate(widths[i], heights[i], range, request);
+                if (rate < cheapestRate) {
+                    cheapestRate = rate;
+                    cheapest = i * rangeCount + j;
+                }
+                if (rate > request.mUploadBudget) continue;
+
+                double score = sizeCost + fpsCost(range, request);
+                if (score < bestScore) {
+                    bestScore = score;
+                    best = i * rangeCount + j;
+                }
+            }
+        }
+
+        // Nothing fits the budget, stay as far below it as possible
+        if (best < 0) best = cheapest;
+        if (best < 0) return null;
+
+        int sizeIndex = best / rangeCount;
+        int rangeIndex = fpsRanges.length == 0 ? -1 : best % rangeCount;
+        int[] range = rangeIndex < 0 ? null : fpsRanges[rangeIndex];
+        return new Result(sizeIndex, rangeIndex, widths[sizeIndex], heights[sizeIndex],
+                range == null ? 0 : range[0], range == null ? 0 : range[1],
+                uploadRate(widths[sizeIndex], heights[sizeIndex], range, request));
+    }
+
+    private static double sizeCost(int width, int height, Request request) {
+        double targetRatio = (double) request.mDisplayWidth / request.mDisplayHeight;
+        double ratio = (double) width / height;
+        double cost = ASPECT_WEIGHT * Math.abs(ratio - targetRatio) / targetRatio;
+
+        // Missing pixels show, surplus pixels only cost bandwidth
+        double scale = Math.log((double) width * height / ((double) request.mDisplayWidth * request.mDisplayHeight)) / Math.log(2);
+        cost += scale < 0 ? -scale * UNDERSIZE_WEIGHT : scale * OVERSIZE_WEIGHT;
+        return cost;
+    }
+
+    private static double fpsCost(int[] range, Request request) {
+        if (range == null) return 0;
+        double target = request.mTargetFps;
+        double max = range[1] / 1000.0;
+        double min = range[0] / 1000.0;
+        double cost = max < target ? FPS_WEIGHT * (target - max) / target : FPS_OVERSHOOT_WEIGHT * (max - target) / target;
+        // A lower floor lets auto exposure lengthen frames in low light instead of underexposing
+        cost += FPS_FLOOR_WEIGHT * min / target;
+        return cost;
+    }
+
+    private static long uploadRate(int width, int height, int[] range, Request request) {
+        double fps = range == null ? request.mTargetFps : Math.min(request.mTargetFps, range[1] / 1000.0);
+        return (long) ((double) width * height * request.mUploadBytesPerPixel * fps);
+    }
+}
@@ -0,0 +1,134 @@
+package dev.jango.camera_renderer;
+
+/**
+ * Picks the quality level of the YUV path from measured frame times.
+ * <p>Frames are judged in windows of {@link #DEFAULT_WINDOW_FRAMES}. The level steps down when a quarter of a window
+ * or more ran over {@link #DEFAULT_DOWN_THRESHOLD} of the frame budget, and steps back up only after whole windows
+ * stayed under {@link #DEFAULT_UP_THRESHOLD}. The gap between both thresholds and the window reset after every
+ * change keep the level from oscillating; a step up that had to be undone doubles the number of clean windows the
+ * next one needs, up to {@link #MAX_CLEAN_WINDOWS}.</p>
+ * <p>Pure policy, free of timing sources and of the camera API. Not thread safe, feed it from the render thread.</p>
+ */
+public final class QualityGovernor {
+    public static final int DEFAULT_WINDOW_FRAMES = 30;
+    public static final float DEFAULT_DOWN_THRESHOLD = 0.8f;
+    public static final float DEFAULT_UP_THRESHOLD = 0.4f;
+    public static final int MAX_CLEAN_WINDOWS = 8;
+
+    /**
+     * Quality levels, from best to cheapest. Each level keeps the savings of the previous ones.
+     */
+    public enum Level {
+        /** Full resolution upload. */
+        Full,
+        /** Y and UV planes decimated 2x on the CPU before upload. */
+        Decimated2x,
+        /** Smaller camera preview size on top of the decimation. */
+        ReducedPreview
+    }
+
+    private static final Level[] LEVELS = Level.values();
+
+    private final int mWindowFrames;
+    private final long mDownThresholdNanos;
+    private final long mUpThresholdNanos;
+
+    private Level mLevel = Level.Full;
+    private Level mMinLevel = Level.ReducedPreview;
+    private int mWindowCount = 0;
+    private int mOverCount = 0;
+    private int mUnderCount = 0;
+    private int mCleanWindows = 0;
+    private int mRequiredCleanWindows = 1;
+    private boolean mLastChangeWasUp = false;
+    private int mLevelChanges = 0;
+
+    public QualityGovernor(long frameBudgetNanos) {
+        this(frameBudgetNanos, DEFAULT_WINDOW_FRAMES, DEFAULT_DOWN_THRESHOLD, DEFAULT_UP_THRESHOLD);
+    }
+
+    /**
+     * @param downThreshold fraction of the budget above which a frame counts against the current level
+     * @param upThreshold   fraction of the budget under which a frame counts as headroom, below downThreshold
+     */
+    public QualityGovernor(long frameBudgetNanos, int windowFrames, float downThreshold, float upThreshold) {
+        if (frameBudgetNanos <= 0 || windowFrames <= 0) throw new IllegalArgumentException("Budget and window must be positive");
+        if (upThreshold >= downThreshold) throw new IllegalArgumentException("Up threshold must be below down threshold");
+        mWindowFrames = windowFrames;
+        mDownThresholdNanos = (long) (frameBudgetNanos * downThreshold);
+        mUpThresholdNanos = (long) (frameBudgetNanos * upThreshold);
+    }
+
+    /**
+     * Limits how far the level may step down, for example to {@link Level#Decimated2x} when the preview size can
+     * not change.
+     */
+    public void setLowestLevel(Level level) {
+        if (level == null) throw new IllegalArgumentException("Arguments can not be null");
+        mMinLevel = level;
+        if (mLevel.ordinal() > level.ordinal()) changeLevel(level, true);
+    }
+
+    /**
+     * Accounts one drawn frame and returns the level to use from now on.
+     */
+    public Level onFrame(long uploadNanos, long drawNanos) {
+        long work = uploadNanos + drawNanos;
+        if (work > mDownThresholdNanos) mOverCount++;
+        if (work < mUpThresholdNanos) mUnderCount++;
+        if (++mWindowCount < mWindowFrames) return mLevel;
+
+        if (mOverCount * 4 >= mWindowFrames) {
+            mCleanWindows = 0;
+            if (mLevel.ordinal() < mMinLevel.ordinal()) {
+                if (mLastChangeWasUp) mRequiredCleanWindows = Math.min(MAX_CLEAN_WINDOWS, mRequiredCleanWindows * 2);
+                changeLevel(LEVELS[mLevel.ordinal() + 1], false);
+                return mLevel;
+            }
+        } else if (mUnderCount == mWindowFrames) {
+            if (++mCleanWindows >= mRequiredCleanWindows && mLevel.ordinal() > 0) {
+                mCleanWindows = 0;
+                changeLevel(LEVELS[mLevel.ordinal() - 1], true);
+                return mLevel;
+            }
+        } else {
+            mCleanWindows = 0;
+        }
+        resetWindow();
+        return mLevel;
+    }
+
+    public Level getLevel() {
+        return mLevel;
+    }
+
+    /** Number of level changes since creation. */
+    public int getLevelChanges() {
+        return mLevelChanges;
+    }
+
+    /**
+     * Goes back to {@link Level#Full} with a fresh window.
+     */
+    public void reset() {
+        mLevel = Level.Full;
+        mCleanWindows = 0;
+        mRequiredCleanWindows = 1;
+        mLastChangeWasUp = false;
+        resetWindow();
+    }
+
+    private void changeLevel(Level level, boolean up) {
+        mLevel = level;
+        mLastChangeWasUp = up;
+        mLevelChanges++;
+        // Frames measured at the old level say nothing about the new one
+        resetWindow();
+    }
+
+    private void resetWindow() {
+        mWindowCount = 0;
+        mOverCount = 0;
+        mUnderCount = 0;
+    }
+}
@@ -0,0 +1,11 @@
+package dev.jango.camera_renderer;
+
+/**
+ * How {@link Renderer} draws the camera frames.
+ */
+public enum RenderMode {
+    SurfaceTextureRender,
+    YUVConversionRender,
+    /** Grayscale from the luma plane of the preview callback frames, a third less to upload than in color. */
+    LumaOnlyRender
+}
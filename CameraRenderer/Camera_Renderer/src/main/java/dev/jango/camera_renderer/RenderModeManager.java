@@ -0,0 +1,275 @@
+package dev.jango.camera_renderer;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Switches between render modes without a glitch, keeping the paths of the modes not shown unfed.
+ * <p>Every mode has a {@link Path}: what feeds it frames and the GL resources it draws with. Only the path of the
+ * current mode is attached. A requested mode is prewarmed first: its path is attached and prepared while the current
+ * mode keeps drawing, and the switch happens on the first draw the new path has a frame for, or after
+ * {@link #PREWARM_TIMEOUT_NS}. The old path is detached and released right after, so a mode not shown costs
+ * nothing.</p>
+ * <p>{@link #stop()} detaches everything while keeping the mode, {@link #start()} attaches its path again: that is how
+ * a pause looks to the paths.</p>
+ * <p>The time and memory each mode costs is accounted per mode, see {@link #dump()}.</p>
+ * <p>{@link #draw()} must be called from the thread holding the GL context, the other methods from any thread.</p>
+ */
+public final class RenderModeManager {
+    public static final long PREWARM_TIMEOUT_NS = 500000000L;
+
+    private static final RenderMode[] MODES = RenderMode.values();
+
+    /**
+     * Everything one render mode needs.
+     */
+    public interface Path {
+        /** Starts feeding the path frames. */
+        void attach();
+
+        /** Stops feeding the path frames, its GL resources are released separately. */
+        void detach();
+
+        /**
+         * Prepares the GL resources on the GL thread while another mode is shown.
+         * @return whether {@link #draw()} has a frame to draw
+         */
+        boolean prewarm();
+
+        /**
+         * Draws the latest frame on the GL thread.
+         * @return false if nothing was drawn
+         */
+        boolean draw();
+
+        /** Releases the GL resources on the GL thread, the next {@link #prewarm()} creates them again. */
+        void release();
+
+        /** Bytes of memory the path holds, CPU and GPU. */
+        long getResourceBytes();
+    }
+
+    private final Path[] mPaths = new Path[MODES.length];
+    private volatile RenderMode mRequested;
+    // Attached paths
+    private volatile RenderMode mMode = null;
+    private volatile RenderMode mPrewarming = null;
+    private boolean mReleased = false;
+    private boolean mStopped = false;
+    private long mPrewarmStartTime;
+    private int mTransitions = 0;
+
+    private final AtomicLongArray mAttachTime = new AtomicLongArray(MODES.length);
+    private final AtomicLongArray mAttachedNanos = new AtomicLongArray(MODES.length);
+    private final AtomicLongArray mDrawNanos = new AtomicLongArray(MODES.length);
+    private final AtomicLongArray mCallbackNanos = new AtomicLongArray(MODES.length);
+    private final AtomicLongArray mFramesDrawn = new AtomicLongArray(MODES.length);
+    private final AtomicLongArray mPrewarmNanos = new AtomicLongArray(MODES.length);
+
+    public RenderModeManager(RenderMode initialMode) {
+        if (initialMode == null) throw new IllegalArgumentException("Arguments can not be null");
+        mRequested = initialMode;
+    }
+
+    /**
+     * Sets the path of <code>mode</code>, before {@link #start()}.
+     */
+    public void setPath(RenderMode mode, Path path) {
+        if (mode == null || path == null) throw new IllegalArgumentException("Arguments can not be null");
+        mPaths[mode.ordinal()] = path;
+    }
+
+    /**
+     * Attaches the path of the initial mode, so it gets ready before the first draw. After {@link #stop()}, attaches
+     * the path of the mode requested last.
+     */
+    public synchronized void start() {
+        if (mReleased || mMode != null || mPrewarming != null) return;
+        mStopped = false;
+        beginPrewarm(mRequested);
+    }
+
+    /**
+     * Detaches every attached path until the next {@link #start()}, draws do nothing in between. The GL resources are
+     * kept, see {@link #releaseResources()}.
+     */
+    public synchronized void stop() {
+        if (mReleased || mStopped) return;
+        mStopped = true;
+        RenderMode mode = mMode;
+        RenderMode prewarming = mPrewarming;
+        mMode = null;
+        mPrewarming = null;
+        if (mode != null) detach(mode);
+        if (prewarming != null) detach(prewarming);
+    }
+
+    /**
+     * Releases the GL resources of every path not attached. GL thread only.
+     */
+    public synchronized void releaseResources() {
+        for (RenderMode mode : MODES) {
+            Path path = mPaths[mode.ordinal()];
+            if (path != null && !isAttached(mode)) path.release();
+        }
+    }
+
+    /**
+     * Detaches every attached path, without releasing GL resources: the GL context may be gone already.
+     */
+    public synchronized void release() {
+        if (mReleased) return;
+        mReleased = true;
+        RenderMode mode = mMode;
+        RenderMode prewarming = mPrewarming;
+        mMode = null;
+        mPrewarming = null;
+        if (mode != null) detach(mode);
+        if (prewarming != null) detach(prewarming);
+    }
+
+    /**
+     * Switches to <code>mode</code> on one of the next draws.
+     */
+    public void requestMode(RenderMode mode) {
+        if (mode == null) throw new IllegalArgumentException("Arguments can not be null");
+        mRequested = mode;
+    }
+
+    public RenderMode getRequestedMode() {
+        return mRequested;
+    }
+
+    /**
+     * Returns the mode drawn, null before the first switch.
+     */
+    public RenderMode getMode() {
+        return mMode;
+    }
+
+    /**
+     * Returns whether the path of <code>mode</code> is fed, because it is drawn or prewarmed.
+     */
+    public boolean isAttached(RenderMode mode) {
+        return mode == mMode || mode == mPrewarming;
+    }
+
+    /**
+     * Advances a pending switch and draws the current mode. GL thread only.
+     * @return false if nothing was drawn
+     */
+    public synchronized boolean draw() {
+        if (mReleased || mStopped) return false;
+        RenderMode requested = mRequested;
+        if (mPrewarming != null && mPrewarming != requested) {
+            // Requested again before the last prewarm was done
+            RenderMode abandoned = mPrewarming;
+            mPrewarming = null;
+            detach(abandoned);
+            mPaths[abandoned.ordinal()].release();
+        }
+        if (requested != mMode) {
+            if (mPrewarming == null) beginPrewarm(requested);
+            long startTime = System.nanoTime();
+            boolean ready = mPaths[requested.ordinal()].prewarm();
+            mDrawNanos.addAndGet(requested.ordinal(), System.nanoTime() - startTime);
+            // Nothing shown yet, there is no glitch to avoid
+            if (ready || mMode == null || System.nanoTime() - mPrewarmStartTime >= PREWARM_TIMEOUT_NS) switchTo(requested);
+        }
+
+        RenderMode mode = mMode;
+        if (mode == null) return false;
+        long startTime = System.nanoTime();
+        boolean drawn = mPaths[mode.ordinal()].draw();
+        mDrawNanos.addAndGet(mode.ordinal(), System.nanoTime() - startTime);
+        if (drawn) mFramesDrawn.incrementAndGet(mode.ordinal());
+        return drawn;
+    }
+
+    /**
+     * Adds time spent feeding <code>mode</code> outside of the GL thread, like copying preview callback frames.
+     */
+    public void addCallbackNanos(RenderMode mode, long nanos) {
+        mCallbackNanos.addAndGet(mode.ordinal(), nanos);
+    }
+
+    /** Number of mode switches, the first one included. */
+    public synchronized int getTransitionCount() {
+        return mTransitions;
+    }
+
+    /** Time the path of <code>mode</code> was attached, until now if it still is. */
+    public long getAttachedNanos(RenderMode mode) {
+        long attachTime = mAttachTime.get(mode.ordinal());
+        long attachedNanos = mAttachedNanos.get(mode.ordinal());
+        return attachTime == 0 ? attachedNanos : attachedNanos + System.nanoTime() - attachTime;
+    }
+
+    /** CPU time spent on <code>mode</code>: prewarms, draws and {@link #addCallbackNanos callbacks}. */
+    public long getCpuNanos(RenderMode mode) {
+        return mDrawNanos.get(mode.ordinal()) + mCallbackNanos.get(mode.ordinal());
+    }
+
+    public long getFramesDrawn(RenderMode mode) {
+        return mFramesDrawn.get(mode.ordinal());
+    }
+
+    /** Duration of the last prewarm of <code>mode</code>, from the request to the switch. */
+    public long getLastPrewarmNanos(RenderMode mode) {
+        return mPrewarmNanos.get(mode.ordinal());
+    }
+
+    /** Bytes held by the path of <code>mode</code> right now, 0 once released. */
+    public long getResourceBytes(RenderMode mode) {
+        Path path = mPaths[mode.ordinal()];
+        return path == null ? 0 : path.getResourceBytes();
+    }
+
+    /**
+     * Returns the cost of every mode, one line each.
+     */
+    public String dump() {
+        StringBuilder builder = new StringBuilder();
+        builder.append("Render modes, ").append(getTransitionCount()).append(" switches");
+        for (RenderMode mode : MODES) {
+            if (mPaths[mode.ordinal()] == null) continue;
+            long attachedNanos = getAttachedNanos(mode);
+            builder.append('\n').append(mode).append(": ")
+                    .append(mode == mMode ? "shown" : mode == mPrewarming ? "prewarming" : "idle")
+                    .append(String.format(Locale.US, ", attached %.1f s, %d frames, CPU %.2f ms/s, %d KiB, last prewarm %d ms",
+                            attachedNanos / 1e9, getFramesDrawn(mode),
+                            attachedNanos == 0 ? 0 : getCpuNanos(mode) / 1e6 / (attachedNanos / 1e9),
+                            getResourceBytes(mode) / 1024, getLastPrewarmNanos(mode) / 1000000));
+        }
+        return builder.toString();
+    }
+
+    // Lock held
+    private void beginPrewarm(RenderMode mode) {
+        if (mPaths[mode.ordinal()] == null) throw new IllegalStateException("No path for " + mode);
+        mPrewarmStartTime = System.nanoTime();
+        mPrewarming = mode;
+        mAttachTime.set(mode.ordinal(), mPrewarmStartTime);
+        mPaths[mode.ordinal()].attach();
+    }
+
+    // Lock held
+    private void switchTo(RenderMode mode) {
+        RenderMode previous = mMode;
+        mPrewarmNanos.set(mode.ordinal(), System.nanoTime() - mPrewarmStartTime);
+        mMode = mode;
+        mPrewarming = null;
+        mTransitions++;
+        if (previous != null) {
+            detach(previous);
+            mPaths[previous.ordinal()].release();
+        }
+    }
+
+    // Lock held, after the mode stopped counting as attached
+    private void detach(RenderMode mode) {
+        mPaths[mode.ordinal()].detach();
+        long attachTime = mAttachTime.getAndSet(mode.ordinal(), 0);
+        if (attachTime != 0) mAttachedNanos.addAndGet(mode.ordinal(), System.nanoTime() - attachTime);
+    }
+}
@@ -0,0 +1,125 @@
+package dev.jango.camera_renderer;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Requests a render when there is something new to draw, for a view in <code>RENDERMODE_WHEN_DIRTY</code>.
+ * <p>Frame sources call {@link #requestFrame()} as soon as a frame arrives, so it is drawn without delay. Frames
+ * arriving before the pending render started are coalesced into it: at most one render request is outstanding at
+ * any time.</p>
+ * <p>Content that changes without new frames, for example overlays, can ask for a capped periodic refresh with
+ * {@link #setRefreshRate(int)}.</p>
+ */
+public final class RenderScheduler {
+    /**
+     * What renders are requested from, usually <code>GLSurfaceView.requestRender</code>.
+     */
+    public interface Target {
+        void requestRender();
+    }
+
+    private final AtomicBoolean mPending = new AtomicBoolean(false);
+    private final AtomicLong mRequested = new AtomicLong();
+    private final AtomicLong mCoalesced = new AtomicLong();
+    private volatile Target mTarget;
+
+    private final Object mRefreshLock = new Object();
+    private ScheduledExecutorService mRefreshExecutor = null;
+    private ScheduledFuture<?> mRefresh = null;
+
+    private final Runnable mRefreshTask = new Runnable() {
+        @Override
+        public void run() {
+            requestFrame();
+        }
+    };
+
+    /**
+     * Sets where renders are requested from, null to stop requesting.
+     * <p>Requests one render right away, so a frame that arrived before is not left undrawn.</p>
+     */
+    public void attach(Target target) {
+        mTarget = target;
+        mPending.set(false);
+        if (target != null) requestFrame();
+    }
+
+    /**
+     * Asks for a render, unless one is already pending. Can be called from any thread.
+     */
+    public void requestFrame() {
+        Target target = mTarget;
+        if (target == null) return;
+        if (mPending.compareAndSet(false, true)) {
+            mRequested.incrementAndGet();
+            target.requestRender();
+        } else {
+            mCoalesced.incrementAndGet();
+        }
+    }
+
+    /**
+     * Marks the pending render as started, to be called at the beginning of every draw.
+     * <p>A frame arriving from now on gets a new render.</p>
+     */
+    public void onDrawFrame() {
+        mPending.set(false);
+    }
+
+    /**
+     * Requests a render at least <code>framesPerSecond</code> times per second on top of the frame driven ones, 0 to
+     * stop. Periodic requests are coalesced with frame requests like any other.
+     */
+    public void setRefreshRate(int framesPerSecond) {
+        if (framesPerSecond < 0) throw new IllegalArgumentException("Refresh rate can not be negative");
+        synchronized (mRefreshLock) {
+            if (mRefresh != null) {
+                mRefresh.cancel(false);
+                mRefresh = null;
+            }
+            if (framesPerSecond == 0) return;
+
+            if (mRefreshExecutor == null) {
+                mRefreshExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, "RenderRefresh");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+            }
+            long period = TimeUnit.SECONDS.toNanos(1) / framesPerSecond;
+            mRefresh = mRefreshExecutor.scheduleAtFixedRate(mRefreshTask, period, period, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Stops the periodic refresh and its thread. Frame driven requests keep working.
+     */
+    public void release() {
+        synchronized (mRefreshLock) {
+            if (mRefreshExecutor != null) {
+                mRefreshExecutor.shutdownNow();
+                mRefreshExecutor = null;
+                mRefresh = null;
+            }
+        }
+    }
+
+    /** Number of renders requested from the target. */
+    public long getRequestedCount() {
+        return mRequested.get();
+    }
+
+    /** Number of frame requests folded into an already pending render. */
+    public long getCoalescedCount() {
+        return mCoalesced.get();
+    }
+}
@@ -1,65 +1,525 @@
 package dev.jango.camera_renderer;
 
-import android.hardware.Camera;
 import android.opengl.GLSurfaceView;
+import android.util.Log;
 
 import javax.microedition.khronos.egl.EGLConfig;
 import javax.microedition.khronos.opengles.GL10;
 
 public class Renderer implements GLSurfaceView.Renderer {
+    private static final String TAG = Renderer.class.getName();
 
-    public enum RenderMode{
-        SurfaceTextureRender,
-        YUVConversionRender
+    /**
+     * Told on the GL thread when the first camera frame is drawn after {@link #resume(FirstFrameListener)}.
+     */
+    public interface FirstFrameListener {
+        void onFirstFrame(long latencyNanos);
     }
 
-    public static volatile RenderMode CurrentRenderMode = RenderMode.SurfaceTextureRender;
-    private CameraController mCameraController;
+    private final FrameSource mFrameSource;
+    // Null when rendering another source than the camera
+    private final CameraFrameSource mCameraSource;
+    private final CameraSession mCameraSession;
+    private final FrameMetrics mFrameMetrics = new FrameMetrics();
+    private final TraceRecorder mTrace = new TraceRecorder();
+    private final GLStateCache mGL = new GLStateCache(new AndroidGLBackend());
+    private final ShaderCache mShaders = new ShaderCache(mGL);
+    private long mLastFrameTime = 0;
+
+    private final RenderScheduler mRenderScheduler = new RenderScheduler();
+    private final FrameAnalysisPipeline mAnalysisPipeline = new FrameAnalysisPipeline();
+    private volatile FrameRecorder mFrameRecorder = null;
+    private volatile FrameStreamServer mStreamServer = null;
+    private volatile Nv21Transform mFrameTransform = null;
+    private final QualityGovernor mQualityGovernor = new QualityGovernor(FrameMetrics.DEFAULT_FRAME_BUDGET_NS);
+    private QualityGovernor.Level mQualityLevel = QualityGovernor.Level.Full;
+    private final RenderModeManager mModes;
+    private boolean mFrameSourceStarted = false;
+    private boolean mReleased = false;
+    private boolean mPaused = false;
+    private volatile long mResumeTime = 0;
+    private FirstFrameListener mFirstFrameListener;
+    private volatile PreviewNegotiator.Request mTexturePreviewRequest;
+    private volatile PreviewNegotiator.Request mYUVPreviewRequest;
+    private volatile PreviewNegotiator.Request mReducedPreviewRequest;
+
+    private volatile CameraSurfaceTextureRenderer cameraSurfaceTextureRenderer;
+    private volatile CameraYUVRenderer cameraYUVRenderer;
+    private final long mCreateTime = System.nanoTime();
+    private final CameraController.Listener mCameraListener = new CameraController.Listener() {
+        @Override
+        public void onCameraReady(CameraController controller) {
+            Log.i(TAG, "Camera ready in " + (System.nanoTime() - mCreateTime) / 1000000 + "ms, preview size: "
+                    + controller.previewWidth + "x" + controller.previewHeight);
+            // Renderers are created on the next draw
+            mRenderScheduler.requestFrame();
+        }
+
+        @Override
+        public void onCameraError(CameraController controller) {
+            Log.e(TAG, "Camera preview could not be started");
+        }
+    };
 
-    private CameraSurfaceTextureRenderer cameraSurfaceTextureRenderer;
-    private CameraYUVRenderer cameraYUVRenderer;
     public Renderer() {
-        mCameraController = new CameraController();
+        this(null);
+    }
+
+    /**
+     * @param source frames to render instead of the camera preview, null for a camera of its own. Pass a
+     *               {@link CameraFrameSource} to share the camera of its {@link CameraSession} with other consumers.
+     *               Only the camera has a SurfaceTexture, other sources are always rendered through the YUV conversion.
+     */
+    public Renderer(FrameSource source) {
+        if (source == null) source = new CameraFrameSource(new CameraSession());
+        mFrameSource = source;
+        if (source instanceof CameraFrameSource) {
+            mCameraSource = (CameraFrameSource) source;
+            mCameraSession = mCameraSource.getSession();
+            mCameraSession.setTraceRecorder(mTrace);
+            mModes = new RenderModeManager(RenderMode.SurfaceTextureRender);
+            mModes.setPath(RenderMode.SurfaceTextureRender, mTexturePath);
+        } else {
+            mCameraSource = null;
+            mCameraSession = null;
+            mModes = new RenderModeManager(RenderMode.YUVConversionRender);
+            // The frame size is up to the source
+            mQualityGovernor.setLowestLevel(QualityGovernor.Level.Decimated2x);
+        }
+        mModes.setPath(RenderMode.YUVConversionRender, mYUVPath);
+        mModes.setPath(RenderMode.LumaOnlyRender, mLumaPath);
+        // Opens the camera on the camera thread, unless shared, while the GL surface is being created
+        mModes.start();
+    }
+
+    /**
+     * Stops the frame source and detaches from the camera, which is released with its thread unless other
+     * consumers still use it.
+     */
+    public void release() {
+        synchronized (this) {
+            mReleased = true;
+        }
+        mModes.release();
+        updateFrameSource();
+        mRenderScheduler.release();
+        mAnalysisPipeline.release();
+    }
+
+    /**
+     * Stops the frame source and detaches from the camera, which is released unless other consumers still use it,
+     * keeping the render mode and the preview requests for {@link #resume(FirstFrameListener)}.
+     * <p>The GL objects of the renderers stay until {@link #releaseGLResources()}.</p>
+     */
+    public void pause() {
+        synchronized (this) {
+            if (mReleased || mPaused) return;
+            mPaused = true;
+            mResumeTime = 0;
+            mFirstFrameListener = null;
+        }
+        mModes.stop();
+        updateFrameSource();
+    }
+
+    /**
+     * Attaches to the camera again, which opens on the camera thread while the GL surface is recreated, and
+     * restarts the frame source if something takes its frames.
+     * @param listener told when the first camera frame is drawn, can be null
+     */
+    public void resume(FirstFrameListener listener) {
+        synchronized (this) {
+            if (mReleased || !mPaused) return;
+            mPaused = false;
+            mFirstFrameListener = listener;
+            mResumeTime = System.nanoTime();
+        }
+        mModes.start();
+        updateFrameSource();
+        mRenderScheduler.requestFrame();
+    }
+
+    /**
+     * Deletes the GL objects of the renderers and the texture of a released camera, after {@link #pause()}. The
+     * programs stay in the shader cache, they are only rebuilt if the context is lost.
+     * <p>Must be called from the GL thread, while the context is current.</p>
+     */
+    public void releaseGLResources() {
+        mModes.releaseResources();
+        if (mCameraSession != null) mCameraSession.deleteReleasedTextures(mGL);
+    }
+
+    /**
+     * Switches to <code>mode</code> once it has a frame to draw, the mode shown until then keeps drawing. Only the
+     * camera can be rendered through its SurfaceTexture, other sources stay in the preview callback modes.
+     * <p>{@link RenderMode#YUVConversionRender} and {@link RenderMode#LumaOnlyRender} draw the same frames with the
+     * same renderer, switching between them neither touches the camera nor waits for a frame.</p>
+     */
+    public void setRenderMode(RenderMode mode) {
+        if (mode == null) throw new IllegalArgumentException("Arguments can not be null");
+        if (mCameraSource == null && mode == RenderMode.SurfaceTextureRender) return;
+        mModes.requestMode(mode);
+        mRenderScheduler.requestFrame();
+    }
+
+    /**
+     * Returns the mode switching and the cost of each mode, to be dumped from any thread.
+     */
+    public RenderModeManager getRenderModeManager() {
+        return mModes;
+    }
+
+    /**
+     * Returns the pipeline every preview frame is submitted to, to register analyzers with.
+     */
+    public FrameAnalysisPipeline getAnalysisPipeline() {
+        return mAnalysisPipeline;
+    }
+
+    /**
+     * Sets the recorder every preview frame is appended to, null to stop appending. Starting and stopping the
+     * recording is left to the caller.
+     */
+    public void setFrameRecorder(FrameRecorder recorder) {
+        mFrameRecorder = recorder;
+        updateFrameSource();
+    }
+
+    /**
+     * Sets the server every frame is published to, null to stop publishing. Starting and stopping the server is
+     * left to the caller.
+     */
+    public void setFrameStreamServer(FrameStreamServer server) {
+        mStreamServer = server;
+        updateFrameSource();
+    }
+
+    /**
+     * Sets the crop, rotation, mirroring and downscale of the frames drawn in {@link RenderMode#YUVConversionRender}
+     * and {@link RenderMode#LumaOnlyRender}, null to draw frames as they are. Only frames of the transform input size
+     * are transformed.
+     */
+    public void setFrameTransform(Nv21Transform transform) {
+        mFrameTransform = transform;
+        CameraYUVRenderer renderer = cameraYUVRenderer;
+        if (renderer != null) renderer.setTransform(transform);
+    }
+
+    /**
+     * Returns the scheduler requesting renders on new frames, for a view in <code>RENDERMODE_WHEN_DIRTY</code>.
+     */
+    public RenderScheduler getRenderScheduler() {
+        return mRenderScheduler;
+    }
+
+    /**
+     * Returns the timeline of the camera, callback and GL threads, disabled until enabled there.
+     */
+    public TraceRecorder getTraceRecorder() {
+        return mTrace;
+    }
+
+    /**
+     * Returns the timing of the frame pipeline, to be polled or dumped from any thread.
+     */
+    public FrameMetrics getFrameMetrics() {
+        return mFrameMetrics;
     }
 
     @Override
     public void onSurfaceCreated(GL10 gl, EGLConfig config) {
+        // New context, nothing is known about its state and the old programs are gone
+        mGL.invalidate();
+        mShaders.invalidate();
+        if (mCameraSession != null) mCameraSession.forgetReleasedTextures();
+        // Their textures and buffers went with the old context, nothing to delete. Rebuilt on their next draw.
+        cameraSurfaceTextureRenderer = null;
+        cameraYUVRenderer = null;
+        // Starts over at full quality, as when the YUV path is released
+        mQualityGovernor.reset();
+        mQualityLevel = QualityGovernor.Level.Full;
+
+        // Compile now rather than on the first frame drawn by each renderer
+        precompile(CameraSurfaceTextureRenderer.VERTEX_SHADER, CameraSurfaceTextureRenderer.FRAGMENT_SHADER);
+        precompile(CameraYUVRenderer.VERTEX_SHADER, CameraYUVRenderer.FRAGMENT_SHADER);
+        precompile(CameraYUVRenderer.VERTEX_SHADER, CameraYUVRenderer.FRAGMENT_SHADER_LUMA);
+    }
 
+    private void precompile(String srcVertex, String srcFragment) {
+        if (mShaders.getProgram(srcVertex, srcFragment) == 0) Log.e(TAG, mShaders.getLastError());
     }
 
-    public static int mWidth;
-    public static int mHeight;
-    // When surface changed size, reassign high and width
     @Override
     public void onSurfaceChanged(GL10 gl, int width, int height) {
-        mWidth = width;
-        mHeight = height;
+        updateFrameSource();
+        if (mCameraSession == null) return;
+
+        // Only the YUV conversion uploads the frames, the SurfaceTexture can take larger ones
+        mTexturePreviewRequest = new PreviewNegotiator.Request(width, height, PreviewNegotiator.DEFAULT_TARGET_FPS,
+                0, PreviewNegotiator.DEFAULT_UPLOAD_BUDGET);
+        mYUVPreviewRequest = new PreviewNegotiator.Request(width, height, PreviewNegotiator.DEFAULT_TARGET_FPS,
+                PreviewNegotiator.NV21_UPLOAD_BYTES_PER_PIXEL, PreviewNegotiator.DEFAULT_UPLOAD_BUDGET);
+        mReducedPreviewRequest = new PreviewNegotiator.Request(Math.max(1, width / 2), Math.max(1, height / 2),
+                PreviewNegotiator.DEFAULT_TARGET_FPS, PreviewNegotiator.NV21_UPLOAD_BYTES_PER_PIXEL, PreviewNegotiator.DEFAULT_UPLOAD_BUDGET);
+        // The texture is created in this context, which is the only one latching its frames
+        mCameraSession.getSurfaceTexture(mGL);
+        // Does nothing once the preview runs, mode switches reconfigure it
+        mCameraSession.startPreview(getPreviewRequest(mModes.getRequestedMode()), mCameraListener);
+    }
+
+    // Starts the preview of a camera reopened since the surface changed, GL thread only
+    private void startReopenedCamera() {
+        if (mCameraSession == null || mTexturePreviewRequest == null || mCameraSession.getSurfaceTexture() != null) return;
+        if (mCameraSession.getSurfaceTexture(mGL) == null) return;
+        mCameraSession.startPreview(getPreviewRequest(mModes.getRequestedMode()), mCameraListener);
     }
 
     // Draw the current frame
     @Override
     public void onDrawFrame(GL10 gl) {
-        switch (CurrentRenderMode)
-        {
-            case SurfaceTextureRender:
-                if(cameraSurfaceTextureRenderer == null) cameraSurfaceTextureRenderer = new CameraSurfaceTextureRenderer(mCameraController, previewCallback);
-                cameraSurfaceTextureRenderer.draw();
-                break;
-            case YUVConversionRender:
-                if(cameraYUVRenderer == null) cameraYUVRenderer = new CameraYUVRenderer(mCameraController, previewCallback);
-                cameraYUVRenderer.draw();
-                break;
+        mRenderScheduler.onDrawFrame();
+        mTrace.begin(TraceRecorder.Event.Frame);
+        long frameTime = System.nanoTime();
+        if (mLastFrameTime != 0) mFrameMetrics.record(FrameMetrics.Stage.FrameInterval, frameTime - mLastFrameTime);
+        mLastFrameTime = frameTime;
+
+        // Analysis stages may have been added since
+        updateFrameSource();
+        startReopenedCamera();
+        RenderMode mode = mModes.getMode();
+        mTrace.begin(TraceRecorder.Event.Draw);
+        boolean drawn = mModes.draw();
+        RenderMode drawnMode = mModes.getMode();
+        mTrace.end(TraceRecorder.Event.Draw, drawnMode == null ? -1 : drawnMode.ordinal(), 0);
+        if (drawn && mResumeTime != 0) onFirstFrame();
+        if (mode != drawnMode && drawnMode != null) {
+            Log.i(TAG, "Render mode: " + mode + " -> " + drawnMode + " after "
+                    + mModes.getLastPrewarmNanos(drawnMode) / 1000000 + "ms");
+        }
+        mTrace.end(TraceRecorder.Event.Frame);
+        // GLSurfaceView swaps the buffers once this returns
+        mTrace.instant(TraceRecorder.Event.Swap);
+    }
+
+    private void onFirstFrame() {
+        long latencyNanos;
+        FirstFrameListener listener;
+        synchronized (this) {
+            if (mResumeTime == 0) return;
+            latencyNanos = System.nanoTime() - mResumeTime;
+            listener = mFirstFrameListener;
+            mResumeTime = 0;
+            mFirstFrameListener = null;
+        }
+        if (listener != null) listener.onFirstFrame(latencyNanos);
+    }
+
+    // Null before the surface size is known
+    private PreviewNegotiator.Request getPreviewRequest(RenderMode mode) {
+        if (mode == RenderMode.SurfaceTextureRender) return mTexturePreviewRequest;
+        return mQualityLevel == QualityGovernor.Level.ReducedPreview ? mReducedPreviewRequest : mYUVPreviewRequest;
+    }
+
+    // Renegotiates the camera preview for the mode prewarmed, does nothing before the preview runs
+    private void reconfigurePreview(RenderMode mode) {
+        CameraController controller = mCameraSession == null ? null : mCameraSession.getController();
+        PreviewNegotiator.Request request = getPreviewRequest(mode);
+        if (controller != null && request != null) controller.reconfigurePreview(request);
+    }
+
+    // The source only runs while someone takes its frames, the camera then turns its preview callbacks off
+    private synchronized void updateFrameSource() {
+        boolean started = !mReleased && !mPaused && (isYUVAttached()
+                || mAnalysisPipeline.hasStages() || mFrameRecorder != null || mStreamServer != null);
+        if (started == mFrameSourceStarted) return;
+        mFrameSourceStarted = started;
+        if (started) {
+            mFrameSource.start(mFrameListener);
+        } else {
+            mFrameSource.stop();
         }
     }
 
+    // Both preview callback modes draw from the same YUV renderer
+    private boolean isYUVAttached() {
+        return mModes.isAttached(RenderMode.YUVConversionRender) || mModes.isAttached(RenderMode.LumaOnlyRender);
+    }
+
+    // Applies the level picked by the quality governor to the YUV path, GL thread only
+    private void setQualityLevel(QualityGovernor.Level level) {
+        if (level == mQualityLevel) return;
+        Log.i(TAG, "Quality level: " + mQualityLevel + " -> " + level);
+        boolean reduced = level == QualityGovernor.Level.ReducedPreview;
+        boolean reconfigure = reduced != (mQualityLevel == QualityGovernor.Level.ReducedPreview);
+        CameraYUVRenderer renderer = cameraYUVRenderer;
+        if (renderer != null) renderer.setDecimation(level != QualityGovernor.Level.Full);
+        mQualityLevel = level;
+        if (reconfigure) reconfigurePreview(RenderMode.YUVConversionRender);
+    }
+
+    private final RenderModeManager.Path mTexturePath = new RenderModeManager.Path() {
+        @Override
+        public void attach() {
+            mCameraSession.attach(mTextureConsumer);
+            reconfigurePreview(RenderMode.SurfaceTextureRender);
+        }
+
+        @Override
+        public void detach() {
+            mCameraSession.detach(mTextureConsumer);
+        }
+
+        @Override
+        public boolean prewarm() {
+            CameraSurfaceTextureRenderer renderer = getRenderer();
+            return renderer != null && renderer.hasPendingFrame();
+        }
+
+        @Override
+        public boolean draw() {
+            CameraSurfaceTextureRenderer renderer = getRenderer();
+            if (renderer == null) return false;
+            renderer.draw();
+            // Until the first frame is latched the texture holds nothing from the camera
+            return renderer.hasFrame();
+        }
+
+        @Override
+        public void release() {
+            if (cameraSurfaceTextureRenderer != null) cameraSurfaceTextureRenderer.release();
+            cameraSurfaceTextureRenderer = null;
+        }
+
+        // The texture itself belongs to the camera session
+        @Override
+        public long getResourceBytes() {
+            return 0;
+        }
+
+        // Renderers need the frame size, wait for the source without blocking
+        private CameraSurfaceTextureRenderer getRenderer() {
+            if (cameraSurfaceTextureRenderer == null && mFrameSource.isReady() && mCameraSession.getSurfaceTexture() != null) {
+                cameraSurfaceTextureRenderer = new CameraSurfaceTextureRenderer(mCameraSource, mGL, mShaders, mFrameMetrics, mTrace);
+            }
+            return cameraSurfaceTextureRenderer;
+        }
+    };
+
+    private final RenderModeManager.Path mYUVPath = new YUVPath(RenderMode.YUVConversionRender, RenderMode.LumaOnlyRender, false);
+    private final RenderModeManager.Path mLumaPath = new YUVPath(RenderMode.LumaOnlyRender, RenderMode.YUVConversionRender, true);
+
+    /**
+     * Path of a preview callback mode. Both modes share the YUV renderer, which stays while either is attached, so
+     * switching between them only swaps the program.
+     */
+    private final class YUVPath implements RenderModeManager.Path {
+        private final RenderMode mMode;
+        private final RenderMode mSharingMode;
+        private final boolean mLumaOnly;
+
+        YUVPath(RenderMode mode, RenderMode sharingMode, boolean lumaOnly) {
+            mMode = mode;
+            mSharingMode = sharingMode;
+            mLumaOnly = lumaOnly;
+        }
+
+        @Override
+        public void attach() {
+            updateFrameSource();
+            // The same request for both modes, the preview is left as is
+            reconfigurePreview(mMode);
+        }
+
+        @Override
+        public void detach() {
+            updateFrameSource();
+        }
+
+        @Override
+        public boolean prewarm() {
+            CameraYUVRenderer renderer = getRenderer();
+            return renderer != null && renderer.hasFrame();
+        }
+
+        @Override
+        public boolean draw() {
+            CameraYUVRenderer renderer = getRenderer();
+            if (renderer == null || !renderer.draw(mLumaOnly)) return false;
+            setQualityLevel(mQualityGovernor.onFrame(renderer.getLastUploadNanos(), renderer.getLastDrawNanos()));
+            return true;
+        }
+
+        @Override
+        public void release() {
+            // Still drawn or prewarmed by the other mode
+            if (mModes.isAttached(mSharingMode)) return;
+            CameraYUVRenderer renderer = cameraYUVRenderer;
+            cameraYUVRenderer = null;
+            if (renderer != null) renderer.release();
+            // Starts over at full quality next time
+            mQualityGovernor.reset();
+            mQualityLevel = QualityGovernor.Level.Full;
+        }
+
+        // The shared renderer is counted once, for the mode shown, or else for the color one
+        @Override
+        public long getResourceBytes() {
+            CameraYUVRenderer renderer = cameraYUVRenderer;
+            RenderMode shown = mModes.getMode();
+            boolean counted = shown == mMode || (shown != mSharingMode && !mLumaOnly);
+            return renderer == null || !counted ? 0 : renderer.getResourceBytes();
+        }
+
+        private CameraYUVRenderer getRenderer() {
+            if (cameraYUVRenderer == null && mFrameSource.isReady()) {
+                cameraYUVRenderer = new CameraYUVRenderer(mFrameSource, mGL, mShaders, mFrameMetrics, mTrace);
+                cameraYUVRenderer.setDecimation(mQualityLevel != QualityGovernor.Level.Full);
+                cameraYUVRenderer.setTransform(mFrameTransform);
+            }
+            return cameraYUVRenderer;
+        }
+    }
 
-    public Camera.PreviewCallback previewCallback = new Camera.PreviewCallback() {
+    private final CameraSession.TextureConsumer mTextureConsumer = new CameraSession.TextureConsumer() {
         @Override
-        public void onPreviewFrame(byte[] data, Camera camera) {
-            if(Renderer.CurrentRenderMode == RenderMode.YUVConversionRender && cameraYUVRenderer != null) {
-                cameraYUVRenderer.copyCameraFrameBuffer(data);
+        public void onFrameAvailable(CameraSession session) {
+            CameraSurfaceTextureRenderer renderer = cameraSurfaceTextureRenderer;
+            if (renderer != null) renderer.onFrameAvailable(session.getSurfaceTexture());
+            // Only attached while the SurfaceTexture mode is shown or prewarmed
+            mRenderScheduler.requestFrame();
+        }
+    };
+
+    private final FrameSource.Listener mFrameListener = new FrameSource.Listener() {
+        @Override
+        public boolean onFrame(byte[] data, int width, int height, long timestampNanos) {
+            PlaneLayout.Format format = mFrameSource.getFormat();
+            // They all take NV21 only
+            if (format == PlaneLayout.Format.Nv21) {
+                // Copies out and returns, analysis never holds on to the source buffer
+                mAnalysisPipeline.submit(data, width, height);
+                FrameRecorder recorder = mFrameRecorder;
+                if (recorder != null) recorder.record(data, width, height, timestampNanos);
+                FrameStreamServer server = mStreamServer;
+                if (server != null) server.publish(data, width, height, timestampNanos);
+            }
+            boolean yuv = isYUVAttached();
+            boolean consumed = false;
+            CameraYUVRenderer renderer = cameraYUVRenderer;
+            if (yuv && renderer != null) {
+                long copyStartTime = System.nanoTime();
+                mTrace.begin(TraceRecorder.Event.Copy, width, height);
+                renderer.copyCameraFrameBuffer(data, width, height, format, timestampNanos);
+                mTrace.end(TraceRecorder.Event.Copy);
+                long copyNanos = System.nanoTime() - copyStartTime;
+                mFrameMetrics.record(FrameMetrics.Stage.CallbackCopy, copyNanos);
+                mModes.addCallbackNanos(mModes.getMode() == RenderMode.LumaOnlyRender
+                        ? RenderMode.LumaOnlyRender : RenderMode.YUVConversionRender, copyNanos);
+                consumed = true;
             }
-            camera.addCallbackBuffer(data);
+            // Also when the YUV renderer does not exist yet, it is created on the next draw
+            if (yuv) mRenderScheduler.requestFrame();
+            return consumed;
         }
     };
 }
@@ -0,0 +1,45 @@
+package dev.jango.camera_renderer;
+
+/**
+ * {@link FrameSource} streaming the frames of a {@link FrameRecording}, for repeatable runs on recorded content.
+ * <p>Frames are delivered with the intervals they were recorded with, or as fast as they are taken. Frames keep their
+ * recorded size, so preview size changes during the recording are replayed as well.</p>
+ */
+public class ReplayFrameSource extends PacedFrameSource {
+    private final FrameRecording mRecording;
+
+    /**
+     * @param maxRate deliver frames as fast as they are taken instead of at their recorded times
+     * @param loop    start over after the last frame
+     */
+    public ReplayFrameSource(FrameRecording recording, boolean maxRate, boolean loop) {
+        super("ReplayFrameSource", maxRate, loop);
+        if (recording == null) throw new IllegalArgumentException("Arguments can not be null");
+        mRecording = recording;
+    }
+
+    @Override
+    protected int getFrameCount() {
+        return mRecording.getFrameCount();
+    }
+
+    @Override
+    protected long getPresentationNanos(int frame) {
+        return mRecording.getTimestampNanos(frame);
+    }
+
+    @Override
+    protected int getFrameWidth(int frame) {
+        return mRecording.getWidth(frame);
+    }
+
+    @Override
+    protected int getFrameHeight(int frame) {
+        return mRecording.getHeight(frame);
+    }
+
+    @Override
+    protected void produceFrame(int frame, byte[] out) {
+        mRecording.readFrame(frame, out);
+    }
+}
@@ -0,0 +1,142 @@
+package dev.jango.camera_renderer;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Linked shader programs of one GL context, keyed by their sources.
+ * <p>Every distinct pair of sources is compiled and linked once, later requests return the same program. Compile
+ * and link status are checked, a failing program is reported through {@link #getLastError()} and not cached.</p>
+ * <p>Must only be used from the thread holding the GL context.</p>
+ */
+public final class ShaderCache
+{
+    private static final int GL_VERTEX_SHADER = 0x8B31;
+    private static final int GL_FRAGMENT_SHADER = 0x8B30;
+    private static final int GL_COMPILE_STATUS = 0x8B81;
+    private static final int GL_LINK_STATUS = 0x8B82;
+
+    private final GLBackend mGL;
+    // Program handles by vertex source, then by fragment source: looked up without building a key
+    private final Map<String, Map<String, Integer>> mPrograms = new HashMap<String, Map<String, Integer>>();
+    private final int[] mStatus = new int[1];
+    private String mLastError = null;
+
+    private int mCompiledCount = 0;
+    private int mHitCount = 0;
+
+    public ShaderCache(GLBackend gl)
+    {
+        if (gl == null) throw new IllegalArgumentException("Arguments can not be null");
+        mGL = gl;
+    }
+
+    /**
+     * Returns the program built from the given sources, building it on first use. Returns 0 if it does not compile
+     * or link, see {@link #getLastError()}.
+     */
+    public int getProgram(String srcVertex, String srcFragment)
+    {
+        if (srcVertex == null || srcFragment == null) throw new IllegalArgumentException("Arguments can not be null");
+        Map<String, Integer> programs = mPrograms.get(srcVertex);
+        Integer program = programs == null ? null : programs.get(srcFragment);
+        if (program != null) {
+            mHitCount++;
+            return program;
+        }
+
+        int handle = build(srcVertex, srcFragment);
+        if (handle == 0) return 0;
+        if (programs == null) {
+            programs = new HashMap<String, Integer>();
+            mPrograms.put(srcVertex, programs);
+        }
+        programs.put(srcFragment, handle);
+        return handle;
+    }
+
+    /**
+     * Forgets all programs without deleting them, for when their context is gone.
+     */
+    public void invalidate()
+    {
+        mPrograms.clear();
+    }
+
+    /**
+     * Deletes all programs.
+     * <p>Must be called from a thread holding the GL context the programs were built in.</p>
+     */
+    public void release()
+    {
+        for (Map<String, Integer> programs : mPrograms.values()) {
+            for (int handle : programs.values()) {
+                mGL.glDeleteProgram(handle);
+            }
+        }
+        mPrograms.clear();
+    }
+
+    /** Compiler or linker log of the last failing program, null if none failed. */
+    public String getLastError()
+    {
+        return mLastError;
+    }
+
+    /** Number of programs compiled from source. */
+    public int getCompiledCount()
+    {
+        return mCompiledCount;
+    }
+
+    /** Number of requests answered with an already built program. */
+    public int getHitCount()
+    {
+        return mHitCount;
+    }
+
+    private int build(String srcVertex, String srcFragment)
+    {
+        int vertex = compile(GL_VERTEX_SHADER, srcVertex);
+        if (vertex == 0) return 0;
+        int fragment = compile(GL_FRAGMENT_SHADER, srcFragment);
+        if (fragment == 0) {
+            mGL.glDeleteShader(vertex);
+            return 0;
+        }
+
+        int handle = mGL.glCreateProgram();
+        mGL.glAttachShader(handle, vertex);
+        mGL.glAttachShader(handle, fragment);
+        mGL.glLinkProgram(handle);
+        mGL.glDetachShader(handle, vertex);
+        mGL.glDetachShader(handle, fragment);
+        mGL.glDeleteShader(vertex);
+        mGL.glDeleteShader(fragment);
+
+        mGL.glGetProgramiv(handle, GL_LINK_STATUS, mStatus, 0);
+        if (mStatus[0] == 0) {
+            mLastError = "Link failed: " + mGL.glGetProgramInfoLog(handle);
+            mGL.glDeleteProgram(handle);
+            return 0;
+        }
+        mCompiledCount++;
+        return handle;
+    }
+
+    private int compile(int type, String source)
+    {
+        int id = mGL.glCreateShader(type);
+        mGL.glShaderSource(id, source);
+        mGL.glCompileShader(id);
+
+        mGL.glGetShaderiv(id, GL_COMPILE_STATUS, mStatus, 0);
+        if (mStatus[0] == 0) {
+            mLastError = (type == GL_VERTEX_SHADER ? "Vertex" : "Fragment") + " shader compile failed: "
+                    + mGL.glGetShaderInfoLog(id);
+            mGL.glDeleteShader(id);
+            return 0;
+        }
+        return id;
+    }
+}
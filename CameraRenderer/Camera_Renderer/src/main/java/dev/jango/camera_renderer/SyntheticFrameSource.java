@@ -0,0 +1,85 @@
+package dev.jango.camera_renderer;
+
+/**
+ * {@link FrameSource} of generated frames, for runs without a camera.
+ * <p>The luma plane is a diagonal ramp moving one pixel per frame with a bright bar sweeping across it, the chroma
+ * plane a flat color slowly cycling the hue, so every frame differs from the previous one. Frame <code>n</code>
+ * always has the same content. Rows are copied out of a ramp precomputed once, producing a frame costs about as
+ * much as copying it.</p>
+ */
+public class SyntheticFrameSource extends PacedFrameSource {
+    private final int mWidth;
+    private final int mHeight;
+    private final int mFrameRate;
+    private final byte[] mRamp;
+
+    /**
+     * @param maxRate deliver frames as fast as they are taken instead of at <code>frameRate</code>
+     */
+    public SyntheticFrameSource(int width, int height, int frameRate, boolean maxRate) {
+        super("SyntheticFrameSource", maxRate, false);
+        if (width <= 0 || height <= 0 || (width & 1) != 0 || (height & 1) != 0) throw new IllegalArgumentException("Frame size must be positive and even");
+        if (frameRate <= 0) throw new IllegalArgumentException("Frame rate must be positive");
+        mWidth = width;
+        mHeight = height;
+        mFrameRate = frameRate;
+        // Long enough for any row at any shift
+        mRamp = new byte[width + height + 256];
+        for (int i = 0; i < mRamp.length; i++) {
+            mRamp[i] = (byte) i;
+        }
+    }
+
+    @Override
+    protected int getFrameCount() {
+        return -1;
+    }
+
+    @Override
+    protected long getPresentationNanos(int frame) {
+        return frame * 1000000000L / mFrameRate;
+    }
+
+    @Override
+    protected int getFrameWidth(int frame) {
+        return mWidth;
+    }
+
+    @Override
+    protected int getFrameHeight(int frame) {
+        return mHeight;
+    }
+
+    @Override
+    protected void produceFrame(int frame, byte[] out) {
+        generate(frame, mWidth, mHeight, mRamp, out);
+    }
+
+    /**
+     * Writes frame <code>frame</code> of the pattern, <code>ramp</code> holding
+     * <code>width + height + 256</code> bytes counting up from 0.
+     */
+    public static void generate(int frame, int width, int height, byte[] ramp, byte[] out) {
+        int shift = frame & 0xff;
+        int bar = frame % width;
+        int barWidth = Math.max(1, width / 32);
+        for (int y = 0; y < height; y++) {
+            int row = y * width;
+            System.arraycopy(ramp, y + shift, out, row, width);
+            int barEnd = Math.min(width, bar + barWidth);
+            for (int x = bar; x < barEnd; x++) {
+                out[row + x] = (byte) 235;
+            }
+        }
+        // Hue cycling about once every 256 frames
+        double angle = frame * Math.PI / 128;
+        byte v = (byte) (128 + 64 * Math.sin(angle));
+        byte u = (byte) (128 + 64 * Math.cos(angle));
+        int uvStart = width * height;
+        int uvEnd = uvStart + width * height / 2;
+        for (int i = uvStart; i < uvEnd; i += 2) {
+            out[i] = v;
+            out[i + 1] = u;
+        }
+    }
+}
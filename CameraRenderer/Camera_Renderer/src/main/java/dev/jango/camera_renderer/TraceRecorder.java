@@ -0,0 +1,261 @@
+package dev.jango.camera_renderer;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Locale;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Timeline of what the camera, preview callback and GL threads do, written as a Chrome trace on demand.
+ * <p>Every thread records into a ring of its own, created the first time it records: begin and end of an
+ * {@link Event} with a <code>System.nanoTime()</code> timestamp and up to two integer arguments, given to either,
+ * which the viewer shows together. Recording writes a few array slots, it takes no lock and does not allocate, and
+ * does nothing but read a flag while disabled. A full ring overwrites its oldest events.</p>
+ * <p>{@link #writeChromeTrace(File)} can be called at any time from any thread. It reads the rings while they are
+ * written and leaves out events overwritten in the meantime. The file opens in <code>chrome://tracing</code> and
+ * <code>ui.perfetto.dev</code>.</p>
+ */
+public final class TraceRecorder {
+    /** Events kept per thread, about 2 s of a busy thread at 30 fps. */
+    public static final int DEFAULT_CAPACITY = 4096;
+
+    public enum Event {
+        /** Camera opened and cached parameters applied, camera thread. */
+        CameraOpen("cameraId", null),
+        /** Preview negotiated, configured and started, camera thread. */
+        PreviewStart("width", "height"),
+        /** Preview callback frame handed to the consumers, camera thread. */
+        Callback("width", "height"),
+        /** Callback frame copied for the YUV renderer. */
+        Copy("width", "height"),
+        /** Texture upload or <code>updateTexImage</code>, GL thread. */
+        Upload("bytes", null),
+        /** Renderer draw, upload included, GL thread. */
+        Draw("mode", null),
+        /** Whole <code>onDrawFrame</code>, GL thread. */
+        Frame(null, null),
+        /** <code>onDrawFrame</code> returned, the view swaps the buffers next. An instant, GL thread. */
+        Swap(null, null);
+
+        final String mArgName0;
+        final String mArgName1;
+
+        Event(String argName0, String argName1) {
+            mArgName0 = argName0;
+            mArgName1 = argName1;
+        }
+    }
+
+    private static final Event[] EVENTS = Event.values();
+    private static final int PHASE_BEGIN = 0;
+    private static final int PHASE_END = 1;
+    private static final int PHASE_INSTANT = 2;
+    private static final int HAS_ARGS = 4;
+    private static final int EVENT_SHIFT = 3;
+
+    /**
+     * Events of one thread. Written by that thread only, the count is published after the slot it covers.
+     */
+    private static final class Ring {
+        final String mThreadName;
+        final int mThreadId;
+        final long[] mTimes;
+        // Event ordinal << EVENT_SHIFT | HAS_ARGS | phase
+        final int[] mTypes;
+        final int[] mArgs0;
+        final int[] mArgs1;
+        volatile long mCount = 0;
+
+        Ring(String threadName, int threadId, int capacity) {
+            mThreadName = threadName;
+            mThreadId = threadId;
+            mTimes = new long[capacity];
+            mTypes = new int[capacity];
+            mArgs0 = new int[capacity];
+            mArgs1 = new int[capacity];
+        }
+
+        void add(int type, int arg0, int arg1) {
+            long count = mCount;
+            int slot = (int) (count % mTimes.length);
+            mTimes[slot] = System.nanoTime();
+            mTypes[slot] = type;
+            mArgs0[slot] = arg0;
+            mArgs1[slot] = arg1;
+            mCount = count + 1;
+        }
+    }
+
+    private final int mCapacity;
+    private final CopyOnWriteArrayList<Ring> mRings = new CopyOnWriteArrayList<Ring>();
+    private final ThreadLocal<Ring> mRing = new ThreadLocal<Ring>() {
+        @Override
+        protected Ring initialValue() {
+            Thread thread = Thread.currentThread();
+            Ring ring = new Ring(thread.getName(), (int) thread.getId(), mCapacity);
+            mRings.add(ring);
+            return ring;
+        }
+    };
+    private volatile boolean mEnabled = false;
+
+    public TraceRecorder() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public TraceRecorder(int capacity) {
+        if (capacity <= 0) throw new IllegalArgumentException("Capacity must be positive");
+        mCapacity = capacity;
+    }
+
+    /**
+     * Starts or stops recording. Recorded events are kept, see {@link #clear()}.
+     */
+    public void setEnabled(boolean enabled) {
+        mEnabled = enabled;
+    }
+
+    public boolean isEnabled() {
+        return mEnabled;
+    }
+
+    public void begin(Event event) {
+        if (mEnabled) mRing.get().add(event.ordinal() << EVENT_SHIFT | PHASE_BEGIN, 0, 0);
+    }
+
+    public void begin(Event event, int arg0, int arg1) {
+        if (mEnabled) mRing.get().add(event.ordinal() << EVENT_SHIFT | HAS_ARGS | PHASE_BEGIN, arg0, arg1);
+    }
+
+    /**
+     * Ends the last {@link #begin} of <code>event</code> on the calling thread.
+     */
+    public void end(Event event) {
+        if (mEnabled) mRing.get().add(event.ordinal() << EVENT_SHIFT | PHASE_END, 0, 0);
+    }
+
+    /**
+     * Like {@link #end(Event)}, with arguments known once the event is done.
+     */
+    public void end(Event event, int arg0, int arg1) {
+        if (mEnabled) mRing.get().add(event.ordinal() << EVENT_SHIFT | HAS_ARGS | PHASE_END, arg0, arg1);
+    }
+
+    public void instant(Event event) {
+        if (mEnabled) mRing.get().add(event.ordinal() << EVENT_SHIFT | PHASE_INSTANT, 0, 0);
+    }
+
+    /**
+     * Forgets the events recorded so far. Must not race with recording threads, disable recording first.
+     */
+    public void clear() {
+        for (Ring ring : mRings) {
+            ring.mCount = 0;
+        }
+    }
+
+    /**
+     * Writes the events of every thread to <code>file</code> in the Chrome trace event format.
+     * @return number of events written
+     */
+    public int writeChromeTrace(File file) throws IOException {
+        if (file == null) throw new IllegalArgumentException("Arguments can not be null");
+        Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+        try {
+            return writeChromeTrace(writer);
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * Writes the events of every thread to <code>writer</code> in the Chrome trace event format, without closing it.
+     * @return number of events written
+     */
+    public int writeChromeTrace(Writer writer) throws IOException {
+        if (writer == null) throw new IllegalArgumentException("Arguments can not be null");
+        int written = 0;
+        writer.write("{\"displayTimeUnit\":\"ns\",\"traceEvents\":[");
+        boolean first = true;
+        for (Ring ring : mRings) {
+            writer.write(first ? "\n" : ",\n");
+            first = false;
+            writer.write(String.format(Locale.US,
+                    "{\"name\":\"thread_name\",\"ph\":\"M\",\"pid\":1,\"tid\":%d,\"args\":{\"name\":\"%s\"}}",
+                    ring.mThreadId, escape(ring.mThreadName)));
+            written += writeRing(ring, writer);
+        }
+        writer.write("\n]}\n");
+        writer.flush();
+        return written;
+    }
+
+    private static int writeRing(Ring ring, Writer writer) throws IOException {
+        int capacity = ring.mTimes.length;
+        long end = ring.mCount;
+        long start = Math.max(0, end - capacity);
+        int size = (int) (end - start);
+        long[] times = new long[size];
+        int[] types = new int[size];
+        int[] args0 = new int[size];
+        int[] args1 = new int[size];
+        for (int i = 0; i < size; i++) {
+            int slot = (int) ((start + i) % capacity);
+            times[i] = ring.mTimes[slot];
+            types[i] = ring.mTypes[slot];
+            args0[i] = ring.mArgs0[slot];
+            args1[i] = ring.mArgs1[slot];
+        }
+        // Slots the thread went on writing while they were copied hold newer events, leave them out
+        long overwritten = ring.mCount - capacity;
+        int firstValid = (int) Math.max(0, Math.min(size, overwritten - start + 1));
+
+        int written = 0;
+        int depth = 0;
+        for (int i = firstValid; i < size; i++) {
+            Event event = EVENTS[types[i] >> EVENT_SHIFT];
+            int phase = types[i] & 3;
+            if (phase == PHASE_END) {
+                // Its begin was overwritten
+                if (depth == 0) continue;
+                depth--;
+            } else if (phase == PHASE_BEGIN) {
+                depth++;
+            }
+            StringBuilder line = new StringBuilder(128);
+            line.append(",\n{\"name\":\"").append(event.name())
+                    .append("\",\"ph\":\"").append(phase == PHASE_BEGIN ? 'B' : phase == PHASE_END ? 'E' : 'i')
+                    .append("\",\"ts\":").append(String.format(Locale.US, "%.3f", times[i] / 1000.0))
+                    .append(",\"pid\":1,\"tid\":").append(ring.mThreadId);
+            if (phase == PHASE_INSTANT) line.append(",\"s\":\"t\"");
+            if ((types[i] & HAS_ARGS) != 0 && event.mArgName0 != null) {
+                line.append(",\"args\":{\"").append(event.mArgName0).append("\":").append(args0[i]);
+                if (event.mArgName1 != null) line.append(",\"").append(event.mArgName1).append("\":").append(args1[i]);
+                line.append('}');
+            }
+            line.append('}');
+            writer.write(line.toString());
+            written++;
+        }
+        return written;
+    }
+
+    private static String escape(String text) {
+        StringBuilder builder = new StringBuilder(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '"' || c == '\\') {
+                builder.append('\\').append(c);
+            } else if (c < 0x20) {
+                builder.append(String.format(Locale.US, "\\u%04x", (int) c));
+            } else {
+                builder.append(c);
+            }
+        }
+        return builder.toString();
+    }
+}
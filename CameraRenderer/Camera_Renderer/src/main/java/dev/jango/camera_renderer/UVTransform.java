@@ -0,0 +1,32 @@
+package dev.jango.camera_renderer;
+
+/**
+ * Texture coordinates of the full screen quad for a <code>SurfaceTexture</code> transform matrix.
+ * <p>Plain Java version of the per frame <code>Matrix.multiplyMV</code> calls, so the math can also run off device.</p>
+ */
+public final class UVTransform
+{
+    //Quad corners in texture space: top left, top right, bottom left, bottom right
+    private static final float[][] CORNERS = { {0, 1, 0, 1}, {1, 1, 0, 1}, {0, 0, 0, 1}, {1, 0, 0, 1} };
+
+    private UVTransform(){ }
+
+    /**
+     * Transforms the quad corners by the column-major 4x4 matrix <code>transform</code> and writes the resulting
+     * texture coordinates to <code>uvs</code> in triangle strip order.
+     */
+    public static void apply(float[] transform, float[] uvs)
+    {
+        // Triangle strip order is top right, top left, bottom right, bottom left
+        transformCorner(transform, CORNERS[1], uvs, 0);
+        transformCorner(transform, CORNERS[0], uvs, 2);
+        transformCorner(transform, CORNERS[3], uvs, 4);
+        transformCorner(transform, CORNERS[2], uvs, 6);
+    }
+
+    private static void transformCorner(float[] m, float[] v, float[] uvs, int offset)
+    {
+        uvs[offset]     = m[0] * v[0] + m[4] * v[1] + m[8]  * v[2] + m[12] * v[3];
+        uvs[offset + 1] = m[1] * v[0] + m[5] * v[1] + m[9]  * v[2] + m[13] * v[3];
+    }
+}
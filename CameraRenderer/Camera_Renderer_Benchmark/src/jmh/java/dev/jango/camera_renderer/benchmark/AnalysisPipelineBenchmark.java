@@ -0,0 +1,68 @@
+package dev.jango.camera_renderer.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import dev.jango.camera_renderer.FrameAnalysisPipeline;
+
+/**
+ * Cost of {@link FrameAnalysisPipeline#submit} on the preview callback thread, with stages far slower than the
+ * frame rate so the backpressure policies and the pool limit are exercised.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class AnalysisPipelineBenchmark {
+
+    @Param({Resolution.SD, Resolution.HD, Resolution.FULL_HD, Resolution.UHD})
+    public String resolution;
+
+    @Param({"LatestOnly", "Queue"})
+    public String backpressure;
+
+    private int mWidth;
+    private int mHeight;
+    private byte[] mCameraFrame;
+    private FrameAnalysisPipeline mPipeline;
+
+    @Setup
+    public void setUp() {
+        mWidth = Resolution.width(resolution);
+        mHeight = Resolution.height(resolution);
+        mCameraFrame = Resolution.randomNv21Frame(mWidth, mHeight);
+        mPipeline = new FrameAnalysisPipeline();
+        //Luma sum over a sparse grid, stands in for a histogram or motion detector
+        mPipeline.addStage(new FrameAnalysisPipeline.Analyzer() {
+            private long mSum;
+
+            @Override
+            public void analyze(FrameAnalysisPipeline.Frame frame) {
+                byte[] data = frame.getData();
+                int size = frame.getWidth() * frame.getHeight();
+                for (int i = 0; i < size; i += 7) {
+                    mSum += data[i] & 0xff;
+                }
+            }
+        }, FrameAnalysisPipeline.Backpressure.valueOf(backpressure), 3);
+    }
+
+    @TearDown
+    public void tearDown() {
+        mPipeline.release();
+    }
+
+    @Benchmark
+    public FrameAnalysisPipeline submit() {
+        mPipeline.submit(mCameraFrame, mWidth, mHeight);
+        return mPipeline;
+    }
+}
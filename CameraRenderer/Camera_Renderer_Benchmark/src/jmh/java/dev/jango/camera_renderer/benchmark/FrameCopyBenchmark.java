@@ -0,0 +1,85 @@
+package dev.jango.camera_renderer.benchmark;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import dev.jango.camera_renderer.FrameTripleBuffer;
+import dev.jango.camera_renderer.PreviewBufferRing;
+
+/**
+ * Preview callback side of the YUV path: copying the camera buffer into the frame buffer shared with the GL thread
+ * and handing the camera buffer back.
+ */
+@State(Scope.Group)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class FrameCopyBenchmark {
+
+    @Param({Resolution.SD, Resolution.HD, Resolution.FULL_HD, Resolution.UHD})
+    public String resolution;
+
+    private FrameTripleBuffer mFrameBuffer;
+    private PreviewBufferRing mRing;
+    private final ArrayDeque<byte[]> mCameraBuffers = new ArrayDeque<byte[]>();
+
+    @Setup
+    public void setUp() {
+        int width = Resolution.width(resolution);
+        int height = Resolution.height(resolution);
+        mFrameBuffer = new FrameTripleBuffer(width, height);
+        mRing = new PreviewBufferRing(PreviewBufferRing.DEFAULT_BUFFER_COUNT, width * height * 3 / 2,
+                PreviewBufferRing.DropPolicy.DropOldest);
+        //Stands in for Camera.addCallbackBuffer, the buffers are filled with random content once
+        mRing.attach(new PreviewBufferRing.Recycler() {
+            @Override
+            public void recycle(byte[] buffer) {
+                mCameraBuffers.addLast(buffer);
+            }
+        });
+        byte[] content = Resolution.randomNv21Frame(width, height);
+        for (byte[] buffer : mCameraBuffers) {
+            System.arraycopy(content, 0, buffer, 0, content.length);
+        }
+    }
+
+    /** CameraYUVRenderer.copyCameraFrameBuffer alone. */
+    @Benchmark
+    @Group("copy")
+    public void copyCameraFrameBuffer() {
+        byte[] buffer = mCameraBuffers.peekFirst();
+        mFrameBuffer.write(buffer);
+    }
+
+    /** Whole preview callback: take a filled buffer, copy it, give it back to the camera. */
+    @Benchmark
+    @Group("previewCallback")
+    public void previewCallback() {
+        byte[] buffer = mCameraBuffers.pollFirst();
+        mFrameBuffer.write(buffer);
+        mRing.releaseConsumed(buffer);
+    }
+
+    /** Writer half of the callback thread to GL thread handoff, running concurrently with {@link #glThread()}. */
+    @Benchmark
+    @Group("handoff")
+    public void callbackThread() {
+        mFrameBuffer.write(mCameraBuffers.peekFirst());
+    }
+
+    /** Reader half of the handoff, what CameraYUVRenderer.draw does before uploading. */
+    @Benchmark
+    @Group("handoff")
+    public FrameTripleBuffer.Frame glThread() {
+        return mFrameBuffer.acquireLatest();
+    }
+}
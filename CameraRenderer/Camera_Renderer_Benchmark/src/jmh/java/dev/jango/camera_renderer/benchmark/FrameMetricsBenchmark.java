@@ -0,0 +1,37 @@
+package dev.jango.camera_renderer.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+import dev.jango.camera_renderer.FrameMetrics;
+
+/**
+ * Cost of recording a stage duration, which is done several times per frame on the render and callback threads.
+ * <p>The gc profiler must report no allocation.</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class FrameMetricsBenchmark {
+
+    private final FrameMetrics mMetrics = new FrameMetrics();
+
+    @Benchmark
+    public void recordSince() {
+        mMetrics.recordSince(FrameMetrics.Stage.Draw, System.nanoTime() - 5000000);
+    }
+
+    /** Render and preview callback threads recording at the same time. */
+    @Benchmark
+    @Threads(2)
+    public void recordSinceContended() {
+        mMetrics.recordSince(FrameMetrics.Stage.Draw, System.nanoTime() - 5000000);
+    }
+}
@@ -0,0 +1,121 @@
+package dev.jango.camera_renderer.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import dev.jango.camera_renderer.FrameRecorder;
+import dev.jango.camera_renderer.FrameRecording;
+import dev.jango.camera_renderer.FrameSource;
+import dev.jango.camera_renderer.FrameTripleBuffer;
+import dev.jango.camera_renderer.PacedFrameSource;
+import dev.jango.camera_renderer.ReplayFrameSource;
+import dev.jango.camera_renderer.SyntheticFrameSource;
+
+/**
+ * The CPU frame path of the YUV mode driven by a {@link FrameSource} at its maximum rate: each frame is produced on
+ * the source thread, copied into the {@link FrameTripleBuffer} and taken by the consumer, as the GL thread would.
+ * <p>The replay source streams a recording of synthetic frames made during setup.</p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class FrameSourceBenchmark {
+    private static final int FRAMES = 60;
+
+    @Param({Resolution.SD, Resolution.HD, Resolution.FULL_HD})
+    public String resolution;
+
+    @Param({"Synthetic", "Replay"})
+    public String source;
+
+    private int mWidth;
+    private int mHeight;
+    private File mRecordingDirectory;
+    private FrameRecording mRecording;
+    private FrameTripleBuffer mFrameBuffer;
+
+    @Setup
+    public void setUp() throws IOException, InterruptedException {
+        mWidth = Resolution.width(resolution);
+        mHeight = Resolution.height(resolution);
+        mFrameBuffer = new FrameTripleBuffer(mWidth, mHeight);
+        if (source.equals("Replay")) {
+            mRecordingDirectory = File.createTempFile("frames", "");
+            if (!mRecordingDirectory.delete() || !mRecordingDirectory.mkdir()) throw new IOException("Can not create " + mRecordingDirectory);
+            record(mRecordingDirectory);
+            mRecording = FrameRecording.open(mRecordingDirectory, "benchmark");
+        }
+    }
+
+    private void record(File directory) throws InterruptedException {
+        final FrameRecorder recorder = new FrameRecorder(directory, "benchmark");
+        recorder.start();
+        final CountDownLatch done = new CountDownLatch(FRAMES);
+        SyntheticFrameSource synthetic = new SyntheticFrameSource(mWidth, mHeight, 30, true);
+        synthetic.start(new FrameSource.Listener() {
+            @Override
+            public boolean onFrame(byte[] data, int width, int height, long timestampNanos) {
+                if (done.getCount() == 0) return false;
+                // Segments are prepared in the background, retry until one is ready
+                if (!recorder.record(data, width, height, timestampNanos)) return false;
+                done.countDown();
+                return true;
+            }
+        });
+        done.await();
+        synthetic.stop();
+        recorder.release();
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (mRecordingDirectory == null) return;
+        File[] files = mRecordingDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                //noinspection ResultOfMethodCallIgnored
+                file.delete();
+            }
+        }
+        //noinspection ResultOfMethodCallIgnored
+        mRecordingDirectory.delete();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FRAMES)
+    public int deliver() throws InterruptedException {
+        PacedFrameSource frames = source.equals("Replay")
+                ? new ReplayFrameSource(mRecording, true, true)
+                : new SyntheticFrameSource(mWidth, mHeight, 30, true);
+        final CountDownLatch done = new CountDownLatch(FRAMES);
+        final AtomicInteger checksum = new AtomicInteger();
+        frames.start(new FrameSource.Listener() {
+            @Override
+            public boolean onFrame(byte[] data, int width, int height, long timestampNanos) {
+                if (done.getCount() == 0) return false;
+                mFrameBuffer.write(data);
+                FrameTripleBuffer.Frame frame = mFrameBuffer.acquireLatest();
+                if (frame != null) checksum.addAndGet(frame.getYPlane().get(0));
+                done.countDown();
+                return true;
+            }
+        });
+        done.await();
+        frames.stop();
+        return checksum.get();
+    }
+}
@@ -0,0 +1,98 @@
+package dev.jango.camera_renderer.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import dev.jango.camera_renderer.GLBackend;
+import dev.jango.camera_renderer.GLStateCache;
+
+/**
+ * State setting calls of one steady state CameraYUVRenderer.draw, sent straight to the driver or through
+ * {@link GLStateCache}.
+ * <p>The driver is a {@link RecordingGLBackend}, so the time measured is the overhead of the cache itself, and the
+ * <code>driverCalls</code> counter is the number of calls per frame that would reach the real driver.</p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class GLStateCacheBenchmark {
+    private static final int GL_DEPTH_TEST = 0x0B71;
+    private static final int GL_CULL_FACE = 0x0B44;
+    private static final int GL_ALWAYS = 0x0207;
+    private static final int GL_ARRAY_BUFFER = 0x8892;
+    private static final int GL_ELEMENT_ARRAY_BUFFER = 0x8893;
+    private static final int GL_TEXTURE_2D = 0x0DE1;
+    private static final int GL_TEXTURE0 = 0x84C0;
+    private static final int GL_TEXTURE1 = 0x84C1;
+    private static final int GL_TRIANGLES = 0x0004;
+    private static final int PROGRAM = 3;
+    private static final int Y_TEXTURE = 1;
+    private static final int UV_TEXTURE = 2;
+
+    private final RecordingGLBackend mDriver = new RecordingGLBackend();
+    private final GLStateCache mCache = new GLStateCache(mDriver);
+
+    @AuxCounters
+    @State(Scope.Thread)
+    public static class DriverCalls {
+        public long driverCalls;
+        public long frames;
+
+        @Setup(Level.Iteration)
+        public void clean() {
+            driverCalls = 0;
+            frames = 0;
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        mCache.invalidate();
+        mDriver.reset();
+    }
+
+    @Benchmark
+    public long direct(DriverCalls counters) {
+        return frame(mDriver, counters);
+    }
+
+    @Benchmark
+    public long cached(DriverCalls counters) {
+        return frame(mCache, counters);
+    }
+
+    private long frame(GLBackend gl, DriverCalls counters) {
+        long before = mDriver.getCalls();
+        gl.glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, 0);
+        gl.glBindBuffer(GL_ARRAY_BUFFER, 0);
+        gl.glDisable(GL_CULL_FACE);
+        gl.glEnable(GL_DEPTH_TEST);
+        gl.glDepthFunc(GL_ALWAYS);
+        gl.glDepthMask(false);
+        gl.glUseProgram(PROGRAM);
+        gl.glVertexAttribPointer(0, 3, 0x1406, false, 20, null);
+        gl.glVertexAttribPointer(1, 2, 0x1406, false, 20, null);
+        gl.glEnableVertexAttribArray(0);
+        gl.glEnableVertexAttribArray(1);
+        gl.glActiveTexture(GL_TEXTURE1);
+        gl.glBindTexture(GL_TEXTURE_2D, UV_TEXTURE);
+        gl.glUniform1i(1, 1);
+        gl.glActiveTexture(GL_TEXTURE0);
+        gl.glBindTexture(GL_TEXTURE_2D, Y_TEXTURE);
+        gl.glUniform1i(0, 0);
+        gl.glDrawElements(GL_TRIANGLES, 6, 0x1403, null);
+        long calls = mDriver.getCalls() - before;
+        counters.driverCalls += calls;
+        counters.frames++;
+        return calls;
+    }
+}
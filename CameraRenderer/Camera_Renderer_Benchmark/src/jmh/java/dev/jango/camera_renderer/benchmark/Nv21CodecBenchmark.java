@@ -0,0 +1,164 @@
+package dev.jango.camera_renderer.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import dev.jango.camera_renderer.FrameRecording;
+import dev.jango.camera_renderer.Nv21Codec;
+import dev.jango.camera_renderer.SyntheticFrameSource;
+
+/**
+ * Speed and ratio of {@link Nv21Codec} on a sequence of frames.
+ * <p><code>Synthetic</code> is the pattern of {@link SyntheticFrameSource}, <code>Noisy</code> the same with sensor
+ * like noise of a few levels on every pixel. A recording made with the app can be used instead with
+ * <code>-p recording=DIRECTORY/NAME</code>, in which case its frames replace the generated ones.</p>
+ * <p>Scores are frames per second, the <code>rawBytes</code> counter is the speed in bytes per second and its ratio
+ * to the <code>encodedBytes</code> counter the compression ratio.</p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class Nv21CodecBenchmark {
+    private static final int FRAMES = 16;
+
+    @Param({Resolution.HD, Resolution.FULL_HD})
+    public String resolution;
+
+    @Param({"Synthetic", "Noisy"})
+    public String content;
+
+    @Param({"1", "4"})
+    public int threads;
+
+    @Param({""})
+    public String recording;
+
+    private int mWidth;
+    private int mHeight;
+    private byte[][] mFrames;
+    private ExecutorService mExecutor;
+    private Nv21Codec.Encoder mEncoder;
+    private Nv21Codec.Decoder mDecoder;
+    private ByteBuffer mEncoded;
+    private int[] mEncodedOffsets;
+    private byte[] mDecoded;
+    private int mNext = 0;
+
+    @AuxCounters
+    @State(Scope.Thread)
+    public static class Bytes {
+        public long rawBytes;
+        public long encodedBytes;
+
+        @Setup(Level.Iteration)
+        public void clean() {
+            rawBytes = 0;
+            encodedBytes = 0;
+        }
+    }
+
+    @Setup
+    public void setUp() throws IOException {
+        if (recording.length() > 0) {
+            loadRecording();
+        } else {
+            generate();
+        }
+        mExecutor = threads > 1 ? Executors.newFixedThreadPool(threads - 1) : null;
+        mEncoder = new Nv21Codec.Encoder(Nv21Codec.DEFAULT_BAND_COUNT, Nv21Codec.DEFAULT_KEY_FRAME_INTERVAL, mExecutor);
+        mDecoder = new Nv21Codec.Decoder(mExecutor);
+        mDecoded = new byte[mWidth * mHeight * 3 / 2];
+
+        // The whole sequence once, for the decoder
+        Nv21Codec.Encoder encoder = new Nv21Codec.Encoder(Nv21Codec.DEFAULT_BAND_COUNT, FRAMES, null);
+        int maxSize = Nv21Codec.maxEncodedSize(mWidth, mHeight, Nv21Codec.DEFAULT_BAND_COUNT);
+        mEncoded = ByteBuffer.allocateDirect(maxSize * FRAMES);
+        mEncodedOffsets = new int[FRAMES + 1];
+        for (int i = 0; i < FRAMES; i++) {
+            mEncodedOffsets[i] = mEncoded.position();
+            encoder.encode(mFrames[i], mWidth, mHeight, mEncoded);
+        }
+        mEncodedOffsets[FRAMES] = mEncoded.position();
+        mEncoded.flip();
+    }
+
+    private void generate() {
+        mWidth = Resolution.width(resolution);
+        mHeight = Resolution.height(resolution);
+        byte[] ramp = new byte[mWidth + mHeight + 256];
+        for (int i = 0; i < ramp.length; i++) {
+            ramp[i] = (byte) i;
+        }
+        Random random = new Random(42);
+        mFrames = new byte[FRAMES][mWidth * mHeight * 3 / 2];
+        for (int i = 0; i < FRAMES; i++) {
+            SyntheticFrameSource.generate(i, mWidth, mHeight, ramp, mFrames[i]);
+            if (content.equals("Noisy")) {
+                for (int j = 0; j < mFrames[i].length; j++) {
+                    mFrames[i][j] += random.nextInt(5) - 2;
+                }
+            }
+        }
+    }
+
+    private void loadRecording() throws IOException {
+        File file = new File(recording);
+        FrameRecording frames = FrameRecording.open(file.getParentFile(), file.getName());
+        if (frames.getFrameCount() < FRAMES) throw new IOException("Recording has less than " + FRAMES + " frames");
+        mWidth = frames.getWidth(0);
+        mHeight = frames.getHeight(0);
+        mFrames = new byte[FRAMES][mWidth * mHeight * 3 / 2];
+        for (int i = 0; i < FRAMES; i++) {
+            if (frames.getWidth(i) != mWidth || frames.getHeight(i) != mHeight) throw new IOException("Frame size changes in the recording");
+            frames.readFrame(i, mFrames[i]);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (mExecutor != null) mExecutor.shutdown();
+    }
+
+    private ByteBuffer mOut;
+
+    @Benchmark
+    public int encode(Bytes bytes) {
+        if (mOut == null) mOut = ByteBuffer.allocateDirect(Nv21Codec.maxEncodedSize(mWidth, mHeight, Nv21Codec.DEFAULT_BAND_COUNT));
+        mOut.clear();
+        byte[] frame = mFrames[mNext];
+        mNext = (mNext + 1) % FRAMES;
+        int length = mEncoder.encode(frame, mWidth, mHeight, mOut);
+        bytes.rawBytes += frame.length;
+        bytes.encodedBytes += length;
+        return length;
+    }
+
+    @Benchmark
+    public int decode(Bytes bytes) {
+        // Starts over at the key frame after the last frame
+        if (mNext == 0) mEncoded.position(0);
+        int frame = mNext;
+        mNext = (mNext + 1) % FRAMES;
+        int length = mDecoder.decode(mEncoded, mDecoded);
+        bytes.rawBytes += length;
+        bytes.encodedBytes += mEncodedOffsets[frame + 1] - mEncodedOffsets[frame];
+        return length;
+    }
+}
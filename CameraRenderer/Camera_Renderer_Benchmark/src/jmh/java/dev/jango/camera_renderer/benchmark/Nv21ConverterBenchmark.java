@@ -0,0 +1,63 @@
+package dev.jango.camera_renderer.benchmark;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import dev.jango.camera_renderer.Nv21Converter;
+
+/**
+ * CPU NV21 to ARGB conversion, single threaded and on all cores.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class Nv21ConverterBenchmark {
+
+    @Param({Resolution.SD, Resolution.HD, Resolution.FULL_HD, Resolution.UHD})
+    public String resolution;
+
+    @Param({"Float", "FixedPoint"})
+    public Nv21Converter.Precision precision;
+
+    @Param({"1", "0"})
+    public int threads;
+
+    private ExecutorService mExecutor;
+    private Nv21Converter mConverter;
+    private byte[] mFrame;
+    private int[] mArgb;
+
+    @Setup
+    public void setUp() {
+        int width = Resolution.width(resolution);
+        int height = Resolution.height(resolution);
+        //0 threads stands for one per core
+        int threadCount = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        mExecutor = threadCount > 1 ? Executors.newFixedThreadPool(threadCount - 1) : null;
+        mConverter = new Nv21Converter(width, height, threadCount, mExecutor);
+        mFrame = Resolution.randomNv21Frame(width, height);
+        mArgb = new int[width * height];
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (mExecutor != null) mExecutor.shutdown();
+    }
+
+    @Benchmark
+    public int[] convert() {
+        mConverter.convert(mFrame, mArgb, precision);
+        return mArgb;
+    }
+}
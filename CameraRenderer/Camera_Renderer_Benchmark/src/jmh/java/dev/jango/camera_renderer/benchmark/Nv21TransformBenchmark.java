@@ -0,0 +1,142 @@
+package dev.jango.camera_renderer.benchmark;
+
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import dev.jango.camera_renderer.Nv21Transform;
+
+/**
+ * {@link Nv21Transform} against the same square center crop, rotation and downscale done as separate passes, each
+ * writing a whole intermediate frame.
+ * <p>Scores are microseconds per frame.</p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class Nv21TransformBenchmark {
+
+    @Param({Resolution.SD, Resolution.HD, Resolution.FULL_HD})
+    public String resolution;
+
+    @Param({"None", "Rotate90"})
+    public String rotation;
+
+    @Param({"1", "2"})
+    public int downscale;
+
+    @Param({"1", "4"})
+    public int threads;
+
+    private ExecutorService mExecutor;
+    private Nv21Transform mTransform;
+    private byte[] mFrame;
+    private byte[] mOut;
+    private byte[] mCropped;
+    private byte[] mRotated;
+
+    @Setup
+    public void setUp() {
+        int width = Resolution.width(resolution);
+        int height = Resolution.height(resolution);
+        mFrame = new byte[width * height * 3 / 2];
+        new Random(42).nextBytes(mFrame);
+        mExecutor = threads > 1 ? Executors.newFixedThreadPool(threads - 1) : null;
+        mTransform = Nv21Transform.centerCrop(width, height, 1, 1, Nv21Transform.Rotation.valueOf(rotation), false,
+                downscale, threads, mExecutor);
+        mOut = mTransform.acquireOutput();
+        int side = mTransform.getOutputWidth() * downscale;
+        mCropped = new byte[side * side * 3 / 2];
+        mRotated = new byte[side * side * 3 / 2];
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (mExecutor != null) mExecutor.shutdown();
+    }
+
+    @Benchmark
+    public byte[] fused() {
+        mTransform.transform(mFrame, mOut);
+        return mOut;
+    }
+
+    @Benchmark
+    public byte[] separatePasses() {
+        int width = mTransform.getWidth();
+        int height = mTransform.getHeight();
+        int side = mTransform.getOutputWidth() * downscale;
+        crop(mFrame, width, height, (width - side) / 2 & ~1, (height - side) / 2 & ~1, side, mCropped);
+        byte[] rotated = mCropped;
+        if (mTransform.getRotation() == Nv21Transform.Rotation.Rotate90) {
+            rotate90(mCropped, side, mRotated);
+            rotated = mRotated;
+        }
+        if (downscale == 1) return rotated;
+        downscale(rotated, side, downscale, mOut);
+        return mOut;
+    }
+
+    private static void crop(byte[] frame, int width, int height, int x, int y, int side, byte[] out) {
+        for (int row = 0; row < side; row++) {
+            System.arraycopy(frame, (y + row) * width + x, out, row * side, side);
+        }
+        for (int row = 0; row < side / 2; row++) {
+            System.arraycopy(frame, width * height + (y / 2 + row) * width + x, out, side * side + row * side, side);
+        }
+    }
+
+    // Clockwise, square frames, one output row at a time
+    private static void rotate90(byte[] frame, int side, byte[] out) {
+        for (int y = 0; y < side; y++) {
+            for (int x = 0; x < side; x++) {
+                out[y * side + x] = frame[(side - 1 - x) * side + y];
+            }
+        }
+        int uvStart = side * side;
+        int pairs = side / 2;
+        for (int y = 0; y < pairs; y++) {
+            for (int x = 0; x < pairs; x++) {
+                int src = uvStart + (pairs - 1 - x) * side + y * 2;
+                int dst = uvStart + y * side + x * 2;
+                out[dst] = frame[src];
+                out[dst + 1] = frame[src + 1];
+            }
+        }
+    }
+
+    private static void downscale(byte[] frame, int side, int scale, byte[] out) {
+        int outSide = side / scale;
+        int area = scale * scale;
+        for (int y = 0; y < outSide; y++) {
+            for (int x = 0; x < outSide; x++) {
+                int sum = 0;
+                for (int j = 0; j < scale; j++) {
+                    for (int i = 0; i < scale; i++) {
+                        sum += frame[(y * scale + j) * side + x * scale + i] & 0xff;
+                    }
+                }
+                out[y * outSide + x] = (byte) ((sum + area / 2) / area);
+            }
+        }
+        for (int y = 0; y < outSide / 2; y++) {
+            for (int x = 0; x < outSide / 2; x++) {
+                int src = side * side + y * scale * side + x * scale * 2;
+                int dst = outSide * outSide + y * outSide + x * 2;
+                out[dst] = frame[src];
+                out[dst + 1] = frame[src + 1];
+            }
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package dev.jango.camera_renderer.benchmark;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import dev.jango.camera_renderer.FrameTripleBuffer;
+
+/**
+ * CPU work done per frame to get the Y and UV planes ready for <code>glTexImage2D</code>.
+ * <p>{@link #planeRepack()} is the former <code>yBuffer.put</code>/<code>uvBuffer.put</code> repacking of
+ * CameraYUVRenderer.draw, kept as the baseline for {@link #tripleBuffer()}. {@link #tripleBufferDecimated()} is the
+ * copy of the decimated quality level.</p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class PlaneUploadBenchmark {
+
+    @Param({Resolution.SD, Resolution.HD, Resolution.FULL_HD, Resolution.UHD})
+    public String resolution;
+
+    private int mWidth;
+    private int mHeight;
+    private byte[] mCameraFrame;
+    private ByteBuffer mYBuffer;
+    private ByteBuffer mUVBuffer;
+    private FrameTripleBuffer mFrameBuffer;
+
+    @Setup
+    public void setUp() {
+        mWidth = Resolution.width(resolution);
+        mHeight = Resolution.height(resolution);
+        mCameraFrame = Resolution.randomNv21Frame(mWidth, mHeight);
+        mYBuffer = ByteBuffer.allocateDirect(mWidth * mHeight).order(ByteOrder.nativeOrder());
+        mUVBuffer = ByteBuffer.allocate(mWidth * mHeight / 2).order(ByteOrder.nativeOrder());
+        mFrameBuffer = new FrameTripleBuffer(mWidth, mHeight);
+    }
+
+    @Benchmark
+    public ByteBuffer planeRepack() {
+        mYBuffer.put(mCameraFrame, 0, mWidth * mHeight);
+        mYBuffer.position(0);
+        mUVBuffer.put(mCameraFrame, mWidth * mHeight, mWidth * mHeight / 2);
+        mUVBuffer.position(0);
+        return mUVBuffer;
+    }
+
+    @Benchmark
+    public ByteBuffer tripleBuffer() {
+        mFrameBuffer.write(mCameraFrame);
+        return mFrameBuffer.acquireLatest().getUVPlane();
+    }
+
+    @Benchmark
+    public ByteBuffer tripleBufferDecimated() {
+        mFrameBuffer.writeDecimated(mCameraFrame);
+        return mFrameBuffer.acquireLatest().getUVPlane();
+    }
+}
@@ -0,0 +1,52 @@
+package dev.jango.camera_renderer.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import dev.jango.camera_renderer.PreviewNegotiator;
+
+/**
+ * Preview size and frame rate negotiation of CameraController against typical lists of supported sizes and ranges,
+ * on first use and memoized.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PreviewNegotiatorBenchmark {
+
+    //Preview sizes and frame rate ranges reported by a common back camera
+    private static final int[] WIDTHS = { 3840, 1920, 1600, 1440, 1280, 1280, 1024, 960, 800, 720, 640, 640, 480, 352, 320, 176 };
+    private static final int[] HEIGHTS = { 2160, 1080, 1200, 1080, 960, 720, 768, 720, 480, 480, 480, 360, 320, 288, 240, 144 };
+    private static final int[][] FPS_RANGES = { {15000, 15000}, {7000, 30000}, {15000, 30000}, {30000, 30000}, {24000, 60000} };
+
+    @Param({Resolution.SD, Resolution.HD, Resolution.FULL_HD, Resolution.UHD})
+    public String resolution;
+
+    private PreviewNegotiator.Request mRequest;
+    private final PreviewNegotiator mMemoized = new PreviewNegotiator();
+
+    @Setup
+    public void setUp() {
+        mRequest = new PreviewNegotiator.Request(Resolution.width(resolution), Resolution.height(resolution),
+                PreviewNegotiator.DEFAULT_TARGET_FPS, PreviewNegotiator.NV21_UPLOAD_BYTES_PER_PIXEL,
+                PreviewNegotiator.DEFAULT_UPLOAD_BUDGET);
+    }
+
+    @Benchmark
+    public PreviewNegotiator.Result negotiate() {
+        return new PreviewNegotiator().negotiate(0, WIDTHS, HEIGHTS, FPS_RANGES, mRequest);
+    }
+
+    @Benchmark
+    public PreviewNegotiator.Result memoized() {
+        return mMemoized.negotiate(0, WIDTHS, HEIGHTS, FPS_RANGES, mRequest);
+    }
+}
@@ -0,0 +1,32 @@
+package dev.jango.camera_renderer.benchmark;
+
+import java.util.Random;
+
+/**
+ * Frame sizes the benchmarks run at, given as <code>WIDTHxHEIGHT</code> JMH parameters.
+ */
+final class Resolution {
+    static final String SD = "640x480";
+    static final String HD = "1280x720";
+    static final String FULL_HD = "1920x1080";
+    static final String UHD = "3840x2160";
+
+    private Resolution() { }
+
+    static int width(String resolution) {
+        return Integer.parseInt(resolution.substring(0, resolution.indexOf('x')));
+    }
+
+    static int height(String resolution) {
+        return Integer.parseInt(resolution.substring(resolution.indexOf('x') + 1));
+    }
+
+    /**
+     * Returns an NV21 frame of random content, so that nothing can be optimized on the pixel values.
+     */
+    static byte[] randomNv21Frame(int width, int height) {
+        byte[] frame = new byte[width * height * 3 / 2];
+        new Random(42).nextBytes(frame);
+        return frame;
+    }
+}
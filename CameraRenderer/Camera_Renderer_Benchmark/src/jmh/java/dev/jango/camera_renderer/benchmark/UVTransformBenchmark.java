@@ -0,0 +1,42 @@
+package dev.jango.camera_renderer.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import dev.jango.camera_renderer.UVTransform;
+
+/**
+ * Texture coordinate math of CameraSurfaceTextureRenderer.draw.
+ * <p>The work does not depend on the frame size, so unlike the other benchmarks it runs once.</p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class UVTransformBenchmark {
+
+    private final float[] mTransform = new float[16];
+    private final float[] mUVs = new float[8];
+
+    @Setup
+    public void setUp() {
+        //Typical SurfaceTexture transform: vertical flip
+        mTransform[0] = 1;
+        mTransform[5] = -1;
+        mTransform[10] = 1;
+        mTransform[13] = 1;
+        mTransform[15] = 1;
+    }
+
+    @Benchmark
+    public float[] apply() {
+        UVTransform.apply(mTransform, mUVs);
+        return mUVs;
+    }
+}
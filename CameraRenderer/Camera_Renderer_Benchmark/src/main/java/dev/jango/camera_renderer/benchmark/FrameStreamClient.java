@@ -0,0 +1,127 @@
+package dev.jango.camera_renderer.benchmark;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.SocketChannel;
+
+import dev.jango.camera_renderer.FrameStreamServer;
+
+/**
+ * Blocking reader of the frames sent by a {@link FrameStreamServer}, for tools and tests on a plain JVM.
+ * <p>Frames are read into one reused buffer, valid until the next {@link #readFrame()}. Running the class prints
+ * the frame rate of a server, <code>java dev.jango.camera_renderer.benchmark.FrameStreamClient [HOST] [PORT]</code>,
+ * the host defaulting to the loopback interface a device is forwarded to with <code>adb forward</code>.</p>
+ */
+public final class FrameStreamClient {
+    private final SocketChannel mChannel;
+    private final ByteBuffer mHeader = ByteBuffer.allocateDirect(FrameStreamServer.HEADER_SIZE).order(ByteOrder.BIG_ENDIAN);
+    private ByteBuffer mPixels = ByteBuffer.allocate(0);
+
+    private FrameStreamServer.Format mFormat;
+    private int mWidth;
+    private int mHeight;
+    private long mSequence;
+    private long mTimestampNanos;
+
+    /**
+     * Connects to the server.
+     * @throws IOException if the connection fails
+     */
+    public FrameStreamClient(InetSocketAddress address) throws IOException {
+        if (address == null) throw new IllegalArgumentException("Arguments can not be null");
+        mChannel = SocketChannel.open(address);
+    }
+
+    /**
+     * Waits for the next frame.
+     * @throws EOFException if the server closed the connection
+     */
+    public void readFrame() throws IOException {
+        mHeader.clear();
+        readFully(mHeader);
+        mHeader.flip();
+        int length = mHeader.getInt();
+        int format = mHeader.getInt();
+        mWidth = mHeader.getInt();
+        mHeight = mHeader.getInt();
+        mSequence = mHeader.getLong();
+        mTimestampNanos = mHeader.getLong();
+        FrameStreamServer.Format[] formats = FrameStreamServer.Format.values();
+        if (format < 0 || format >= formats.length) throw new IOException("Unknown frame format " + format);
+        mFormat = formats[format];
+
+        int size = length - (FrameStreamServer.HEADER_SIZE - 4);
+        if (size < 0) throw new IOException("Corrupt frame length " + length);
+        if (mPixels.capacity() < size) mPixels = ByteBuffer.allocate(size);
+        mPixels.clear().limit(size);
+        readFully(mPixels);
+        mPixels.flip();
+    }
+
+    private void readFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (mChannel.read(buffer) < 0) throw new EOFException("Server closed the connection");
+        }
+    }
+
+    public FrameStreamServer.Format getFormat() {
+        return mFormat;
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    /** Sequence number given by the server, gaps are frames this client skipped. */
+    public long getSequence() {
+        return mSequence;
+    }
+
+    /** Timestamp of the frame on the server, in its <code>System.nanoTime()</code> time base. */
+    public long getTimestampNanos() {
+        return mTimestampNanos;
+    }
+
+    /** Pixels of the last frame read, from position 0 to the limit. Backed by an array. */
+    public ByteBuffer getPixels() {
+        return mPixels;
+    }
+
+    public void close() throws IOException {
+        mChannel.close();
+    }
+
+    public static void main(String[] args) throws IOException {
+        String host = args.length > 0 ? args[0] : "127.0.0.1";
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : FrameStreamServer.DEFAULT_PORT;
+        FrameStreamClient client = new FrameStreamClient(new InetSocketAddress(host, port));
+        try {
+            long start = System.nanoTime();
+            long frames = 0;
+            long firstSequence = -1;
+            while (true) {
+                client.readFrame();
+                if (firstSequence < 0) firstSequence = client.getSequence();
+                frames++;
+                long elapsed = System.nanoTime() - start;
+                if (elapsed >= 1000000000L) {
+                    long skipped = client.getSequence() - firstSequence + 1 - frames;
+                    System.out.println(client.getFormat() + " " + client.getWidth() + "x" + client.getHeight() + ": "
+                            + frames * 1000000000L / elapsed + " fps, " + skipped + " skipped");
+                    start = System.nanoTime();
+                    frames = 0;
+                    firstSequence = -1;
+                }
+            }
+        } finally {
+            client.close();
+        }
+    }
+}
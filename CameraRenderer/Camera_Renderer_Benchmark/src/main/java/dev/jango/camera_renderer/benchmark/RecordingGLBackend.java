@@ -0,0 +1,243 @@
+package dev.jango.camera_renderer.benchmark;
+
+import java.nio.Buffer;
+
+import dev.jango.camera_renderer.GLBackend;
+
+/**
+ * {@link GLBackend} standing in for the driver off device, in benchmarks and tests: it only counts the calls that
+ * reach it.
+ * <p>Object names returned by the create calls are unique positive integers. Shaders compile and programs link
+ * unless told otherwise with {@link #setStatus(boolean)}.</p>
+ */
+public final class RecordingGLBackend implements GLBackend {
+    private long mCalls = 0;
+    private int mLivePrograms = 0;
+    private int mNames = 0;
+    private boolean mStatus = true;
+
+    /** Number of calls received since creation or the last {@link #reset()}. */
+    public long getCalls() {
+        return mCalls;
+    }
+
+    /** Programs created and not deleted yet. */
+    public int getLivePrograms() {
+        return mLivePrograms;
+    }
+
+    public void reset() {
+        mCalls = 0;
+    }
+
+    /** Sets the compile and link status reported from now on. */
+    public void setStatus(boolean status) {
+        mStatus = status;
+    }
+
+    @Override
+    public void glEnable(int cap) {
+        mCalls++;
+    }
+
+    @Override
+    public void glDisable(int cap) {
+        mCalls++;
+    }
+
+    @Override
+    public void glDepthFunc(int func) {
+        mCalls++;
+    }
+
+    @Override
+    public void glDepthMask(boolean flag) {
+        mCalls++;
+    }
+
+    @Override
+    public void glBindBuffer(int target, int buffer) {
+        mCalls++;
+    }
+
+    @Override
+    public void glGenBuffers(int n, int[] buffers, int offset) {
+        mCalls++;
+    }
+
+    @Override
+    public void glDeleteBuffers(int n, int[] buffers, int offset) {
+        mCalls++;
+    }
+
+    @Override
+    public void glBufferData(int target, int size, Buffer data, int usage) {
+        mCalls++;
+    }
+
+    @Override
+    public void glActiveTexture(int texture) {
+        mCalls++;
+    }
+
+    @Override
+    public void glBindTexture(int target, int texture) {
+        mCalls++;
+    }
+
+    @Override
+    public void glGenTextures(int n, int[] textures, int offset) {
+        mCalls++;
+    }
+
+    @Override
+    public void glDeleteTextures(int n, int[] textures, int offset) {
+        mCalls++;
+    }
+
+    @Override
+    public void glTexParameteri(int target, int pname, int param) {
+        mCalls++;
+    }
+
+    @Override
+    public void glPixelStorei(int pname, int param) {
+        mCalls++;
+    }
+
+    @Override
+    public void glTexImage2D(int target, int level, int internalformat, int width, int height, int border, int format, int type, Buffer pixels) {
+        mCalls++;
+    }
+
+    @Override
+    public void glUseProgram(int program) {
+        mCalls++;
+    }
+
+    @Override
+    public void glUniform1i(int location, int x) {
+        mCalls++;
+    }
+
+    @Override
+    public void glUniform1f(int location, float x) {
+        mCalls++;
+    }
+
+    @Override
+    public void glEnableVertexAttribArray(int index) {
+        mCalls++;
+    }
+
+    @Override
+    public void glDisableVertexAttribArray(int index) {
+        mCalls++;
+    }
+
+    @Override
+    public void glVertexAttribPointer(int index, int size, int type, boolean normalized, int stride, Buffer ptr) {
+        mCalls++;
+    }
+
+    @Override
+    public void glDrawArrays(int mode, int first, int count) {
+        mCalls++;
+    }
+
+    @Override
+    public void glDrawElements(int mode, int count, int type, Buffer indices) {
+        mCalls++;
+    }
+
+    @Override
+    public int glCreateProgram() {
+        mCalls++;
+        mLivePrograms++;
+        return ++mNames;
+    }
+
+    @Override
+    public void glDeleteProgram(int program) {
+        mCalls++;
+        mLivePrograms--;
+    }
+
+    @Override
+    public int glCreateShader(int type) {
+        mCalls++;
+        return ++mNames;
+    }
+
+    @Override
+    public void glDeleteShader(int shader) {
+        mCalls++;
+    }
+
+    @Override
+    public void glShaderSource(int shader, String string) {
+        mCalls++;
+    }
+
+    @Override
+    public void glCompileShader(int shader) {
+        mCalls++;
+    }
+
+    @Override
+    public void glAttachShader(int program, int shader) {
+        mCalls++;
+    }
+
+    @Override
+    public void glDetachShader(int program, int shader) {
+        mCalls++;
+    }
+
+    @Override
+    public void glLinkProgram(int program) {
+        mCalls++;
+    }
+
+    @Override
+    public int glGetAttribLocation(int program, String name) {
+        mCalls++;
+        return ++mNames;
+    }
+
+    @Override
+    public int glGetUniformLocation(int program, String name) {
+        mCalls++;
+        return ++mNames;
+    }
+
+    @Override
+    public void glGetShaderiv(int shader, int pname, int[] params, int offset) {
+        mCalls++;
+        params[offset] = mStatus ? 1 : 0;
+    }
+
+    @Override
+    public String glGetShaderInfoLog(int shader) {
+        mCalls++;
+        return mStatus ? "" : "compile failed";
+    }
+
+    @Override
+    public void glGetProgramiv(int program, int pname, int[] params, int offset) {
+        mCalls++;
+        params[offset] = mStatus ? 1 : 0;
+    }
+
+    @Override
+    public String glGetProgramInfoLog(int program) {
+        mCalls++;
+        return mStatus ? "" : "link failed";
+    }
+
+    @Override
+    public String glGetString(int name) {
+        mCalls++;
+        return "RecordingGLBackend";
+    }
+}
@@ -0,0 +1,96 @@
+package dev.jango.camera_renderer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class BandRunnerTest {
+    private static final int BANDS = 4;
+
+    private final ExecutorService mExecutor = Executors.newFixedThreadPool(BANDS - 1);
+
+    @After
+    public void tearDown() {
+        mExecutor.shutdownNow();
+    }
+
+    @Test
+    public void runsEveryBandOnceWithAndWithoutExecutor() {
+        for (Executor executor : new Executor[]{null, mExecutor}) {
+            CountingRunner runner = new CountingRunner(executor);
+            runner.runAll(BANDS);
+            runner.runAll(BANDS);
+            for (int i = 0; i < BANDS; i++) {
+                assertEquals(2, runner.mRuns.get(i));
+            }
+        }
+    }
+
+    @Test
+    public void runsRejectedBandsOnTheCallingThread() {
+        CountingRunner runner = new CountingRunner(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                throw new RejectedExecutionException();
+            }
+        });
+        runner.runAll(BANDS);
+        for (int i = 0; i < BANDS; i++) {
+            assertEquals(1, runner.mRuns.get(i));
+        }
+    }
+
+    // Band 0 always runs on an executor thread
+    @Test(timeout = 10000)
+    public void throwsAnExecutorBandFailureToTheCaller() {
+        final RuntimeException exception = new IllegalStateException("band");
+        final AssertionError error = new AssertionError("band");
+        for (final Throwable thrown : new Throwable[]{exception, error}) {
+            CountingRunner runner = new CountingRunner(mExecutor) {
+                @Override
+                void runBand(int index) {
+                    super.runBand(index);
+                    if (index == 0 && mRuns.get(0) == 1) throwUnchecked(thrown);
+                }
+            };
+            Throwable caught = null;
+            try {
+                runner.runAll(BANDS);
+            } catch (Throwable t) {
+                caught = t;
+            }
+            assertSame(thrown, caught);
+            // Every band ran, and the failure is not thrown again
+            for (int i = 0; i < BANDS; i++) {
+                assertEquals(1, runner.mRuns.get(i));
+            }
+            runner.runAll(BANDS);
+        }
+    }
+
+    private static void throwUnchecked(Throwable t) {
+        if (t instanceof RuntimeException) throw (RuntimeException) t;
+        throw (Error) t;
+    }
+
+    private static class CountingRunner extends BandRunner {
+        final AtomicIntegerArray mRuns = new AtomicIntegerArray(BANDS);
+
+        CountingRunner(Executor executor) {
+            super(executor);
+        }
+
+        @Override
+        void runBand(int index) {
+            mRuns.incrementAndGet(index);
+        }
+    }
+}
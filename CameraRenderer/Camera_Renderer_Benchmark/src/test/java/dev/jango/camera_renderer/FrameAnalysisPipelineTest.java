@@ -0,0 +1,268 @@
+package dev.jango.camera_renderer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class FrameAnalysisPipelineTest {
+    private static final int WIDTH = 4;
+    private static final int HEIGHT = 2;
+    private static final long TIMEOUT_MILLIS = 5000;
+
+    private final byte[] mData = new byte[WIDTH * HEIGHT * 3 / 2];
+    private FrameAnalysisPipeline mPipeline;
+
+    @After
+    public void tearDown() {
+        if (mPipeline != null) mPipeline.release();
+    }
+
+    @Test(timeout = 10000)
+    public void latestOnlyAnalyzesTheNewestFrameAfterTheBusyOne() throws Exception {
+        mPipeline = new FrameAnalysisPipeline();
+        GateAnalyzer analyzer = new GateAnalyzer();
+        FrameAnalysisPipeline.Stage stage = mPipeline.addStage(analyzer, FrameAnalysisPipeline.Backpressure.LatestOnly, 0);
+
+        submitWhileBusy(analyzer, 5);
+        awaitProcessed(stage, 2);
+        assertEquals(Arrays.asList(1L, 5L), analyzer.getSequences());
+        assertEquals(3, stage.getDroppedCount());
+        assertEquals(0, mPipeline.getPoolDroppedCount());
+    }
+
+    @Test(timeout = 10000)
+    public void queueKeepsTheNewestFramesUpToItsCapacity() throws Exception {
+        mPipeline = new FrameAnalysisPipeline();
+        GateAnalyzer analyzer = new GateAnalyzer();
+        FrameAnalysisPipeline.Stage stage = mPipeline.addStage(analyzer, FrameAnalysisPipeline.Backpressure.Queue, 2);
+
+        submitWhileBusy(analyzer, 6);
+        awaitProcessed(stage, 3);
+        assertEquals(Arrays.asList(1L, 5L, 6L), analyzer.getSequences());
+        assertEquals(3, stage.getDroppedCount());
+    }
+
+    // Submit never waits: without a free pooled frame the new one is dropped
+    @Test(timeout = 10000)
+    public void dropsFramesWhenThePoolIsExhausted() throws Exception {
+        mPipeline = new FrameAnalysisPipeline(3, 1);
+        GateAnalyzer analyzer = new GateAnalyzer();
+        FrameAnalysisPipeline.Stage stage = mPipeline.addStage(analyzer, FrameAnalysisPipeline.Backpressure.Queue, 10);
+
+        submitWhileBusy(analyzer, 6);
+        awaitProcessed(stage, 3);
+        assertEquals(Arrays.asList(1L, 2L, 3L), analyzer.getSequences());
+        assertEquals(0, stage.getDroppedCount());
+        assertEquals(3, mPipeline.getPoolDroppedCount());
+
+        // Analyzed frames are back in the pool
+        for (int i = 0; i < 3; i++) {
+            mPipeline.submit(mData, WIDTH, HEIGHT);
+            awaitProcessed(stage, 4 + i);
+        }
+        assertEquals(3, mPipeline.getPoolDroppedCount());
+    }
+
+    @Test(timeout = 10000)
+    public void retainedFramesStayOutOfThePool() throws Exception {
+        mPipeline = new FrameAnalysisPipeline(1, 1);
+        final List<FrameAnalysisPipeline.Frame> retained = new ArrayList<FrameAnalysisPipeline.Frame>();
+        FrameAnalysisPipeline.Stage stage = mPipeline.addStage(new FrameAnalysisPipeline.Analyzer() {
+            @Override
+            public void analyze(FrameAnalysisPipeline.Frame frame) {
+                frame.retain();
+                synchronized (retained) {
+                    retained.add(frame);
+                }
+            }
+        }, FrameAnalysisPipeline.Backpressure.LatestOnly, 0);
+
+        mPipeline.submit(mData, WIDTH, HEIGHT);
+        awaitProcessed(stage, 1);
+        mPipeline.submit(mData, WIDTH, HEIGHT);
+        assertEquals(1, mPipeline.getPoolDroppedCount());
+
+        synchronized (retained) {
+            retained.get(0).release();
+        }
+        mPipeline.submit(mData, WIDTH, HEIGHT);
+        awaitProcessed(stage, 2);
+        assertEquals(1, mPipeline.getPoolDroppedCount());
+    }
+
+    // A slow stage neither delays nor drops the frames of a fast one
+    @Test(timeout = 10000)
+    public void stagesApplyTheirPoliciesIndependently() throws Exception {
+        mPipeline = new FrameAnalysisPipeline(4, 2);
+        GateAnalyzer slow = new GateAnalyzer();
+        GateAnalyzer fast = new GateAnalyzer();
+        fast.open();
+        FrameAnalysisPipeline.Stage slowStage = mPipeline.addStage(slow, FrameAnalysisPipeline.Backpressure.LatestOnly, 0);
+        FrameAnalysisPipeline.Stage fastStage = mPipeline.addStage(fast, FrameAnalysisPipeline.Backpressure.Queue, 1);
+
+        for (int i = 1; i <= 10; i++) {
+            mPipeline.submit(mData, WIDTH, HEIGHT);
+            if (i == 1) slow.awaitEntered();
+            awaitProcessed(fastStage, i);
+        }
+        assertEquals(0, fastStage.getDroppedCount());
+        assertEquals(8, slowStage.getDroppedCount());
+
+        slow.open();
+        awaitProcessed(slowStage, 2);
+        assertEquals(Arrays.asList(1L, 10L), slow.getSequences());
+        assertEquals(0, mPipeline.getPoolDroppedCount());
+    }
+
+    @Test(timeout = 10000)
+    public void handsOutACopyOfTheSubmittedFrame() throws Exception {
+        mPipeline = new FrameAnalysisPipeline();
+        GateAnalyzer analyzer = new GateAnalyzer();
+        FrameAnalysisPipeline.Stage stage = mPipeline.addStage(analyzer, FrameAnalysisPipeline.Backpressure.LatestOnly, 0);
+        byte[] data = mData.clone();
+        Arrays.fill(data, (byte) 7);
+
+        mPipeline.submit(data, WIDTH, HEIGHT);
+        analyzer.awaitEntered();
+        Arrays.fill(data, (byte) 0);
+        analyzer.open();
+        awaitProcessed(stage, 1);
+
+        byte[] expected = new byte[mData.length];
+        Arrays.fill(expected, (byte) 7);
+        assertArrayEquals(expected, analyzer.getFirstData());
+    }
+
+    @Test(timeout = 10000)
+    public void removedStagesDropTheirWaitingFrames() throws Exception {
+        mPipeline = new FrameAnalysisPipeline(2, 1);
+        GateAnalyzer analyzer = new GateAnalyzer();
+        FrameAnalysisPipeline.Stage stage = mPipeline.addStage(analyzer, FrameAnalysisPipeline.Backpressure.LatestOnly, 0);
+
+        mPipeline.submit(mData, WIDTH, HEIGHT);
+        analyzer.awaitEntered();
+        mPipeline.submit(mData, WIDTH, HEIGHT);
+        mPipeline.removeStage(stage);
+        assertFalse(mPipeline.hasStages());
+        analyzer.open();
+        awaitProcessed(stage, 1);
+
+        // Both pooled frames are free again
+        GateAnalyzer next = new GateAnalyzer();
+        FrameAnalysisPipeline.Stage nextStage = mPipeline.addStage(next, FrameAnalysisPipeline.Backpressure.Queue, 1);
+        mPipeline.submit(mData, WIDTH, HEIGHT);
+        next.awaitEntered();
+        mPipeline.submit(mData, WIDTH, HEIGHT);
+        assertEquals(0, mPipeline.getPoolDroppedCount());
+        next.open();
+        awaitProcessed(nextStage, 2);
+        assertEquals(Arrays.asList(1L), analyzer.getSequences());
+    }
+
+    // The stage keeps draining after a throwing analysis, and the frame it threw on goes back to the pool
+    @Test(timeout = 10000)
+    public void analyzerFailuresDoNotStopTheStage() throws Exception {
+        mPipeline = new FrameAnalysisPipeline(3, 1);
+        final GateAnalyzer gate = new GateAnalyzer();
+        final IllegalStateException failure = new IllegalStateException("analysis");
+        FrameAnalysisPipeline.Stage stage = mPipeline.addStage(new FrameAnalysisPipeline.Analyzer() {
+            @Override
+            public void analyze(FrameAnalysisPipeline.Frame frame) {
+                gate.analyze(frame);
+                if (frame.getSequence() == 1) throw failure;
+            }
+        }, FrameAnalysisPipeline.Backpressure.Queue, 2);
+
+        submitWhileBusy(gate, 3);
+        awaitProcessed(stage, 2);
+        assertEquals(Arrays.asList(1L, 2L, 3L), gate.getSequences());
+        assertEquals(1, stage.getFailedCount());
+        assertSame(failure, stage.getLastFailure());
+        assertTrue(stage.toString(), stage.toString().contains(" 1 failed"));
+
+        // All three pooled frames are free again: a busy stage can hold them at once
+        mPipeline.removeStage(stage);
+        GateAnalyzer next = new GateAnalyzer();
+        FrameAnalysisPipeline.Stage nextStage = mPipeline.addStage(next, FrameAnalysisPipeline.Backpressure.Queue, 2);
+        submitWhileBusy(next, 3);
+        awaitProcessed(nextStage, 3);
+        assertEquals(0, mPipeline.getPoolDroppedCount());
+    }
+
+    /**
+     * Submits <code>count</code> frames, the later ones while the analyzer is blocked in the first, then lets it go.
+     */
+    private void submitWhileBusy(GateAnalyzer analyzer, int count) throws InterruptedException {
+        mPipeline.submit(mData, WIDTH, HEIGHT);
+        analyzer.awaitEntered();
+        for (int i = 1; i < count; i++) {
+            mPipeline.submit(mData, WIDTH, HEIGHT);
+        }
+        analyzer.open();
+    }
+
+    private static void awaitProcessed(FrameAnalysisPipeline.Stage stage, long count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (stage.getProcessedCount() < count) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new AssertionError("Processed " + stage.getProcessedCount() + " of " + count + " frames");
+            }
+            Thread.sleep(1);
+        }
+        Thread.sleep(10);
+        assertEquals(count, stage.getProcessedCount());
+    }
+
+    /**
+     * Records the frames it sees and blocks in them until opened.
+     */
+    private static final class GateAnalyzer implements FrameAnalysisPipeline.Analyzer {
+        private final CountDownLatch mEntered = new CountDownLatch(1);
+        private final CountDownLatch mGate = new CountDownLatch(1);
+        private final List<Long> mSequences = new ArrayList<Long>();
+        private byte[] mFirstData;
+
+        @Override
+        public void analyze(FrameAnalysisPipeline.Frame frame) {
+            synchronized (this) {
+                mSequences.add(frame.getSequence());
+                if (mFirstData == null) {
+                    mFirstData = Arrays.copyOf(frame.getData(), frame.getWidth() * frame.getHeight() * 3 / 2);
+                }
+            }
+            mEntered.countDown();
+            try {
+                mGate.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        void awaitEntered() throws InterruptedException {
+            if (!mEntered.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) throw new AssertionError("Analyzer never ran");
+        }
+
+        void open() {
+            mGate.countDown();
+        }
+
+        synchronized List<Long> getSequences() {
+            return new ArrayList<Long>(mSequences);
+        }
+
+        synchronized byte[] getFirstData() {
+            return mFirstData;
+        }
+    }
+}
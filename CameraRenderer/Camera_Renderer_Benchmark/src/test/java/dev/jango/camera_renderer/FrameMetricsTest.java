@@ -0,0 +1,77 @@
+package dev.jango.camera_renderer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Map;
+
+import org.junit.Test;
+
+public class FrameMetricsTest {
+    private static final long BUDGET = 16666667L;
+
+    @Test
+    public void countsStagesAboveTheFrameBudgetAsJank() {
+        FrameMetrics metrics = new FrameMetrics(BUDGET);
+        for (FrameMetrics.Stage stage : FrameMetrics.Stage.values()) {
+            if (stage == FrameMetrics.Stage.FrameAge) continue;
+            metrics.record(stage, BUDGET);
+            metrics.record(stage, BUDGET + 1);
+            assertEquals(stage.toString(), 1, metrics.getHistogram(stage).snapshot().getJankCount());
+        }
+    }
+
+    // A frame captured during one interval and drawn in the next is on time
+    @Test
+    public void countsFramesOlderThanTwoFrameBudgetsAsJank() {
+        FrameMetrics metrics = new FrameMetrics(BUDGET);
+        metrics.record(FrameMetrics.Stage.FrameAge, BUDGET + 1);
+        metrics.record(FrameMetrics.Stage.FrameAge, 2 * BUDGET);
+        assertEquals(0, metrics.getHistogram(FrameMetrics.Stage.FrameAge).snapshot().getJankCount());
+        metrics.record(FrameMetrics.Stage.FrameAge, 2 * BUDGET + 1);
+        assertEquals(1, metrics.getHistogram(FrameMetrics.Stage.FrameAge).snapshot().getJankCount());
+    }
+
+    @Test
+    public void movesEveryThresholdWithTheFrameBudget() {
+        FrameMetrics metrics = new FrameMetrics();
+        assertEquals(FrameMetrics.DEFAULT_FRAME_BUDGET_NS, metrics.getFrameBudget());
+        metrics.setFrameBudget(2 * BUDGET);
+        assertEquals(2 * BUDGET, metrics.getFrameBudget());
+        assertEquals(2 * BUDGET, metrics.getHistogram(FrameMetrics.Stage.Draw).getJankThreshold());
+        assertEquals(FrameMetrics.FRAME_AGE_BUDGET_FRAMES * 2 * BUDGET,
+                metrics.getHistogram(FrameMetrics.Stage.FrameAge).getJankThreshold());
+    }
+
+    @Test
+    public void snapshotsAndResetsStagesAndCounters() {
+        FrameMetrics metrics = new FrameMetrics(BUDGET);
+        metrics.record(FrameMetrics.Stage.Draw, 1000000L);
+        metrics.recordSince(FrameMetrics.Stage.TextureUpload, System.nanoTime() - 2000000L);
+        metrics.increment(FrameMetrics.Counter.TextureUploads);
+        metrics.add(FrameMetrics.Counter.DroppedFrames, 3);
+        assertEquals(3, metrics.getCount(FrameMetrics.Counter.DroppedFrames));
+
+        Map<FrameMetrics.Stage, FrameTimeHistogram.Snapshot> snapshots = metrics.snapshotAndReset();
+        assertEquals(FrameMetrics.Stage.values().length, snapshots.size());
+        assertEquals(1, snapshots.get(FrameMetrics.Stage.Draw).getCount());
+        assertTrue(snapshots.get(FrameMetrics.Stage.TextureUpload).getMaxNanos() >= 2000000L);
+        assertEquals(0, snapshots.get(FrameMetrics.Stage.FrameAge).getCount());
+
+        assertEquals(0, metrics.getHistogram(FrameMetrics.Stage.Draw).snapshot().getCount());
+        assertEquals(0, metrics.getCount(FrameMetrics.Counter.TextureUploads));
+        assertEquals(0, metrics.getCount(FrameMetrics.Counter.DroppedFrames));
+    }
+
+    @Test
+    public void dumpsEveryStageAndCounter() {
+        String dump = new FrameMetrics(BUDGET).dump();
+        assertTrue(dump.startsWith("Frame budget 16666us"));
+        for (FrameMetrics.Stage stage : FrameMetrics.Stage.values()) {
+            assertTrue(stage.toString(), dump.contains("\n" + stage + ": "));
+        }
+        for (FrameMetrics.Counter counter : FrameMetrics.Counter.values()) {
+            assertTrue(counter.toString(), dump.contains("\n" + counter + ": 0"));
+        }
+    }
+}
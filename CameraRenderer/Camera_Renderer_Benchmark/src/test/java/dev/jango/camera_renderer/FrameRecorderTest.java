@@ -0,0 +1,176 @@
+package dev.jango.camera_renderer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class FrameRecorderTest {
+    private static final String NAME = "session";
+    private static final int WIDTH = 8;
+    private static final int HEIGHT = 4;
+    private static final int FRAME_SIZE = WIDTH * HEIGHT * 3 / 2;
+    private static final int INDEX_CAPACITY = 4;
+    private static final int SEGMENT_BYTES = FrameRecorder.HEADER_SIZE + INDEX_CAPACITY * FrameRecorder.ENTRY_SIZE
+            + INDEX_CAPACITY * FRAME_SIZE;
+    private static final long TIMEOUT_MILLIS = 5000;
+
+    @Rule
+    public final TemporaryFolder mFolder = new TemporaryFolder();
+
+    @Test(timeout = 10000)
+    public void readsBackEveryFrameAcrossSegments() throws Exception {
+        File directory = mFolder.getRoot();
+        FrameRecorder recorder = new FrameRecorder(directory, NAME, SEGMENT_BYTES, INDEX_CAPACITY);
+        recorder.start();
+        long attempts = 0;
+        for (int i = 0; i < 10; i++) {
+            attempts += recordWhenReady(recorder, frame(i), WIDTH, HEIGHT, timestamp(i));
+        }
+        assertEquals(10, recorder.getRecordedCount());
+        assertEquals(attempts - 10, recorder.getDroppedCount());
+        // Three segments of at most four frames
+        release(recorder, directory, 3);
+        assertFalse(recorder.isRecording());
+        assertNull(recorder.getLastError());
+
+        FrameRecording recording = FrameRecording.open(directory, NAME);
+        assertEquals(10, recording.getFrameCount());
+        byte[] out = new byte[FRAME_SIZE];
+        for (int i = 0; i < 10; i++) {
+            assertEquals(timestamp(i), recording.getTimestampNanos(i));
+            assertEquals(WIDTH, recording.getWidth(i));
+            assertEquals(HEIGHT, recording.getHeight(i));
+            assertEquals(FRAME_SIZE, recording.getFrameSize(i));
+            recording.readFrame(i, out);
+            assertArrayEquals(frame(i), out);
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void keepsTheSizeOfEveryFrame() throws Exception {
+        File directory = mFolder.getRoot();
+        FrameRecorder recorder = new FrameRecorder(directory, NAME, SEGMENT_BYTES, INDEX_CAPACITY);
+        recorder.start();
+        byte[] small = Arrays.copyOf(frame(1), 4 * 2 * 3 / 2);
+        recordWhenReady(recorder, frame(0), WIDTH, HEIGHT, timestamp(0));
+        recordWhenReady(recorder, small, 4, 2, timestamp(1));
+        release(recorder, directory, 1);
+
+        FrameRecording recording = FrameRecording.open(directory, NAME);
+        assertEquals(2, recording.getFrameCount());
+        assertEquals(4, recording.getWidth(1));
+        byte[] out = new byte[recording.getFrameSize(1)];
+        recording.readFrame(1, out);
+        assertArrayEquals(small, out);
+    }
+
+    @Test(timeout = 10000)
+    public void dropsFramesLargerThanASegment() throws Exception {
+        FrameRecorder recorder = new FrameRecorder(mFolder.getRoot(), NAME, SEGMENT_BYTES, INDEX_CAPACITY);
+        recorder.start();
+        recordWhenReady(recorder, frame(0), WIDTH, HEIGHT, timestamp(0));
+        int side = (int) Math.sqrt(SEGMENT_BYTES) + 2;
+        assertFalse(recorder.record(new byte[side * side * 3 / 2], side, side, timestamp(1)));
+        assertEquals(1, recorder.getRecordedCount());
+        recorder.release();
+    }
+
+    @Test
+    public void recordsNothingWhenStopped() {
+        FrameRecorder recorder = new FrameRecorder(mFolder.getRoot(), NAME, SEGMENT_BYTES, INDEX_CAPACITY);
+        assertFalse(recorder.record(frame(0), WIDTH, HEIGHT, timestamp(0)));
+        assertEquals(0, recorder.getDroppedCount());
+        recorder.release();
+    }
+
+    @Test(timeout = 10000)
+    public void findsFramesByTimestamp() throws Exception {
+        File directory = mFolder.getRoot();
+        FrameRecorder recorder = new FrameRecorder(directory, NAME, SEGMENT_BYTES, INDEX_CAPACITY);
+        recorder.start();
+        for (int i = 0; i < 6; i++) {
+            recordWhenReady(recorder, frame(i), WIDTH, HEIGHT, timestamp(i));
+        }
+        release(recorder, directory, 2);
+
+        FrameRecording recording = FrameRecording.open(directory, NAME);
+        assertEquals(0, recording.findFrame(0));
+        assertEquals(0, recording.findFrame(timestamp(0)));
+        assertEquals(4, recording.findFrame(timestamp(4)));
+        assertEquals(4, recording.findFrame(timestamp(5) - 1));
+        assertEquals(5, recording.findFrame(Long.MAX_VALUE));
+    }
+
+    @Test(expected = IOException.class)
+    public void refusesAMissingRecording() throws Exception {
+        FrameRecording.open(mFolder.getRoot(), NAME);
+    }
+
+    @Test(expected = IOException.class)
+    public void refusesFilesThatAreNoSegment() throws Exception {
+        FileOutputStream out = new FileOutputStream(FrameRecorder.getSegmentFile(mFolder.getRoot(), NAME, 0));
+        try {
+            out.write(new byte[FrameRecorder.HEADER_SIZE]);
+        } finally {
+            out.close();
+        }
+        FrameRecording.open(mFolder.getRoot(), NAME);
+    }
+
+    /**
+     * Records a frame, retrying while the recorder waits for its next segment, and returns the number of attempts.
+     */
+    private static int recordWhenReady(FrameRecorder recorder, byte[] data, int width, int height, long timestamp)
+            throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        int attempts = 1;
+        while (!recorder.record(data, width, height, timestamp)) {
+            assertTrue("No segment prepared: " + recorder.getLastError(), System.currentTimeMillis() < deadline);
+            Thread.sleep(1);
+            attempts++;
+        }
+        return attempts;
+    }
+
+    /**
+     * Releases the recorder once it prepared the segment after the <code>segmentCount</code> used ones, and waits for
+     * that spare segment to be deleted.
+     */
+    private static void release(FrameRecorder recorder, File directory, int segmentCount) throws InterruptedException {
+        File spare = FrameRecorder.getSegmentFile(directory, NAME, segmentCount);
+        await(spare, true);
+        recorder.release();
+        await(spare, false);
+    }
+
+    private static void await(File file, boolean exists) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (file.exists() != exists) {
+            assertTrue(file + (exists ? " was not created" : " was not deleted"), System.currentTimeMillis() < deadline);
+            Thread.sleep(1);
+        }
+    }
+
+    private static byte[] frame(int number) {
+        byte[] frame = new byte[FRAME_SIZE];
+        for (int i = 0; i < frame.length; i++) {
+            frame[i] = (byte) (number * 31 + i);
+        }
+        return frame;
+    }
+
+    private static long timestamp(int number) {
+        return 1000000L + number * 33333333L;
+    }
+}
@@ -0,0 +1,196 @@
+package dev.jango.camera_renderer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.EOFException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Test;
+
+import dev.jango.camera_renderer.benchmark.FrameStreamClient;
+
+public class FrameStreamServerTest {
+    private static final long TIMEOUT_MILLIS = 5000;
+
+    private FrameStreamServer mServer;
+
+    @After
+    public void tearDown() {
+        if (mServer != null) mServer.stop();
+    }
+
+    @Test
+    public void listensOnLoopbackUnlessAskedOtherwise() {
+        assertTrue(new FrameStreamServer(0).getBindAddress().isLoopbackAddress());
+        assertTrue(FrameStreamServer.onAllInterfaces(0).getBindAddress().isAnyLocalAddress());
+    }
+
+    @Test(timeout = 10000)
+    public void sendsEveryFrameToAClientKeepingUp() throws Exception {
+        mServer = new FrameStreamServer(0);
+        mServer.start();
+        FrameStreamClient client = connect();
+        try {
+            awaitClients(1);
+            byte[] frame = new byte[64 * 48 * 3 / 2];
+            Random random = new Random(1);
+            for (int i = 1; i <= 20; i++) {
+                random.nextBytes(frame);
+                mServer.publish(frame, 64, 48, 1000L * i);
+                client.readFrame();
+                assertEquals(FrameStreamServer.Format.Nv21, client.getFormat());
+                assertEquals(64, client.getWidth());
+                assertEquals(48, client.getHeight());
+                assertEquals(i, client.getSequence());
+                assertEquals(1000L * i, client.getTimestampNanos());
+                assertArrayEquals(frame, pixels(client));
+            }
+            assertEquals(0, mServer.getClientSkippedCount());
+        } finally {
+            client.close();
+        }
+    }
+
+    // A client that stops reading skips frames, nothing queues up for it and publishing never waits for it
+    @Test(timeout = 20000)
+    public void skipsFramesForAStalledClient() throws Exception {
+        final int width = 1280;
+        final int height = 720;
+        final int published = 100;
+        mServer = new FrameStreamServer(new InetSocketAddress("127.0.0.1", 0), FrameStreamServer.Format.Nv21, 1, 1);
+        mServer.start();
+        FrameStreamClient client = connect();
+        try {
+            awaitClients(1);
+            byte[] frame = new byte[width * height * 3 / 2];
+            long start = System.nanoTime();
+            for (int i = 0; i < published; i++) {
+                Arrays.fill(frame, (byte) i);
+                mServer.publish(frame, width, height, i);
+            }
+            // About 140 MB the client did not read, the socket buffers only take a few frames
+            assertTrue("Publishing waited for the client", System.nanoTime() - start < 5000000000L);
+            assertEquals(published, mServer.getPublishedCount() + mServer.getPublishDroppedCount());
+
+            // Reads what was sent, up to the latest frame
+            int received = 0;
+            long first = 0;
+            long latest = mServer.getPublishedCount();
+            do {
+                client.readFrame();
+                if (received++ == 0) first = client.getSequence();
+                byte[] pixels = pixels(client);
+                assertEquals("Torn frame " + client.getSequence(), pixels[0], pixels[pixels.length - 1]);
+            } while (client.getSequence() < latest);
+            assertEquals(latest, client.getSequence());
+            assertTrue("Received " + received + " of " + published + " frames", received <= published / 4);
+            // Frames published before the server first wrote to the client are not counted as skipped
+            assertEquals(latest - first + 1 - received, mServer.getClientSkippedCount());
+        } finally {
+            client.close();
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void aStalledClientDoesNotHoldBackAnother() throws Exception {
+        mServer = new FrameStreamServer(new InetSocketAddress("127.0.0.1", 0), FrameStreamServer.Format.Nv21, 1, 2);
+        mServer.start();
+        FrameStreamClient stalled = connect();
+        FrameStreamClient reader = connect();
+        try {
+            awaitClients(2);
+            byte[] frame = new byte[1280 * 720 * 3 / 2];
+            for (int i = 1; i <= 50; i++) {
+                mServer.publish(frame, 1280, 720, i);
+                reader.readFrame();
+                assertEquals(i, reader.getSequence());
+            }
+            assertEquals(0, mServer.getPublishDroppedCount());
+        } finally {
+            stalled.close();
+            reader.close();
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void sendsTheDownscaledLumaPlane() throws Exception {
+        mServer = new FrameStreamServer(new InetSocketAddress("127.0.0.1", 0), FrameStreamServer.Format.Luma, 2, 1);
+        mServer.start();
+        FrameStreamClient client = connect();
+        try {
+            awaitClients(1);
+            byte[] frame = new byte[8 * 4 * 3 / 2];
+            for (int i = 0; i < frame.length; i++) {
+                frame[i] = (byte) (i * 7);
+            }
+            mServer.publish(frame, 8, 4, 0);
+            client.readFrame();
+            assertEquals(FrameStreamServer.Format.Luma, client.getFormat());
+            assertEquals(4, client.getWidth());
+            assertEquals(2, client.getHeight());
+            byte[] expected = new byte[4 * 2];
+            for (int y = 0; y < 2; y++) {
+                for (int x = 0; x < 4; x++) {
+                    int i = 2 * y * 8 + 2 * x;
+                    int sum = (frame[i] & 0xff) + (frame[i + 1] & 0xff) + (frame[i + 8] & 0xff) + (frame[i + 9] & 0xff);
+                    expected[y * 4 + x] = (byte) (sum / 4);
+                }
+            }
+            assertArrayEquals(expected, pixels(client));
+        } finally {
+            client.close();
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void closesConnectionsBeyondTheMaximum() throws Exception {
+        mServer = new FrameStreamServer(new InetSocketAddress("127.0.0.1", 0), FrameStreamServer.Format.Nv21, 1, 1);
+        mServer.start();
+        FrameStreamClient first = connect();
+        awaitClients(1);
+        FrameStreamClient second = connect();
+        try {
+            second.readFrame();
+            fail("Read from a connection beyond the maximum");
+        } catch (EOFException e) {
+            // Expected
+        } finally {
+            second.close();
+        }
+        assertEquals(1, mServer.getClientCount());
+
+        // The slot is free again once the first client leaves
+        first.close();
+        awaitClients(0);
+        FrameStreamClient third = connect();
+        try {
+            awaitClients(1);
+        } finally {
+            third.close();
+        }
+    }
+
+    private FrameStreamClient connect() throws Exception {
+        return new FrameStreamClient(new InetSocketAddress("127.0.0.1", mServer.getPort()));
+    }
+
+    private void awaitClients(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (mServer.getClientCount() != count) {
+            assertTrue(mServer.getClientCount() + " clients connected", System.currentTimeMillis() < deadline);
+            Thread.sleep(1);
+        }
+    }
+
+    private static byte[] pixels(FrameStreamClient client) {
+        ByteBuffer pixels = client.getPixels();
+        return Arrays.copyOfRange(pixels.array(), pixels.arrayOffset(), pixels.arrayOffset() + pixels.limit());
+    }
+}
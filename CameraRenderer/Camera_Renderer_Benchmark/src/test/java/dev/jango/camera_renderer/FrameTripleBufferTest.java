@@ -0,0 +1,153 @@
+package dev.jango.camera_renderer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+public class FrameTripleBufferTest {
+    private static final int WIDTH = 64;
+    private static final int HEIGHT = 48;
+    private static final int FRAME_SIZE = WIDTH * HEIGHT * 3 / 2;
+
+    @Test
+    public void returnsNothingBeforeTheFirstPublish() {
+        FrameTripleBuffer buffer = new FrameTripleBuffer(WIDTH, HEIGHT);
+        assertNull(buffer.acquireLatest());
+    }
+
+    @Test
+    public void keepsTheLastFrameWhenNothingNewWasPublished() {
+        FrameTripleBuffer buffer = new FrameTripleBuffer(WIDTH, HEIGHT);
+        buffer.write(filled(7));
+        FrameTripleBuffer.Frame frame = buffer.acquireLatest();
+        assertEquals(1, frame.getSequence());
+        assertSame(frame, buffer.acquireLatest());
+        assertWhole(frame, (byte) 7);
+    }
+
+    @Test
+    public void skipsToTheNewestFrame() {
+        FrameTripleBuffer buffer = new FrameTripleBuffer(WIDTH, HEIGHT);
+        for (int i = 1; i <= 5; i++) {
+            buffer.write(filled(i));
+        }
+        FrameTripleBuffer.Frame frame = buffer.acquireLatest();
+        assertEquals(5, frame.getSequence());
+        assertWhole(frame, (byte) 5);
+    }
+
+    // One writer and one reader as fast as they go: every frame read is whole and newer than the last one
+    @Test(timeout = 60000)
+    public void handsOverWholeFramesInOrderUnderContention() throws Exception {
+        final int frames = 100000;
+        final FrameTripleBuffer buffer = new FrameTripleBuffer(WIDTH, HEIGHT);
+        final AtomicReference<Throwable> writerFailure = new AtomicReference<Throwable>();
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    byte[] frame = new byte[FRAME_SIZE];
+                    for (int i = 1; i <= frames; i++) {
+                        // Content tells which publish wrote it
+                        Arrays.fill(frame, (byte) i);
+                        buffer.write(frame);
+                    }
+                } catch (Throwable t) {
+                    writerFailure.set(t);
+                }
+            }
+        }, "writer");
+        writer.start();
+
+        long last = 0;
+        int distinct = 0;
+        while (last < frames) {
+            FrameTripleBuffer.Frame frame = buffer.acquireLatest();
+            if (frame == null) {
+                if (writerFailure.get() != null) break;
+                continue;
+            }
+            long sequence = frame.getSequence();
+            assertTrue("Sequence went back from " + last + " to " + sequence, sequence >= last);
+            if (sequence > last) {
+                distinct++;
+                assertWhole(frame, (byte) sequence);
+                // Lets the writer run while the frame is held, even on a single core
+                Thread.yield();
+                assertEquals(sequence, frame.getSequence());
+                assertWhole(frame, (byte) sequence);
+                last = sequence;
+            }
+        }
+        writer.join();
+        if (writerFailure.get() != null) throw new AssertionError(writerFailure.get());
+        assertEquals(frames, last);
+        assertTrue(distinct > 0);
+    }
+
+    // A writer stalled in the middle of a frame never holds the reader up, which keeps the frame published before
+    @Test(timeout = 10000)
+    public void readerDoesNotWaitForAStalledWriter() throws Exception {
+        final FrameTripleBuffer buffer = new FrameTripleBuffer(WIDTH, HEIGHT);
+        buffer.write(filled(1));
+        final CountDownLatch halfWritten = new CountDownLatch(1);
+        final CountDownLatch resume = new CountDownLatch(1);
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                FrameTripleBuffer.Frame back = buffer.beginWrite();
+                back.getData().put(filled(2), 0, FRAME_SIZE / 2);
+                halfWritten.countDown();
+                try {
+                    resume.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                back.getData().position(0);
+                back.getData().put(filled(2), 0, FRAME_SIZE);
+                back.getData().position(0);
+                buffer.publish();
+            }
+        }, "writer");
+        writer.start();
+        if (!halfWritten.await(5, TimeUnit.SECONDS)) fail("Writer did not start");
+
+        for (int i = 0; i < 1000; i++) {
+            FrameTripleBuffer.Frame frame = buffer.acquireLatest();
+            assertNotNull(frame);
+            assertEquals(1, frame.getSequence());
+            assertWhole(frame, (byte) 1);
+        }
+        resume.countDown();
+        writer.join();
+        FrameTripleBuffer.Frame frame = buffer.acquireLatest();
+        assertEquals(2, frame.getSequence());
+        assertWhole(frame, (byte) 2);
+    }
+
+    private static byte[] filled(int value) {
+        byte[] frame = new byte[FRAME_SIZE];
+        Arrays.fill(frame, (byte) value);
+        return frame;
+    }
+
+    private static void assertWhole(FrameTripleBuffer.Frame frame, byte expected) {
+        ByteBuffer data = frame.getData();
+        for (int i = 0; i < FRAME_SIZE; i++) {
+            if (data.get(i) != expected) {
+                fail("Frame " + frame.getSequence() + " torn at byte " + i + ": " + data.get(i) + " instead of " + expected);
+            }
+        }
+    }
+}
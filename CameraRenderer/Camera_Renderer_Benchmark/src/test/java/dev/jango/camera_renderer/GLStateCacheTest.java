@@ -0,0 +1,142 @@
+package dev.jango.camera_renderer;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import dev.jango.camera_renderer.benchmark.RecordingGLBackend;
+
+public class GLStateCacheTest {
+    private static final int GL_DEPTH_TEST = 0x0B71;
+    private static final int GL_CULL_FACE = 0x0B44;
+    private static final int GL_ALWAYS = 0x0207;
+    private static final int GL_ARRAY_BUFFER = 0x8892;
+    private static final int GL_ELEMENT_ARRAY_BUFFER = 0x8893;
+    private static final int GL_TEXTURE_2D = 0x0DE1;
+    private static final int GL_TEXTURE_EXTERNAL_OES = 0x8D65;
+    private static final int GL_TEXTURE0 = 0x84C0;
+    private static final int GL_TEXTURE1 = 0x84C1;
+    private static final int GL_TRIANGLES = 0x0004;
+    private static final int PROGRAM = 3;
+    private static final int Y_TEXTURE = 1;
+    private static final int UV_TEXTURE = 2;
+
+    // Calls of one YUV draw, and those of them repeating the state left by the previous draw. Switching to unit 1
+    // and back to unit 0 changes the state every draw.
+    private static final int FRAME_CALLS = 18;
+    private static final int FRAME_REPEATED_CALLS = 11;
+
+    private RecordingGLBackend mDriver;
+    private GLStateCache mCache;
+
+    @Before
+    public void setUp() {
+        mDriver = new RecordingGLBackend();
+        mCache = new GLStateCache(mDriver);
+    }
+
+    @Test
+    public void forwardsEveryCallOfTheFirstFrame() {
+        assertEquals(FRAME_CALLS, frame());
+        assertEquals(0, mCache.getElidedCalls());
+    }
+
+    @Test
+    public void dropsTheRepeatedStateCallsOfLaterFrames() {
+        frame();
+        for (int i = 1; i <= 10; i++) {
+            assertEquals(FRAME_CALLS - FRAME_REPEATED_CALLS, frame());
+            assertEquals(i * FRAME_REPEATED_CALLS, mCache.getElidedCalls());
+        }
+    }
+
+    @Test
+    public void forwardsEverythingAgainAfterInvalidate() {
+        frame();
+        frame();
+        mCache.invalidate();
+        assertEquals(FRAME_CALLS, frame());
+    }
+
+    @Test
+    public void tracksTextureBindingsPerUnit() {
+        mCache.glActiveTexture(GL_TEXTURE0);
+        mCache.glBindTexture(GL_TEXTURE_2D, Y_TEXTURE);
+        mCache.glActiveTexture(GL_TEXTURE1);
+        mCache.glBindTexture(GL_TEXTURE_2D, Y_TEXTURE);
+        mDriver.reset();
+
+        mCache.glBindTexture(GL_TEXTURE_2D, Y_TEXTURE);
+        mCache.glActiveTexture(GL_TEXTURE0);
+        mCache.glBindTexture(GL_TEXTURE_2D, Y_TEXTURE);
+        // Only the unit switch
+        assertEquals(1, mDriver.getCalls());
+        mCache.glBindTexture(GL_TEXTURE_2D, UV_TEXTURE);
+        assertEquals(2, mDriver.getCalls());
+    }
+
+    @Test
+    public void forgetsDeletedTexturesAndBuffers() {
+        mCache.glActiveTexture(GL_TEXTURE0);
+        mCache.glBindTexture(GL_TEXTURE_2D, Y_TEXTURE);
+        mCache.glBindBuffer(GL_ARRAY_BUFFER, 4);
+        mCache.glDeleteTextures(1, new int[]{Y_TEXTURE}, 0);
+        mCache.glDeleteBuffers(1, new int[]{4}, 0);
+        mDriver.reset();
+
+        // The name may come back for a new object, which is not bound yet
+        mCache.glBindTexture(GL_TEXTURE_2D, Y_TEXTURE);
+        mCache.glBindBuffer(GL_ARRAY_BUFFER, 4);
+        assertEquals(2, mDriver.getCalls());
+        // Deleting a bound buffer binds 0 in its place
+        mCache.glDeleteBuffers(1, new int[]{4}, 0);
+        mDriver.reset();
+        mCache.glBindBuffer(GL_ARRAY_BUFFER, 0);
+        assertEquals(0, mDriver.getCalls());
+    }
+
+    @Test
+    public void forwardsTheExternalBindingAfterItsInvalidation() {
+        mCache.glActiveTexture(GL_TEXTURE0);
+        mCache.glBindTexture(GL_TEXTURE_EXTERNAL_OES, 7);
+        mCache.glBindTexture(GL_TEXTURE_2D, Y_TEXTURE);
+        mCache.invalidateTextureBindings(GL_TEXTURE_EXTERNAL_OES);
+        mDriver.reset();
+
+        mCache.glBindTexture(GL_TEXTURE_EXTERNAL_OES, 7);
+        mCache.glBindTexture(GL_TEXTURE_2D, Y_TEXTURE);
+        assertEquals(1, mDriver.getCalls());
+    }
+
+    @Test
+    public void forwardsBindingsWhileTheActiveUnitIsUnknown() {
+        mCache.glBindTexture(GL_TEXTURE_2D, Y_TEXTURE);
+        mCache.glBindTexture(GL_TEXTURE_2D, Y_TEXTURE);
+        assertEquals(2, mDriver.getCalls());
+    }
+
+    // Returns the calls that reached the driver
+    private long frame() {
+        long before = mDriver.getCalls();
+        mCache.glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, 0);
+        mCache.glBindBuffer(GL_ARRAY_BUFFER, 0);
+        mCache.glDisable(GL_CULL_FACE);
+        mCache.glEnable(GL_DEPTH_TEST);
+        mCache.glDepthFunc(GL_ALWAYS);
+        mCache.glDepthMask(false);
+        mCache.glUseProgram(PROGRAM);
+        mCache.glVertexAttribPointer(0, 3, 0x1406, false, 20, null);
+        mCache.glVertexAttribPointer(1, 2, 0x1406, false, 20, null);
+        mCache.glEnableVertexAttribArray(0);
+        mCache.glEnableVertexAttribArray(1);
+        mCache.glActiveTexture(GL_TEXTURE1);
+        mCache.glBindTexture(GL_TEXTURE_2D, UV_TEXTURE);
+        mCache.glUniform1i(1, 1);
+        mCache.glActiveTexture(GL_TEXTURE0);
+        mCache.glBindTexture(GL_TEXTURE_2D, Y_TEXTURE);
+        mCache.glUniform1i(0, 0);
+        mCache.glDrawElements(GL_TRIANGLES, 6, 0x1403, null);
+        return mDriver.getCalls() - before;
+    }
+}
@@ -0,0 +1,197 @@
+package dev.jango.camera_renderer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Test;
+
+public class Nv21CodecTest {
+    private static final int WIDTH = 64;
+    private static final int HEIGHT = 48;
+    private static final int SIZE = WIDTH * HEIGHT * 3 / 2;
+
+    @Test
+    public void restoresNoiseExactly() {
+        assertRoundTrip(noiseFrames(5, 1), new Nv21Codec.Encoder(), new Nv21Codec.Decoder());
+    }
+
+    // Moving content goes through temporal prediction between key frames
+    @Test
+    public void restoresMovingContentExactly() {
+        assertRoundTrip(syntheticFrames(20), new Nv21Codec.Encoder(4, 8, null), new Nv21Codec.Decoder());
+    }
+
+    @Test
+    public void compressesStaticContent() {
+        byte[] frame = syntheticFrames(1).get(0);
+        Nv21Codec.Encoder encoder = new Nv21Codec.Encoder();
+        ByteBuffer out = ByteBuffer.allocate(Nv21Codec.maxEncodedSize(WIDTH, HEIGHT, Nv21Codec.DEFAULT_BAND_COUNT));
+        int key = encoder.encode(frame, WIDTH, HEIGHT, out);
+        out.clear();
+        int repeated = encoder.encode(frame, WIDTH, HEIGHT, out);
+        assertTrue("Key frame of " + key + " bytes", key < SIZE / 2);
+        assertTrue("Repeated frame of " + repeated + " bytes", repeated < key / 4);
+    }
+
+    @Test
+    public void codesTheSameInParallel() {
+        List<byte[]> frames = syntheticFrames(10);
+        frames.addAll(noiseFrames(3, 2));
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            List<byte[]> serial = encodeAll(frames, new Nv21Codec.Encoder(4, 5, null));
+            List<byte[]> parallel = encodeAll(frames, new Nv21Codec.Encoder(4, 5, executor));
+            for (int i = 0; i < frames.size(); i++) {
+                assertArrayEquals("Frame " + i, serial.get(i), parallel.get(i));
+            }
+            assertRoundTrip(frames, new Nv21Codec.Encoder(4, 5, executor), new Nv21Codec.Decoder(executor));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void decodesAStreamOfFramesOfChangingSizes() {
+        Nv21Codec.Encoder encoder = new Nv21Codec.Encoder(3, 4, null);
+        ByteBuffer stream = ByteBuffer.allocate(16 * Nv21Codec.maxEncodedSize(WIDTH, HEIGHT, 3));
+        List<byte[]> frames = new ArrayList<byte[]>();
+        int[] widths = new int[10];
+        int[] heights = new int[10];
+        Random random = new Random(3);
+        for (int i = 0; i < 10; i++) {
+            widths[i] = i < 5 ? WIDTH : 6;
+            heights[i] = i < 5 ? HEIGHT : 2;
+            byte[] frame = new byte[widths[i] * heights[i] * 3 / 2];
+            random.nextBytes(frame);
+            frames.add(frame);
+            encoder.encode(frame, widths[i], heights[i], stream);
+        }
+        stream.flip();
+
+        Nv21Codec.Decoder decoder = new Nv21Codec.Decoder();
+        byte[] out = new byte[SIZE];
+        for (int i = 0; i < 10; i++) {
+            assertEquals(widths[i], Nv21Codec.Decoder.peekWidth(stream));
+            assertEquals(heights[i], Nv21Codec.Decoder.peekHeight(stream));
+            int size = decoder.decode(stream, out);
+            assertEquals(frames.get(i).length, size);
+            assertArrayEquals("Frame " + i, frames.get(i), Arrays.copyOf(out, size));
+            assertEquals(widths[i], decoder.getWidth());
+        }
+        assertEquals(0, stream.remaining());
+    }
+
+    @Test
+    public void leavesTheByteOrderOfTheBuffersAlone() {
+        byte[] frame = noiseFrames(1, 4).get(0);
+        ByteBuffer buffer = ByteBuffer.allocate(Nv21Codec.maxEncodedSize(WIDTH, HEIGHT, 2)).order(ByteOrder.BIG_ENDIAN);
+        new Nv21Codec.Encoder(2, 1, null).encode(frame, WIDTH, HEIGHT, buffer);
+        assertEquals(ByteOrder.BIG_ENDIAN, buffer.order());
+        buffer.flip();
+        byte[] out = new byte[SIZE];
+        new Nv21Codec.Decoder().decode(buffer, out);
+        assertEquals(ByteOrder.BIG_ENDIAN, buffer.order());
+        assertArrayEquals(frame, out);
+    }
+
+    @Test
+    public void needsAKeyFrameFirst() {
+        List<byte[]> frames = syntheticFrames(2);
+        List<byte[]> encoded = encodeAll(frames, new Nv21Codec.Encoder(4, 30, null));
+        Nv21Codec.Decoder decoder = new Nv21Codec.Decoder();
+        ByteBuffer delta = ByteBuffer.wrap(encoded.get(1));
+        try {
+            decoder.decode(delta, new byte[SIZE]);
+            fail("Decoded a delta frame without reference");
+        } catch (IllegalStateException e) {
+            assertEquals(0, delta.position());
+        }
+        byte[] out = new byte[SIZE];
+        decoder.decode(ByteBuffer.wrap(encoded.get(0)), out);
+        decoder.decode(delta, out);
+        assertArrayEquals(frames.get(1), out);
+    }
+
+    @Test
+    public void rejectsCorruptInputWithoutConsumingIt() {
+        byte[] encoded = encodeAll(noiseFrames(1, 5), new Nv21Codec.Encoder()).get(0);
+        byte[] corrupt = encoded.clone();
+        // Band lengths no longer add up to the total
+        corrupt[Nv21Codec.HEADER_SIZE] ^= 1;
+        ByteBuffer in = ByteBuffer.wrap(corrupt);
+        try {
+            new Nv21Codec.Decoder().decode(in, new byte[SIZE]);
+            fail("Decoded a corrupt frame");
+        } catch (IllegalArgumentException e) {
+            assertEquals(0, in.position());
+        }
+        try {
+            new Nv21Codec.Decoder().decode(ByteBuffer.wrap(new byte[SIZE]), new byte[SIZE]);
+            fail("Decoded zeros");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+    }
+
+    private static void assertRoundTrip(List<byte[]> frames, Nv21Codec.Encoder encoder, Nv21Codec.Decoder decoder) {
+        List<byte[]> encoded = encodeAll(frames, encoder);
+        byte[] out = new byte[SIZE];
+        for (int i = 0; i < frames.size(); i++) {
+            ByteBuffer in = ByteBuffer.wrap(encoded.get(i));
+            assertEquals(SIZE, decoder.decode(in, out));
+            assertEquals(0, in.remaining());
+            assertArrayEquals("Frame " + i, frames.get(i), out);
+        }
+    }
+
+    private static List<byte[]> encodeAll(List<byte[]> frames, Nv21Codec.Encoder encoder) {
+        List<byte[]> encoded = new ArrayList<byte[]>();
+        ByteBuffer out = ByteBuffer.allocate(Nv21Codec.maxEncodedSize(WIDTH, HEIGHT, Nv21Codec.DEFAULT_BAND_COUNT));
+        for (byte[] frame : frames) {
+            out.clear();
+            int length = encoder.encode(frame, WIDTH, HEIGHT, out);
+            assertEquals(length, out.position());
+            byte[] copy = new byte[length];
+            out.flip();
+            out.get(copy);
+            encoded.add(copy);
+        }
+        return encoded;
+    }
+
+    private static List<byte[]> syntheticFrames(int count) {
+        byte[] ramp = new byte[WIDTH + HEIGHT + 256];
+        for (int i = 0; i < ramp.length; i++) {
+            ramp[i] = (byte) i;
+        }
+        List<byte[]> frames = new ArrayList<byte[]>();
+        for (int i = 0; i < count; i++) {
+            byte[] frame = new byte[SIZE];
+            SyntheticFrameSource.generate(i, WIDTH, HEIGHT, ramp, frame);
+            frames.add(frame);
+        }
+        return frames;
+    }
+
+    private static List<byte[]> noiseFrames(int count, long seed) {
+        Random random = new Random(seed);
+        List<byte[]> frames = new ArrayList<byte[]>();
+        for (int i = 0; i < count; i++) {
+            byte[] frame = new byte[SIZE];
+            random.nextBytes(frame);
+            frames.add(frame);
+        }
+        return frames;
+    }
+}
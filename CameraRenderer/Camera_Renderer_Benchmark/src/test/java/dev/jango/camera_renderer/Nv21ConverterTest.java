@@ -0,0 +1,158 @@
+package dev.jango.camera_renderer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.IntBuffer;
+import java.nio.ReadOnlyBufferException;
+import java.util.Random;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class Nv21ConverterTest {
+    private static final int WIDTH = 64;
+    private static final int HEIGHT = 48;
+
+    private final ExecutorService mExecutor = Executors.newFixedThreadPool(3);
+
+    @After
+    public void tearDown() {
+        mExecutor.shutdownNow();
+    }
+
+    @Test
+    public void matchesTheReferenceOnEveryStripeCount() {
+        byte[] frame = randomFrame(1);
+        int[] expected = reference(frame);
+        for (int stripes = 1; stripes <= 4; stripes++) {
+            for (Executor executor : new Executor[]{null, mExecutor}) {
+                Nv21Converter converter = new Nv21Converter(WIDTH, HEIGHT, stripes, executor);
+                int[] argb = new int[WIDTH * HEIGHT];
+                converter.convert(frame, argb, Nv21Converter.Precision.Float);
+                assertArrayEquals(expected, argb);
+
+                IntBuffer buffer = IntBuffer.allocate(WIDTH * HEIGHT);
+                converter.convert(frame, buffer, Nv21Converter.Precision.Float);
+                assertArrayEquals(expected, buffer.array());
+            }
+        }
+    }
+
+    @Test
+    public void fixedPointIsWithinOneStepOfFloat() {
+        byte[] frame = randomFrame(2);
+        Nv21Converter converter = new Nv21Converter(WIDTH, HEIGHT, 2, mExecutor);
+        int[] exact = new int[WIDTH * HEIGHT];
+        int[] fixed = new int[WIDTH * HEIGHT];
+        converter.convert(frame, exact, Nv21Converter.Precision.Float);
+        converter.convert(frame, fixed, Nv21Converter.Precision.FixedPoint);
+        for (int i = 0; i < exact.length; i++) {
+            for (int shift = 0; shift < 24; shift += 8) {
+                int difference = ((exact[i] >> shift) & 0xff) - ((fixed[i] >> shift) & 0xff);
+                assertTrue("Pixel " + i + " differs by " + difference, Math.abs(difference) <= 1);
+            }
+        }
+    }
+
+    // Every stripe fails writing to a read-only target, the caller gets the failure and the converter survives it
+    @Test(timeout = 10000)
+    public void throwsStripeFailuresAndStaysUsable() {
+        byte[] frame = randomFrame(3);
+        Nv21Converter converter = new Nv21Converter(WIDTH, HEIGHT, 4, mExecutor);
+        try {
+            converter.convert(frame, IntBuffer.allocate(WIDTH * HEIGHT).asReadOnlyBuffer(), Nv21Converter.Precision.Float);
+            fail("Converted into a read-only buffer");
+        } catch (ReadOnlyBufferException e) {
+            // Expected
+        }
+        int[] argb = new int[WIDTH * HEIGHT];
+        converter.convert(frame, argb, Nv21Converter.Precision.Float);
+        assertArrayEquals(reference(frame), argb);
+    }
+
+    @Test(timeout = 10000)
+    public void interruptedCallerStillConvertsWholeFrames() {
+        byte[] frame = randomFrame(4);
+        Nv21Converter converter = new Nv21Converter(WIDTH, HEIGHT, 4, mExecutor);
+        int[] argb = new int[WIDTH * HEIGHT];
+        Thread.currentThread().interrupt();
+        try {
+            converter.convert(frame, argb, Nv21Converter.Precision.Float);
+            assertTrue(Thread.currentThread().isInterrupted());
+        } finally {
+            Thread.interrupted();
+        }
+        assertArrayEquals(reference(frame), argb);
+    }
+
+    // Conversions from several threads share the stripes one after the other
+    @Test(timeout = 20000)
+    public void serializesConversionsFromSeveralThreads() throws Exception {
+        final int width = 640;
+        final int height = 480;
+        final Nv21Converter converter = new Nv21Converter(width, height, 4, mExecutor);
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        Thread[] callers = new Thread[3];
+        for (int i = 0; i < callers.length; i++) {
+            final byte[] frame = new byte[width * height * 3 / 2];
+            new Random(10 + i).nextBytes(frame);
+            callers[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        int[] expected = new int[width * height];
+                        new Nv21Converter(width, height).convert(frame, expected, Nv21Converter.Precision.Float);
+                        int[] argb = new int[width * height];
+                        for (int round = 0; round < 50; round++) {
+                            converter.convert(frame, argb, Nv21Converter.Precision.Float);
+                            assertArrayEquals(expected, argb);
+                        }
+                    } catch (Throwable t) {
+                        failure.set(t);
+                    }
+                }
+            }, "caller-" + i);
+            callers[i].start();
+        }
+        for (Thread caller : callers) {
+            caller.join();
+        }
+        if (failure.get() != null) throw new AssertionError(failure.get());
+    }
+
+    /**
+     * Scalar conversion with the constants of the YUV fragment shader.
+     */
+    private static int[] reference(byte[] frame) {
+        int[] argb = new int[WIDTH * HEIGHT];
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                int chroma = WIDTH * HEIGHT + (y / 2) * WIDTH + (x / 2) * 2;
+                float luma = frame[y * WIDTH + x] & 0xff;
+                float v = (frame[chroma] & 0xff) - 128;
+                float u = (frame[chroma + 1] & 0xff) - 128;
+                int r = clamp(Math.round(luma + 1.370705f * v));
+                int g = clamp(Math.round(luma + (-0.337633f * u - 0.698001f * v)));
+                int b = clamp(Math.round(luma + 1.732446f * u));
+                argb[y * WIDTH + x] = 0xff000000 | (r << 16) | (g << 8) | b;
+            }
+        }
+        return argb;
+    }
+
+    private static int clamp(int value) {
+        return value < 0 ? 0 : (value > 255 ? 255 : value);
+    }
+
+    private static byte[] randomFrame(long seed) {
+        byte[] frame = new byte[WIDTH * HEIGHT * 3 / 2];
+        new Random(seed).nextBytes(frame);
+        return frame;
+    }
+}
@@ -0,0 +1,241 @@
+package dev.jango.camera_renderer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Test;
+
+/**
+ * Checks every transform against the same steps done one at a time on separate planes, independently of
+ * {@link Nv21Transform}.
+ */
+public class Nv21TransformTest {
+    // Outputs wider and taller than a tile, and not a multiple of it
+    private static final int WIDTH = 100;
+    private static final int HEIGHT = 76;
+
+    private final byte[] mFrame = new byte[WIDTH * HEIGHT * 3 / 2];
+
+    public Nv21TransformTest() {
+        new Random(1).nextBytes(mFrame);
+    }
+
+    @Test
+    public void transformsLikeTheReference() {
+        for (Nv21Transform.Rotation rotation : Nv21Transform.Rotation.values()) {
+            for (int mirror = 0; mirror < 2; mirror++) {
+                for (int downscale = 1; downscale <= 3; downscale++) {
+                    assertTransform(6, 4, 84, 60, rotation, mirror == 1, downscale, 1, null);
+                }
+            }
+        }
+    }
+
+    // Rows straight from the source, copied whole
+    @Test
+    public void copiesTheWholeFrameLikeTheReference() {
+        assertTransform(0, 0, WIDTH, HEIGHT, Nv21Transform.Rotation.None, false, 1, 1, null);
+        assertTransform(0, 0, WIDTH, HEIGHT, Nv21Transform.Rotation.None, false, 2, 1, null);
+    }
+
+    @Test
+    public void transformsTheSameInParallel() {
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            for (Nv21Transform.Rotation rotation : Nv21Transform.Rotation.values()) {
+                assertTransform(2, 2, 96, 72, rotation, true, 2, 4, executor);
+                assertTransform(0, 0, WIDTH, HEIGHT, rotation, false, 1, 5, executor);
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void cropsTheCenterToTheRotatedAspect() {
+        // A square crop of the 4:3 frame
+        Nv21Transform square = Nv21Transform.centerCrop(WIDTH, HEIGHT, 1, 1, Nv21Transform.Rotation.None, false, 2, 1, null);
+        assertEquals(38, square.getOutputWidth());
+        assertEquals(38, square.getOutputHeight());
+        assertArrayEquals(reference(12, 0, 76, 76, Nv21Transform.Rotation.None, false, 2), transform(square));
+
+        // 9:16 once rotated is 16:9 before
+        Nv21Transform portrait = Nv21Transform.centerCrop(WIDTH, HEIGHT, 9, 16, Nv21Transform.Rotation.Rotate270, true, 1, 1, null);
+        assertEquals(56, portrait.getOutputWidth());
+        assertEquals(100, portrait.getOutputHeight());
+        assertArrayEquals(reference(0, 10, 100, 56, Nv21Transform.Rotation.Rotate270, true, 1), transform(portrait));
+    }
+
+    @Test
+    public void rejectsCropsThatDoNotFit() {
+        int[][] crops = {
+                {1, 0, 40, 40, 1},    // Odd left edge
+                {0, 0, 42, 40, 2},    // Not a multiple of twice the downscale
+                {64, 0, 40, 40, 1},   // Past the right edge
+                {0, 40, 40, 40, 1},   // Past the bottom edge
+                {0, 0, 0, 40, 1},
+        };
+        for (int[] crop : crops) {
+            try {
+                new Nv21Transform(WIDTH, HEIGHT, crop[0], crop[1], crop[2], crop[3], Nv21Transform.Rotation.None, false,
+                        crop[4], 1, null);
+                fail("Accepted crop " + crop[2] + "x" + crop[3] + " at " + crop[0] + "," + crop[1]);
+            } catch (IllegalArgumentException e) {
+                // Expected
+            }
+        }
+    }
+
+    @Test
+    public void countsNegativeDegreesCounterclockwise() {
+        assertEquals(Nv21Transform.Rotation.Rotate270, Nv21Transform.Rotation.fromDegrees(-90));
+        assertEquals(Nv21Transform.Rotation.Rotate90, Nv21Transform.Rotation.fromDegrees(450));
+        assertEquals(Nv21Transform.Rotation.None, Nv21Transform.Rotation.fromDegrees(-360));
+        assertEquals(180, Nv21Transform.Rotation.Rotate180.getDegrees());
+    }
+
+    @Test
+    public void reusesReleasedOutputs() {
+        Nv21Transform transform = new Nv21Transform(WIDTH, HEIGHT, 0, 0, 40, 40, Nv21Transform.Rotation.None, false, 1, 1, null);
+        byte[] output = transform.acquireOutput();
+        assertEquals(transform.getOutputSize(), output.length);
+        transform.releaseOutput(output);
+        assertSame(output, transform.acquireOutput());
+    }
+
+    private void assertTransform(int cropX, int cropY, int cropWidth, int cropHeight, Nv21Transform.Rotation rotation,
+                                 boolean mirror, int downscale, int bandCount, ExecutorService executor) {
+        Nv21Transform transform = new Nv21Transform(WIDTH, HEIGHT, cropX, cropY, cropWidth, cropHeight, rotation, mirror,
+                downscale, bandCount, executor);
+        assertArrayEquals(transform.toString(), reference(cropX, cropY, cropWidth, cropHeight, rotation, mirror, downscale),
+                transform(transform));
+    }
+
+    private byte[] transform(Nv21Transform transform) {
+        byte[] out = new byte[transform.getOutputSize()];
+        transform.transform(mFrame, out);
+        return out;
+    }
+
+    /**
+     * Crops, downscales, rotates and mirrors the Y, V and U planes one after the other, then interleaves V and U again.
+     */
+    private byte[] reference(int cropX, int cropY, int cropWidth, int cropHeight, Nv21Transform.Rotation rotation,
+                             boolean mirror, int downscale) {
+        Plane y = new Plane(WIDTH, HEIGHT);
+        Plane v = new Plane(WIDTH / 2, HEIGHT / 2);
+        Plane u = new Plane(WIDTH / 2, HEIGHT / 2);
+        for (int i = 0; i < WIDTH * HEIGHT; i++) {
+            y.mSamples[i] = mFrame[i] & 0xff;
+        }
+        for (int i = 0; i < WIDTH * HEIGHT / 4; i++) {
+            v.mSamples[i] = mFrame[WIDTH * HEIGHT + 2 * i] & 0xff;
+            u.mSamples[i] = mFrame[WIDTH * HEIGHT + 2 * i + 1] & 0xff;
+        }
+
+        y = y.crop(cropX, cropY, cropWidth, cropHeight).average(downscale).rotate(rotation).mirror(mirror);
+        v = v.crop(cropX / 2, cropY / 2, cropWidth / 2, cropHeight / 2).sample(downscale).rotate(rotation).mirror(mirror);
+        u = u.crop(cropX / 2, cropY / 2, cropWidth / 2, cropHeight / 2).sample(downscale).rotate(rotation).mirror(mirror);
+
+        byte[] out = new byte[y.mWidth * y.mHeight * 3 / 2];
+        for (int i = 0; i < y.mSamples.length; i++) {
+            out[i] = (byte) y.mSamples[i];
+        }
+        for (int i = 0; i < v.mSamples.length; i++) {
+            out[y.mSamples.length + 2 * i] = (byte) v.mSamples[i];
+            out[y.mSamples.length + 2 * i + 1] = (byte) u.mSamples[i];
+        }
+        return out;
+    }
+
+    private static final class Plane {
+        final int mWidth;
+        final int mHeight;
+        final int[] mSamples;
+
+        Plane(int width, int height) {
+            mWidth = width;
+            mHeight = height;
+            mSamples = new int[width * height];
+        }
+
+        int get(int x, int y) {
+            return mSamples[y * mWidth + x];
+        }
+
+        void set(int x, int y, int sample) {
+            mSamples[y * mWidth + x] = sample;
+        }
+
+        Plane crop(int left, int top, int width, int height) {
+            Plane plane = new Plane(width, height);
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < width; x++) {
+                    plane.set(x, y, get(left + x, top + y));
+                }
+            }
+            return plane;
+        }
+
+        // Rounded mean of each block
+        Plane average(int factor) {
+            Plane plane = new Plane(mWidth / factor, mHeight / factor);
+            int area = factor * factor;
+            for (int y = 0; y < plane.mHeight; y++) {
+                for (int x = 0; x < plane.mWidth; x++) {
+                    int sum = 0;
+                    for (int dy = 0; dy < factor; dy++) {
+                        for (int dx = 0; dx < factor; dx++) {
+                            sum += get(x * factor + dx, y * factor + dy);
+                        }
+                    }
+                    plane.set(x, y, (sum + area / 2) / area);
+                }
+            }
+            return plane;
+        }
+
+        // Top left sample of each block
+        Plane sample(int factor) {
+            Plane plane = new Plane(mWidth / factor, mHeight / factor);
+            for (int y = 0; y < plane.mHeight; y++) {
+                for (int x = 0; x < plane.mWidth; x++) {
+                    plane.set(x, y, get(x * factor, y * factor));
+                }
+            }
+            return plane;
+        }
+
+        // Clockwise, a quarter turn at a time
+        Plane rotate(Nv21Transform.Rotation rotation) {
+            Plane plane = this;
+            for (int turn = 0; turn < rotation.ordinal(); turn++) {
+                Plane turned = new Plane(plane.mHeight, plane.mWidth);
+                for (int y = 0; y < plane.mHeight; y++) {
+                    for (int x = 0; x < plane.mWidth; x++) {
+                        turned.set(plane.mHeight - 1 - y, x, plane.get(x, y));
+                    }
+                }
+                plane = turned;
+            }
+            return plane;
+        }
+
+        Plane mirror(boolean mirror) {
+            if (!mirror) return this;
+            Plane plane = new Plane(mWidth, mHeight);
+            for (int y = 0; y < mHeight; y++) {
+                for (int x = 0; x < mWidth; x++) {
+                    plane.set(mWidth - 1 - x, y, get(x, y));
+                }
+            }
+            return plane;
+        }
+    }
+}
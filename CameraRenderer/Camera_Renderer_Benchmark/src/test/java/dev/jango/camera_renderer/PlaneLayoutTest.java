@@ -0,0 +1,173 @@
+package dev.jango.camera_renderer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Checks every format against frames packed and converted by hand, independently of {@link PlaneLayout}.
+ */
+public class PlaneLayoutTest {
+    // Not a multiple of 16, so YV12 rows carry padding
+    private static final int WIDTH = 40;
+    private static final int HEIGHT = 6;
+
+    private final byte[] mY = new byte[WIDTH * HEIGHT];
+    private final byte[] mU = new byte[WIDTH * HEIGHT / 4];
+    private final byte[] mV = new byte[WIDTH * HEIGHT / 4];
+
+    public PlaneLayoutTest() {
+        Random random = new Random(1);
+        random.nextBytes(mY);
+        random.nextBytes(mU);
+        random.nextBytes(mV);
+    }
+
+    @Test
+    public void convertsEveryFormatLikeTheReference() {
+        int[] expected = referenceArgb();
+        for (PlaneLayout.Format format : PlaneLayout.Format.values()) {
+            int[] argb = new int[WIDTH * HEIGHT];
+            Nv21Converter.convert(pack(format), PlaneLayout.of(format, WIDTH, HEIGHT), argb);
+            assertArrayEquals(format.toString(), expected, argb);
+        }
+    }
+
+    @Test
+    public void convertsNv21OnEveryPathLikeTheReference() {
+        int[] argb = new int[WIDTH * HEIGHT];
+        new Nv21Converter(WIDTH, HEIGHT).convert(pack(PlaneLayout.Format.Nv21), argb, Nv21Converter.Precision.Float);
+        assertArrayEquals(referenceArgb(), argb);
+    }
+
+    @Test
+    public void sizesFramesLikeTheCamera() {
+        // YV12 as documented for ImageFormat.YV12: 16 byte aligned luma and chroma strides
+        int yStride = 48;
+        int chromaStride = 32;
+        assertEquals(yStride * HEIGHT + chromaStride * HEIGHT, PlaneLayout.of(PlaneLayout.Format.Yv12, WIDTH, HEIGHT).getFrameSize());
+        for (PlaneLayout.Format format : new PlaneLayout.Format[]{PlaneLayout.Format.Nv21, PlaneLayout.Format.Nv12, PlaneLayout.Format.I420}) {
+            assertEquals(WIDTH * HEIGHT * 3 / 2, PlaneLayout.of(format, WIDTH, HEIGHT).getFrameSize());
+        }
+    }
+
+    // The planes the renderer uploads hold the right samples at the layout's strides
+    @Test
+    public void slicesThePlanesOfEveryFormat() {
+        for (PlaneLayout.Format format : PlaneLayout.Format.values()) {
+            PlaneLayout layout = PlaneLayout.of(format, WIDTH, HEIGHT);
+            FrameTripleBuffer buffer = new FrameTripleBuffer(layout);
+            buffer.write(pack(format));
+            FrameTripleBuffer.Frame frame = buffer.acquireLatest();
+
+            ByteBuffer y = frame.getYPlane();
+            assertEquals(format.toString(), layout.getYStride() * HEIGHT, y.capacity());
+            for (int row = 0; row < HEIGHT; row++) {
+                for (int x = 0; x < WIDTH; x++) {
+                    assertEquals(format + " Y", mY[row * WIDTH + x], y.get(row * layout.getYStride() + x));
+                }
+            }
+
+            int stride = layout.getChromaStride();
+            if (layout.isSemiPlanar()) {
+                assertNull(frame.getUPlane());
+                ByteBuffer uv = frame.getUVPlane();
+                // NV12 pairs are UV, NV21 pairs VU
+                int u = format == PlaneLayout.Format.Nv12 ? 0 : 1;
+                for (int row = 0; row < HEIGHT / 2; row++) {
+                    for (int x = 0; x < WIDTH / 2; x++) {
+                        int i = row * stride + 2 * x;
+                        assertEquals(format + " U", mU[row * WIDTH / 2 + x], uv.get(i + u));
+                        assertEquals(format + " V", mV[row * WIDTH / 2 + x], uv.get(i + 1 - u));
+                    }
+                }
+            } else {
+                assertNull(frame.getUVPlane());
+                ByteBuffer u = frame.getUPlane();
+                ByteBuffer v = frame.getVPlane();
+                for (int row = 0; row < HEIGHT / 2; row++) {
+                    for (int x = 0; x < WIDTH / 2; x++) {
+                        assertEquals(format + " U", mU[row * WIDTH / 2 + x], u.get(row * stride + x));
+                        assertEquals(format + " V", mV[row * WIDTH / 2 + x], v.get(row * stride + x));
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Lays the planes out as the camera documents each format.
+     */
+    private byte[] pack(PlaneLayout.Format format) {
+        int chromaWidth = WIDTH / 2;
+        int chromaHeight = HEIGHT / 2;
+        switch (format) {
+            case Nv21:
+            case Nv12: {
+                byte[] frame = new byte[WIDTH * HEIGHT * 3 / 2];
+                System.arraycopy(mY, 0, frame, 0, mY.length);
+                for (int i = 0; i < mU.length; i++) {
+                    byte first = format == PlaneLayout.Format.Nv21 ? mV[i] : mU[i];
+                    byte second = format == PlaneLayout.Format.Nv21 ? mU[i] : mV[i];
+                    frame[mY.length + 2 * i] = first;
+                    frame[mY.length + 2 * i + 1] = second;
+                }
+                return frame;
+            }
+            case Yv12: {
+                int yStride = (WIDTH + 15) / 16 * 16;
+                int chromaStride = (yStride / 2 + 15) / 16 * 16;
+                int vOffset = yStride * HEIGHT;
+                int uOffset = vOffset + chromaStride * chromaHeight;
+                byte[] frame = new byte[uOffset + chromaStride * chromaHeight];
+                // Padding that must not show
+                Arrays.fill(frame, (byte) 0x5a);
+                for (int row = 0; row < HEIGHT; row++) {
+                    System.arraycopy(mY, row * WIDTH, frame, row * yStride, WIDTH);
+                }
+                for (int row = 0; row < chromaHeight; row++) {
+                    System.arraycopy(mV, row * chromaWidth, frame, vOffset + row * chromaStride, chromaWidth);
+                    System.arraycopy(mU, row * chromaWidth, frame, uOffset + row * chromaStride, chromaWidth);
+                }
+                return frame;
+            }
+            default: {
+                byte[] frame = new byte[WIDTH * HEIGHT * 3 / 2];
+                System.arraycopy(mY, 0, frame, 0, mY.length);
+                System.arraycopy(mU, 0, frame, mY.length, mU.length);
+                System.arraycopy(mV, 0, frame, mY.length + mU.length, mV.length);
+                return frame;
+            }
+        }
+    }
+
+    /**
+     * Scalar YUV to ARGB conversion of the planes, with the constants of the YUV fragment shaders.
+     */
+    private int[] referenceArgb() {
+        int[] argb = new int[WIDTH * HEIGHT];
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                int chroma = (y / 2) * (WIDTH / 2) + x / 2;
+                float luma = mY[y * WIDTH + x] & 0xff;
+                float u = (mU[chroma] & 0xff) - 128;
+                float v = (mV[chroma] & 0xff) - 128;
+                int r = clamp(Math.round(luma + 1.370705f * v));
+                int g = clamp(Math.round(luma + (-0.337633f * u - 0.698001f * v)));
+                int b = clamp(Math.round(luma + 1.732446f * u));
+                argb[y * WIDTH + x] = 0xff000000 | (r << 16) | (g << 8) | b;
+            }
+        }
+        return argb;
+    }
+
+    private static int clamp(int value) {
+        return value < 0 ? 0 : (value > 255 ? 255 : value);
+    }
+}
@@ -0,0 +1,213 @@
+package dev.jango.camera_renderer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class PreviewBufferRingTest {
+    private static final int FRAME_SIZE = 16;
+    // Leaves two queued frames
+    private static final int BUFFER_COUNT = 4;
+
+    @Test
+    public void handsEveryBufferToTheRecyclerOnAttach() {
+        PreviewBufferRing ring = new PreviewBufferRing(BUFFER_COUNT, FRAME_SIZE, PreviewBufferRing.DropPolicy.DropOldest);
+        RecordingRecycler camera = new RecordingRecycler();
+        ring.attach(camera);
+        assertEquals(BUFFER_COUNT, camera.mBuffers.size());
+        // The initial fill is not counted
+        assertEquals(0, ring.getBuffersRecycled());
+    }
+
+    @Test
+    public void dropOldestGivesTheOldestFrameBack() {
+        PreviewBufferRing ring = new PreviewBufferRing(BUFFER_COUNT, FRAME_SIZE, PreviewBufferRing.DropPolicy.DropOldest);
+        RecordingRecycler camera = attach(ring);
+        byte[][] frames = fill(ring, camera, 3);
+
+        assertEquals(1, ring.getFramesDropped());
+        assertSame(frames[0], camera.last());
+        assertSame(frames[1], ring.acquire());
+        assertSame(frames[2], ring.acquire());
+        assertNull(ring.acquire());
+        assertEquals(2, ring.getFramesDelivered());
+    }
+
+    @Test
+    public void dropNewestGivesTheNewFrameBack() {
+        PreviewBufferRing ring = new PreviewBufferRing(BUFFER_COUNT, FRAME_SIZE, PreviewBufferRing.DropPolicy.DropNewest);
+        RecordingRecycler camera = attach(ring);
+        byte[][] frames = fill(ring, camera, 3);
+
+        assertEquals(1, ring.getFramesDropped());
+        assertSame(frames[2], camera.last());
+        assertSame(frames[0], ring.acquire());
+        assertSame(frames[1], ring.acquire());
+        assertNull(ring.acquire());
+    }
+
+    @Test(timeout = 10000)
+    public void blockDropsTheNewFrameAfterTheTimeout() {
+        PreviewBufferRing ring = new PreviewBufferRing(BUFFER_COUNT, FRAME_SIZE, PreviewBufferRing.DropPolicy.Block);
+        ring.setBlockTimeout(50);
+        RecordingRecycler camera = attach(ring);
+        long start = System.nanoTime();
+        byte[][] frames = fill(ring, camera, 3);
+        long waitedMs = (System.nanoTime() - start) / 1000000L;
+
+        assertTrue("Waited " + waitedMs + " ms", waitedMs >= 40);
+        assertEquals(1, ring.getFramesDropped());
+        assertSame(frames[2], camera.last());
+        assertSame(frames[0], ring.acquire());
+    }
+
+    @Test(timeout = 10000)
+    public void blockQueuesTheNewFrameOnceTheConsumerMakesRoom() throws Exception {
+        final PreviewBufferRing ring = new PreviewBufferRing(BUFFER_COUNT, FRAME_SIZE, PreviewBufferRing.DropPolicy.Block);
+        ring.setBlockTimeout(5000);
+        RecordingRecycler camera = attach(ring);
+        byte[][] frames = fill(ring, camera, 2);
+        Thread consumer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(20);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                ring.release(ring.acquire());
+            }
+        }, "consumer");
+        consumer.start();
+        byte[] third = camera.take();
+        ring.onFrame(third);
+        consumer.join();
+
+        assertEquals(0, ring.getFramesDropped());
+        assertSame(frames[1], ring.acquire());
+        assertSame(third, ring.acquire());
+    }
+
+    @Test
+    public void acquireLatestDropsTheOlderFrames() {
+        PreviewBufferRing ring = new PreviewBufferRing(BUFFER_COUNT, FRAME_SIZE, PreviewBufferRing.DropPolicy.DropOldest);
+        RecordingRecycler camera = attach(ring);
+        byte[][] frames = fill(ring, camera, 2);
+
+        assertSame(frames[1], ring.acquireLatest());
+        assertSame(frames[0], camera.last());
+        assertEquals(1, ring.getFramesDelivered());
+        assertEquals(1, ring.getFramesDropped());
+        assertEquals(1, ring.getBuffersRecycled());
+    }
+
+    @Test
+    public void countsDeliveredDroppedAndRecycledFrames() {
+        PreviewBufferRing ring = new PreviewBufferRing(BUFFER_COUNT, FRAME_SIZE, PreviewBufferRing.DropPolicy.DropNewest);
+        RecordingRecycler camera = attach(ring);
+        fill(ring, camera, 3);
+        ring.release(ring.acquire());
+        ring.releaseConsumed(camera.take());
+
+        assertEquals(2, ring.getFramesDelivered());
+        assertEquals(1, ring.getFramesDropped());
+        // The dropped frame and both released ones
+        assertEquals(3, ring.getBuffersRecycled());
+        ring.resetCounters();
+        assertEquals(0, ring.getFramesDelivered());
+        assertEquals(0, ring.getFramesDropped());
+        assertEquals(0, ring.getBuffersRecycled());
+    }
+
+    // The camera is gone: buffers still held or queued must not reach it
+    @Test
+    public void detachKeepsHeldBuffersFromTheRecycler() {
+        PreviewBufferRing ring = new PreviewBufferRing(BUFFER_COUNT, FRAME_SIZE, PreviewBufferRing.DropPolicy.DropOldest);
+        RecordingRecycler camera = attach(ring);
+        fill(ring, camera, 2);
+        byte[] held = ring.acquire();
+        int recycled = camera.mBuffers.size();
+        ring.detach();
+
+        assertNull(ring.acquire());
+        ring.release(held);
+        assertEquals(recycled, camera.mBuffers.size());
+        assertEquals(0, ring.getBuffersRecycled());
+    }
+
+    @Test(timeout = 10000)
+    public void detachWakesABlockedCallback() throws Exception {
+        final PreviewBufferRing ring = new PreviewBufferRing(BUFFER_COUNT, FRAME_SIZE, PreviewBufferRing.DropPolicy.Block);
+        ring.setBlockTimeout(60000);
+        final RecordingRecycler camera = attach(ring);
+        fill(ring, camera, 2);
+        Thread callback = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                ring.onFrame(camera.take());
+            }
+        }, "callback");
+        callback.start();
+        while (callback.getState() != Thread.State.TIMED_WAITING) {
+            Thread.sleep(1);
+        }
+        ring.detach();
+        callback.join();
+        assertEquals(0, ring.getBuffersRecycled());
+    }
+
+    @Test
+    public void letsBuffersOfAnotherSizeBeCollected() {
+        PreviewBufferRing ring = new PreviewBufferRing(BUFFER_COUNT, FRAME_SIZE, PreviewBufferRing.DropPolicy.DropOldest);
+        RecordingRecycler camera = attach(ring);
+        int recycled = camera.mBuffers.size();
+        ring.release(new byte[FRAME_SIZE * 2]);
+        assertEquals(recycled, camera.mBuffers.size());
+        assertEquals(0, ring.getBuffersRecycled());
+    }
+
+    private static RecordingRecycler attach(PreviewBufferRing ring) {
+        RecordingRecycler camera = new RecordingRecycler();
+        ring.attach(camera);
+        return camera;
+    }
+
+    /**
+     * Lets the camera fill <code>count</code> buffers and queues them, like the preview callback does.
+     */
+    private static byte[][] fill(PreviewBufferRing ring, RecordingRecycler camera, int count) {
+        byte[][] frames = new byte[count][];
+        for (int i = 0; i < count; i++) {
+            frames[i] = camera.take();
+            ring.onFrame(frames[i]);
+        }
+        return frames;
+    }
+
+    /**
+     * Stands in for the camera: records the buffers handed back and fills them in that order.
+     */
+    private static final class RecordingRecycler implements PreviewBufferRing.Recycler {
+        final List<byte[]> mBuffers = new ArrayList<byte[]>();
+        private int mTaken = 0;
+
+        @Override
+        public synchronized void recycle(byte[] buffer) {
+            mBuffers.add(buffer);
+        }
+
+        synchronized byte[] take() {
+            return mBuffers.get(mTaken++);
+        }
+
+        synchronized byte[] last() {
+            return mBuffers.get(mBuffers.size() - 1);
+        }
+    }
+}
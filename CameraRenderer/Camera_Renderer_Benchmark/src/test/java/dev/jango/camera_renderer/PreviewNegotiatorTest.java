@@ -0,0 +1,121 @@
+package dev.jango.camera_renderer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class PreviewNegotiatorTest {
+    private static final int[] WIDTHS = {320, 640, 1280, 1920, 3840, 1440};
+    private static final int[] HEIGHTS = {240, 480, 720, 1080, 2160, 1080};
+    private static final int[][] FPS_RANGES = {{15000, 15000}, {15000, 30000}, {30000, 30000}, {7000, 60000}};
+    private static final int[][] NO_FPS_RANGES = new int[0][];
+
+    private static PreviewNegotiator.Request textureRequest(int width, int height) {
+        return new PreviewNegotiator.Request(width, height, 30, 0, PreviewNegotiator.DEFAULT_UPLOAD_BUDGET);
+    }
+
+    private static PreviewNegotiator.Request yuvRequest(int width, int height, long budget) {
+        return new PreviewNegotiator.Request(width, height, 30, PreviewNegotiator.NV21_UPLOAD_BYTES_PER_PIXEL, budget);
+    }
+
+    @Test
+    public void picksTheSizeOfTheDisplay() {
+        PreviewNegotiator.Result result = PreviewNegotiator.select(WIDTHS, HEIGHTS, FPS_RANGES, textureRequest(1920, 1080));
+        assertEquals(1920, result.getWidth());
+        assertEquals(1080, result.getHeight());
+        assertEquals(3, result.getSizeIndex());
+    }
+
+    @Test
+    public void prefersTheAspectRatioOfTheDisplay() {
+        // 1440x1080 is as tall as the display but 4:3
+        PreviewNegotiator.Result result = PreviewNegotiator.select(WIDTHS, HEIGHTS, FPS_RANGES, textureRequest(1600, 900));
+        assertEquals(16 * result.getHeight(), 9 * result.getWidth());
+    }
+
+    @Test
+    public void prefersLargerOverSmallerSizesOfTheSameDistance() {
+        // 1280x720 has half the pixels of the display, 3840x2160 twice as many: missing pixels weigh more
+        int[] widths = {1280, 3840};
+        int[] heights = {720, 2160};
+        PreviewNegotiator.Result result = PreviewNegotiator.select(widths, heights, NO_FPS_RANGES, textureRequest(1810, 1018));
+        assertEquals(3840, result.getWidth());
+    }
+
+    @Test
+    public void staysWithinTheUploadBudget() {
+        long budget = 1280L * 720 * 3 / 2 * 30;
+        PreviewNegotiator.Result result = PreviewNegotiator.select(WIDTHS, HEIGHTS, FPS_RANGES, yuvRequest(1920, 1080, budget));
+        assertTrue(result.getUploadRate() <= budget);
+        assertEquals(1280, result.getWidth());
+        // Without uploads the budget does not apply
+        assertEquals(1920, PreviewNegotiator.select(WIDTHS, HEIGHTS, FPS_RANGES, textureRequest(1920, 1080)).getWidth());
+    }
+
+    @Test
+    public void takesTheCheapestPairWhenNothingFits() {
+        PreviewNegotiator.Result result = PreviewNegotiator.select(WIDTHS, HEIGHTS, FPS_RANGES, yuvRequest(1920, 1080, 1));
+        assertEquals(320, result.getWidth());
+        assertEquals(15000, result.getMaxFps());
+    }
+
+    @Test
+    public void prefersTheTargetRateWithTheLowestFloor() {
+        PreviewNegotiator.Result result = PreviewNegotiator.select(WIDTHS, HEIGHTS, FPS_RANGES, textureRequest(1920, 1080));
+        assertEquals(1, result.getFpsRangeIndex());
+        assertEquals(15000, result.getMinFps());
+        assertEquals(30000, result.getMaxFps());
+    }
+
+    @Test
+    public void lowersTheRateToFitTheBudget() {
+        // 1080p only fits at 15 fps
+        long budget = 1920L * 1080 * 3 / 2 * 15;
+        int[] widths = {1920};
+        int[] heights = {1080};
+        PreviewNegotiator.Result result = PreviewNegotiator.select(widths, heights, FPS_RANGES, yuvRequest(1920, 1080, budget));
+        assertEquals(0, result.getFpsRangeIndex());
+        assertEquals(budget, result.getUploadRate());
+    }
+
+    @Test
+    public void worksWithoutFrameRateRanges() {
+        PreviewNegotiator.Result result = PreviewNegotiator.select(WIDTHS, HEIGHTS, NO_FPS_RANGES, textureRequest(640, 480));
+        assertEquals(640, result.getWidth());
+        assertEquals(-1, result.getFpsRangeIndex());
+        assertEquals(0, result.getMinFps());
+        assertEquals(0, result.getMaxFps());
+    }
+
+    @Test
+    public void skipsInvalidSizesAndReturnsNullWithoutSizes() {
+        int[] widths = {0, 640};
+        int[] heights = {480, 480};
+        assertEquals(1, PreviewNegotiator.select(widths, heights, NO_FPS_RANGES, textureRequest(320, 240)).getSizeIndex());
+        assertNull(PreviewNegotiator.select(new int[0], new int[0], FPS_RANGES, textureRequest(320, 240)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsSizeListsOfDifferentLengths() {
+        PreviewNegotiator.select(new int[]{640}, new int[0], FPS_RANGES, textureRequest(320, 240));
+    }
+
+    @Test
+    public void memoizesPerCameraAndRequest() {
+        PreviewNegotiator negotiator = new PreviewNegotiator();
+        PreviewNegotiator.Result result = negotiator.negotiate(0, WIDTHS, HEIGHTS, FPS_RANGES, textureRequest(1920, 1080));
+        // Equal requests hit, even with other lists: they are only read on the first use
+        assertSame(result, negotiator.negotiate(0, new int[]{320}, new int[]{240}, NO_FPS_RANGES, textureRequest(1920, 1080)));
+        assertNotSame(result, negotiator.negotiate(1, WIDTHS, HEIGHTS, FPS_RANGES, textureRequest(1920, 1080)));
+        assertNotSame(result, negotiator.negotiate(0, WIDTHS, HEIGHTS, FPS_RANGES, textureRequest(1280, 720)));
+
+        negotiator.clear();
+        PreviewNegotiator.Result renegotiated = negotiator.negotiate(0, new int[]{320}, new int[]{240}, NO_FPS_RANGES,
+                textureRequest(1920, 1080));
+        assertEquals(320, renegotiated.getWidth());
+    }
+}
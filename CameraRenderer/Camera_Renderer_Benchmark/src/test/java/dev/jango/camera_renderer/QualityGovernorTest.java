@@ -0,0 +1,128 @@
+package dev.jango.camera_renderer;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import dev.jango.camera_renderer.QualityGovernor.Level;
+
+public class QualityGovernorTest {
+    private static final long BUDGET = 16666667L;
+    private static final int WINDOW = QualityGovernor.DEFAULT_WINDOW_FRAMES;
+    // Frame times over the down threshold, between both thresholds and under the up threshold
+    private static final long SLOW = 15000000L;
+    private static final long FAIR = 10000000L;
+    private static final long FAST = 5000000L;
+
+    private QualityGovernor mGovernor;
+
+    @Before
+    public void setUp() {
+        mGovernor = new QualityGovernor(BUDGET);
+    }
+
+    @Test
+    public void keepsFullQualityWhileFramesFit() {
+        assertEquals(Level.Full, replay(new long[][]{{10 * WINDOW, FAST}, {10 * WINDOW, FAIR}}));
+        assertEquals(0, mGovernor.getLevelChanges());
+    }
+
+    @Test
+    public void stepsDownOneLevelPerSlowWindowAndStopsAtTheLowest() {
+        assertEquals(Level.Decimated2x, replay(new long[][]{{WINDOW, SLOW}}));
+        assertEquals(Level.ReducedPreview, replay(new long[][]{{WINDOW, SLOW}}));
+        assertEquals(Level.ReducedPreview, replay(new long[][]{{5 * WINDOW, SLOW}}));
+        assertEquals(2, mGovernor.getLevelChanges());
+    }
+
+    @Test
+    public void stepsDownOnceAQuarterOfTheWindowIsSlow() {
+        int quarter = WINDOW / 4 + (WINDOW % 4 == 0 ? 0 : 1);
+        // One slow frame short of a quarter, spread over the window
+        assertEquals(Level.Full, replay(new long[][]{
+                {WINDOW / 2, FAIR}, {quarter - 1, SLOW}, {WINDOW - WINDOW / 2 - quarter + 1, FAIR}}));
+        assertEquals(Level.Decimated2x, replay(new long[][]{
+                {WINDOW / 2, FAIR}, {quarter, SLOW}, {WINDOW - WINDOW / 2 - quarter, FAIR}}));
+    }
+
+    @Test
+    public void holdsTheLevelBetweenBothThresholds() {
+        replay(new long[][]{{WINDOW, SLOW}});
+        assertEquals(Level.Decimated2x, replay(new long[][]{{20 * WINDOW, FAIR}}));
+        // A single frame short of headroom spoils the window
+        assertEquals(Level.Decimated2x, replay(new long[][]{{WINDOW - 1, FAST}, {1, FAIR}}));
+        assertEquals(Level.Full, replay(new long[][]{{WINDOW, FAST}}));
+    }
+
+    @Test
+    public void needsTwiceTheCleanWindowsAfterEveryUndoneStepUp() {
+        replay(new long[][]{{WINDOW, SLOW}});
+        int[] expected = {1, 2, 4, 8, QualityGovernor.MAX_CLEAN_WINDOWS};
+        for (int required : expected) {
+            assertEquals(Level.Decimated2x, mGovernor.getLevel());
+            for (int window = 1; window < required; window++) {
+                assertEquals(Level.Decimated2x, replay(new long[][]{{WINDOW, FAST}}));
+            }
+            assertEquals(Level.Full, replay(new long[][]{{WINDOW, FAST}}));
+            assertEquals(Level.Decimated2x, replay(new long[][]{{WINDOW, SLOW}}));
+        }
+    }
+
+    // Frames measured before a change do not count towards the next one
+    @Test
+    public void startsAFreshWindowAfterEveryChange() {
+        assertEquals(Level.Decimated2x, replay(new long[][]{{WINDOW, SLOW}}));
+        assertEquals(Level.Decimated2x, replay(new long[][]{{WINDOW - 1, SLOW}}));
+        assertEquals(Level.ReducedPreview, replay(new long[][]{{1, SLOW}}));
+    }
+
+    @Test
+    public void honorsTheLowestLevel() {
+        mGovernor.setLowestLevel(Level.Decimated2x);
+        assertEquals(Level.Decimated2x, replay(new long[][]{{5 * WINDOW, SLOW}}));
+
+        mGovernor.setLowestLevel(Level.ReducedPreview);
+        assertEquals(Level.ReducedPreview, replay(new long[][]{{WINDOW, SLOW}}));
+        // Lowering the limit below the current level steps up at once
+        mGovernor.setLowestLevel(Level.Full);
+        assertEquals(Level.Full, mGovernor.getLevel());
+        assertEquals(Level.Full, replay(new long[][]{{5 * WINDOW, SLOW}}));
+    }
+
+    @Test
+    public void resetGoesBackToFullQuality() {
+        replay(new long[][]{{2 * WINDOW, SLOW}});
+        mGovernor.reset();
+        assertEquals(Level.Full, mGovernor.getLevel());
+        assertEquals(Level.Full, replay(new long[][]{{WINDOW - 1, SLOW}}));
+    }
+
+    @Test
+    public void followsASmallerWindowAndCustomThresholds() {
+        mGovernor = new QualityGovernor(BUDGET, 4, 0.5f, 0.25f);
+        assertEquals(Level.Full, replay(new long[][]{{3, FAIR}}));
+        assertEquals(Level.Decimated2x, replay(new long[][]{{1, FAIR}}));
+        assertEquals(Level.Decimated2x, replay(new long[][]{{4, FAST}}));
+        assertEquals(Level.Full, replay(new long[][]{{4, BUDGET / 8}}));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsAnUpThresholdOverTheDownThreshold() {
+        new QualityGovernor(BUDGET, WINDOW, 0.4f, 0.8f);
+    }
+
+    /**
+     * Feeds a trace of <code>{frames, work nanoseconds}</code> segments, split between upload and draw, and returns
+     * the level after its last frame.
+     */
+    private Level replay(long[][] trace) {
+        Level level = mGovernor.getLevel();
+        for (long[] segment : trace) {
+            for (long i = 0; i < segment[0]; i++) {
+                level = mGovernor.onFrame(segment[1] / 3, segment[1] - segment[1] / 3);
+            }
+        }
+        return level;
+    }
+}
@@ -0,0 +1,229 @@
+package dev.jango.camera_renderer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Drives the manager with fake paths recording what is done to them.
+ */
+public class RenderModeManagerTest {
+    private static final RenderMode TEXTURE = RenderMode.SurfaceTextureRender;
+    private static final RenderMode YUV = RenderMode.YUVConversionRender;
+    private static final RenderMode LUMA = RenderMode.LumaOnlyRender;
+
+    private final List<String> mEvents = new ArrayList<String>();
+    private final FakePath mTexture = new FakePath("texture");
+    private final FakePath mYUV = new FakePath("yuv");
+    private final FakePath mLuma = new FakePath("luma");
+    private RenderModeManager mModes;
+
+    @Before
+    public void setUp() {
+        mModes = new RenderModeManager(TEXTURE);
+        mModes.setPath(TEXTURE, mTexture);
+        mModes.setPath(YUV, mYUV);
+        mModes.setPath(LUMA, mLuma);
+    }
+
+    // Nothing is shown yet, so there is no glitch to avoid
+    @Test
+    public void showsTheInitialModeOnTheFirstDraw() {
+        mModes.start();
+        assertTrue(mModes.isAttached(TEXTURE));
+        assertNull(mModes.getMode());
+
+        assertTrue(mModes.draw());
+        assertEquals(TEXTURE, mModes.getMode());
+        assertEquals(1, mModes.getTransitionCount());
+        assertEvents("texture attach", "texture prewarm", "texture draw");
+    }
+
+    @Test
+    public void keepsDrawingTheOldModeUntilTheNewOneIsWarm() {
+        show(TEXTURE);
+        mModes.requestMode(YUV);
+        mYUV.mReady = false;
+        for (int i = 0; i < 3; i++) {
+            assertTrue(mModes.draw());
+        }
+        assertEquals(TEXTURE, mModes.getMode());
+        assertTrue(mModes.isAttached(TEXTURE));
+        assertTrue(mModes.isAttached(YUV));
+        assertEvents("yuv attach", "yuv prewarm", "texture draw", "yuv prewarm", "texture draw", "yuv prewarm",
+                "texture draw");
+
+        // The old path is detached and released as soon as the new one has a frame
+        mYUV.mReady = true;
+        assertTrue(mModes.draw());
+        assertEquals(YUV, mModes.getMode());
+        assertFalse(mModes.isAttached(TEXTURE));
+        assertEquals(2, mModes.getTransitionCount());
+        assertEvents("yuv prewarm", "texture detach", "texture release", "yuv draw");
+    }
+
+    @Test(timeout = 10000)
+    public void switchesAfterThePrewarmTimeout() throws Exception {
+        show(TEXTURE);
+        mModes.requestMode(YUV);
+        mYUV.mReady = false;
+        assertTrue(mModes.draw());
+        assertEquals(TEXTURE, mModes.getMode());
+
+        Thread.sleep(RenderModeManager.PREWARM_TIMEOUT_NS / 1000000 + 50);
+        mModes.draw();
+        assertEquals(YUV, mModes.getMode());
+        assertTrue(mModes.getLastPrewarmNanos(YUV) >= RenderModeManager.PREWARM_TIMEOUT_NS);
+        assertEvents("yuv attach", "yuv prewarm", "texture draw", "yuv prewarm", "texture detach", "texture release",
+                "yuv draw");
+    }
+
+    // Requested again before the last prewarm was done: the abandoned path costs nothing from then on
+    @Test
+    public void detachesAnAbandonedPrewarm() {
+        show(TEXTURE);
+        mYUV.mReady = false;
+        mLuma.mReady = false;
+        mModes.requestMode(YUV);
+        mModes.draw();
+        mModes.requestMode(LUMA);
+        mModes.draw();
+        assertFalse(mModes.isAttached(YUV));
+        assertTrue(mModes.isAttached(LUMA));
+        assertEquals(TEXTURE, mModes.getMode());
+        assertEvents("yuv attach", "yuv prewarm", "texture draw", "yuv detach", "yuv release", "luma attach",
+                "luma prewarm", "texture draw");
+    }
+
+    @Test
+    public void stopDetachesEverythingAndStartAttachesTheRequestedMode() {
+        show(TEXTURE);
+        mModes.requestMode(YUV);
+        mYUV.mReady = false;
+        mModes.draw();
+        mEvents.clear();
+
+        mModes.stop();
+        assertFalse(mModes.draw());
+        assertFalse(mModes.isAttached(TEXTURE));
+        assertFalse(mModes.isAttached(YUV));
+        // GL resources are kept until asked for
+        assertEvents("texture detach", "yuv detach");
+        mModes.releaseResources();
+        assertEvents("texture release", "yuv release", "luma release");
+
+        mModes.start();
+        mYUV.mReady = true;
+        assertTrue(mModes.draw());
+        assertEquals(YUV, mModes.getMode());
+        assertEvents("yuv attach", "yuv prewarm", "yuv draw");
+    }
+
+    @Test
+    public void releaseDetachesWithoutReleasingResources() {
+        show(TEXTURE);
+        mModes.release();
+        assertFalse(mModes.draw());
+        mModes.start();
+        assertFalse(mModes.isAttached(TEXTURE));
+        assertEvents("texture detach");
+    }
+
+    @Test
+    public void accountsForEveryModeSeparately() throws Exception {
+        show(TEXTURE);
+        mModes.draw();
+        mModes.addCallbackNanos(YUV, 5000000);
+        mTexture.mBytes = 4096;
+        Thread.sleep(5);
+        mModes.requestMode(YUV);
+        mModes.draw();
+        mModes.draw();
+
+        assertEquals(2, mModes.getFramesDrawn(TEXTURE));
+        assertEquals(2, mModes.getFramesDrawn(YUV));
+        assertEquals(0, mModes.getFramesDrawn(LUMA));
+        assertTrue(mModes.getCpuNanos(YUV) >= 5000000);
+        assertEquals(0, mModes.getCpuNanos(LUMA));
+        assertEquals(4096, mModes.getResourceBytes(TEXTURE));
+
+        // Detached modes stop accumulating attached time
+        long textureAttached = mModes.getAttachedNanos(TEXTURE);
+        assertTrue(textureAttached >= 5000000);
+        Thread.sleep(5);
+        assertEquals(textureAttached, mModes.getAttachedNanos(TEXTURE));
+        assertTrue(mModes.getAttachedNanos(YUV) > 0);
+        assertEquals(0, mModes.getAttachedNanos(LUMA));
+
+        String dump = mModes.dump();
+        assertTrue(dump, dump.startsWith("Render modes, 2 switches"));
+        assertTrue(dump, dump.contains("\nSurfaceTextureRender: idle, attached "));
+        assertTrue(dump, dump.contains(", 2 frames, "));
+        assertTrue(dump, dump.contains(", 4 KiB, "));
+        assertTrue(dump, dump.contains("\nYUVConversionRender: shown, "));
+        assertTrue(dump, dump.contains("\nLumaOnlyRender: idle, attached 0.0 s, 0 frames, CPU 0.00 ms/s"));
+    }
+
+    private void show(RenderMode mode) {
+        mModes.requestMode(mode);
+        mModes.start();
+        mModes.draw();
+        assertEquals(mode, mModes.getMode());
+        mEvents.clear();
+    }
+
+    private void assertEvents(String... events) {
+        assertEquals(Arrays.asList(events), mEvents);
+        mEvents.clear();
+    }
+
+    private final class FakePath implements RenderModeManager.Path {
+        private final String mName;
+        boolean mReady = true;
+        long mBytes = 0;
+
+        FakePath(String name) {
+            mName = name;
+        }
+
+        @Override
+        public void attach() {
+            mEvents.add(mName + " attach");
+        }
+
+        @Override
+        public void detach() {
+            mEvents.add(mName + " detach");
+        }
+
+        @Override
+        public boolean prewarm() {
+            mEvents.add(mName + " prewarm");
+            return mReady;
+        }
+
+        @Override
+        public boolean draw() {
+            mEvents.add(mName + " draw");
+            return true;
+        }
+
+        @Override
+        public void release() {
+            mEvents.add(mName + " release");
+        }
+
+        @Override
+        public long getResourceBytes() {
+            return mBytes;
+        }
+    }
+}
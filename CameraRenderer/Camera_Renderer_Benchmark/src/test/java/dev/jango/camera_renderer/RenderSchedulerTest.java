@@ -0,0 +1,105 @@
+package dev.jango.camera_renderer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class RenderSchedulerTest {
+    private final RenderScheduler mScheduler = new RenderScheduler();
+    private final CountingTarget mTarget = new CountingTarget();
+
+    @After
+    public void tearDown() {
+        mScheduler.release();
+    }
+
+    @Test
+    public void requestsNothingWithoutTarget() {
+        mScheduler.requestFrame();
+        assertEquals(0, mScheduler.getRequestedCount());
+        assertEquals(0, mScheduler.getCoalescedCount());
+    }
+
+    // The render requested on attach is still pending, so the frames that follow fold into it
+    @Test
+    public void coalescesFramesArrivingBeforeTheRender() {
+        mScheduler.attach(mTarget);
+        for (int i = 0; i < 5; i++) {
+            mScheduler.requestFrame();
+        }
+        assertEquals(1, mTarget.mRenders.get());
+        assertEquals(1, mScheduler.getRequestedCount());
+        assertEquals(5, mScheduler.getCoalescedCount());
+    }
+
+    // A draw clears the pending render as it starts: a frame arriving while it runs is drawn by the next render
+    @Test
+    public void requestsANewRenderForFramesArrivingOnceTheDrawStarted() {
+        mScheduler.attach(mTarget);
+        mScheduler.onDrawFrame();
+        mScheduler.requestFrame();
+        assertEquals(2, mTarget.mRenders.get());
+        mScheduler.requestFrame();
+        assertEquals(2, mTarget.mRenders.get());
+        mScheduler.onDrawFrame();
+        mScheduler.requestFrame();
+        assertEquals(3, mTarget.mRenders.get());
+        assertEquals(1, mScheduler.getCoalescedCount());
+    }
+
+    @Test
+    public void detachStopsRequests() {
+        mScheduler.attach(mTarget);
+        mScheduler.attach(null);
+        mScheduler.requestFrame();
+        assertEquals(1, mTarget.mRenders.get());
+        // Reattaching requests a render even though the last one never started
+        mScheduler.attach(mTarget);
+        assertEquals(2, mTarget.mRenders.get());
+    }
+
+    // A view drawing right away gets about one refresh per period, never a burst
+    @Test(timeout = 10000)
+    public void capsThePeriodicRefresh() throws Exception {
+        mTarget.mDrawing = true;
+        mScheduler.attach(mTarget);
+        mScheduler.setRefreshRate(20);
+        Thread.sleep(500);
+        mScheduler.setRefreshRate(0);
+        int renders = mTarget.mRenders.get();
+        // The attach render and ten refreshes, give or take timer jitter
+        assertTrue("Renders " + renders, renders >= 4 && renders <= 13);
+
+        Thread.sleep(150);
+        assertEquals(renders, mTarget.mRenders.get());
+    }
+
+    // Refreshes fold into the pending render like frames do, an idle view is not flooded
+    @Test(timeout = 10000)
+    public void coalescesRefreshesWithThePendingRender() throws Exception {
+        mScheduler.attach(mTarget);
+        mScheduler.setRefreshRate(100);
+        Thread.sleep(200);
+        mScheduler.release();
+        assertEquals(1, mTarget.mRenders.get());
+        assertTrue(mScheduler.getCoalescedCount() > 0);
+    }
+
+    /**
+     * Stands in for the view, drawing at once when <code>mDrawing</code> is set.
+     */
+    private final class CountingTarget implements RenderScheduler.Target {
+        final AtomicInteger mRenders = new AtomicInteger();
+        volatile boolean mDrawing = false;
+
+        @Override
+        public void requestRender() {
+            mRenders.incrementAndGet();
+            if (mDrawing) mScheduler.onDrawFrame();
+        }
+    }
+}
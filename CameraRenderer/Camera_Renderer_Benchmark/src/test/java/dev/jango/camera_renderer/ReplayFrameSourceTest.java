@@ -0,0 +1,114 @@
+package dev.jango.camera_renderer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ReplayFrameSourceTest {
+    private static final String NAME = "replay";
+    private static final int FRAME_COUNT = 6;
+    private static final long INTERVAL_NANOS = 20000000L;
+
+    @Rule
+    public final TemporaryFolder mFolder = new TemporaryFolder();
+
+    private FrameRecording mRecording;
+
+    // Frames alternate between two sizes
+    @Before
+    public void setUp() throws Exception {
+        File directory = mFolder.getRoot();
+        FrameRecorder recorder = new FrameRecorder(directory, NAME, 64 * 1024, 16);
+        recorder.start();
+        long deadline = System.currentTimeMillis() + 5000;
+        for (int i = 0; i < FRAME_COUNT; i++) {
+            while (!recorder.record(frame(i), width(i), height(i), 1000L + i * INTERVAL_NANOS)) {
+                assertTrue("No segment prepared", System.currentTimeMillis() < deadline);
+                Thread.sleep(1);
+            }
+        }
+        // Wait for the spare segment to come and go before mapping the recording
+        File spare = FrameRecorder.getSegmentFile(directory, NAME, 1);
+        while (!spare.exists()) {
+            assertTrue("No spare segment prepared", System.currentTimeMillis() < deadline);
+            Thread.sleep(1);
+        }
+        recorder.release();
+        while (spare.exists()) {
+            assertTrue("Spare segment not deleted", System.currentTimeMillis() < deadline);
+            Thread.sleep(1);
+        }
+        mRecording = FrameRecording.open(directory, NAME);
+    }
+
+    @Test(timeout = 10000)
+    public void replaysEveryFrameWithItsSizeAndEnds() throws Exception {
+        ReplayFrameSource source = new ReplayFrameSource(mRecording, true, false);
+        SyntheticFrameSourceTest.Collector collector = new SyntheticFrameSourceTest.Collector(FRAME_COUNT);
+        source.start(collector);
+        collector.await();
+        Thread.sleep(20);
+        source.stop();
+
+        List<byte[]> frames = collector.getFrames();
+        List<Integer> widths = collector.getWidths();
+        assertEquals(FRAME_COUNT, frames.size());
+        for (int i = 0; i < FRAME_COUNT; i++) {
+            assertEquals(width(i), (int) widths.get(i));
+            assertArrayEquals(frame(i), frames.get(i));
+        }
+        assertEquals(FRAME_COUNT, source.getDeliveredCount());
+    }
+
+    @Test(timeout = 10000)
+    public void loopsOverTheRecording() throws Exception {
+        ReplayFrameSource source = new ReplayFrameSource(mRecording, true, true);
+        SyntheticFrameSourceTest.Collector collector = new SyntheticFrameSourceTest.Collector(2 * FRAME_COUNT + 1);
+        source.start(collector);
+        collector.await();
+        source.stop();
+
+        List<byte[]> frames = collector.getFrames();
+        for (int i = 0; i <= 2 * FRAME_COUNT; i++) {
+            assertArrayEquals(frame(i % FRAME_COUNT), frames.get(i));
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void keepsTheRecordedIntervals() throws Exception {
+        ReplayFrameSource source = new ReplayFrameSource(mRecording, false, false);
+        SyntheticFrameSourceTest.Collector collector = new SyntheticFrameSourceTest.Collector(FRAME_COUNT);
+        source.start(collector);
+        collector.await();
+        source.stop();
+
+        List<Long> timestamps = collector.getTimestamps();
+        long recorded = (FRAME_COUNT - 1) * INTERVAL_NANOS;
+        // Some slack for the timer
+        assertTrue(timestamps.get(FRAME_COUNT - 1) - timestamps.get(0) >= recorded - INTERVAL_NANOS / 2);
+    }
+
+    private static int width(int frame) {
+        return frame % 2 == 0 ? 8 : 4;
+    }
+
+    private static int height(int frame) {
+        return frame % 2 == 0 ? 4 : 2;
+    }
+
+    private static byte[] frame(int number) {
+        byte[] frame = new byte[width(number) * height(number) * 3 / 2];
+        for (int i = 0; i < frame.length; i++) {
+            frame[i] = (byte) (number * 17 + i);
+        }
+        return frame;
+    }
+}
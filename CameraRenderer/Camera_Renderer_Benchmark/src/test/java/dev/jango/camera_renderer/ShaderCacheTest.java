@@ -0,0 +1,98 @@
+package dev.jango.camera_renderer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import dev.jango.camera_renderer.benchmark.RecordingGLBackend;
+
+public class ShaderCacheTest {
+    private static final String VERTEX = "void main(){gl_Position = vec4(0.0);}";
+    private static final String FRAGMENT = "void main(){gl_FragColor = vec4(1.0);}";
+    private static final String OTHER_FRAGMENT = "void main(){gl_FragColor = vec4(0.0);}";
+
+    private RecordingGLBackend mGL;
+    private ShaderCache mCache;
+
+    @Before
+    public void setUp() {
+        mGL = new RecordingGLBackend();
+        mCache = new ShaderCache(mGL);
+    }
+
+    @Test
+    public void buildsEachPairOfSourcesOnce() {
+        int program = mCache.getProgram(VERTEX, FRAGMENT);
+        long calls = mGL.getCalls();
+        assertEquals(program, mCache.getProgram(VERTEX, FRAGMENT));
+        // Built strings with the same content hit as well
+        assertEquals(program, mCache.getProgram(new String(VERTEX), new StringBuilder(FRAGMENT).toString()));
+        assertEquals(calls, mGL.getCalls());
+        assertEquals(1, mCache.getCompiledCount());
+        assertEquals(2, mCache.getHitCount());
+        assertEquals(1, mGL.getLivePrograms());
+    }
+
+    @Test
+    public void buildsDistinctSourcesSeparately() {
+        int program = mCache.getProgram(VERTEX, FRAGMENT);
+        int other = mCache.getProgram(VERTEX, OTHER_FRAGMENT);
+        assertNotEquals(program, other);
+        assertEquals(program, mCache.getProgram(VERTEX, FRAGMENT));
+        assertEquals(other, mCache.getProgram(VERTEX, OTHER_FRAGMENT));
+        assertEquals(2, mCache.getCompiledCount());
+    }
+
+    // Sources are compared whole, sources of equal hash codes each get their program, built once
+    @Test
+    public void keepsSourcesOfEqualHashCodesApart() {
+        String first = "//Aa\n" + FRAGMENT;
+        String second = "//BB\n" + FRAGMENT;
+        assertEquals(first.hashCode(), second.hashCode());
+        int program = mCache.getProgram(VERTEX, first);
+        int other = mCache.getProgram(VERTEX, second);
+        assertNotEquals(program, other);
+        for (int i = 0; i < 5; i++) {
+            assertEquals(program, mCache.getProgram(VERTEX, first));
+            assertEquals(other, mCache.getProgram(VERTEX, second));
+        }
+        assertEquals(2, mCache.getCompiledCount());
+        assertEquals(2, mGL.getLivePrograms());
+    }
+
+    @Test
+    public void reportsAndForgetsFailingPrograms() {
+        mGL.setStatus(false);
+        assertEquals(0, mCache.getProgram(VERTEX, FRAGMENT));
+        assertNotNull(mCache.getLastError());
+        assertEquals(0, mGL.getLivePrograms());
+
+        mGL.setStatus(true);
+        assertNotEquals(0, mCache.getProgram(VERTEX, FRAGMENT));
+        assertEquals(1, mCache.getCompiledCount());
+    }
+
+    @Test
+    public void startsWithoutError() {
+        mCache.getProgram(VERTEX, FRAGMENT);
+        assertNull(mCache.getLastError());
+    }
+
+    @Test
+    public void rebuildsAfterInvalidateAndDeletesOnRelease() {
+        int program = mCache.getProgram(VERTEX, FRAGMENT);
+        mCache.getProgram(VERTEX, OTHER_FRAGMENT);
+        mCache.release();
+        assertEquals(0, mGL.getLivePrograms());
+
+        mCache.getProgram(VERTEX, FRAGMENT);
+        // A lost context takes its programs along, nothing is deleted
+        mCache.invalidate();
+        assertNotEquals(program, mCache.getProgram(VERTEX, FRAGMENT));
+        assertEquals(4, mCache.getCompiledCount());
+    }
+}
@@ -0,0 +1,131 @@
+package dev.jango.camera_renderer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class SyntheticFrameSourceTest {
+    private static final int WIDTH = 16;
+    private static final int HEIGHT = 8;
+
+    @Test
+    public void generatesTheSameContentForTheSameFrame() {
+        byte[] ramp = ramp();
+        byte[] first = new byte[WIDTH * HEIGHT * 3 / 2];
+        byte[] second = new byte[first.length];
+        SyntheticFrameSource.generate(5, WIDTH, HEIGHT, ramp, first);
+        SyntheticFrameSource.generate(5, WIDTH, HEIGHT, ramp, second);
+        assertArrayEquals(first, second);
+
+        SyntheticFrameSource.generate(6, WIDTH, HEIGHT, ramp, second);
+        assertFalse(Arrays.equals(first, second));
+    }
+
+    @Test(timeout = 10000)
+    public void deliversConsecutiveFramesAtMaxRate() throws Exception {
+        SyntheticFrameSource source = new SyntheticFrameSource(WIDTH, HEIGHT, 30, true);
+        Collector collector = new Collector(20);
+        long start = System.nanoTime();
+        source.start(collector);
+        collector.await();
+        source.stop();
+        // Far quicker than 20 frames at 30 fps
+        assertTrue(System.nanoTime() - start < 500000000L);
+        assertFalse(source.isReady());
+
+        byte[] ramp = ramp();
+        byte[] expected = new byte[WIDTH * HEIGHT * 3 / 2];
+        List<byte[]> frames = collector.getFrames();
+        for (int i = 0; i < 20; i++) {
+            SyntheticFrameSource.generate(i, WIDTH, HEIGHT, ramp, expected);
+            assertArrayEquals("Frame " + i, expected, frames.get(i));
+        }
+        assertTrue(source.getDeliveredCount() >= 20);
+    }
+
+    @Test(timeout = 10000)
+    public void pacesFramesAtTheFrameRate() throws Exception {
+        SyntheticFrameSource source = new SyntheticFrameSource(WIDTH, HEIGHT, 50, false);
+        Collector collector = new Collector(6);
+        source.start(collector);
+        collector.await();
+        assertTrue(source.isReady());
+        assertEquals(WIDTH, source.getWidth());
+        assertEquals(HEIGHT, source.getHeight());
+        source.stop();
+
+        List<Long> timestamps = collector.getTimestamps();
+        // Five intervals of 20 ms, with some slack for the timer
+        assertTrue(timestamps.get(5) - timestamps.get(0) >= 90000000L);
+    }
+
+    @Test(timeout = 10000)
+    public void stopsDelivering() throws Exception {
+        SyntheticFrameSource source = new SyntheticFrameSource(WIDTH, HEIGHT, 30, true);
+        Collector collector = new Collector(1);
+        source.start(collector);
+        collector.await();
+        source.stop();
+        int count = collector.getFrames().size();
+        Thread.sleep(20);
+        assertEquals(count, collector.getFrames().size());
+    }
+
+    private static byte[] ramp() {
+        byte[] ramp = new byte[WIDTH + HEIGHT + 256];
+        for (int i = 0; i < ramp.length; i++) {
+            ramp[i] = (byte) i;
+        }
+        return ramp;
+    }
+
+    /**
+     * Keeps a copy of every frame delivered.
+     */
+    static final class Collector implements FrameSource.Listener {
+        private final CountDownLatch mLatch;
+        private final List<byte[]> mFrames = new ArrayList<byte[]>();
+        private final List<Long> mTimestamps = new ArrayList<Long>();
+        private final List<Integer> mWidths = new ArrayList<Integer>();
+
+        Collector(int count) {
+            mLatch = new CountDownLatch(count);
+        }
+
+        @Override
+        public boolean onFrame(byte[] data, int width, int height, long timestampNanos) {
+            synchronized (this) {
+                mFrames.add(Arrays.copyOf(data, width * height * 3 / 2));
+                mTimestamps.add(timestampNanos);
+                mWidths.add(width);
+            }
+            mLatch.countDown();
+            return true;
+        }
+
+        void await() throws InterruptedException {
+            if (!mLatch.await(5, TimeUnit.SECONDS)) throw new AssertionError("Too few frames delivered");
+        }
+
+        synchronized List<byte[]> getFrames() {
+            return new ArrayList<byte[]>(mFrames);
+        }
+
+        synchronized List<Long> getTimestamps() {
+            return new ArrayList<Long>(mTimestamps);
+        }
+
+        synchronized List<Integer> getWidths() {
+            return new ArrayList<Integer>(mWidths);
+        }
+    }
+}
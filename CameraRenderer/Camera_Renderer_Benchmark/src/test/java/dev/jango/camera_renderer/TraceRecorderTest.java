@@ -0,0 +1,344 @@
+package dev.jango.camera_renderer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Parses the traces written and checks them against the Chrome trace event format.
+ */
+public class TraceRecorderTest {
+    @Rule
+    public final TemporaryFolder mFolder = new TemporaryFolder();
+
+    @Test
+    public void recordsNothingWhileDisabled() throws Exception {
+        TraceRecorder recorder = new TraceRecorder();
+        assertFalse(recorder.isEnabled());
+        recorder.begin(TraceRecorder.Event.Frame);
+        recorder.instant(TraceRecorder.Event.Swap);
+        recorder.end(TraceRecorder.Event.Frame);
+        StringWriter writer = new StringWriter();
+        assertEquals(0, recorder.writeChromeTrace(writer));
+        assertTrue(events(writer).isEmpty());
+    }
+
+    @Test
+    public void writesTheNestedEventsOfEveryThread() throws Exception {
+        final TraceRecorder recorder = new TraceRecorder();
+        recorder.setEnabled(true);
+        long before = System.nanoTime();
+        recorder.begin(TraceRecorder.Event.Frame);
+        recorder.begin(TraceRecorder.Event.Draw, 2, 0);
+        recorder.end(TraceRecorder.Event.Draw);
+        recorder.instant(TraceRecorder.Event.Swap);
+        recorder.end(TraceRecorder.Event.Frame);
+        Thread camera = new Thread("camera") {
+            @Override
+            public void run() {
+                recorder.begin(TraceRecorder.Event.Callback, 640, 480);
+                recorder.end(TraceRecorder.Event.Callback);
+            }
+        };
+        camera.start();
+        camera.join();
+        long after = System.nanoTime();
+
+        StringWriter writer = new StringWriter();
+        assertEquals(7, recorder.writeChromeTrace(writer));
+        assertEquals("ns", parse(writer).get("displayTimeUnit"));
+
+        List<Map<String, Object>> main = thread(events(writer), Thread.currentThread());
+        assertEquals(6, main.size());
+        assertEquals(Thread.currentThread().getName(), args(main.get(0)).get("name"));
+        assertEvent(main.get(1), "Frame", "B");
+        assertEvent(main.get(2), "Draw", "B");
+        assertEquals(2.0, args(main.get(2)).get("mode"));
+        assertEvent(main.get(3), "Draw", "E");
+        assertNull(main.get(3).get("args"));
+        assertEvent(main.get(4), "Swap", "i");
+        assertEquals("t", main.get(4).get("s"));
+        assertEvent(main.get(5), "Frame", "E");
+        assertInOrder(main);
+        // Microseconds
+        assertTrue((Double) main.get(1).get("ts") >= before / 1000 - 1);
+        assertTrue((Double) main.get(5).get("ts") <= after / 1000 + 1);
+
+        List<Map<String, Object>> callback = thread(events(writer), camera);
+        assertEquals(3, callback.size());
+        assertEquals("camera", args(callback.get(0)).get("name"));
+        assertEvent(callback.get(1), "Callback", "B");
+        assertEquals(640.0, args(callback.get(1)).get("width"));
+        assertEquals(480.0, args(callback.get(1)).get("height"));
+        assertEvent(callback.get(2), "Callback", "E");
+    }
+
+    // The oldest slot of a full ring is the next one written, it is left out
+    @Test
+    public void keepsTheLatestEventsOfAFullRing() throws Exception {
+        TraceRecorder recorder = new TraceRecorder(5);
+        recorder.setEnabled(true);
+        for (int i = 0; i < 5; i++) {
+            recorder.begin(TraceRecorder.Event.Upload);
+            recorder.end(TraceRecorder.Event.Upload, i, 0);
+        }
+        StringWriter writer = new StringWriter();
+        assertEquals(4, recorder.writeChromeTrace(writer));
+        List<Map<String, Object>> events = thread(events(writer), Thread.currentThread());
+        assertEvent(events.get(1), "Upload", "B");
+        assertEquals(3.0, args(events.get(2)).get("bytes"));
+        assertEquals(4.0, args(events.get(4)).get("bytes"));
+        assertInOrder(events);
+    }
+
+    // An end whose begin was overwritten would close a slice the viewer never saw
+    @Test
+    public void leavesOutEndsWithoutTheirBegin() throws Exception {
+        TraceRecorder recorder = new TraceRecorder(3);
+        recorder.setEnabled(true);
+        recorder.begin(TraceRecorder.Event.Frame);
+        recorder.begin(TraceRecorder.Event.Draw);
+        recorder.end(TraceRecorder.Event.Draw);
+        recorder.end(TraceRecorder.Event.Frame);
+        StringWriter writer = new StringWriter();
+        assertEquals(0, recorder.writeChromeTrace(writer));
+
+        recorder.begin(TraceRecorder.Event.Frame);
+        writer = new StringWriter();
+        assertEquals(1, recorder.writeChromeTrace(writer));
+        assertEvent(thread(events(writer), Thread.currentThread()).get(1), "Frame", "B");
+    }
+
+    @Test
+    public void forgetsClearedEvents() throws Exception {
+        TraceRecorder recorder = new TraceRecorder();
+        recorder.setEnabled(true);
+        recorder.instant(TraceRecorder.Event.Swap);
+        recorder.setEnabled(false);
+        recorder.clear();
+        assertEquals(0, recorder.writeChromeTrace(new StringWriter()));
+
+        recorder.setEnabled(true);
+        recorder.instant(TraceRecorder.Event.Swap);
+        assertEquals(1, recorder.writeChromeTrace(new StringWriter()));
+    }
+
+    @Test
+    public void writesAFileWithEscapedThreadNames() throws Exception {
+        final TraceRecorder recorder = new TraceRecorder();
+        recorder.setEnabled(true);
+        final String name = "gl \"1\" \\\n";
+        Thread gl = new Thread(name) {
+            @Override
+            public void run() {
+                recorder.instant(TraceRecorder.Event.Swap);
+            }
+        };
+        gl.start();
+        gl.join();
+
+        File file = new File(mFolder.getRoot(), "trace.json");
+        assertEquals(1, recorder.writeChromeTrace(file));
+        Reader reader = new InputStreamReader(new FileInputStream(file), "UTF-8");
+        StringBuilder json = new StringBuilder();
+        try {
+            char[] buffer = new char[1024];
+            for (int read; (read = reader.read(buffer)) > 0; ) {
+                json.append(buffer, 0, read);
+            }
+        } finally {
+            reader.close();
+        }
+        List<Map<String, Object>> events = thread(events(json.toString()), gl);
+        assertEquals(name, args(events.get(0)).get("name"));
+        assertEvent(events.get(1), "Swap", "i");
+    }
+
+    private static void assertEvent(Map<String, Object> event, String name, String phase) {
+        assertEquals(name, event.get("name"));
+        assertEquals(phase, event.get("ph"));
+        assertEquals(1.0, event.get("pid"));
+        assertTrue(event.get("ts") instanceof Double);
+    }
+
+    private static void assertInOrder(List<Map<String, Object>> events) {
+        for (int i = 2; i < events.size(); i++) {
+            assertTrue((Double) events.get(i - 1).get("ts") <= (Double) events.get(i).get("ts"));
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> args(Map<String, Object> event) {
+        return (Map<String, Object>) event.get("args");
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> parse(Object json) {
+        return (Map<String, Object>) new JsonParser(json.toString()).parseDocument();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Map<String, Object>> events(Object json) {
+        return (List<Map<String, Object>>) parse(json).get("traceEvents");
+    }
+
+    /**
+     * Events of <code>thread</code>, its name metadata first.
+     */
+    private static List<Map<String, Object>> thread(List<Map<String, Object>> events, Thread thread) {
+        List<Map<String, Object>> selected = new ArrayList<Map<String, Object>>();
+        for (Map<String, Object> event : events) {
+            if (((Double) event.get("tid")).longValue() == thread.getId()) selected.add(event);
+        }
+        assertEquals("M", selected.get(0).get("ph"));
+        assertEquals("thread_name", selected.get(0).get("name"));
+        return selected;
+    }
+
+    /**
+     * Strict parser for the JSON the recorder writes: objects, arrays, strings and numbers.
+     */
+    private static final class JsonParser {
+        private final String mText;
+        private int mPosition = 0;
+
+        JsonParser(String text) {
+            mText = text;
+        }
+
+        Object parseDocument() {
+            Object value = parseValue();
+            skipWhitespace();
+            if (mPosition != mText.length()) throw error("Trailing characters");
+            return value;
+        }
+
+        private Object parseValue() {
+            skipWhitespace();
+            if (mPosition == mText.length()) throw error("Unexpected end");
+            char c = mText.charAt(mPosition);
+            if (c == '{') return parseObject();
+            if (c == '[') return parseArray();
+            if (c == '"') return parseString();
+            return parseNumber();
+        }
+
+        private Map<String, Object> parseObject() {
+            Map<String, Object> object = new LinkedHashMap<String, Object>();
+            expect('{');
+            skipWhitespace();
+            if (peek() == '}') {
+                mPosition++;
+                return object;
+            }
+            do {
+                skipWhitespace();
+                String key = parseString();
+                skipWhitespace();
+                expect(':');
+                if (object.put(key, parseValue()) != null) throw error("Duplicate key " + key);
+                skipWhitespace();
+            } while (tryConsume(','));
+            expect('}');
+            return object;
+        }
+
+        private List<Object> parseArray() {
+            List<Object> array = new ArrayList<Object>();
+            expect('[');
+            skipWhitespace();
+            if (peek() == ']') {
+                mPosition++;
+                return array;
+            }
+            do {
+                array.add(parseValue());
+                skipWhitespace();
+            } while (tryConsume(','));
+            expect(']');
+            return array;
+        }
+
+        private String parseString() {
+            expect('"');
+            StringBuilder builder = new StringBuilder();
+            while (true) {
+                char c = next();
+                if (c == '"') return builder.toString();
+                if (c < 0x20) throw error("Unescaped control character");
+                if (c != '\\') {
+                    builder.append(c);
+                    continue;
+                }
+                c = next();
+                if (c == 'u') {
+                    builder.append((char) Integer.parseInt(mText.substring(mPosition, mPosition + 4), 16));
+                    mPosition += 4;
+                } else if (c == 'n') {
+                    builder.append('\n');
+                } else if (c == '"' || c == '\\' || c == '/') {
+                    builder.append(c);
+                } else {
+                    throw error("Unsupported escape " + c);
+                }
+            }
+        }
+
+        private Double parseNumber() {
+            int start = mPosition;
+            while (mPosition < mText.length() && "-+.eE0123456789".indexOf(mText.charAt(mPosition)) >= 0) {
+                mPosition++;
+            }
+            if (start == mPosition) throw error("Unexpected character");
+            return Double.valueOf(mText.substring(start, mPosition));
+        }
+
+        private void skipWhitespace() {
+            while (mPosition < mText.length() && Character.isWhitespace(mText.charAt(mPosition))) {
+                mPosition++;
+            }
+        }
+
+        private char peek() {
+            if (mPosition == mText.length()) throw error("Unexpected end");
+            return mText.charAt(mPosition);
+        }
+
+        private char next() {
+            char c = peek();
+            mPosition++;
+            return c;
+        }
+
+        private boolean tryConsume(char c) {
+            if (mPosition < mText.length() && mText.charAt(mPosition) == c) {
+                mPosition++;
+                return true;
+            }
+            return false;
+        }
+
+        private void expect(char c) {
+            if (next() != c) throw error("Expected " + c);
+        }
+
+        private IllegalArgumentException error(String message) {
+            return new IllegalArgumentException(message + " at " + mPosition);
+        }
+    }
+}